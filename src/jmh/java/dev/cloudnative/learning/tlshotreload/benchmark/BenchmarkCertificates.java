@@ -0,0 +1,253 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.pem.PemSslStoreBundle;
+import org.springframework.boot.ssl.pem.PemSslStoreDetails;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Generates PEM certificates and keys for benchmarks and load tests, either self-signed or issued
+ * by a generated {@link Authority} so that they can be re-issued without changing the trust material.
+ * <p>
+ * The key pairs and certificates are created with the JDK's {@code keytool}, so no additional
+ * dependency is needed, and then written as a PEM certificate and an unencrypted PKCS#8 key,
+ * the same format the "self" and "remote" bundles are configured with.
+ */
+public final class BenchmarkCertificates {
+
+    private static final Base64.Encoder PEM_ENCODER = Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII));
+    private static final String PASSWORD = "changeit";
+    private static final String AUTHORITY_ALIAS = "authority";
+    private static final String SAN = "SAN=dns:localhost,ip:127.0.0.1";
+
+    private BenchmarkCertificates() {
+    }
+
+    /**
+     * A generated certificate and private key.
+     *
+     * @param certificate The PEM certificate file.
+     * @param privateKey  The PEM PKCS#8 private key file.
+     */
+    public record Pem(Path certificate, Path privateKey) {
+
+        /**
+         * @param trusted The certificate to trust.
+         * @return A bundle with this key pair as key store and the trusted certificate as trust store.
+         */
+        public SslBundle keyStoreBundle(Pem trusted) {
+            return keyStoreBundle(trusted.certificate());
+        }
+
+        /**
+         * @param trustedCertificate The PEM file of the certificates to trust.
+         * @return A bundle with this key pair as key store and the trusted certificates as trust store.
+         */
+        public SslBundle keyStoreBundle(Path trustedCertificate) {
+            return SslBundle.of(new PemSslStoreBundle(
+                    PemSslStoreDetails.forCertificate(location(certificate)).withPrivateKey(location(privateKey)),
+                    PemSslStoreDetails.forCertificate(location(trustedCertificate))));
+        }
+
+        /**
+         * Replaces the files of the target with the content of these files, the private key first.
+         *
+         * @param target The files to replace.
+         * @throws IOException if the files cannot be read or written.
+         */
+        public void installAs(Pem target) throws IOException {
+            replace(target.privateKey(), Files.readString(privateKey, StandardCharsets.US_ASCII));
+            replace(target.certificate(), Files.readString(certificate, StandardCharsets.US_ASCII));
+        }
+
+        private static String location(Path path) {
+            return "file:" + path.toAbsolutePath();
+        }
+    }
+
+    /**
+     * A generated certificate authority that can issue further certificates.
+     *
+     * @param keyStore    The PKCS#12 key store holding the authority's key pair.
+     * @param certificate The PEM certificate file of the authority, to be used as trust material.
+     */
+    public record Authority(Path keyStore, Path certificate) {
+
+        /**
+         * @return A bundle without key store that trusts every certificate issued by this authority.
+         */
+        public SslBundle trustStoreBundle() {
+            return SslBundle.of(new PemSslStoreBundle(null, PemSslStoreDetails.forCertificate(Pem.location(certificate))));
+        }
+    }
+
+    /**
+     * Generates a self-signed RSA certificate for {@code localhost} and writes it to the given directory.
+     *
+     * @param directory The directory the {@code <name>.crt} and {@code <name>.key} files are written to.
+     * @param name      The base name of the files and the organisation of the subject.
+     * @return The generated files.
+     * @throws IOException              if {@code keytool} fails or the files cannot be written.
+     * @throws GeneralSecurityException if the generated key store cannot be read.
+     */
+    public static Pem generate(Path directory, String name) throws IOException, GeneralSecurityException {
+        return generate(directory, name, null);
+    }
+
+    /**
+     * Generates an RSA certificate for {@code localhost} issued by the given authority and writes it to the
+     * given directory. The certificate file holds the chain of the certificate and the authority's certificate.
+     * Calling this again for the same name re-issues the certificate with a new key pair, replacing the files.
+     *
+     * @param directory The directory the {@code <name>.crt} and {@code <name>.key} files are written to.
+     * @param name      The base name of the files and the organisation of the subject.
+     * @param authority The issuing authority, or null for a self-signed certificate.
+     * @return The generated files.
+     * @throws IOException              if {@code keytool} fails or the files cannot be written.
+     * @throws GeneralSecurityException if the generated key store cannot be read.
+     */
+    public static Pem generate(Path directory, String name, Authority authority) throws IOException, GeneralSecurityException {
+        Files.createDirectories(directory);
+        Path keyStoreFile = tempFile(directory, name, ".p12");
+        Path requestFile = tempFile(directory, name, ".csr");
+        Path issuedFile = tempFile(directory, name, ".cer");
+        try {
+            keytool("-genkeypair", "-alias", name, "-keyalg", "RSA", "-keysize", "2048", "-validity", "365",
+                    "-dname", "CN=localhost,O=" + name, "-ext", SAN,
+                    "-storetype", "PKCS12", "-keystore", keyStoreFile.toString(),
+                    "-storepass", PASSWORD, "-keypass", PASSWORD);
+            KeyStore keyStore = load(keyStoreFile);
+            PrivateKey privateKey = (PrivateKey) keyStore.getKey(name, PASSWORD.toCharArray());
+
+            List<Certificate> chain = new ArrayList<>();
+            if (authority == null) {
+                chain.add(keyStore.getCertificate(name));
+            } else {
+                keytool("-certreq", "-alias", name, "-keystore", keyStoreFile.toString(), "-storepass", PASSWORD,
+                        "-file", requestFile.toString());
+                keytool("-gencert", "-alias", AUTHORITY_ALIAS, "-keystore", authority.keyStore().toString(),
+                        "-storepass", PASSWORD, "-validity", "365", "-ext", SAN, "-rfc",
+                        "-infile", requestFile.toString(), "-outfile", issuedFile.toString());
+                try (InputStream in = Files.newInputStream(issuedFile)) {
+                    chain.add(CertificateFactory.getInstance("X.509").generateCertificate(in));
+                }
+                chain.add(load(authority.keyStore()).getCertificate(AUTHORITY_ALIAS));
+            }
+
+            Pem pem = new Pem(directory.resolve(name + ".crt"), directory.resolve(name + ".key"));
+            write(pem.privateKey(), "PRIVATE KEY", List.of(privateKey.getEncoded()));
+            write(pem.certificate(), "CERTIFICATE", encoded(chain));
+            return pem;
+        } finally {
+            Files.deleteIfExists(keyStoreFile);
+            Files.deleteIfExists(requestFile);
+            Files.deleteIfExists(issuedFile);
+        }
+    }
+
+    /**
+     * Generates a self-signed RSA certificate authority and writes its key store and PEM certificate
+     * to the given directory.
+     *
+     * @param directory The directory the {@code <name>.p12} and {@code <name>.crt} files are written to.
+     * @param name      The base name of the files and the organisation of the subject.
+     * @return The generated authority.
+     * @throws IOException              if {@code keytool} fails or the files cannot be written.
+     * @throws GeneralSecurityException if the generated key store cannot be read.
+     */
+    public static Authority generateAuthority(Path directory, String name) throws IOException, GeneralSecurityException {
+        Files.createDirectories(directory);
+        Authority authority = new Authority(directory.resolve(name + ".p12"), directory.resolve(name + ".crt"));
+        Files.deleteIfExists(authority.keyStore());
+        keytool("-genkeypair", "-alias", AUTHORITY_ALIAS, "-keyalg", "RSA", "-keysize", "2048", "-validity", "365",
+                "-dname", "CN=" + name + ",O=" + name, "-ext", "bc:c",
+                "-storetype", "PKCS12", "-keystore", authority.keyStore().toString(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD);
+        write(authority.certificate(), "CERTIFICATE",
+                encoded(List.of(load(authority.keyStore()).getCertificate(AUTHORITY_ALIAS))));
+        return authority;
+    }
+
+    /**
+     * Rewrites a PEM file with its current content, which makes a watching bundle reload it.
+     *
+     * @param file The PEM file to touch.
+     * @throws IOException if the file cannot be read or written.
+     */
+    public static void rewrite(Path file) throws IOException {
+        replace(file, Files.readString(file, StandardCharsets.US_ASCII));
+    }
+
+    private static KeyStore load(Path keyStoreFile) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keyStoreFile)) {
+            keyStore.load(in, PASSWORD.toCharArray());
+        }
+        return keyStore;
+    }
+
+    private static List<byte[]> encoded(List<Certificate> certificates) throws CertificateEncodingException {
+        List<byte[]> encoded = new ArrayList<>();
+        for (Certificate certificate : certificates) {
+            encoded.add(certificate.getEncoded());
+        }
+        return encoded;
+    }
+
+    private static Path tempFile(Path directory, String name, String suffix) throws IOException {
+        Path file = Files.createTempFile(directory, name, suffix);
+        Files.delete(file);
+        return file;
+    }
+
+    /**
+     * Writes a PEM file through a temporary file and an atomic move, so a file watcher never
+     * observes a partially written file.
+     */
+    private static void write(Path file, String type, List<byte[]> ders) throws IOException {
+        StringBuilder pem = new StringBuilder();
+        for (byte[] der : ders) {
+            pem.append("-----BEGIN ").append(type).append("-----\n")
+                    .append(PEM_ENCODER.encodeToString(der))
+                    .append("\n-----END ").append(type).append("-----\n");
+        }
+        replace(file, pem.toString());
+    }
+
+    private static void replace(Path file, String content) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        Files.writeString(temp, content, StandardCharsets.US_ASCII);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void keytool(String... args) throws IOException {
+        String[] command = new String[args.length + 1];
+        command[0] = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+        System.arraycopy(args, 0, command, 1, args.length);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try {
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            if (process.waitFor() != 0) {
+                throw new IOException("keytool failed: " + output);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for keytool", e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import dev.cloudnative.learning.tlshotreload.x509.CertificateLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.ssl.SslBundle;
+
+import javax.net.ssl.X509KeyManager;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of {@link CertificateLogger#logCertificates(String, X509Certificate[])} on the
+ * handshake thread, for a chain that is seen on every handshake.
+ * <p>
+ * In {@link CertificateLogger.Mode#FULL} mode every call formats and appends seven log lines; in
+ * {@link CertificateLogger.Mode#DEDUPLICATED} mode a repeated chain is only fingerprinted and counted.
+ * The contended variant shows the effect of the shared cache lock and of the appender under
+ * concurrent handshakes. Log output goes to {@code target/benchmark.log}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class CertificateLoggerBenchmark {
+
+    @Param({"FULL", "DEDUPLICATED"})
+    private CertificateLogger.Mode mode;
+
+    private X509Certificate[] chain;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path directory = Files.createTempDirectory("tls-benchmark");
+        BenchmarkCertificates.Pem server = BenchmarkCertificates.generate(directory, "server");
+        SslBundle bundle = server.keyStoreBundle(server);
+        X509KeyManager keyManager = (X509KeyManager) bundle.getManagers().getKeyManagers()[0];
+        chain = keyManager.getCertificateChain(keyManager.chooseServerAlias("RSA", null, null));
+        CertificateLogger.configure(mode, 1024, Duration.ofHours(1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println("Chains dropped by the background logger: " + CertificateLogger.droppedCount());
+    }
+
+    @Benchmark
+    public void log() {
+        CertificateLogger.logCertificates("SERVER", chain);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logContended() {
+        CertificateLogger.logCertificates("SERVER", chain);
+    }
+}
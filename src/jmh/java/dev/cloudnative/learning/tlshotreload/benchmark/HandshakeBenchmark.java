@@ -0,0 +1,121 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import dev.cloudnative.learning.tlshotreload.x509.CachingTrustManager;
+import dev.cloudnative.learning.tlshotreload.x509.LoggingKeyManager;
+import dev.cloudnative.learning.tlshotreload.x509.LoggingTrustManager;
+import dev.cloudnative.learning.tlshotreload.x509.LoopbackHandshake;
+import dev.cloudnative.learning.tlshotreload.x509.TlsMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.ssl.SslBundle;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509TrustManager;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures complete mutual TLS handshakes between two in-memory {@link SSLEngine}s, using
+ * certificates generated for the trial, with the trust managers the application installs. The
+ * records are exchanged by the {@link LoopbackHandshake} the material validation also runs.
+ * <p>
+ * Engines are created without a peer host, so no session is ever resumed and every handshake
+ * performs the full key exchange and both trust checks. The key managers are either the bundle's own
+ * or wrapped with the {@link LoggingKeyManager}, which the engines call through its engine overloads
+ * and which times alias selection and logs the chain on both sides.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class HandshakeBenchmark {
+
+    /**
+     * How the trust managers of both engines are decorated.
+     */
+    public enum TrustManagers {
+        RAW, LOGGING, LOGGING_CACHED
+    }
+
+    /**
+     * How the key managers of both engines are decorated.
+     */
+    public enum KeyManagers {
+        RAW, LOGGING
+    }
+
+    @Param({"RAW", "LOGGING", "LOGGING_CACHED"})
+    private TrustManagers trustManagers;
+
+    @Param({"RAW", "LOGGING"})
+    private KeyManagers keyManagers;
+
+    @Param({"TLSv1.3", "TLSv1.2"})
+    private String protocol;
+
+    private SSLContext clientContext;
+    private SSLContext serverContext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path directory = Files.createTempDirectory("tls-benchmark");
+        BenchmarkCertificates.Pem server = BenchmarkCertificates.generate(directory, "server");
+        BenchmarkCertificates.Pem client = BenchmarkCertificates.generate(directory, "client");
+
+        TlsMetrics metrics = new TlsMetrics();
+        metrics.bindTo(new SimpleMeterRegistry());
+
+        clientContext = contextOf(client.keyStoreBundle(server), metrics, "remote");
+        serverContext = contextOf(server.keyStoreBundle(client), metrics, "self");
+    }
+
+    private SSLContext contextOf(SslBundle bundle, TlsMetrics metrics, String bundleName) throws Exception {
+        X509TrustManager trustManager = (X509TrustManager) bundle.getManagers().getTrustManagers()[0];
+        TrustManager decorated = switch (trustManagers) {
+            case RAW -> trustManager;
+            case LOGGING -> new LoggingTrustManager(trustManager, metrics, bundleName);
+            case LOGGING_CACHED -> new LoggingTrustManager(
+                    new CachingTrustManager(trustManager, 1024, new CachingTrustManager.Statistics()), metrics, bundleName);
+        };
+        X509KeyManager keyManager = (X509KeyManager) bundle.getManagers().getKeyManagers()[0];
+        KeyManager decoratedKeyManager = switch (keyManagers) {
+            case RAW -> keyManager;
+            case LOGGING -> new LoggingKeyManager(keyManager, metrics, bundleName);
+        };
+        SSLContext context = SSLContext.getInstance(protocol);
+        context.init(new KeyManager[]{decoratedKeyManager}, new TrustManager[]{decorated}, null);
+        return context;
+    }
+
+    @Benchmark
+    public SSLEngine handshake() throws SSLException {
+        SSLEngine client = clientContext.createSSLEngine();
+        client.setUseClientMode(true);
+        client.setEnabledProtocols(new String[]{protocol});
+        SSLEngine server = serverContext.createSSLEngine();
+        server.setUseClientMode(false);
+        server.setNeedClientAuth(true);
+        server.setEnabledProtocols(new String[]{protocol});
+        LoopbackHandshake.complete(client, server);
+        return server;
+    }
+}
@@ -0,0 +1,102 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import dev.cloudnative.learning.tlshotreload.Application;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares many parallel HTTP/1.1 connections with HTTP/2 streams multiplexed over one connection
+ * to the mutual TLS connector, for different stream concurrency limits.
+ * <p>
+ * The benchmark threads call {@code /api/health} of a server instance through one shared JDK client.
+ * Over HTTP/1.1 the client opens a connection, and performs a full handshake, for every concurrent
+ * request; over HTTP/2 it sends all requests as streams of a single connection, of which the server
+ * accepts at most {@code maxConcurrentStreams} and processes {@code maxConcurrentStreamExecution} at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(64)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class Http2MultiplexingBenchmark {
+
+    @Param({"HTTP_1_1", "HTTP_2"})
+    private HttpClient.Version version;
+
+    @Param({"100"})
+    private int maxConcurrentStreams;
+
+    @Param({"20"})
+    private int maxConcurrentStreamExecution;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient httpClient;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path directory = Files.createTempDirectory("tls-benchmark");
+        BenchmarkCertificates.Authority authority = BenchmarkCertificates.generateAuthority(directory, "authority");
+        BenchmarkCertificates.Pem server = BenchmarkCertificates.generate(directory, "server", authority);
+        BenchmarkCertificates.Pem client = BenchmarkCertificates.generate(directory, "client", authority);
+
+        context = new SpringApplicationBuilder(Application.class).run(
+                "--logging.config=classpath:logback-benchmark.xml",
+                "--server.port=0",
+                "--management.server.port=0",
+                "--server.http2.max-concurrent-streams=" + maxConcurrentStreams,
+                "--server.http2.max-concurrent-stream-execution=" + maxConcurrentStreamExecution,
+                "--spring.ssl.bundle.pem.self.keystore.certificate=file:" + server.certificate(),
+                "--spring.ssl.bundle.pem.self.keystore.private-key=file:" + server.privateKey(),
+                "--spring.ssl.bundle.pem.remote.truststore.certificate=file:" + authority.certificate(),
+                "--remote.warm-up.enabled=false");
+
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        httpClient = HttpClient.newBuilder()
+                .version(version)
+                .sslContext(client.keyStoreBundle(authority.certificate()).createSslContext())
+                .build();
+        request = HttpRequest.newBuilder(URI.create("https://localhost:" + port + "/api/health")).GET().build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        httpClient.close();
+        context.close();
+    }
+
+    @Benchmark
+    public int health() throws IOException, InterruptedException {
+        HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200 || response.version() != version) {
+            throw new IllegalStateException("Server answered " + response.statusCode() + " over " + response.version());
+        }
+        return response.statusCode();
+    }
+}
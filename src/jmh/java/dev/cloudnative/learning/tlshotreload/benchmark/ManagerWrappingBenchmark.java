@@ -0,0 +1,102 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import dev.cloudnative.learning.tlshotreload.x509.CachingTrustManager;
+import dev.cloudnative.learning.tlshotreload.x509.LoggingKeyManager;
+import dev.cloudnative.learning.tlshotreload.x509.LoggingTrustManager;
+import dev.cloudnative.learning.tlshotreload.x509.TlsMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.boot.ssl.SslBundle;
+
+import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509TrustManager;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead the logging and caching decorators add to the key and trust manager calls
+ * made during every handshake, compared to the bundle's own managers.
+ * <p>
+ * The decorated managers record into a bound {@link TlsMetrics} and log through the default
+ * deduplicating {@code CertificateLogger}, as they do in the application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class ManagerWrappingBenchmark {
+
+    private static final String[] KEY_TYPES = {"RSA"};
+
+    private X509Certificate[] serverChain;
+    private X509TrustManager rawTrustManager;
+    private X509TrustManager loggingTrustManager;
+    private X509TrustManager cachingTrustManager;
+    private X509KeyManager rawKeyManager;
+    private X509KeyManager loggingKeyManager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path directory = Files.createTempDirectory("tls-benchmark");
+        BenchmarkCertificates.Pem server = BenchmarkCertificates.generate(directory, "server");
+        BenchmarkCertificates.Pem client = BenchmarkCertificates.generate(directory, "client");
+
+        SslBundle clientBundle = client.keyStoreBundle(server);
+        SslBundle serverBundle = server.keyStoreBundle(client);
+
+        TlsMetrics metrics = new TlsMetrics();
+        metrics.bindTo(new SimpleMeterRegistry());
+
+        X509KeyManager serverKeyManager = (X509KeyManager) serverBundle.getManagers().getKeyManagers()[0];
+        serverChain = serverKeyManager.getCertificateChain(serverKeyManager.chooseServerAlias("RSA", null, null));
+
+        rawTrustManager = (X509TrustManager) clientBundle.getManagers().getTrustManagers()[0];
+        loggingTrustManager = new LoggingTrustManager(rawTrustManager, metrics, "remote");
+        cachingTrustManager = new LoggingTrustManager(
+                new CachingTrustManager(rawTrustManager, 1024, new CachingTrustManager.Statistics()), metrics, "remote");
+
+        rawKeyManager = (X509KeyManager) clientBundle.getManagers().getKeyManagers()[0];
+        loggingKeyManager = new LoggingKeyManager(rawKeyManager, metrics, "remote");
+    }
+
+    @Benchmark
+    public void trustCheckRaw() throws CertificateException {
+        rawTrustManager.checkServerTrusted(serverChain, "RSA");
+    }
+
+    @Benchmark
+    public void trustCheckLogging() throws CertificateException {
+        loggingTrustManager.checkServerTrusted(serverChain, "RSA");
+    }
+
+    @Benchmark
+    public void trustCheckLoggingCached() throws CertificateException {
+        cachingTrustManager.checkServerTrusted(serverChain, "RSA");
+    }
+
+    @Benchmark
+    public void keySelectionRaw(Blackhole blackhole) {
+        blackhole.consume(rawKeyManager.getCertificateChain(rawKeyManager.chooseClientAlias(KEY_TYPES, null, null)));
+    }
+
+    @Benchmark
+    public void keySelectionLogging(Blackhole blackhole) {
+        blackhole.consume(loggingKeyManager.getCertificateChain(loggingKeyManager.chooseClientAlias(KEY_TYPES, null, null)));
+    }
+}
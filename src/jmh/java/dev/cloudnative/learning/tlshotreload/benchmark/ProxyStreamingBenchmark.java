@@ -0,0 +1,170 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import dev.cloudnative.learning.tlshotreload.Application;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@code buffered} and {@code streaming} modes of the {@code /api/test} proxy endpoint for
+ * payloads up to several megabytes.
+ * <p>
+ * A client-profile instance of the application proxies to an HTTPS stub that answers with a fixed payload,
+ * chunked or with its length, written in parts of 16 KiB. {@code exchange} measures the time to receive the
+ * whole body, {@code firstByte} the time until the first byte of the body has been received; the rest of
+ * that body is read outside the measurement. Run with {@code -prof gc} to compare the allocation per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class ProxyStreamingBenchmark {
+
+    private static final int PART = 16 * 1024;
+
+    @Param({"BUFFERED", "STREAMING"})
+    private String proxyMode;
+
+    @Param({"16", "4096"})
+    private int payloadKiB;
+
+    @Param({"true", "false"})
+    private boolean chunked;
+
+    private ExecutorService remoteExecutor;
+    private HttpsServer remote;
+    private ConfigurableApplicationContext context;
+    private HttpClient httpClient;
+    private HttpRequest request;
+
+    /**
+     * The body of a {@code firstByte} invocation, read to its end after the measurement.
+     */
+    @State(Scope.Thread)
+    public static class Body {
+
+        private InputStream in;
+
+        @TearDown(Level.Invocation)
+        public void drain() throws IOException {
+            if (in != null) {
+                try (InputStream body = in) {
+                    body.transferTo(OutputStream.nullOutputStream());
+                }
+                in = null;
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path directory = Files.createTempDirectory("tls-benchmark");
+        BenchmarkCertificates.Authority authority = BenchmarkCertificates.generateAuthority(directory, "authority");
+        BenchmarkCertificates.Pem server = BenchmarkCertificates.generate(directory, "server", authority);
+        BenchmarkCertificates.Pem client = BenchmarkCertificates.generate(directory, "client", authority);
+
+        // Text, so that the buffered mode decodes and re-encodes it without changing its length
+        byte[] payload = new byte[payloadKiB * 1024];
+        Random random = new Random(42);
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) ('a' + random.nextInt(26));
+        }
+        remoteExecutor = Executors.newCachedThreadPool();
+        remote = HttpsServer.create(new InetSocketAddress("localhost", 0), 64);
+        remote.setHttpsConfigurator(new HttpsConfigurator(server.keyStoreBundle(authority.certificate()).createSslContext()));
+        remote.setExecutor(remoteExecutor);
+        remote.createContext("/api/health", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain;charset=UTF-8");
+            exchange.sendResponseHeaders(200, chunked ? 0 : payload.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int offset = 0; offset < payload.length; offset += PART) {
+                    out.write(payload, offset, Math.min(PART, payload.length - offset));
+                    out.flush();
+                }
+            }
+        });
+        remote.start();
+
+        context = new SpringApplicationBuilder(Application.class).run(
+                "--logging.config=classpath:logback-benchmark.xml",
+                "--spring.profiles.active=client",
+                "--server.port=0",
+                "--management.server.port=0",
+                "--spring.ssl.bundle.pem.self.keystore.certificate=file:" + client.certificate(),
+                "--spring.ssl.bundle.pem.self.keystore.private-key=file:" + client.privateKey(),
+                "--spring.ssl.bundle.pem.remote.truststore.certificate=file:" + authority.certificate(),
+                "--remote.url=https://localhost:" + remote.getAddress().getPort(),
+                "--remote.proxy.mode=" + proxyMode);
+
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .sslContext(client.keyStoreBundle(authority.certificate()).createSslContext())
+                .build();
+        request = HttpRequest.newBuilder(URI.create("https://localhost:" + port + "/api/test")).GET().build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        remote.stop(0);
+        remoteExecutor.close();
+    }
+
+    @Benchmark
+    public long exchange() throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream in = response.body()) {
+            check(response);
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public int firstByte(Body body) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        body.in = response.body();
+        check(response);
+        return body.in.read();
+    }
+
+    private static void check(HttpResponse<?> response) {
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Proxy answered " + response.statusCode());
+        }
+    }
+}
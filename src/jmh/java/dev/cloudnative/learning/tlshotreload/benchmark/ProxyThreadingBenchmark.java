@@ -0,0 +1,131 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import dev.cloudnative.learning.tlshotreload.Application;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares platform and virtual request threads for the {@code /api/test} proxy endpoint when the remote
+ * service is slow to answer.
+ * <p>
+ * A client-profile instance of the application proxies to an HTTPS stub that answers after a fixed delay,
+ * so every request holds its Tomcat thread for at least that long. The benchmark threads call the proxy
+ * concurrently, more of them than Tomcat's 200 platform request threads. The remote connection pool is
+ * sized for all of them, so that only the threading model of the container limits the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(400)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+// The stub keeps every pooled connection open instead of closing those above its default of 200 idle ones
+@Fork(value = 1, jvmArgsAppend = {"-Dlogback.configurationFile=logback-benchmark.xml",
+        "-Dsun.net.httpserver.maxIdleConnections=1024"})
+public class ProxyThreadingBenchmark {
+
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+
+    @Param({"50"})
+    private int remoteDelayMillis;
+
+    private ExecutorService remoteExecutor;
+    private HttpsServer remote;
+    private ConfigurableApplicationContext context;
+    private HttpClient httpClient;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path directory = Files.createTempDirectory("tls-benchmark");
+        BenchmarkCertificates.Authority authority = BenchmarkCertificates.generateAuthority(directory, "authority");
+        BenchmarkCertificates.Pem server = BenchmarkCertificates.generate(directory, "server", authority);
+        BenchmarkCertificates.Pem client = BenchmarkCertificates.generate(directory, "client", authority);
+
+        // Platform threads, as the JDK HTTPS server pins virtual threads while it reads from the socket
+        remoteExecutor = Executors.newCachedThreadPool();
+        remote = HttpsServer.create(new InetSocketAddress("localhost", 0), 1024);
+        remote.setHttpsConfigurator(new HttpsConfigurator(server.keyStoreBundle(authority.certificate()).createSslContext()));
+        remote.setExecutor(remoteExecutor);
+        remote.createContext("/api/health", exchange -> {
+            try {
+                Thread.sleep(remoteDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "Reached remote stub".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        remote.start();
+
+        context = new SpringApplicationBuilder(Application.class).run(
+                "--logging.config=classpath:logback-benchmark.xml",
+                "--spring.profiles.active=client",
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                "--server.port=0",
+                "--management.server.port=0",
+                "--spring.ssl.bundle.pem.self.keystore.certificate=file:" + client.certificate(),
+                "--spring.ssl.bundle.pem.self.keystore.private-key=file:" + client.privateKey(),
+                "--spring.ssl.bundle.pem.remote.truststore.certificate=file:" + authority.certificate(),
+                "--remote.url=https://localhost:" + remote.getAddress().getPort(),
+                "--remote.pool.max-connections=1024");
+
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .sslContext(client.keyStoreBundle(authority.certificate()).createSslContext())
+                .build();
+        request = HttpRequest.newBuilder(URI.create("https://localhost:" + port + "/api/test")).GET().build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        remote.stop(0);
+        remoteExecutor.close();
+    }
+
+    @Benchmark
+    public int proxy() throws IOException, InterruptedException {
+        HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Proxy answered " + response.statusCode());
+        }
+        return response.statusCode();
+    }
+}
@@ -0,0 +1,80 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import dev.cloudnative.learning.tlshotreload.Application;
+import dev.cloudnative.learning.tlshotreload.x509.SSLBundleReloader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.SslBundles;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long {@link SSLBundleReloader#reloadRestClient(SslBundle)} takes to apply an update
+ * of the "remote" bundle in each reload mode, on a running application.
+ * <p>
+ * The application is started once per trial on random ports with certificates generated for the
+ * trial, and the reload is invoked directly with the current bundle, so the measurement covers
+ * staging and publishing the material and the mode's pool or bean rotation, but not the file
+ * watcher or PEM parsing. Warm-up handshakes are disabled because nothing listens on the remote URL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class ReloadBenchmark {
+
+    @Param({"swap", "drain", "rebuild"})
+    private String reloadMode;
+
+    private ConfigurableApplicationContext context;
+    private SSLBundleReloader reloader;
+    private SslBundle remote;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path directory = Files.createTempDirectory("tls-benchmark");
+        BenchmarkCertificates.Pem server = BenchmarkCertificates.generate(directory, "server");
+        BenchmarkCertificates.Pem client = BenchmarkCertificates.generate(directory, "client");
+
+        // Passed as command line arguments, which take precedence over application.yaml
+        context = new SpringApplicationBuilder(Application.class).run(
+                "--logging.config=classpath:logback-benchmark.xml",
+                "--server.port=0",
+                "--management.server.port=0",
+                "--spring.ssl.bundle.pem.self.keystore.certificate=file:" + server.certificate(),
+                "--spring.ssl.bundle.pem.self.keystore.private-key=file:" + server.privateKey(),
+                "--spring.ssl.bundle.pem.remote.truststore.certificate=file:" + client.certificate(),
+                "--remote.reload-mode=" + reloadMode,
+                "--remote.warm-up.enabled=false");
+        reloader = context.getBean(SSLBundleReloader.class);
+        remote = context.getBean(SslBundles.class).getBundle("remote");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void reload() {
+        reloader.reloadRestClient(remote);
+    }
+}
@@ -0,0 +1,401 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import dev.cloudnative.learning.tlshotreload.Application;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.ssl.SslBundles;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures live traffic while the certificates behind the "self" and "remote" bundles keep rotating.
+ * <p>
+ * A server-profile and a client-profile instance of the application are started in this JVM on random
+ * localhost ports, with certificates issued at startup by a generated authority that both "remote"
+ * bundles trust. Requests to the client's {@code /api/test}, which calls the server's {@code /api/health}
+ * over mutual TLS, are sent at a fixed rate. The run is split into windows of equal length: the first is a
+ * baseline, and at the start of every following window both certificates are replaced by newly issued ones
+ * and the trust file is rewritten, so all four bundles reload while requests are in flight.
+ * <p>
+ * Traffic starts with a warm-up period that is not measured. Requests are sent open-loop: latency is
+ * measured from the time a request was scheduled, not from when it was sent, so a stalled reload shows up
+ * as latency instead of as a lower request rate. For each window, the throughput, p50/p99/p999 latency,
+ * failed requests by cause and the observed bundle reloads are printed and written as JSON. The process
+ * exits with status 1 if any window has more failures than allowed.
+ * <p>
+ * Options, all optional, are passed as {@code --name=value}: {@code rate} (requests per second, 100),
+ * {@code windows} (6), {@code window} (15s), {@code warm-up} (10s), {@code timeout} (5s), {@code quiet-period}
+ * of the bundle file watcher (1s), {@code reload-mode} of the client (swap), {@code transport} from the client
+ * to the server (classic), {@code max-failures} per window (0) and {@code output} ({@code target/rotation-load-test.json}).
+ * With {@code --transport=h2} all proxied requests share one HTTP/2 connection to the server, which is kept
+ * open across the server's reloads. With {@code --servers=N} (1), N server instances are started on their own
+ * ports with the same certificates, and the client spreads its requests over all of them as its
+ * {@code remote.endpoints}, each with its own connection pool.
+ * <p>
+ * All instances share the static connector instrumentation, so server-side handshake metrics of one
+ * instance may be recorded by another; this does not affect the measurements.
+ */
+public final class RotationLoadTest {
+
+    private RotationLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        Path directory = Files.createTempDirectory("tls-load-test");
+        BenchmarkCertificates.Authority authority = BenchmarkCertificates.generateAuthority(directory, "authority");
+        BenchmarkCertificates.Pem server = BenchmarkCertificates.generate(directory, "server", authority);
+        BenchmarkCertificates.Pem client = BenchmarkCertificates.generate(directory, "client", authority);
+        // Issued up front, so that a rotation only replaces files and happens right at the window start
+        List<BenchmarkCertificates.Pem[]> rotations = new ArrayList<>();
+        for (int window = 1; window < options.windows(); window++) {
+            Path staging = directory.resolve("rotation-" + window);
+            rotations.add(new BenchmarkCertificates.Pem[]{
+                    BenchmarkCertificates.generate(staging, "server", authority),
+                    BenchmarkCertificates.generate(staging, "client", authority)});
+        }
+
+        Recorder recorder = new Recorder(options);
+        List<ConfigurableApplicationContext> serverContexts = new ArrayList<>();
+        List<String> endpoints = new ArrayList<>();
+        try {
+            for (int i = 1; i <= options.servers(); i++) {
+                ConfigurableApplicationContext serverContext = start(options, server, authority, null, "https://localhost:1", null);
+                serverContexts.add(serverContext);
+                endpoints.add("https://localhost:" + portOf(serverContext));
+                recorder.watchReloads(options.servers() == 1 ? "server" : "server-" + i, serverContext);
+            }
+            run(options, recorder, rotations, server, client, authority, endpoints);
+        } finally {
+            serverContexts.forEach(ConfigurableApplicationContext::close);
+        }
+
+        List<WindowReport> windows = recorder.report();
+        boolean passed = windows.stream().allMatch(window -> window.failed() <= options.maxFailures());
+        Report report = new Report(recorder.startedAt().toString(), options.reloadMode(), options.transport(),
+                options.servers(), options.rate(), options.window().toMillis() / 1000.0, options.maxFailures(), passed, windows);
+        print(report);
+        Files.createDirectories(options.output().toAbsolutePath().getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(options.output().toFile(), report);
+        System.out.println("Report written to " + options.output().toAbsolutePath());
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void run(Options options, Recorder recorder, List<BenchmarkCertificates.Pem[]> rotations,
+                            BenchmarkCertificates.Pem server, BenchmarkCertificates.Pem client,
+                            BenchmarkCertificates.Authority authority, List<String> endpoints) throws Exception {
+        try (ConfigurableApplicationContext clientContext = start(options, client, authority, "client",
+                endpoints.getFirst(), String.join(",", endpoints));
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            recorder.watchReloads("client", clientContext);
+
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .sslContext(authority.trustStoreBundle().createSslContext())
+                    .connectTimeout(options.timeout())
+                    .executor(executor)
+                    .build();
+            HttpRequest request = HttpRequest.newBuilder(URI.create("https://localhost:" + portOf(clientContext) + "/api/test"))
+                    .timeout(options.timeout())
+                    .GET()
+                    .build();
+
+            Thread rotator = Thread.ofPlatform().name("certificate-rotator").daemon().start(() -> {
+                for (int window = 1; window < options.windows(); window++) {
+                    recorder.awaitWindow(window);
+                    try {
+                        rotations.get(window - 1)[0].installAs(server);
+                        rotations.get(window - 1)[1].installAs(client);
+                        BenchmarkCertificates.rewrite(authority.certificate());
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Unable to rotate certificates", e);
+                    }
+                }
+            });
+
+            recorder.run(httpClient, request);
+            rotator.join();
+        }
+    }
+
+    private static ConfigurableApplicationContext start(Options options, BenchmarkCertificates.Pem self,
+                                                        BenchmarkCertificates.Authority authority,
+                                                        String profile, String remoteUrl, String remoteEndpoints) {
+        List<String> args = new ArrayList<>(List.of(
+                "--logging.config=classpath:logback-benchmark.xml",
+                "--spring.main.banner-mode=off",
+                "--server.port=0",
+                "--management.server.port=0",
+                "--spring.ssl.bundle.watch.file.quiet-period=" + options.quietPeriod().toMillis() + "ms",
+                "--spring.ssl.bundle.pem.self.keystore.certificate=file:" + self.certificate(),
+                "--spring.ssl.bundle.pem.self.keystore.private-key=file:" + self.privateKey(),
+                "--spring.ssl.bundle.pem.remote.truststore.certificate=file:" + authority.certificate(),
+                "--remote.url=" + remoteUrl,
+                "--remote.reload-mode=" + options.reloadMode(),
+                "--remote.transport=" + options.transport()));
+        if (remoteEndpoints != null) {
+            args.add("--remote.endpoints=" + remoteEndpoints);
+        }
+        if (profile != null) {
+            args.add("--spring.profiles.active=" + profile);
+        }
+        return new SpringApplicationBuilder(Application.class).run(args.toArray(String[]::new));
+    }
+
+    private static int portOf(ConfigurableApplicationContext context) {
+        return ((WebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    private static void print(Report report) {
+        System.out.printf("%n%-7s %-8s %9s %8s %8s %10s %9s %9s %9s %9s  %s%n", "window", "rotated", "requests",
+                "ok", "failed", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "bundle reloads");
+        for (WindowReport window : report.windows()) {
+            System.out.printf("%-7d %-8s %9d %8d %8d %10.1f %9.2f %9.2f %9.2f %9.2f  %s%n", window.window(),
+                    window.rotated(), window.requests(), window.succeeded(), window.failed(), window.throughput(),
+                    window.p50Millis(), window.p99Millis(), window.p999Millis(), window.maxMillis(), window.bundleReloads());
+            if (!window.failureCauses().isEmpty()) {
+                System.out.printf("        failures: %s%n", window.failureCauses());
+            }
+        }
+        System.out.println(report.passed() ? "PASSED" : "FAILED: a window exceeded " + report.maxFailures() + " failures");
+    }
+
+    /**
+     * The command line options of a run.
+     */
+    record Options(double rate, int windows, Duration window, Duration warmUp, Duration timeout, Duration quietPeriod,
+                   String reloadMode, String transport, int servers, long maxFailures, Path output) {
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                int separator = arg.indexOf('=');
+                if (!arg.startsWith("--") || separator < 0) {
+                    throw new IllegalArgumentException("Expected --name=value but got " + arg);
+                }
+                values.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+            Options options = new Options(
+                    Double.parseDouble(values.getOrDefault("rate", "100")),
+                    Integer.parseInt(values.getOrDefault("windows", "6")),
+                    DurationStyle.detectAndParse(values.getOrDefault("window", "15s")),
+                    DurationStyle.detectAndParse(values.getOrDefault("warm-up", "10s")),
+                    DurationStyle.detectAndParse(values.getOrDefault("timeout", "5s")),
+                    DurationStyle.detectAndParse(values.getOrDefault("quiet-period", "1s")),
+                    values.getOrDefault("reload-mode", "swap"),
+                    values.getOrDefault("transport", "classic"),
+                    Integer.parseInt(values.getOrDefault("servers", "1")),
+                    Long.parseLong(values.getOrDefault("max-failures", "0")),
+                    Path.of(values.getOrDefault("output", "target/rotation-load-test.json")));
+            values.keySet().removeAll(List.of("rate", "windows", "window", "warm-up", "timeout", "quiet-period",
+                    "reload-mode", "transport", "servers", "max-failures", "output"));
+            if (!values.isEmpty()) {
+                throw new IllegalArgumentException("Unknown options " + values.keySet());
+            }
+            if (options.rate() <= 0 || options.windows() < 1 || options.servers() < 1) {
+                throw new IllegalArgumentException("rate must be positive and windows and servers at least 1");
+            }
+            return options;
+        }
+    }
+
+    /**
+     * The measurements of one rotation window. The first window is the baseline without a rotation.
+     */
+    record WindowReport(int window, boolean rotated, double startSeconds, long requests, long succeeded, long failed,
+                        double throughput, double p50Millis, double p99Millis, double p999Millis, double maxMillis,
+                        Map<String, Long> failureCauses, Map<String, Long> bundleReloads) {
+    }
+
+    /**
+     * The result of a run.
+     */
+    record Report(String startedAt, String reloadMode, String transport, int servers, double rate, double windowSeconds, long maxFailures,
+                  boolean passed, List<WindowReport> windows) {
+    }
+
+    /**
+     * Sends the requests on schedule and collects their outcomes per window.
+     */
+    private static final class Recorder {
+
+        private final Options options;
+        private final Window[] windows;
+        private final AtomicLong inFlight = new AtomicLong();
+        private volatile long startNanos;
+        private volatile Instant startedAt;
+
+        Recorder(Options options) {
+            this.options = options;
+            this.windows = new Window[options.windows()];
+            Arrays.setAll(windows, i -> new Window());
+        }
+
+        /**
+         * Counts the reloads of the "self" and "remote" bundles of an instance in the current window.
+         */
+        void watchReloads(String instance, ConfigurableApplicationContext context) {
+            SslBundles sslBundles = context.getBean(SslBundles.class);
+            for (String bundle : List.of("self", "remote")) {
+                String name = instance + "." + bundle;
+                sslBundles.addBundleUpdateHandler(bundle, updated -> {
+                    Window window = windowAt(System.nanoTime());
+                    if (window != null) {
+                        window.reloads.computeIfAbsent(name, key -> new LongAdder()).increment();
+                    }
+                });
+            }
+        }
+
+        void run(HttpClient httpClient, HttpRequest request) throws InterruptedException {
+            long periodNanos = (long) (1_000_000_000L / options.rate());
+            long windowNanos = options.window().toNanos();
+            long warmUpNanos = options.warmUp().toNanos();
+            long total = (warmUpNanos + windowNanos * options.windows()) / periodNanos;
+            long firstNanos = System.nanoTime();
+            startedAt = Instant.now().plusNanos(warmUpNanos);
+            startNanos = firstNanos + warmUpNanos;
+            for (long i = 0; i < total; i++) {
+                long scheduled = firstNanos + i * periodNanos;
+                long delay = scheduled - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                Window window = windowAt(scheduled);
+                inFlight.incrementAndGet();
+                httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                        .whenComplete((response, failure) -> {
+                            if (window != null) {
+                                window.record(System.nanoTime() - scheduled, failure, response);
+                            }
+                            inFlight.decrementAndGet();
+                        });
+            }
+            long deadline = System.nanoTime() + options.timeout().plusSeconds(1).toNanos();
+            while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+
+        void awaitWindow(int window) {
+            while (startNanos == 0) {
+                Thread.onSpinWait();
+            }
+            long delay = startNanos + window * options.window().toNanos() - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+        }
+
+        Instant startedAt() {
+            return startedAt;
+        }
+
+        /**
+         * @return The window the given time falls in, or null during the warm-up.
+         */
+        private Window windowAt(long nanos) {
+            long start = startNanos;
+            if (start == 0 || nanos < start) {
+                return null;
+            }
+            long index = (nanos - start) / options.window().toNanos();
+            return windows[(int) Math.min(index, windows.length - 1)];
+        }
+
+        List<WindowReport> report() {
+            double windowSeconds = options.window().toMillis() / 1000.0;
+            List<WindowReport> reports = new ArrayList<>();
+            for (int i = 0; i < windows.length; i++) {
+                Window window = windows[i];
+                long[] latencies = window.sortedLatencies();
+                long succeeded = window.succeeded.sum();
+                long failed = window.failed.sum();
+                reports.add(new WindowReport(i, i > 0, i * windowSeconds, succeeded + failed, succeeded, failed,
+                        succeeded / windowSeconds, percentile(latencies, 0.50), percentile(latencies, 0.99),
+                        percentile(latencies, 0.999), percentile(latencies, 1.0),
+                        sums(window.failureCauses), sums(window.reloads)));
+            }
+            return reports;
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile * sorted.length);
+            return sorted[Math.max(rank - 1, 0)] / 1_000_000.0;
+        }
+
+        private static Map<String, Long> sums(Map<String, LongAdder> counters) {
+            Map<String, Long> sums = new TreeMap<>();
+            counters.forEach((key, counter) -> sums.put(key, counter.sum()));
+            return sums;
+        }
+    }
+
+    /**
+     * The outcomes of the requests scheduled in one window. Latencies are kept for successful requests only.
+     */
+    private static final class Window {
+
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final Map<String, LongAdder> failureCauses = new ConcurrentHashMap<>();
+        private final Map<String, LongAdder> reloads = new ConcurrentHashMap<>();
+        private long[] latencies = new long[1024];
+        private int count;
+
+        void record(long latencyNanos, Throwable failure, HttpResponse<?> response) {
+            String cause = null;
+            if (failure != null) {
+                Throwable root = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                cause = root.getClass().getSimpleName();
+            } else if (response.statusCode() != 200) {
+                cause = "status " + response.statusCode();
+            }
+            if (cause != null) {
+                failed.increment();
+                failureCauses.computeIfAbsent(cause, key -> new LongAdder()).increment();
+                return;
+            }
+            succeeded.increment();
+            synchronized (this) {
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = latencyNanos;
+            }
+        }
+
+        synchronized long[] sortedLatencies() {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
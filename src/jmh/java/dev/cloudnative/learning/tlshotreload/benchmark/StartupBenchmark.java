@@ -0,0 +1,278 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.boot.convert.DurationStyle;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long a cold server and client pair takes to serve its first proxied request, for the plain
+ * jar and for the AOT-processed jar with and without its class data sharing archive.
+ * <p>
+ * The instances are run from the directories the {@code fast-start} Maven profile extracts to,
+ * {@code target/fast-start/server} and {@code target/fast-start/client}, which must have been built first.
+ * Every run starts a server and a client process at the same time with certificates issued by a generated
+ * authority, on free localhost ports, and sends requests to the client's {@code /api/test}, which calls the
+ * server over mutual TLS, until one succeeds. The time from launching the processes to that response is
+ * reported per mode as min, median and max over the runs. The modes are:
+ * <ul>
+ *   <li>{@code jar} - the extracted jar, with the AOT classes it contains left unused.</li>
+ *   <li>{@code aot} - the same jar with {@code -Dspring.aot.enabled=true}.</li>
+ *   <li>{@code aot-cds} - in addition, the classes are mapped from the archive of the training run.</li>
+ * </ul>
+ * After the last run of each mode, both certificates are replaced by newly issued ones, the trust file is
+ * rewritten so that the "remote" bundles reload too, and the run checks that each instance presents its new
+ * certificate, that the client's remote client has reloaded and that {@code /api/test} still succeeds, so a
+ * mode that breaks the hot reload fails the benchmark.
+ * <p>
+ * Options, all optional, are passed as {@code --name=value}: {@code runs} per mode (5), {@code modes}
+ * ({@code jar,aot,aot-cds}), {@code directory} ({@code target/fast-start}), {@code timeout} for the first
+ * response and for a reload (60s), {@code reload-mode} of the client (swap) and {@code output}
+ * ({@code target/startup-benchmark.json}). The processes' output is written next to the report.
+ */
+public final class StartupBenchmark {
+
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(10);
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        Path logs = options.output().toAbsolutePath().getParent().resolve("startup-benchmark");
+        Files.createDirectories(logs);
+        Path directory = Files.createTempDirectory("tls-startup-benchmark");
+        BenchmarkCertificates.Authority authority = BenchmarkCertificates.generateAuthority(directory, "authority");
+        BenchmarkCertificates.Pem server = BenchmarkCertificates.generate(directory, "server", authority);
+        BenchmarkCertificates.Pem client = BenchmarkCertificates.generate(directory, "client", authority);
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .sslContext(authority.trustStoreBundle().createSslContext())
+                .connectTimeout(Duration.ofSeconds(1))
+                .build();
+
+        List<ModeReport> reports = new ArrayList<>();
+        for (String mode : options.modes()) {
+            List<Double> seconds = new ArrayList<>();
+            boolean reloaded = false;
+            for (int run = 1; run <= options.runs(); run++) {
+                int serverPort = freePort();
+                int clientPort = freePort();
+                int clientManagementPort = freePort();
+                String name = mode + "-" + run;
+                Process serverProcess = null;
+                Process clientProcess = null;
+                try {
+                    long start = System.nanoTime();
+                    serverProcess = launch(options, mode, "server", serverPort, 0, server, authority,
+                            "https://localhost:1", logs.resolve(name + "-server.log"));
+                    clientProcess = launch(options, mode, "client", clientPort, clientManagementPort, client, authority,
+                            "https://localhost:" + serverPort, logs.resolve(name + "-client.log"));
+                    URI uri = URI.create("https://localhost:" + clientPort + "/api/test");
+                    awaitSuccess(httpClient, uri, options.timeout(), clientProcess);
+                    seconds.add((System.nanoTime() - start) / 1e9);
+                    System.out.printf("%-8s run %d: first /api/test after %.2f s%n", mode, run, seconds.getLast());
+                    if (run == options.runs()) {
+                        reloaded = checkReload(options, httpClient, uri, directory, authority, server, client,
+                                serverPort, clientPort, clientManagementPort);
+                        System.out.printf("%-8s hot reload after rotation: %s%n", mode, reloaded ? "ok" : "FAILED");
+                    }
+                } finally {
+                    stop(clientProcess);
+                    stop(serverProcess);
+                }
+            }
+            List<Double> sorted = seconds.stream().sorted().toList();
+            reports.add(new ModeReport(mode, seconds, sorted.getFirst(), sorted.get(sorted.size() / 2), sorted.getLast(), reloaded));
+        }
+
+        System.out.printf("%n%-8s %8s %8s %8s  %s%n", "mode", "min s", "median s", "max s", "hot reload");
+        for (ModeReport report : reports) {
+            System.out.printf("%-8s %8.2f %8.2f %8.2f  %s%n", report.mode(), report.minSeconds(), report.medianSeconds(),
+                    report.maxSeconds(), report.reloaded() ? "ok" : "FAILED");
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(options.output().toFile(), reports);
+        System.out.println("Report written to " + options.output().toAbsolutePath());
+        System.exit(reports.stream().allMatch(ModeReport::reloaded) ? 0 : 1);
+    }
+
+    private static Process launch(Options options, String mode, String instance, int port, int managementPort,
+                                  BenchmarkCertificates.Pem self, BenchmarkCertificates.Authority authority,
+                                  String remoteUrl, Path log) throws IOException {
+        Path directory = options.directory().resolve(instance);
+        Path jar;
+        try (Stream<Path> files = Files.list(directory)) {
+            jar = files.filter(file -> file.toString().endsWith(".jar")).findFirst()
+                    .orElseThrow(() -> new IllegalStateException("No jar in " + directory.toAbsolutePath()
+                            + ", build it with ./mvnw -Pfast-start package"));
+        }
+        List<String> command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+        if (!mode.equals("jar")) {
+            command.add("-Dspring.aot.enabled=true");
+        }
+        if (mode.equals("aot-cds")) {
+            command.add("-XX:SharedArchiveFile=application.jsa");
+        }
+        command.addAll(List.of("-jar", jar.getFileName().toString(),
+                "--spring.main.banner-mode=off",
+                "--server.port=" + port,
+                "--management.server.port=" + managementPort,
+                "--spring.ssl.bundle.pem.self.keystore.certificate=file:" + self.certificate(),
+                "--spring.ssl.bundle.pem.self.keystore.private-key=file:" + self.privateKey(),
+                "--spring.ssl.bundle.pem.remote.truststore.certificate=file:" + authority.certificate(),
+                "--remote.url=" + remoteUrl,
+                "--remote.reload-mode=" + options.reloadMode()));
+        if (instance.equals("client")) {
+            command.add("--spring.profiles.active=client");
+        }
+        return new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+    }
+
+    private static void awaitSuccess(HttpClient httpClient, URI uri, Duration timeout, Process process)
+            throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(5)).GET().build();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (process != null && !process.isAlive()) {
+                throw new IllegalStateException("Instance exited with status " + process.exitValue());
+            }
+            try {
+                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening or not proxying yet
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+        throw new IllegalStateException("No successful response from " + uri + " within " + timeout);
+    }
+
+    // Replaces both certificates, rewrites the trust file and waits until both instances present theirs, the client's
+    // "remote" bundle has reloaded and the proxied call succeeds
+    private static boolean checkReload(Options options, HttpClient httpClient, URI uri, Path directory,
+                                       BenchmarkCertificates.Authority authority, BenchmarkCertificates.Pem server,
+                                       BenchmarkCertificates.Pem client, int serverPort, int clientPort,
+                                       int clientManagementPort) throws Exception {
+        Path staging = directory.resolve("rotation-" + System.nanoTime());
+        BenchmarkCertificates.generate(staging, "server", authority).installAs(server);
+        BenchmarkCertificates.generate(staging, "client", authority).installAs(client);
+        BenchmarkCertificates.rewrite(authority.certificate());
+        BigInteger serverSerial = serialOf(server.certificate());
+        BigInteger clientSerial = serialOf(client.certificate());
+        SSLContext mutual = client.keyStoreBundle(authority.certificate()).createSslContext();
+        HttpRequest remoteReloads = HttpRequest.newBuilder(URI.create("http://localhost:" + clientManagementPort
+                + "/actuator/metrics/tls.reload?tag=bundle:remote&tag=outcome:success")).GET().build();
+        long deadline = System.nanoTime() + options.timeout().toNanos();
+        while (System.nanoTime() < deadline) {
+            try {
+                if (serverSerial.equals(presentedSerial(mutual, serverPort))
+                        && clientSerial.equals(presentedSerial(mutual, clientPort))
+                        && httpClient.send(remoteReloads, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    awaitSuccess(httpClient, uri, Duration.ofNanos(deadline - System.nanoTime()), null);
+                    return true;
+                }
+            } catch (IOException e) {
+                // connector being reconfigured
+            }
+            Thread.sleep(POLL_INTERVAL.multipliedBy(10));
+        }
+        return false;
+    }
+
+    // The leaf is the first certificate of the file
+    private static BigInteger serialOf(Path certificate) throws IOException, GeneralSecurityException {
+        try (InputStream in = Files.newInputStream(certificate)) {
+            return ((X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in)).getSerialNumber();
+        }
+    }
+
+    private static BigInteger presentedSerial(SSLContext sslContext, int port) throws IOException {
+        try (SSLSocket socket = (SSLSocket) sslContext.getSocketFactory().createSocket("localhost", port)) {
+            socket.startHandshake();
+            return ((X509Certificate) socket.getSession().getPeerCertificates()[0]).getSerialNumber();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void stop(Process process) throws InterruptedException {
+        if (process != null && process.isAlive()) {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    /**
+     * The command line options of a run.
+     */
+    record Options(int runs, List<String> modes, Path directory, Duration timeout, String reloadMode, Path output) {
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                int separator = arg.indexOf('=');
+                if (!arg.startsWith("--") || separator < 0) {
+                    throw new IllegalArgumentException("Expected --name=value but got " + arg);
+                }
+                values.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+            Options options = new Options(
+                    Integer.parseInt(values.getOrDefault("runs", "5")),
+                    Arrays.asList(values.getOrDefault("modes", "jar,aot,aot-cds").split(",")),
+                    Path.of(values.getOrDefault("directory", "target/fast-start")),
+                    DurationStyle.detectAndParse(values.getOrDefault("timeout", "60s")),
+                    values.getOrDefault("reload-mode", "swap"),
+                    Path.of(values.getOrDefault("output", "target/startup-benchmark.json")));
+            values.keySet().removeAll(List.of("runs", "modes", "directory", "timeout", "reload-mode", "output"));
+            if (!values.isEmpty()) {
+                throw new IllegalArgumentException("Unknown options " + values.keySet());
+            }
+            if (options.runs() < 1 || !List.of("jar", "aot", "aot-cds").containsAll(options.modes())) {
+                throw new IllegalArgumentException("runs must be at least 1 and modes a list of jar, aot and aot-cds");
+            }
+            return options;
+        }
+    }
+
+    /**
+     * The startup times of one mode.
+     */
+    record ModeReport(String mode, List<Double> seconds, double minSeconds, double medianSeconds, double maxSeconds,
+                      boolean reloaded) {
+    }
+}
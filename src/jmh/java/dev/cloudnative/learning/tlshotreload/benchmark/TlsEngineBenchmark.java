@@ -0,0 +1,130 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import dev.cloudnative.learning.tlshotreload.Application;
+import org.apache.tomcat.util.net.openssl.OpenSSLStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the connector's TLS engines, {@code jsse} and {@code openssl-ffm}, on the same host.
+ * <p>
+ * {@code handshake} opens a connection to a server instance and completes a full TLS handshake, without
+ * resumption, per operation. {@code download} fetches a static payload over a kept-alive HTTP/1.1 connection
+ * per thread, so its operations per second times {@code payloadKiB} is the encrypted throughput. The client
+ * runs on JSSE in both cases, so only the server's share of the work differs.
+ * <p>
+ * The {@code openssl-ffm} trials need Java 22 or later, {@code tomcat-coyote-ffm} on the class path (the
+ * {@code openssl-ffm} build profile) and {@code libssl}; they fail at setup rather than measure JSSE again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Dlogback.configurationFile=logback-benchmark.xml", "--enable-native-access=ALL-UNNAMED"})
+public class TlsEngineBenchmark {
+
+    @Param({"jsse", "openssl-ffm"})
+    private String implementation;
+
+    @Param({"4096"})
+    private int payloadKiB;
+
+    private ConfigurableApplicationContext context;
+    private SSLSocketFactory socketFactory;
+    private int port;
+    private HttpClient httpClient;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path directory = Files.createTempDirectory("tls-benchmark");
+        BenchmarkCertificates.Authority authority = BenchmarkCertificates.generateAuthority(directory, "authority");
+        BenchmarkCertificates.Pem server = BenchmarkCertificates.generate(directory, "server", authority);
+        BenchmarkCertificates.Pem client = BenchmarkCertificates.generate(directory, "client", authority);
+
+        Path staticDirectory = Files.createDirectory(directory.resolve("static"));
+        byte[] payload = new byte[payloadKiB * 1024];
+        new Random(42).nextBytes(payload);
+        Files.write(staticDirectory.resolve("payload.bin"), payload);
+
+        context = new SpringApplicationBuilder(Application.class).run(
+                "--logging.config=classpath:logback-benchmark.xml",
+                "--server.port=0",
+                "--management.server.port=0",
+                "--tls.implementation=" + implementation,
+                "--spring.ssl.bundle.pem.self.keystore.certificate=file:" + server.certificate(),
+                "--spring.ssl.bundle.pem.self.keystore.private-key=file:" + server.privateKey(),
+                "--spring.ssl.bundle.pem.remote.truststore.certificate=file:" + authority.certificate(),
+                "--spring.web.resources.static-locations=file:" + staticDirectory.toAbsolutePath() + "/",
+                "--spring.mvc.static-path-pattern=/api/static/**",
+                "--remote.warm-up.enabled=false");
+        if (implementation.equals("openssl-ffm") && !OpenSSLStatus.isAvailable()) {
+            context.close();
+            throw new IllegalStateException("The connector fell back to JSSE, see target/benchmark.log");
+        }
+
+        port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        SSLContext sslContext = client.keyStoreBundle(authority.certificate()).createSslContext();
+        socketFactory = sslContext.getSocketFactory();
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .sslContext(sslContext)
+                .build();
+        request = HttpRequest.newBuilder(URI.create("https://localhost:" + port + "/api/static/payload.bin")).GET().build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        httpClient.close();
+        context.close();
+    }
+
+    @Benchmark
+    public String handshake() throws IOException {
+        try (SSLSocket socket = (SSLSocket) socketFactory.createSocket("localhost", port)) {
+            socket.startHandshake();
+            // Keep the next handshake a full one
+            socket.getSession().invalidate();
+            return socket.getSession().getCipherSuite();
+        }
+    }
+
+    @Benchmark
+    public int download() throws IOException, InterruptedException {
+        HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Server answered " + response.statusCode());
+        }
+        return response.statusCode();
+    }
+}
@@ -0,0 +1,83 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import dev.cloudnative.learning.tlshotreload.x509.TrustAnchorStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.pem.PemSslStoreBundle;
+import org.springframework.boot.ssl.pem.PemSslStoreDetails;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the trust manager of a reloaded bundle whose trust file holds many certificates, as a
+ * bundle of public or corporate authorities does.
+ * <p>
+ * Every invocation builds from a new bundle instance, as a reload does. With {@code BOOT} the PEM file is
+ * loaded into the bundle's trust store and a trust manager is initialised from it; with {@code INDEXED} the
+ * {@link TrustAnchorStore} reads the file, parses only the certificates it does not hold yet and builds the
+ * trust manager from its index. The file is unchanged between invocations, the common case of a reload
+ * triggered by the key or certificate of the same bundle. The authorities are generated with {@code keytool}
+ * once per fork, which takes a while for large sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class TrustAnchorBenchmark {
+
+    private static final String BUNDLE = "remote";
+
+    public enum Build {
+        BOOT, INDEXED
+    }
+
+    @Param({"BOOT", "INDEXED"})
+    private Build build;
+
+    @Param({"150"})
+    private int anchors;
+
+    private String location;
+    private TrustAnchorStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path directory = Files.createTempDirectory("tls-benchmark");
+        StringBuilder bundle = new StringBuilder();
+        for (int i = 0; i < anchors; i++) {
+            BenchmarkCertificates.Authority authority = BenchmarkCertificates.generateAuthority(directory, "authority-" + i);
+            bundle.append(Files.readString(authority.certificate(), StandardCharsets.US_ASCII));
+        }
+        Path trusted = directory.resolve("trusted.crt");
+        Files.writeString(trusted, bundle, StandardCharsets.US_ASCII);
+        location = "file:" + trusted.toAbsolutePath();
+        store = new TrustAnchorStore(Map.of(BUNDLE, location), new DefaultResourceLoader());
+    }
+
+    @Benchmark
+    public Object rebuild() {
+        SslBundle bundle = SslBundle.of(new PemSslStoreBundle(null, PemSslStoreDetails.forCertificate(location)));
+        return switch (build) {
+            case BOOT -> bundle.getManagers().getTrustManagers();
+            case INDEXED -> store.index(BUNDLE, bundle).trustManager();
+        };
+    }
+}
@@ -0,0 +1,107 @@
+package dev.cloudnative.learning.tlshotreload.benchmark;
+
+import dev.cloudnative.learning.tlshotreload.x509.X509AuthenticationCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetailsByNameServiceWrapper;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationProvider;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.security.web.authentication.preauth.x509.SubjectDnX509PrincipalExtractor;
+import org.springframework.security.web.authentication.preauth.x509.X509PrincipalExtractor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the work the X.509 authentication filter does on every request: extracting the principal from
+ * the client certificate, looking its user up and building the {@link Authentication}.
+ * <p>
+ * The {@code subjectPrincipalRegex} extractor and the user lookup of the previous filter chain are compared
+ * to the {@link X509AuthenticationCache}, for a certificate whose Common Name is a known user and for one
+ * that is not, as with the generated user of the application's default configuration. The certificate
+ * instance is reused across invocations, as Tomcat reuses the peer certificates of a TLS session across
+ * the requests of a keep-alive connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class X509AuthenticationBenchmark {
+
+    private static final String SUBJECT_PRINCIPAL_REGEX = "CN=(.*?)(?:,|$)";
+
+    public enum Chain {
+        REGEX, CACHED
+    }
+
+    @Param({"REGEX", "CACHED"})
+    private Chain chain;
+
+    @Param({"true", "false"})
+    private boolean knownUser;
+
+    private X509Certificate certificate;
+    private X509PrincipalExtractor principalExtractor;
+    private AuthenticationManager authenticationManager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path directory = Files.createTempDirectory("tls-benchmark");
+        BenchmarkCertificates.Pem client = BenchmarkCertificates.generate(directory, "client");
+        KeyStore keyStore = client.keyStoreBundle(client).getStores().getKeyStore();
+        certificate = (X509Certificate) keyStore.getCertificate(keyStore.aliases().nextElement());
+
+        InMemoryUserDetailsManager users = new InMemoryUserDetailsManager();
+        if (knownUser) {
+            users.createUser(User.withUsername("localhost").password("{noop}unused").roles("CLIENT").build());
+        }
+        PreAuthenticatedAuthenticationProvider provider = new PreAuthenticatedAuthenticationProvider();
+        switch (chain) {
+            case REGEX -> {
+                SubjectDnX509PrincipalExtractor extractor = new SubjectDnX509PrincipalExtractor();
+                extractor.setSubjectDnRegex(SUBJECT_PRINCIPAL_REGEX);
+                principalExtractor = extractor;
+                provider.setPreAuthenticatedUserDetailsService(new UserDetailsByNameServiceWrapper<>(users));
+            }
+            case CACHED -> {
+                X509AuthenticationCache cache = new X509AuthenticationCache(SUBJECT_PRINCIPAL_REGEX, users, 1024);
+                principalExtractor = cache.principalExtractor();
+                provider.setPreAuthenticatedUserDetailsService(cache.userDetailsService());
+            }
+        }
+        authenticationManager = new ProviderManager(provider);
+    }
+
+    @Benchmark
+    public Object authenticate() {
+        Object principal = principalExtractor.extractPrincipal(certificate);
+        try {
+            return authenticationManager.authenticate(new PreAuthenticatedAuthenticationToken(principal, certificate));
+        } catch (AuthenticationException e) {
+            return e;
+        }
+    }
+}
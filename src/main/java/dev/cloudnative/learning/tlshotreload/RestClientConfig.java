@@ -1,27 +1,38 @@
 package dev.cloudnative.learning.tlshotreload;
 
+import dev.cloudnative.learning.tlshotreload.client.ClientTransport;
+import dev.cloudnative.learning.tlshotreload.client.ConnectionWarmer;
+import dev.cloudnative.learning.tlshotreload.client.DrainingClientHttpRequestFactory;
+import dev.cloudnative.learning.tlshotreload.client.LoadBalancingClientHttpRequestFactory;
+import dev.cloudnative.learning.tlshotreload.client.LoadBalancingStrategy;
+import dev.cloudnative.learning.tlshotreload.client.PooledClientFactory;
+import dev.cloudnative.learning.tlshotreload.client.RemoteEndpoint;
+import dev.cloudnative.learning.tlshotreload.client.ResilientClientHttpRequestFactory;
+import dev.cloudnative.learning.tlshotreload.client.StreamingProxy;
+import dev.cloudnative.learning.tlshotreload.revocation.RevocationCache;
 import dev.cloudnative.learning.tlshotreload.x509.LoggingKeyManager;
 import dev.cloudnative.learning.tlshotreload.x509.LoggingTrustManager;
+import dev.cloudnative.learning.tlshotreload.x509.ReloadableSslManagers;
+import dev.cloudnative.learning.tlshotreload.x509.TlsMetrics;
+import dev.cloudnative.learning.tlshotreload.x509.TrustAnchorStore;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
-import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
-import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
-import org.apache.hc.client5.http.ssl.TlsSocketStrategy;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ssl.SslBundle;
 import org.springframework.boot.ssl.SslBundles;
-import org.springframework.boot.ssl.SslManagerBundle;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.client.RestClient;
 
-import javax.net.ssl.*;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import java.net.URI;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.Arrays;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Configuration class for creating a {@link RestClient} bean.
@@ -30,7 +41,11 @@ import java.util.Arrays;
  * configured for mutual TLS (mTLS) communication with a remote service. It uses an
  * SSL bundle named "remote" to obtain the necessary key and trust materials, wraps
  * them with logging interceptors for debugging, and builds an HTTP client with this
- * custom SSL context.
+ * custom SSL context. The material is held by {@link ReloadableSslManagers}, so a bundle
+ * update can be applied to the existing client without rebuilding it. Requests are spread over the
+ * endpoints of the remote service by a {@link LoadBalancingClientHttpRequestFactory}, and each endpoint's
+ * requests are routed through a {@link DrainingClientHttpRequestFactory}, so its connection pool can be
+ * replaced without interrupting in-flight exchanges.
  */
 @Configuration
 public class RestClientConfig {
@@ -38,78 +53,208 @@ public class RestClientConfig {
     @Value("${remote.url}")
     String remoteUrl;
 
+    @Value("${remote.endpoints:}")
+    List<URI> remoteEndpoints;
+
+    @Value("${remote.load-balancing.strategy:least-outstanding}")
+    LoadBalancingStrategy loadBalancingStrategy;
+
+    @Value("${remote.load-balancing.ewma-decay:10s}")
+    Duration ewmaDecay;
+
+    @Value("${remote.load-balancing.ejection.consecutive-failures:3}")
+    int ejectionFailures;
+
+    @Value("${remote.load-balancing.ejection.base-time:30s}")
+    Duration ejectionBaseTime;
+
+    @Value("${remote.load-balancing.ejection.max-time:5m}")
+    Duration ejectionMaxTime;
+
+    @Value("${remote.load-balancing.ejection.max-percent:50}")
+    int ejectionMaxPercent;
+
+    @Value("${remote.resilience.retry.enabled:true}")
+    boolean retryEnabled;
+
+    @Value("${remote.resilience.retry.max-wait:1s}")
+    Duration retryMaxWait;
+
+    @Value("${remote.resilience.retry.budget-percent:20}")
+    int retryBudgetPercent;
+
+    @Value("${remote.resilience.retry.budget-min-per-second:2}")
+    int retryBudgetMinPerSecond;
+
+    @Value("${remote.resilience.hedging.enabled:false}")
+    boolean hedgingEnabled;
+
+    @Value("${remote.resilience.hedging.percentile:95}")
+    double hedgingPercentile;
+
+    @Value("${remote.resilience.hedging.min-samples:100}")
+    int hedgingMinSamples;
+
+    @Value("${remote.resilience.hedging.min-delay:5ms}")
+    Duration hedgingMinDelay;
+
+    @Value("${remote.resilience.hedging.budget-percent:5}")
+    int hedgingBudgetPercent;
+
+    @Value("${remote.resilience.hedging.budget-min-per-second:1}")
+    int hedgingBudgetMinPerSecond;
+
+    @Value("${remote.transport:classic}")
+    ClientTransport transport;
+
+    @Value("${tls.trust-cache.max-size:1024}")
+    int trustCacheSize;
+
+    @Value("${remote.warm-up.enabled:false}")
+    boolean warmUpEnabled;
+
+    @Value("${remote.warm-up.connections:4}")
+    int warmUpConnections;
+
+    @Value("${remote.warm-up.timeout:10s}")
+    Duration warmUpTimeout;
+
+    @Value("${remote.pool.max-connections:${server.tomcat.threads.max:200}}")
+    int poolMaxConnections;
+
+    @Value("${remote.pool.lease-timeout:5s}")
+    Duration poolLeaseTimeout;
+
+    @Value("${remote.proxy.buffer-size:8KB}")
+    DataSize proxyBufferSize;
+
+    @Value("${remote.proxy.pooled-buffers:256}")
+    int proxyPooledBuffers;
+
     /**
-     * Creates and configures a {@link RestClient} bean for communicating with a remote service over mTLS.
+     * Creates the holder of the "remote" bundle's key and trust material.
      * <p>
-     * This method performs the following steps:
-     * <ol>
-     *   <li>Retrieves the {@link SslBundle} named "remote" which contains the client's key and trust stores.</li>
-     *   <li>Wraps the default {@link KeyManager} and {@link TrustManager} from the bundle with custom logging versions
-     *       ({@link LoggingKeyManager} and {@link LoggingTrustManager}) to provide visibility into the TLS handshake process.</li>
-     *   <li>Initializes a new {@link SSLContext} with these wrapped managers.</li>
-     *   <li>Builds an Apache {@link CloseableHttpClient} that uses a connection manager configured with the custom SSL context.</li>
-     *   <li>Constructs a {@link RestClient} using this custom HTTP client and sets the base URL from the application properties.</li>
-     * </ol>
+     * The returned instance is updated in place by {@link dev.cloudnative.learning.tlshotreload.x509.SSLBundleReloader}
+     * whenever the bundle changes.
      *
-     * @param sslBundles The collection of all configured {@link SslBundle}s, injected by Spring.
-     * @return A fully configured {@link RestClient} instance ready for mTLS communication.
-     * @throws NoSuchAlgorithmException if the requested cryptographic algorithm is not available in the environment.
-     * @throws KeyManagementException if an error occurs during the initialization of the SSLContext.
+     * @param sslBundles      The collection of all configured {@link SslBundle}s, injected by Spring.
+     * @param tlsMetrics      The metrics the key and trust managers record into.
+     * @param revocationCache The revocation lists the remote service's chains are checked against.
+     * @param trustAnchors    The index of the trusted certificates of every bundle.
+     * @return The {@link ReloadableSslManagers} for the "remote" bundle.
      */
     @Bean
-    public RestClient restClient(SslBundles sslBundles) throws NoSuchAlgorithmException, KeyManagementException {
-
-        // Get the SSL bundle by name
-        SslBundle sslBundle = sslBundles.getBundle("remote");
-
-        // Wrap original managers with logging versions
-        SslManagerBundle managers = sslBundle.getManagers();
-        KeyManager[] keyManagers = managers.getKeyManagers();
-        TrustManager[] trustManagers = managers.getTrustManagers();
-
-        KeyManager[] wrappedKeyManagers = wrapKeyManagers(keyManagers);
-        TrustManager[] wrappedTrustManagers = wrapTrustManagers(trustManagers);
+    public ReloadableSslManagers remoteSslManagers(SslBundles sslBundles, TlsMetrics tlsMetrics,
+                                                   RevocationCache revocationCache, TrustAnchorStore trustAnchors) {
+        return new ReloadableSslManagers("remote", sslBundles.getBundle("remote"), trustCacheSize, tlsMetrics,
+                revocationCache, trustAnchors);
+    }
 
-        SSLContext customContext = SSLContext.getInstance("TLS");
-        customContext.init(
-                wrappedKeyManagers,
-                wrappedTrustManagers,
-                new SecureRandom()
-        );
+    /**
+     * Creates the factory building every connection pool of the remote client.
+     * <p>
+     * Unless {@code remote.pool.max-connections} is set, a pool allows as many connections as Tomcat has
+     * request threads, so every request thread can call the remote service at once. With virtual threads
+     * enabled, requests are no longer bounded by a thread pool and the pool size limits the concurrency.
+     * With {@code remote.transport=h2} the clients multiplex all requests over one HTTP/2 connection instead.
+     *
+     * @param tlsMetrics The metrics client handshakes are recorded into.
+     * @return The {@link PooledClientFactory} used for the initial pool and for pools built on rotation.
+     */
+    @Bean
+    public PooledClientFactory remotePooledClientFactory(TlsMetrics tlsMetrics) {
+        return new PooledClientFactory(tlsMetrics, "remote", transport, poolMaxConnections, poolLeaseTimeout);
+    }
 
-        // Configure HTTP client with SSL context
-        TlsSocketStrategy tlsSocketStrategy = (TlsSocketStrategy) ClientTlsStrategyBuilder.create()
-                .setSslContext(customContext)
-                .build();
+    /**
+     * Creates the warm-up stage that handshakes connections of a new pool before it is published.
+     *
+     * @return The {@link ConnectionWarmer} for the remote service, enabled by {@code remote.warm-up.enabled}.
+     */
+    @Bean
+    public ConnectionWarmer remoteConnectionWarmer() {
+        return new ConnectionWarmer(warmUpEnabled, warmUpConnections, warmUpTimeout);
+    }
 
-        PoolingHttpClientConnectionManager connManager = PoolingHttpClientConnectionManagerBuilder.create()
-                .setTlsSocketStrategy(tlsSocketStrategy)
-                .build();
+    /**
+     * Creates the request factory that spreads requests over the endpoints of the remote service.
+     * <p>
+     * The endpoints are listed by {@code remote.endpoints}, and default to {@code remote.url} alone. Each gets
+     * its own connection pool, built around an {@link SSLContext} whose key and trust material is swapped by
+     * {@link ReloadableSslManagers}, so every endpoint follows the same "remote" bundle. A rotation replaces
+     * an endpoint's pool with one prepared by the {@link PooledClientFactory}, which lets the previous one
+     * drain its in-flight exchanges.
+     *
+     * @param remoteSslManagers        The reloadable key and trust material of the "remote" bundle.
+     * @param remotePooledClientFactory The factory building the connection pools.
+     * @return The {@link LoadBalancingClientHttpRequestFactory} shared by every client of the remote service.
+     * @throws NoSuchAlgorithmException if the requested cryptographic algorithm is not available in the environment.
+     * @throws KeyManagementException if an error occurs during the initialization of the SSLContext.
+     */
+    @Bean
+    public LoadBalancingClientHttpRequestFactory remoteRequestFactory(ReloadableSslManagers remoteSslManagers,
+                                                                      PooledClientFactory remotePooledClientFactory)
+            throws NoSuchAlgorithmException, KeyManagementException {
+        SSLContext customContext = remoteSslManagers.createSslContext();
+        List<URI> uris = remoteEndpoints.isEmpty() ? List.of(URI.create(remoteUrl)) : remoteEndpoints;
+        List<RemoteEndpoint> endpoints = new ArrayList<>(uris.size());
+        for (URI uri : uris) {
+            DrainingClientHttpRequestFactory requestFactory = new DrainingClientHttpRequestFactory(
+                    remotePooledClientFactory.create(customContext), RemoteEndpoint.nameOf(uri));
+            endpoints.add(new RemoteEndpoint(uri, requestFactory));
+        }
+        return new LoadBalancingClientHttpRequestFactory(endpoints, loadBalancingStrategy, ewmaDecay,
+                ejectionFailures, ejectionBaseTime, ejectionMaxTime, ejectionMaxPercent);
+    }
 
-        CloseableHttpClient httpClient = HttpClients.custom()
-                .setConnectionManager(connManager)
-                .build();
+    /**
+     * Creates the request factory that retries requests failing the TLS handshake after the next reload of the
+     * "remote" bundle and, with {@code remote.resilience.hedging.enabled}, hedges slow {@code GET} requests.
+     *
+     * @param remoteRequestFactory The request factory spreading requests over the remote endpoints.
+     * @return The {@link ResilientClientHttpRequestFactory} the remote client sends its requests through.
+     */
+    @Bean
+    public ResilientClientHttpRequestFactory remoteResilientRequestFactory(
+            LoadBalancingClientHttpRequestFactory remoteRequestFactory) {
+        return new ResilientClientHttpRequestFactory(remoteRequestFactory,
+                new ResilientClientHttpRequestFactory.Retry(retryEnabled, retryMaxWait, retryBudgetPercent,
+                        retryBudgetMinPerSecond),
+                new ResilientClientHttpRequestFactory.Hedging(hedgingEnabled, hedgingPercentile, hedgingMinSamples,
+                        hedgingMinDelay, hedgingBudgetPercent, hedgingBudgetMinPerSecond));
+    }
 
-        HttpComponentsClientHttpRequestFactory requestFactory =
-                new HttpComponentsClientHttpRequestFactory(httpClient);
+    /**
+     * Creates the copier that streams remote responses to callers when {@code remote.proxy.mode} is
+     * {@code streaming}.
+     *
+     * @return The {@link StreamingProxy} with {@code remote.proxy.pooled-buffers} reusable buffers of
+     *         {@code remote.proxy.buffer-size}, also published as metrics.
+     */
+    @Bean
+    public StreamingProxy remoteStreamingProxy() {
+        return new StreamingProxy(Math.toIntExact(proxyBufferSize.toBytes()), proxyPooledBuffers);
+    }
 
+    /**
+     * Creates and configures a {@link RestClient} bean for communicating with a remote service over mTLS.
+     * <p>
+     * The client executes its requests through the {@link ResilientClientHttpRequestFactory}, which retries and
+     * hedges them on the {@link LoadBalancingClientHttpRequestFactory}. That sends each to the
+     * {@link DrainingClientHttpRequestFactory} of the chosen endpoint, which in turn uses an Apache
+     * {@link CloseableHttpClient}, or its HTTP/2 counterpart, configured with an {@link SSLContext} built around
+     * the delegating {@link KeyManager} and {@link TrustManager} of {@link ReloadableSslManagers}.
+     * These wrap the "remote" bundle managers with {@link LoggingKeyManager} and {@link LoggingTrustManager}
+     * to provide visibility into the TLS handshake process. The base URL is taken from the application properties.
+     *
+     * @param remoteResilientRequestFactory The request factory retrying and hedging remote requests.
+     * @return A fully configured {@link RestClient} instance ready for mTLS communication.
+     */
+    @Bean
+    public RestClient restClient(ResilientClientHttpRequestFactory remoteResilientRequestFactory) {
         return RestClient.builder()
-                .requestFactory(requestFactory)
+                .requestFactory(remoteResilientRequestFactory)
                 .baseUrl(remoteUrl)
                 .build();
     }
-
-    private KeyManager[] wrapKeyManagers(KeyManager[] originals) {
-        return Arrays.stream(originals)
-                .map(km -> km instanceof X509KeyManager ?
-                        new LoggingKeyManager((X509KeyManager) km) : km)
-                .toArray(KeyManager[]::new);
-    }
-
-    private TrustManager[] wrapTrustManagers(TrustManager[] originals) {
-        return Arrays.stream(originals)
-                .map(tm -> tm instanceof X509TrustManager ?
-                        new LoggingTrustManager((X509TrustManager) tm) : tm)
-                .toArray(TrustManager[]::new);
-    }
 }
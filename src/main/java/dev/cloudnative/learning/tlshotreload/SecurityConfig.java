@@ -1,5 +1,7 @@
 package dev.cloudnative.learning.tlshotreload;
 
+import dev.cloudnative.learning.tlshotreload.x509.X509AuthenticationCache;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.Customizer;
@@ -7,6 +9,7 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.SecurityFilterChain;
 
 /**
@@ -20,6 +23,7 @@ import org.springframework.security.web.SecurityFilterChain;
 @EnableWebSecurity
 public class SecurityConfig {
 
+    private static final String SUBJECT_PRINCIPAL_REGEX = "CN=(.*?)(?:,|$)";
 
     /**
      * Defines the primary {@link SecurityFilterChain} bean to configure HTTP security.
@@ -35,17 +39,19 @@ public class SecurityConfig {
      *       </ul>
      *   </li>
      *   <li><b>X.509 Authentication:</b> Enables client certificate authentication and configures it
-     *       to extract the user principal from the Common Name (CN) of the certificate's subject.</li>
+     *       to extract the user principal from the Common Name (CN) of the certificate's subject. The
+     *       principal and user of a certificate are remembered by the {@link X509AuthenticationCache}.</li>
      *   <li><b>CSRF:</b> Disables Cross-Site Request Forgery protection, which is a common practice
      *       for stateless APIs that are not vulnerable to this type of attack.</li>
      * </ul>
      *
-     * @param http The {@link HttpSecurity} object to be configured.
+     * @param http                    The {@link HttpSecurity} object to be configured.
+     * @param x509AuthenticationCache The cache of X.509 principals and users.
      * @return The configured {@link SecurityFilterChain} instance.
      * @throws Exception if an error occurs during the configuration.
      */
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, X509AuthenticationCache x509AuthenticationCache) throws Exception {
         http
                 .requiresChannel(channel -> channel
                         .requestMatchers("/api/**").requiresSecure())
@@ -53,9 +59,25 @@ public class SecurityConfig {
                         .requestMatchers("/api/**").permitAll()
                         .anyRequest().anonymous()
                 )// Allow HTTP for all other paths
-                .x509(x509 -> x509.subjectPrincipalRegex("CN=(.*?)(?:,|$)"))
+                .x509(x509 -> x509
+                        .x509PrincipalExtractor(x509AuthenticationCache.principalExtractor())
+                        .authenticationUserDetailsService(x509AuthenticationCache.userDetailsService()))
                 .csrf(AbstractHttpConfigurer::disable);
 
         return http.build();
     }
+
+    /**
+     * Creates the cache of the principals and users of X.509 client certificates.
+     *
+     * @param userDetailsService The {@link UserDetailsService} the principals are looked up with.
+     * @param maxSize            The maximum number of certificates remembered, {@code tls.x509-auth-cache.max-size};
+     *                           0 disables the cache.
+     * @return The {@link X509AuthenticationCache}, also published as metrics.
+     */
+    @Bean
+    public X509AuthenticationCache x509AuthenticationCache(UserDetailsService userDetailsService,
+                                                           @Value("${tls.x509-auth-cache.max-size:1024}") int maxSize) {
+        return new X509AuthenticationCache(SUBJECT_PRINCIPAL_REGEX, userDetailsService, maxSize);
+    }
 }
\ No newline at end of file
@@ -1,18 +1,19 @@
 package dev.cloudnative.learning.tlshotreload;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import dev.cloudnative.learning.tlshotreload.client.ProxyMode;
+import dev.cloudnative.learning.tlshotreload.client.StreamingProxy;
+import dev.cloudnative.learning.tlshotreload.x509.SslInfoSnapshots;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.ssl.SslBundle;
-import org.springframework.boot.ssl.SslBundles;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.RestClient;
+import org.springframework.web.context.request.WebRequest;
 
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.cert.X509Certificate;
-import java.util.Enumeration;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -25,20 +26,25 @@ import java.util.Map;
 @RestController
 public class TestController {
 
-    private final SslBundles sslBundles;
+    private final SslInfoSnapshots sslInfoSnapshots;
     private final RestClient restClient;
+    private final StreamingProxy streamingProxy;
     @Value("${spring.application.name}")
     private String applicationName;
+    @Value("${remote.proxy.mode:buffered}")
+    private ProxyMode proxyMode;
 
     /**
      * Constructs a new TestController with the necessary dependencies.
      *
-     * @param sslBundles An instance of {@link SslBundles} for accessing SSL certificate bundles.
-     * @param restClient An instance of {@link RestClient} for making internal HTTP calls.
+     * @param sslInfoSnapshots An instance of {@link SslInfoSnapshots} holding the certificate snapshot.
+     * @param restClient       An instance of {@link RestClient} for making internal HTTP calls.
+     * @param streamingProxy   The {@link StreamingProxy} copying remote responses in {@code streaming} mode.
      */
-    public TestController(SslBundles sslBundles, RestClient restClient) {
-        this.sslBundles = sslBundles;
+    public TestController(SslInfoSnapshots sslInfoSnapshots, RestClient restClient, StreamingProxy streamingProxy) {
+        this.sslInfoSnapshots = sslInfoSnapshots;
         this.restClient = restClient;
+        this.streamingProxy = streamingProxy;
     }
 
     /**
@@ -55,54 +61,49 @@ public class TestController {
     }
 
     /**
-     * Retrieves and displays detailed information about the SSL certificate used by the application.
-     * It attempts to find the certificate associated with the "self" SSL bundle.
-     * If an alias is not explicitly configured, it tries to find the first private key alias in the keystore.
+     * Serves the precomputed certificate snapshot of the "self" and "remote" bundles. The leaf certificate
+     * of the "self" bundle is described at the top level, the full chain and the trusted certificates of
+     * both bundles under {@code bundles}. A request whose {@code If-None-Match} header carries the
+     * snapshot's entity tag is answered with {@code 304 Not Modified} and no body.
      *
-     * @return A {@link ResponseEntity} containing a map with SSL certificate details (subject, issuer,
-     *         serial number, validity dates) or an error message if the bundle is not found or
-     *         certificate information cannot be retrieved. It also indicates if the bundle is active.
+     * @param request The incoming {@link WebRequest}, checked for a matching entity tag.
+     * @return A {@link ResponseEntity} containing the snapshot and its entity tag, or null if the
+     *         response has been completed as not modified.
      */
     @GetMapping("/ssl-info")
-    public ResponseEntity<Map<String, Object>> getSslInfo() {
-        Map<String, Object> response = new HashMap<>();
-
-        try {
-            SslBundle sslBundle = sslBundles.getBundle("self");
-
-            if (sslBundle != null && sslBundle.getStores().getKeyStore() != null) {
-                // Find the alias in a more robust way
-                String alias = findKeyAlias(sslBundle);
-                X509Certificate cert = (X509Certificate) sslBundle.getStores().getKeyStore().getCertificate(alias);
-
-                if (cert != null) {
-                    response.put("subject", cert.getSubjectX500Principal().getName());
-                    response.put("issuer", cert.getIssuerX500Principal().getName());
-                    response.put("serialNumber", cert.getSerialNumber().toString());
-                    response.put("notBefore", cert.getNotBefore());
-                    response.put("notAfter", cert.getNotAfter());
-                }
-            }
-
-            response.put("bundleActive", true);
-        } catch (Exception e) {
-            response.put("error", e.getMessage());
-            response.put("bundleActive", false);
+    public ResponseEntity<Map<String, Object>> getSslInfo(WebRequest request) {
+        SslInfoSnapshots.Snapshot snapshot = sslInfoSnapshots.current();
+        if (request.checkNotModified(snapshot.eTag())) {
+            return null;
         }
-
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok()
+                .eTag(snapshot.eTag())
+                .cacheControl(CacheControl.noCache())
+                .body(snapshot.body());
     }
 
     /**
      * Makes an internal HTTP GET request to the "/api/health" endpoint using the configured RestClient.
      * This demonstrates how the application can make calls to its own or other services, potentially
      * leveraging the configured SSL context.
+     * <p>
+     * With {@code remote.proxy.mode=streaming} the remote status, headers and body are copied to the response
+     * as they arrive, without reading the body into memory, and error statuses are passed on as they are.
      *
-     * @param request The incoming {@link HttpServletRequest}.
-     * @return The response body from the "/api/health" endpoint.
+     * @param request  The incoming {@link HttpServletRequest}.
+     * @param response The {@link HttpServletResponse} the remote response is streamed to.
+     * @return The response body from the "/api/health" endpoint, or null if it has been streamed to the response.
+     * @throws IOException if the remote response cannot be streamed.
      */
     @GetMapping("/api/test")
-    public String test(HttpServletRequest request) {
+    public String test(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (proxyMode == ProxyMode.STREAMING) {
+            restClient.get().uri("/api/health").exchange((remoteRequest, remoteResponse) -> {
+                streamingProxy.forward(remoteResponse, response);
+                return null;
+            });
+            return null;
+        }
         return restClient.get().uri("/api/health").retrieve().body(String.class);
     }
 
@@ -116,35 +117,4 @@ public class TestController {
         return String.format("Reached %s, and is running with mTLS enabled", applicationName);
     }
 
-    /**
-     * Finds the private key alias from the SslBundle.
-     * It first checks for a configured alias. If not found, it iterates
-     * the keystore to find the first available private key alias.
-     *
-     * @param sslBundle The SslBundle to inspect.
-     * @return The alias of the private key, or null if not found.
-     * @throws KeyStoreException if the keystore has not been loaded.
-     */
-    private String findKeyAlias(SslBundle sslBundle) throws KeyStoreException {
-        // First, prefer the explicitly configured alias
-        String configuredAlias = sslBundle.getKey().getAlias();
-        if (configuredAlias != null) {
-            return configuredAlias;
-        }
-
-        // If no alias is configured, search the keystore for a private key
-        KeyStore keyStore = sslBundle.getStores().getKeyStore();
-        Enumeration<String> aliases = keyStore.aliases();
-        while (aliases.hasMoreElements()) {
-            String alias = aliases.nextElement();
-            if (keyStore.isKeyEntry(alias)) {
-                // Return the first private key alias we find
-                return alias;
-            }
-        }
-
-        // Return null if no private key alias was found
-        return null;
-    }
-
 }
\ No newline at end of file
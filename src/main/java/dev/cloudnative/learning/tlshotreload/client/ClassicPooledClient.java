@@ -0,0 +1,50 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+/**
+ * A classic, blocking Apache HTTP client together with the connection pool it was built on.
+ * <p>
+ * Keeping both references allows the owner to route requests through the client while
+ * inspecting and closing the pool independently, e.g. when draining it after a rotation.
+ * Each exchange holds one HTTP/1.1 connection of the pool until it completes.
+ *
+ * @param httpClient        The client executing requests.
+ * @param connectionManager The pool owned by {@code httpClient}.
+ */
+public record ClassicPooledClient(CloseableHttpClient httpClient, PoolingHttpClientConnectionManager connectionManager)
+        implements PooledClient {
+
+    /**
+     * @return A Spring request factory executing requests through {@link #httpClient()}.
+     */
+    @Override
+    public ClientHttpRequestFactory requestFactory() {
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
+    }
+
+    /**
+     * @return The current totals of leased, available and pending connections in the pool.
+     */
+    @Override
+    public PoolStats stats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Closes the client and its pool.
+     *
+     * @param closeMode {@link CloseMode#GRACEFUL} to let leased connections finish,
+     *                  {@link CloseMode#IMMEDIATE} to abort them.
+     */
+    @Override
+    public void close(CloseMode closeMode) {
+        httpClient.close(closeMode);
+        connectionManager.close(closeMode);
+    }
+}
@@ -0,0 +1,16 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+/**
+ * The protocol the {@code RestClient} uses to reach the remote service, configured with {@code remote.transport}.
+ */
+public enum ClientTransport {
+    /**
+     * Blocking HTTP/1.1 exchanges, each holding a pooled connection until it completes.
+     */
+    CLASSIC,
+    /**
+     * HTTP/2 negotiated with ALPN; concurrent exchanges are multiplexed as streams over a single
+     * connection, so a reload only performs one handshake per remote.
+     */
+    H2
+}
@@ -0,0 +1,178 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.impl.DefaultSchemePortResolver;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.routing.RoutingSupport;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Opens and handshakes connections to an endpoint of the remote service on a new pool before it is published.
+ * <p>
+ * Each connection is leased, connected and TLS-handshaked on its own virtual thread, so the
+ * handshakes run in parallel. Connections that succeed are released back into the pool as
+ * reusable, so the first requests on a freshly rotated pool do not pay for a full mTLS
+ * handshake. If any handshake fails the warm-up is reported as failed, which lets the caller
+ * hold back material that the remote service does not accept.
+ * <p>
+ * An HTTP/2 client multiplexes everything over one connection, which is opened by sending a single
+ * {@code HEAD} request to the endpoint; any HTTP response proves that the handshake succeeded.
+ * <p>
+ * Warm-up durations are published as {@code remote.client.warmup} tagged by outcome.
+ */
+public class ConnectionWarmer implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionWarmer.class);
+
+    private final boolean enabled;
+    private final int connections;
+    private final Duration timeout;
+    private volatile MeterRegistry registry;
+
+    /**
+     * Constructs a new ConnectionWarmer.
+     *
+     * @param enabled     Whether warm-up is part of the reload path.
+     * @param connections The number of connections to open and handshake per endpoint.
+     * @param timeout     The maximum time allowed for leasing, connecting and handshaking each connection.
+     */
+    public ConnectionWarmer(boolean enabled, int connections, Duration timeout) {
+        this.enabled = enabled;
+        this.connections = connections;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return {@code true} if new material should be warmed up before it is published.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Opens and handshakes the connections of the given client to an endpoint: the configured number in
+     * parallel for a classic pool, the single multiplexed connection for HTTP/2.
+     *
+     * @param client   The not yet published client whose connections should be warmed up.
+     * @param endpoint The URL of the endpoint; only the scheme, host and port are used.
+     * @return {@code true} if every connection completed its handshake, {@code false} otherwise.
+     */
+    public boolean warmUp(PooledClient client, URI endpoint) {
+        return switch (client) {
+            case ClassicPooledClient classic -> warmUp(classic, endpoint);
+            case H2PooledClient h2 -> warmUp(h2, endpoint);
+        };
+    }
+
+    private boolean warmUp(ClassicPooledClient client, URI endpoint) {
+        HttpHost target = RoutingSupport.normalize(HttpHost.create(endpoint), DefaultSchemePortResolver.INSTANCE);
+        HttpRoute route = new HttpRoute(target, (InetAddress) null, URIScheme.HTTPS.same(target.getSchemeName()));
+        long start = System.nanoTime();
+        HttpClientConnectionManager connectionManager = client.connectionManager();
+        // Leasing more connections than the pool allows per route would only wait for the lease timeout
+        int count = Math.min(connections, client.connectionManager().getDefaultMaxPerRoute());
+        List<Future<ConnectionEndpoint>> handshakes = new ArrayList<>(count);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < count; i++) {
+                String id = "warm-up-" + i;
+                handshakes.add(executor.submit(() -> open(connectionManager, route, id)));
+            }
+        }
+
+        int failed = 0;
+        for (Future<ConnectionEndpoint> handshake : handshakes) {
+            try {
+                connectionManager.release(handshake.get(), null, null);
+            } catch (ExecutionException e) {
+                failed++;
+                logger.warn("Warm-up handshake with {} failed: {}", route.getTargetHost(), e.getCause().toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed++;
+            }
+        }
+
+        boolean success = failed == 0;
+        record(success, System.nanoTime() - start);
+        logger.info("Warmed up {} of {} connections to {}", count - failed, count, route.getTargetHost());
+        return success;
+    }
+
+    private boolean warmUp(H2PooledClient client, URI endpoint) {
+        long start = System.nanoTime();
+        Future<SimpleHttpResponse> exchange = client.httpClient().execute(SimpleRequestBuilder.head(endpoint).build(), null);
+        boolean success = false;
+        try {
+            SimpleHttpResponse response = exchange.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            success = true;
+            logger.info("Warmed up HTTP/2 connection to {}, answered {}", endpoint.getAuthority(), response.getCode());
+        } catch (ExecutionException e) {
+            logger.warn("Warm-up handshake with {} failed: {}", endpoint.getAuthority(), e.getCause().toString());
+        } catch (TimeoutException e) {
+            exchange.cancel(true);
+            logger.warn("Warm-up handshake with {} timed out after {}", endpoint.getAuthority(), timeout);
+        } catch (InterruptedException e) {
+            exchange.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+        record(success, System.nanoTime() - start);
+        return success;
+    }
+
+    private ConnectionEndpoint open(HttpClientConnectionManager connectionManager, HttpRoute route, String id) throws Exception {
+        Timeout leaseTimeout = Timeout.of(timeout);
+        ConnectionEndpoint endpoint = connectionManager.lease(id, route, leaseTimeout, null).get(leaseTimeout);
+        try {
+            connectionManager.connect(endpoint, TimeValue.of(timeout), HttpClientContext.create());
+            return endpoint;
+        } catch (Exception e) {
+            connectionManager.release(endpoint, null, TimeValue.ZERO_MILLISECONDS);
+            throw e;
+        }
+    }
+
+    private void record(boolean success, long durationNanos) {
+        MeterRegistry meterRegistry = registry;
+        if (meterRegistry != null) {
+            Timer.builder("remote.client.warmup")
+                    .description("Warm-up of a new remote connection pool before it is published")
+                    .tag("outcome", success ? "success" : "failure")
+                    .register(meterRegistry)
+                    .record(Duration.ofNanos(durationNanos));
+        }
+    }
+
+    /**
+     * Keeps the registry the warm-up timers are recorded in.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+    }
+}
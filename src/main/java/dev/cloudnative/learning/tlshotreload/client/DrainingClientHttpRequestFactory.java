@@ -0,0 +1,343 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * A {@link ClientHttpRequestFactory} that can switch to a new connection pool without
+ * interrupting the exchanges running on the previous one.
+ * <p>
+ * Every request is created on the current {@link PooledClient}. Calling {@link #rotate(PooledClient, Duration)}
+ * publishes a freshly built client for new requests straight away and moves the previous one
+ * into a draining set. A background task closes a draining client gracefully as soon as it has
+ * no requests in flight and no leased or pending connections, or forcibly once the drain deadline
+ * has passed. A request is in flight on the pool it was created on from {@link #createRequest(URI, HttpMethod)}
+ * until its response is closed or its execution fails, so a request created just before a rotation keeps
+ * its pool open even before it leases a connection. For an HTTP/2 client the exchanges in flight on its
+ * connection count as leased.
+ * <p>
+ * The number of leased, idle and pending connections in the current pool and across the
+ * draining pools is published as {@code remote.client.pool.connections}, and completed drains
+ * are counted in {@code remote.client.pool.drains} tagged by outcome. All are tagged with the
+ * endpoint the pools connect to.
+ */
+public class DrainingClientHttpRequestFactory implements ClientHttpRequestFactory, MeterBinder, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DrainingClientHttpRequestFactory.class);
+    private static final long DRAIN_CHECK_INTERVAL_MILLIS = 250;
+
+    private final String endpoint;
+    private final Map<Generation, Long> draining = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("remote-pool-drain").daemon().factory());
+    private volatile Generation current;
+    private volatile Counter idleDrains;
+    private volatile Counter deadlineDrains;
+
+    /**
+     * Constructs a new factory routing requests to the given client.
+     *
+     * @param initial  The client receiving requests until the first rotation.
+     * @param endpoint The {@code host:port} of the endpoint the pools connect to, used to tag metrics and logs.
+     */
+    public DrainingClientHttpRequestFactory(PooledClient initial, String endpoint) {
+        this.endpoint = endpoint;
+        this.current = new Generation(initial);
+    }
+
+    /**
+     * Creates the request on the current pool. The request keeps using that pool until it
+     * completes, even if the factory rotates in the meantime.
+     * {@inheritDoc}
+     */
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        Generation generation = current;
+        generation.inFlight().incrementAndGet();
+        try {
+            return new DrainingRequest(generation.requestFactory().createRequest(uri, httpMethod), generation);
+        } catch (IOException | RuntimeException e) {
+            generation.inFlight().decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Publishes a new pool for new requests and starts draining the previous one.
+     *
+     * @param next         The client that receives every request created from now on.
+     * @param drainTimeout The maximum time the previous pool may keep serving in-flight exchanges
+     *                     before it is closed forcibly. {@link Duration#ZERO} closes it immediately.
+     */
+    public void rotate(PooledClient next, Duration drainTimeout) {
+        Generation previous;
+        synchronized (this) {
+            previous = current;
+            current = new Generation(next);
+        }
+
+        if (drainTimeout.isZero()) {
+            previous.client().close(CloseMode.IMMEDIATE);
+            logger.info("Rotated remote connection pool of {}, previous pool closed immediately", endpoint);
+            return;
+        }
+
+        draining.put(previous, System.nanoTime() + drainTimeout.toNanos());
+        scheduler.schedule(() -> drain(previous), DRAIN_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        logger.info("Rotated remote connection pool of {}, draining previous pool for up to {}", endpoint, drainTimeout);
+    }
+
+    /**
+     * @return The client currently receiving new requests.
+     */
+    public PooledClient current() {
+        return current.client();
+    }
+
+    private void drain(Generation generation) {
+        boolean done = false;
+        try {
+            done = drainIfIdle(generation);
+        } catch (RuntimeException e) {
+            logger.warn("Could not drain remote connection pool of {}", endpoint, e);
+        } finally {
+            if (done || scheduler.isShutdown()) {
+                draining.remove(generation);
+            } else if (isPastDeadline(generation)) {
+                draining.remove(generation);
+                closeQuietly(generation.client(), CloseMode.IMMEDIATE);
+            } else {
+                scheduler.schedule(() -> drain(generation), DRAIN_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // Returns true once the pool has been closed
+    private boolean drainIfIdle(Generation generation) {
+        PoolStats stats = generation.client().stats();
+        int inFlight = generation.inFlight().get();
+        boolean idle = inFlight == 0 && stats.getLeased() == 0 && stats.getPending() == 0;
+        if (!idle && !isPastDeadline(generation)) {
+            return false;
+        }
+
+        draining.remove(generation);
+        if (idle) {
+            generation.client().close(CloseMode.GRACEFUL);
+            increment(idleDrains);
+            logger.info("Closed drained remote connection pool of {}", endpoint);
+        } else {
+            generation.client().close(CloseMode.IMMEDIATE);
+            increment(deadlineDrains);
+            logger.warn("Closed remote connection pool of {} at drain deadline with {} requests in flight and {} leased connections",
+                    endpoint, inFlight, stats.getLeased());
+        }
+        return true;
+    }
+
+    private boolean isPastDeadline(Generation generation) {
+        Long deadline = draining.get(generation);
+        return deadline == null || System.nanoTime() - deadline >= 0;
+    }
+
+    private void closeQuietly(PooledClient client, CloseMode closeMode) {
+        try {
+            client.close(closeMode);
+        } catch (RuntimeException e) {
+            logger.warn("Could not close remote connection pool of {}", endpoint, e);
+        }
+    }
+
+    private static void increment(Counter counter) {
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    /**
+     * Registers the pool gauges and drain counters with the given registry.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        registerGauge(registry, "current", "leased", s -> current.client().stats().getLeased());
+        registerGauge(registry, "current", "idle", s -> current.client().stats().getAvailable());
+        registerGauge(registry, "current", "pending", s -> current.client().stats().getPending());
+        registerGauge(registry, "draining", "leased", s -> sumDraining(PoolStats::getLeased));
+        registerGauge(registry, "draining", "idle", s -> sumDraining(PoolStats::getAvailable));
+        registerGauge(registry, "draining", "pending", s -> sumDraining(PoolStats::getPending));
+        Gauge.builder("remote.client.pool.draining", draining, Map::size)
+                .description("Number of remote connection pools that are still draining")
+                .tag("endpoint", endpoint)
+                .register(registry);
+
+        idleDrains = Counter.builder("remote.client.pool.drains")
+                .description("Remote connection pools closed after a rotation")
+                .tag("endpoint", endpoint)
+                .tag("outcome", "idle")
+                .register(registry);
+        deadlineDrains = Counter.builder("remote.client.pool.drains")
+                .description("Remote connection pools closed after a rotation")
+                .tag("endpoint", endpoint)
+                .tag("outcome", "deadline")
+                .register(registry);
+    }
+
+    private void registerGauge(MeterRegistry registry, String pool, String state, ToIntFunction<Object> value) {
+        Gauge.builder("remote.client.pool.connections", this, value::applyAsInt)
+                .description("Connections of the remote client pools")
+                .tag("endpoint", endpoint)
+                .tag("pool", pool)
+                .tag("state", state)
+                .register(registry);
+    }
+
+    private int sumDraining(ToIntFunction<PoolStats> value) {
+        return draining.keySet().stream().mapToInt(generation -> value.applyAsInt(generation.client().stats())).sum();
+    }
+
+    /**
+     * Stops the drain task and closes the current and all draining pools immediately.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        draining.keySet().forEach(generation -> generation.client().close(CloseMode.IMMEDIATE));
+        draining.clear();
+        current.client().close(CloseMode.GRACEFUL);
+    }
+
+    /**
+     * A pool together with the request factory executing requests on it and the number of its requests
+     * in flight.
+     */
+    private record Generation(PooledClient client, ClientHttpRequestFactory requestFactory, AtomicInteger inFlight) {
+
+        Generation(PooledClient client) {
+            this(client, client.requestFactory(), new AtomicInteger());
+        }
+    }
+
+    /**
+     * A request that stays in flight on its pool until its execution fails or its response is closed.
+     */
+    private static class DrainingRequest implements ClientHttpRequest {
+
+        private final ClientHttpRequest delegate;
+        private final Generation generation;
+
+        DrainingRequest(ClientHttpRequest delegate, Generation generation) {
+            this.delegate = delegate;
+            this.generation = generation;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            ClientHttpResponse response;
+            try {
+                response = delegate.execute();
+            } catch (IOException | RuntimeException e) {
+                generation.inFlight().decrementAndGet();
+                throw e;
+            }
+            return new DrainingResponse(response, generation);
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return delegate.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return delegate.getURI();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return delegate.getAttributes();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+    }
+
+    /**
+     * A response that ends its request's flight on its pool when closed.
+     */
+    private static class DrainingResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse delegate;
+        private final Generation generation;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        DrainingResponse(ClientHttpResponse delegate, Generation generation) {
+            this.delegate = delegate;
+            this.generation = generation;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                if (closed.compareAndSet(false, true)) {
+                    generation.inFlight().decrementAndGet();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityProducer;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http.nio.support.classic.SharedInputBuffer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ClientHttpRequestFactory} executing requests on an asynchronous HTTP/2 client.
+ * <p>
+ * Request bodies are buffered in memory and sent once the request is executed. The calling thread blocks
+ * until the response head has been received, which is cheap on a virtual request thread, while the exchange
+ * itself occupies only a stream of the shared connection. The response body is not buffered: its data frames
+ * are read from a bounded buffer as they arrive, and the stream's flow control window only opens again as the
+ * caller reads, so {@code remote.proxy.mode=streaming} holds at most that buffer per response on this transport
+ * too. Closing the response before its end cancels the stream. A request is counted in flight from its
+ * execution until its response has been read to the end, has failed or has been cancelled.
+ */
+class H2ClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+    private static final int RESPONSE_BUFFER_SIZE = 64 * 1024;
+
+    // Connection-specific headers are not allowed in HTTP/2, the client derives what it needs
+    private static final Set<String> CONNECTION_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        CONNECTION_HEADERS.addAll(List.of(HttpHeaders.HOST, HttpHeaders.CONNECTION, HttpHeaders.CONTENT_LENGTH,
+                HttpHeaders.TRANSFER_ENCODING, HttpHeaders.UPGRADE, "Keep-Alive", "Proxy-Connection"));
+    }
+
+    private final CloseableHttpAsyncClient httpClient;
+    private final AtomicInteger inFlight;
+
+    H2ClientHttpRequestFactory(CloseableHttpAsyncClient httpClient, AtomicInteger inFlight) {
+        this.httpClient = httpClient;
+        this.inFlight = inFlight;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new H2ClientHttpRequest(uri, httpMethod);
+    }
+
+    private class H2ClientHttpRequest extends AbstractClientHttpRequest {
+
+        private final URI uri;
+        private final HttpMethod method;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+
+        H2ClientHttpRequest(URI uri, HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            return body;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+            BasicHttpRequest request = new BasicHttpRequest(method.name(), uri);
+            headers.forEach((name, values) -> {
+                if (!CONNECTION_HEADERS.contains(name)) {
+                    values.forEach(value -> request.addHeader(name, value));
+                }
+            });
+            AsyncEntityProducer entity = null;
+            if (body.size() > 0) {
+                ContentType contentType = headers.getContentType() != null
+                        ? ContentType.parse(headers.getContentType().toString()) : null;
+                entity = new BasicAsyncEntityProducer(body.toByteArray(), contentType);
+            }
+
+            StreamingResponseConsumer consumer = new StreamingResponseConsumer();
+            inFlight.incrementAndGet();
+            Future<Void> exchange = httpClient.execute(new BasicRequestProducer(request, entity), consumer,
+                    new FutureCallback<>() {
+                        @Override
+                        public void completed(Void result) {
+                            inFlight.decrementAndGet();
+                        }
+
+                        @Override
+                        public void failed(Exception ex) {
+                            inFlight.decrementAndGet();
+                            consumer.head.completeExceptionally(ex);
+                        }
+
+                        @Override
+                        public void cancelled() {
+                            inFlight.decrementAndGet();
+                            consumer.head.cancel(false);
+                        }
+                    });
+            try {
+                return new H2ClientHttpResponse(consumer.head.get(), consumer, exchange);
+            } catch (InterruptedException e) {
+                exchange.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + method + " " + uri);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            } catch (CancellationException e) {
+                throw new InterruptedIOException("Cancelled " + method + " " + uri);
+            }
+        }
+    }
+
+    /**
+     * Completes {@link #head} once the response head arrives and hands the body on through a bounded buffer.
+     */
+    private static class StreamingResponseConsumer implements AsyncResponseConsumer<Void> {
+
+        private final CompletableFuture<HttpResponse> head = new CompletableFuture<>();
+        private final SharedInputBuffer buffer = new SharedInputBuffer(RESPONSE_BUFFER_SIZE);
+        private volatile FutureCallback<Void> resultCallback;
+        private volatile Exception failure;
+
+        @Override
+        public void consumeResponse(HttpResponse response, EntityDetails entityDetails, HttpContext context,
+                                    FutureCallback<Void> resultCallback) {
+            if (entityDetails == null) {
+                buffer.markEndStream();
+                resultCallback.completed(null);
+            } else {
+                this.resultCallback = resultCallback;
+            }
+            head.complete(response);
+        }
+
+        @Override
+        public void informationResponse(HttpResponse response, HttpContext context) {
+        }
+
+        @Override
+        public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+            buffer.updateCapacity(capacityChannel);
+        }
+
+        @Override
+        public void consume(ByteBuffer src) {
+            buffer.fill(src);
+        }
+
+        @Override
+        public void streamEnd(List<? extends Header> trailers) {
+            buffer.markEndStream();
+            FutureCallback<Void> callback = resultCallback;
+            if (callback != null) {
+                callback.completed(null);
+            }
+        }
+
+        @Override
+        public void failed(Exception cause) {
+            failure = cause;
+            buffer.abort();
+            head.completeExceptionally(cause);
+        }
+
+        @Override
+        public void releaseResources() {
+        }
+
+        // The buffer reads an aborted stream as its end, the failure turns it into an error
+        int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = buffer.read(bytes, offset, length);
+            Exception cause = failure;
+            if (read < 0 && cause != null) {
+                throw cause instanceof IOException io ? io : new IOException(cause);
+            }
+            return read;
+        }
+    }
+
+    private static class H2ClientHttpResponse implements ClientHttpResponse {
+
+        private final HttpResponse response;
+        private final StreamingResponseConsumer consumer;
+        private final Future<Void> exchange;
+        private final HttpHeaders headers = new HttpHeaders();
+        private final InputStream body;
+
+        H2ClientHttpResponse(HttpResponse response, StreamingResponseConsumer consumer, Future<Void> exchange) {
+            this.response = response;
+            this.consumer = consumer;
+            this.exchange = exchange;
+            for (Header header : response.getHeaders()) {
+                headers.add(header.getName(), header.getValue());
+            }
+            this.body = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] single = new byte[1];
+                    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    return length == 0 ? 0 : consumer.read(bytes, offset, length);
+                }
+
+                @Override
+                public int available() {
+                    return consumer.buffer.length();
+                }
+            };
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return HttpStatusCode.valueOf(response.getCode());
+        }
+
+        @Override
+        public String getStatusText() {
+            return response.getReasonPhrase() != null ? response.getReasonPhrase() : "";
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * Cancels the stream if its body has not been read to the end.
+         */
+        @Override
+        public void close() {
+            if (!exchange.isDone()) {
+                exchange.cancel(true);
+                consumer.buffer.abort();
+            }
+        }
+    }
+}
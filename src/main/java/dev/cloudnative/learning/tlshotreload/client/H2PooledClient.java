@@ -0,0 +1,60 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.http.client.ClientHttpRequestFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An asynchronous Apache HTTP client speaking HTTP/2 to the remote service.
+ * <p>
+ * The client keeps a single connection per remote and multiplexes every exchange on it as a stream,
+ * so there is no pool of connections to lease from. Exchanges in flight are counted instead and
+ * reported as leased by {@link #stats()}, which lets a draining client be closed once its streams
+ * have completed, exactly like a classic pool.
+ */
+public final class H2PooledClient implements PooledClient {
+
+    private final CloseableHttpAsyncClient httpClient;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Constructs a new H2PooledClient and starts the I/O reactor of the given client.
+     *
+     * @param httpClient The not yet started HTTP/2 client owned by the new instance.
+     */
+    public H2PooledClient(CloseableHttpAsyncClient httpClient) {
+        this.httpClient = httpClient;
+        httpClient.start();
+    }
+
+    /**
+     * @return The client executing the requests.
+     */
+    public CloseableHttpAsyncClient httpClient() {
+        return httpClient;
+    }
+
+    /**
+     * @return A Spring request factory executing requests as HTTP/2 streams of {@link #httpClient()}.
+     */
+    @Override
+    public ClientHttpRequestFactory requestFactory() {
+        return new H2ClientHttpRequestFactory(httpClient, inFlight);
+    }
+
+    /**
+     * @return The number of exchanges in flight as leased, with nothing idle or pending.
+     */
+    @Override
+    public PoolStats stats() {
+        return new PoolStats(inFlight.get(), 0, 0, 1);
+    }
+
+    @Override
+    public void close(CloseMode closeMode) {
+        httpClient.close(closeMode);
+    }
+}
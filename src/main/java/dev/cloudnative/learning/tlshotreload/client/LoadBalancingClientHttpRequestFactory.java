@@ -0,0 +1,331 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link ClientHttpRequestFactory} that spreads requests over several endpoints of the remote service,
+ * each with its own connection pools built with the "remote" bundle's material.
+ * <p>
+ * Requests are created for the logical remote URL; each is sent to an endpoint chosen by the
+ * {@link LoadBalancingStrategy} from two endpoints drawn at random, with the scheme, host and port of the
+ * URL replaced by the endpoint's. A request counts as outstanding on its endpoint from its execution until
+ * its response is closed, and the time to the response headers feeds the endpoint's latency average.
+ * <p>
+ * Endpoints are ejected passively: after a number of consecutive requests that fail to connect or to
+ * complete the TLS handshake, an endpoint receives no requests for the ejection time, multiplied by the
+ * number of times in a row it has been ejected, up to a maximum. At most a given share of the endpoints
+ * is ejected at a time, and if all are unavailable requests go to all of them. Ejections are lifted when
+ * the "remote" bundle is reloaded, as a failed handshake may have been caused by the previous material.
+ * <p>
+ * Outstanding requests and latency averages are published per endpoint as {@code remote.client.endpoint.outstanding}
+ * and {@code remote.client.endpoint.latency}, ejected endpoints as {@code remote.client.endpoint.ejected}, and
+ * ejections as {@code remote.client.endpoint.ejections}, all tagged by endpoint.
+ */
+public class LoadBalancingClientHttpRequestFactory implements ClientHttpRequestFactory, MeterBinder, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadBalancingClientHttpRequestFactory.class);
+
+    private final List<RemoteEndpoint> endpoints;
+    private final LoadBalancingStrategy strategy;
+    private final long decayNanos;
+    private final int ejectionFailures;
+    private final long ejectionNanos;
+    private final long maxEjectionNanos;
+    private final int maxEjected;
+    private final Map<RemoteEndpoint, Counter> ejectionCounters = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new LoadBalancingClientHttpRequestFactory.
+     *
+     * @param endpoints          The endpoints of the remote service.
+     * @param strategy           How an endpoint is picked for a request.
+     * @param decay              The time after which a latency measurement weighs about a third of its initial weight.
+     * @param ejectionFailures   The consecutive connection failures after which an endpoint is ejected, 0 to never eject.
+     * @param ejectionTime       The time an endpoint is ejected for the first time in a row.
+     * @param maxEjectionTime    The longest time an endpoint is ejected for.
+     * @param maxEjectionPercent The share of the endpoints that may be ejected at the same time, in percent.
+     */
+    public LoadBalancingClientHttpRequestFactory(List<RemoteEndpoint> endpoints, LoadBalancingStrategy strategy,
+                                                 Duration decay, int ejectionFailures, Duration ejectionTime,
+                                                 Duration maxEjectionTime, int maxEjectionPercent) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one remote endpoint is required");
+        }
+        this.endpoints = List.copyOf(endpoints);
+        this.strategy = strategy;
+        this.decayNanos = Math.max(1, decay.toNanos());
+        this.ejectionFailures = ejectionFailures;
+        this.ejectionNanos = ejectionTime.toNanos();
+        this.maxEjectionNanos = maxEjectionTime.toNanos();
+        this.maxEjected = endpoints.size() * maxEjectionPercent / 100;
+    }
+
+    /**
+     * @return The endpoints of the remote service, in configuration order.
+     */
+    public List<RemoteEndpoint> endpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Creates the request on the current pool of the endpoint chosen for it.
+     * {@inheritDoc}
+     */
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        RemoteEndpoint endpoint = choose();
+        URI target = UriComponentsBuilder.fromUri(uri)
+                .scheme(endpoint.uri().getScheme())
+                .host(endpoint.uri().getHost())
+                .port(endpoint.uri().getPort())
+                .build(true)
+                .toUri();
+        return new BalancedRequest(endpoint.requestFactory().createRequest(target, httpMethod), endpoint);
+    }
+
+    private RemoteEndpoint choose() {
+        List<RemoteEndpoint> available = new ArrayList<>(endpoints.size());
+        for (RemoteEndpoint endpoint : endpoints) {
+            if (!endpoint.isEjected()) {
+                available.add(endpoint);
+            }
+        }
+        List<RemoteEndpoint> candidates = available.isEmpty() ? endpoints : available;
+        if (candidates.size() == 1) {
+            return candidates.getFirst();
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        RemoteEndpoint a = candidates.get(first);
+        RemoteEndpoint b = candidates.get(second);
+        return a.cost(strategy) <= b.cost(strategy) ? a : b;
+    }
+
+    /**
+     * Ejects the given endpoint at once, e.g. because new material could not be handshaked with it,
+     * unless the maximum share of endpoints is ejected already.
+     *
+     * @param endpoint The endpoint to eject.
+     * @param reason   Why, for the log.
+     */
+    public void eject(RemoteEndpoint endpoint, String reason) {
+        synchronized (this) {
+            if (endpoint.isEjected() || ejectedCount() >= maxEjected) {
+                return;
+            }
+            long duration = endpoint.eject(ejectionNanos, maxEjectionNanos);
+            logger.warn("Ejected remote endpoint {} for {} ms: {}", endpoint.name(),
+                    TimeUnit.NANOSECONDS.toMillis(duration), reason);
+        }
+        Counter counter = ejectionCounters.get(endpoint);
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    /**
+     * Lifts every ejection and resets the failure counts, as the "remote" bundle has been reloaded.
+     */
+    public void reinstateAll() {
+        endpoints.forEach(RemoteEndpoint::reinstate);
+    }
+
+    private int ejectedCount() {
+        int ejected = 0;
+        for (RemoteEndpoint endpoint : endpoints) {
+            if (endpoint.isEjected()) {
+                ejected++;
+            }
+        }
+        return ejected;
+    }
+
+    private void failed(RemoteEndpoint endpoint, IOException e) {
+        if (ejectionFailures > 0 && isConnectionFailure(e) && endpoint.failed() >= ejectionFailures) {
+            eject(endpoint, ejectionFailures + " consecutive connection failures, last " + e);
+        }
+    }
+
+    // Failures to reach the endpoint or to handshake with it, as opposed to failures of an established exchange
+    private static boolean isConnectionFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SSLException || cause instanceof ConnectException || cause instanceof NoRouteToHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers the per endpoint gauges and counters, and those of the endpoints' pools.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (RemoteEndpoint endpoint : endpoints) {
+            endpoint.requestFactory().bindTo(registry);
+            Gauge.builder("remote.client.endpoint.outstanding", endpoint, RemoteEndpoint::outstanding)
+                    .description("Requests in flight on the remote endpoint")
+                    .tag("endpoint", endpoint.name())
+                    .register(registry);
+            Gauge.builder("remote.client.endpoint.latency", endpoint, RemoteEndpoint::latencyMillis)
+                    .description("Moving average of the time to the response headers of the remote endpoint")
+                    .tag("endpoint", endpoint.name())
+                    .baseUnit("milliseconds")
+                    .register(registry);
+            Gauge.builder("remote.client.endpoint.ejected", endpoint, e -> e.isEjected() ? 1 : 0)
+                    .description("1 while the remote endpoint is ejected")
+                    .tag("endpoint", endpoint.name())
+                    .register(registry);
+            ejectionCounters.put(endpoint, Counter.builder("remote.client.endpoint.ejections")
+                    .description("Ejections of the remote endpoint after connection failures")
+                    .tag("endpoint", endpoint.name())
+                    .register(registry));
+        }
+    }
+
+    /**
+     * Closes the pools of every endpoint.
+     */
+    @Override
+    public void close() {
+        endpoints.forEach(endpoint -> endpoint.requestFactory().close());
+    }
+
+    /**
+     * A request to a chosen endpoint, tracking its outcome for the endpoint's load and health.
+     */
+    private class BalancedRequest implements ClientHttpRequest {
+
+        private final ClientHttpRequest delegate;
+        private final RemoteEndpoint endpoint;
+
+        BalancedRequest(ClientHttpRequest delegate, RemoteEndpoint endpoint) {
+            this.delegate = delegate;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            endpoint.started();
+            long start = System.nanoTime();
+            ClientHttpResponse response;
+            try {
+                response = delegate.execute();
+            } catch (IOException e) {
+                endpoint.finished();
+                failed(endpoint, e);
+                throw e;
+            } catch (RuntimeException e) {
+                endpoint.finished();
+                throw e;
+            }
+            endpoint.recordLatency(System.nanoTime() - start, decayNanos);
+            endpoint.succeeded();
+            return new BalancedResponse(response, endpoint);
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return delegate.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return delegate.getURI();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return delegate.getAttributes();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+    }
+
+    /**
+     * A response that ends its request's outstanding count on its endpoint when closed.
+     */
+    private static class BalancedResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse delegate;
+        private final RemoteEndpoint endpoint;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        BalancedResponse(ClientHttpResponse delegate, RemoteEndpoint endpoint) {
+            this.delegate = delegate;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                if (closed.compareAndSet(false, true)) {
+                    endpoint.finished();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+/**
+ * How a request picks one of the remote endpoints, configured with {@code remote.load-balancing.strategy}.
+ * <p>
+ * Both strategies compare two endpoints drawn at random and pick the cheaper one, which spreads bursts
+ * across endpoints instead of sending them all to the single cheapest one.
+ */
+public enum LoadBalancingStrategy {
+    /**
+     * The endpoint with fewer requests in flight.
+     */
+    LEAST_OUTSTANDING,
+    /**
+     * The endpoint with the lower moving average of response latency, weighted by the requests in flight,
+     * so a slow endpoint gets less traffic before it has queued any.
+     */
+    EWMA
+}
@@ -0,0 +1,34 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.http.client.ClientHttpRequestFactory;
+
+/**
+ * An HTTP client for the remote service that owns its connections.
+ * <p>
+ * A pooled client is built for one {@link javax.net.ssl.SSLContext} and is replaced as a whole
+ * when the reload mode asks for new connections, so the owner needs to route requests through it,
+ * see how busy it is while draining it, and close it.
+ */
+public sealed interface PooledClient permits ClassicPooledClient, H2PooledClient {
+
+    /**
+     * @return A Spring request factory executing requests through this client.
+     */
+    ClientHttpRequestFactory requestFactory();
+
+    /**
+     * @return The current totals of leased, available and pending connections, or of in-flight
+     * exchanges for a multiplexing client.
+     */
+    PoolStats stats();
+
+    /**
+     * Closes the client and its connections.
+     *
+     * @param closeMode {@link CloseMode#GRACEFUL} to let in-flight exchanges finish,
+     *                  {@link CloseMode#IMMEDIATE} to abort them.
+     */
+    void close(CloseMode closeMode);
+}
@@ -0,0 +1,118 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import dev.cloudnative.learning.tlshotreload.x509.TlsMetrics;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.client5.http.ssl.TlsSocketStrategy;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.util.Timeout;
+
+import javax.net.ssl.SSLContext;
+import java.time.Duration;
+
+/**
+ * Builds Apache HTTP clients, each with its own connections, for the remote service.
+ * <p>
+ * All clients share the same transport and pool settings and differ only in the {@link SSLContext}
+ * their TLS connections are created with. This allows a new pool to be prepared, and
+ * warmed up, with new key and trust material before it receives any traffic. Every handshake
+ * is timed by a {@link TimedTlsSocketStrategy}, or a {@link TimedTlsStrategy} for HTTP/2.
+ * <p>
+ * The pool allows as many connections to the remote service as there are request threads that
+ * may call it concurrently. A request that finds the pool exhausted waits at most the lease
+ * timeout for a connection to be released, so with virtual request threads the pool, not the
+ * thread count, bounds the concurrency towards the remote service. The HTTP/2 transport has no
+ * pool to bound: every exchange is a stream on one connection, limited by the streams the remote allows.
+ */
+public class PooledClientFactory {
+
+    private final TlsMetrics metrics;
+    private final String bundleName;
+    private final ClientTransport transport;
+    private final int maxConnections;
+    private final Duration leaseTimeout;
+
+    /**
+     * Constructs a new PooledClientFactory.
+     *
+     * @param metrics        The {@link TlsMetrics} to record client handshakes into.
+     * @param bundleName     The name of the bundle providing the client material, used to tag metrics.
+     * @param transport      The protocol of the built clients.
+     * @param maxConnections The maximum number of connections of a pool, in total and to the remote service.
+     * @param leaseTimeout   How long a request waits for a connection when the pool is exhausted.
+     */
+    public PooledClientFactory(TlsMetrics metrics, String bundleName, ClientTransport transport,
+                               int maxConnections, Duration leaseTimeout) {
+        this.metrics = metrics;
+        this.bundleName = bundleName;
+        this.transport = transport;
+        this.maxConnections = maxConnections;
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    /**
+     * Builds a new Apache HTTP client with its own connections, for the configured transport.
+     *
+     * @param sslContext The SSL context used for every TLS connection of the client.
+     * @return A {@link PooledClient} owning the new client and its connections.
+     */
+    public PooledClient create(SSLContext sslContext) {
+        return switch (transport) {
+            case CLASSIC -> createClassic(sslContext);
+            case H2 -> createH2(sslContext);
+        };
+    }
+
+    /**
+     * Builds a new classic Apache HTTP client with its own connection pool.
+     *
+     * @param sslContext The SSL context used for every TLS connection of the pool.
+     * @return A {@link ClassicPooledClient} owning the new client and pool.
+     */
+    public ClassicPooledClient createClassic(SSLContext sslContext) {
+        // Configure HTTP client with SSL context
+        TlsSocketStrategy tlsSocketStrategy = new TimedTlsSocketStrategy((TlsSocketStrategy) ClientTlsStrategyBuilder.create()
+                .setSslContext(sslContext)
+                .build(), metrics, bundleName);
+
+        PoolingHttpClientConnectionManager connManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setTlsSocketStrategy(tlsSocketStrategy)
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .build();
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(leaseTimeout))
+                        .build())
+                .build();
+
+        return new ClassicPooledClient(httpClient, connManager);
+    }
+
+    /**
+     * Builds and starts a new asynchronous Apache HTTP client that only speaks HTTP/2, negotiated with ALPN,
+     * and multiplexes all exchanges with a remote over a single connection.
+     *
+     * @param sslContext The SSL context used for the TLS connections of the client.
+     * @return A {@link H2PooledClient} owning the new client.
+     */
+    public H2PooledClient createH2(SSLContext sslContext) {
+        TlsStrategy tlsStrategy = new TimedTlsStrategy(ClientTlsStrategyBuilder.create()
+                .setSslContext(sslContext)
+                .build(), metrics, bundleName);
+
+        CloseableHttpAsyncClient httpClient = HttpAsyncClients.customHttp2()
+                .setTlsStrategy(tlsStrategy)
+                .build();
+
+        return new H2PooledClient(httpClient);
+    }
+}
@@ -0,0 +1,16 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+/**
+ * How {@code /api/test} passes the remote service's response on, configured with {@code remote.proxy.mode}.
+ */
+public enum ProxyMode {
+    /**
+     * The response body is read into a string and written once complete, as text. Error statuses of the
+     * remote service fail the request.
+     */
+    BUFFERED,
+    /**
+     * The status, headers and body are copied to the caller as they arrive, see {@link StreamingProxy}.
+     */
+    STREAMING
+}
@@ -0,0 +1,156 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One replica of the remote service, with its own connection pools and the load and health state the
+ * {@link LoadBalancingClientHttpRequestFactory} picks endpoints by.
+ * <p>
+ * The latency is a moving average that decays with time rather than per sample, so an endpoint that has
+ * not been used for a while is not judged by stale measurements. An endpoint is ejected after a number of
+ * consecutive connection failures and comes back once its ejection time has passed.
+ */
+public final class RemoteEndpoint {
+
+    private final URI uri;
+    private final String name;
+    private final DrainingClientHttpRequestFactory requestFactory;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private double latencyNanos;
+    private long latencyUpdatedNanos;
+    private int consecutiveFailures;
+    private int ejections;
+    private volatile long ejectedUntilNanos;
+    private volatile boolean ejected;
+
+    /**
+     * Constructs a new RemoteEndpoint.
+     *
+     * @param uri            The URL of the endpoint; only the scheme, host and port are used.
+     * @param requestFactory The factory executing requests on the endpoint's current connection pool.
+     */
+    public RemoteEndpoint(URI uri, DrainingClientHttpRequestFactory requestFactory) {
+        this.uri = uri;
+        this.name = nameOf(uri);
+        this.requestFactory = requestFactory;
+    }
+
+    /**
+     * @param uri The URL of an endpoint.
+     * @return The {@code host:port} of the endpoint, used to tag metrics and logs.
+     */
+    public static String nameOf(URI uri) {
+        int port = uri.getPort() != -1 ? uri.getPort() : "http".equalsIgnoreCase(uri.getScheme()) ? 80 : 443;
+        return uri.getHost() + ":" + port;
+    }
+
+    /**
+     * @return The URL of the endpoint.
+     */
+    public URI uri() {
+        return uri;
+    }
+
+    /**
+     * @return The {@code host:port} of the endpoint.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return The factory executing requests on the endpoint's current connection pool.
+     */
+    public DrainingClientHttpRequestFactory requestFactory() {
+        return requestFactory;
+    }
+
+    /**
+     * @return The number of requests executing on the endpoint or reading its responses.
+     */
+    public int outstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return The moving average of the time to the response headers, in milliseconds, 0 before the first response.
+     */
+    public synchronized double latencyMillis() {
+        return latencyNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return {@code true} if the endpoint is ejected and its ejection time has not passed.
+     */
+    public boolean isEjected() {
+        if (ejected && System.nanoTime() - ejectedUntilNanos >= 0) {
+            ejected = false;
+        }
+        return ejected;
+    }
+
+    void started() {
+        outstanding.incrementAndGet();
+    }
+
+    void finished() {
+        outstanding.decrementAndGet();
+    }
+
+    // Time-decayed: the weight of the previous average falls with the time since it was last updated
+    synchronized void recordLatency(long nanos, long decayNanos) {
+        long now = System.nanoTime();
+        if (latencyUpdatedNanos == 0) {
+            latencyNanos = nanos;
+        } else {
+            double weight = Math.exp(-(double) (now - latencyUpdatedNanos) / decayNanos);
+            latencyNanos = latencyNanos * weight + nanos * (1 - weight);
+        }
+        latencyUpdatedNanos = now;
+    }
+
+    // The cost of sending one more request here, 0 for an endpoint that has not answered yet
+    synchronized double cost(LoadBalancingStrategy strategy) {
+        int inFlight = outstanding.get();
+        return switch (strategy) {
+            case LEAST_OUTSTANDING -> inFlight;
+            case EWMA -> latencyNanos * (inFlight + 1);
+        };
+    }
+
+    synchronized void succeeded() {
+        consecutiveFailures = 0;
+        ejections = 0;
+    }
+
+    /**
+     * Counts a connection failure.
+     *
+     * @return The number of consecutive failures, including this one.
+     */
+    synchronized int failed() {
+        return ++consecutiveFailures;
+    }
+
+    /**
+     * Ejects the endpoint for the base time multiplied by the number of times it has been ejected in a row.
+     *
+     * @return The ejection time.
+     */
+    synchronized long eject(long baseNanos, long maxNanos) {
+        ejections++;
+        long duration = Math.min(baseNanos * ejections, maxNanos);
+        ejectedUntilNanos = System.nanoTime() + duration;
+        ejected = true;
+        consecutiveFailures = 0;
+        return duration;
+    }
+
+    synchronized void reinstate() {
+        ejected = false;
+        ejections = 0;
+        consecutiveFailures = 0;
+    }
+}
@@ -0,0 +1,469 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import dev.cloudnative.learning.tlshotreload.reload.SslBundleListener;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.FastByteArrayOutputStream;
+import org.springframework.util.StreamUtils;
+
+import javax.net.ssl.SSLHandshakeException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link ClientHttpRequestFactory} that retries requests failing the TLS handshake once the "remote" bundle
+ * has been reloaded, and optionally hedges slow {@code GET} requests.
+ * <p>
+ * Around a rotation, the remote service may present a certificate our trust material does not know yet, or
+ * the reverse, until the bundle update has been detected and applied. A request whose handshake fails waits
+ * for the next reload of the "remote" bundle, signalled by this factory's {@link SslBundleListener} once the
+ * {@code SslBundles} update has been applied to the client, and is then sent once more. A failed handshake
+ * means the request was never sent, so this is safe for any method. If no reload is applied within the
+ * maximum wait, the failure is passed on.
+ * <p>
+ * With hedging enabled, a {@code GET} that has not received its response headers after a percentile of the
+ * recent response times is sent a second time, usually to another endpoint, and the first response wins;
+ * the other one is closed when it arrives. Hedging starts once enough responses have been measured.
+ * <p>
+ * Retries and hedges are extra load on the remote service and are each capped by a budget: at most a share
+ * of the requests of the last ten seconds, plus a minimum per second so that a quiet client can still retry.
+ * A failed request takes its retry from the budget before it waits for a reload, so that once the budget is
+ * used up, failures are passed on at once instead of holding request threads for the maximum wait.
+ * Issued retries and hedges are published as {@code remote.client.retries} and {@code remote.client.hedges},
+ * those whose response was used as {@code remote.client.retries.won} and {@code remote.client.hedges.won},
+ * those refused by their budget as {@code remote.client.budget.exhausted} tagged by kind, and the current
+ * hedging delay as {@code remote.client.hedge.delay}.
+ */
+public class ResilientClientHttpRequestFactory implements ClientHttpRequestFactory, MeterBinder, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResilientClientHttpRequestFactory.class);
+
+    private final ClientHttpRequestFactory delegate;
+    private final boolean retryEnabled;
+    private final long retryWaitNanos;
+    private final Budget retryBudget;
+    private final boolean hedgingEnabled;
+    private final Budget hedgeBudget;
+    private final LatencyWindow latencies;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("remote-hedge-", 0).factory());
+    private final ReentrantLock reloadLock = new ReentrantLock();
+    private final Condition reloaded = reloadLock.newCondition();
+    private long reloads;
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder retriesWon = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+    private final LongAdder retriesRefused = new LongAdder();
+    private final LongAdder hedgesRefused = new LongAdder();
+
+    /**
+     * Constructs a new ResilientClientHttpRequestFactory.
+     *
+     * @param delegate The factory sending the requests.
+     * @param retry    The retry settings.
+     * @param hedging  The hedging settings.
+     */
+    public ResilientClientHttpRequestFactory(ClientHttpRequestFactory delegate, Retry retry, Hedging hedging) {
+        this.delegate = delegate;
+        this.retryEnabled = retry.enabled();
+        this.retryWaitNanos = retry.maxWait().toNanos();
+        this.retryBudget = new Budget(retry.budgetPercent(), retry.budgetMinPerSecond());
+        this.hedgingEnabled = hedging.enabled();
+        this.hedgeBudget = new Budget(hedging.budgetPercent(), hedging.budgetMinPerSecond());
+        this.latencies = new LatencyWindow(hedging.percentile(), hedging.minSamples(), hedging.minDelay().toNanos());
+    }
+
+    /**
+     * The retry settings, {@code remote.resilience.retry}.
+     *
+     * @param enabled            Whether requests failing the handshake are retried.
+     * @param maxWait            How long a failed request waits for the "remote" bundle to reload.
+     * @param budgetPercent      The retries allowed, in percent of the requests of the last ten seconds.
+     * @param budgetMinPerSecond The retries allowed per second regardless of the requests.
+     */
+    public record Retry(boolean enabled, Duration maxWait, int budgetPercent, int budgetMinPerSecond) {
+    }
+
+    /**
+     * The hedging settings, {@code remote.resilience.hedging}.
+     *
+     * @param enabled            Whether slow {@code GET} requests are hedged.
+     * @param percentile         The percentile of the recent response times after which a request is hedged.
+     * @param minSamples         The responses measured before hedging starts.
+     * @param minDelay           The shortest delay before a request is hedged.
+     * @param budgetPercent      The hedges allowed, in percent of the requests of the last ten seconds.
+     * @param budgetMinPerSecond The hedges allowed per second regardless of the requests.
+     */
+    public record Hedging(boolean enabled, double percentile, int minSamples, Duration minDelay,
+                          int budgetPercent, int budgetMinPerSecond) {
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new ResilientRequest(uri, httpMethod);
+    }
+
+    /**
+     * Wakes the requests waiting to be retried, as the "remote" bundle has been applied to the client.
+     * Runs after the other listeners of the bundle.
+     *
+     * @param bundle The reloaded bundle.
+     */
+    @SslBundleListener(value = "remote", order = 1000)
+    public void remoteReloaded(SslBundle bundle) {
+        reloadLock.lock();
+        try {
+            reloads++;
+            reloaded.signalAll();
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    private long reloads() {
+        reloadLock.lock();
+        try {
+            return reloads;
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the "remote" bundle has been reloaded since the given count of reloads.
+     *
+     * @return {@code true} if it has been reloaded within the maximum wait.
+     */
+    private boolean awaitReload(long since) throws InterruptedIOException {
+        reloadLock.lock();
+        try {
+            long remaining = retryWaitNanos;
+            while (reloads == since) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = reloaded.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the remote bundle to reload");
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    private static boolean isHandshakeFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SSLHandshakeException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Publishes the retries and hedges, and the current hedging delay.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("remote.client.retries", retries, LongAdder::sum)
+                .description("Remote requests sent again after a failed handshake and a bundle reload")
+                .register(registry);
+        FunctionCounter.builder("remote.client.retries.won", retriesWon, LongAdder::sum)
+                .description("Retried remote requests that received a response")
+                .register(registry);
+        FunctionCounter.builder("remote.client.hedges", hedges, LongAdder::sum)
+                .description("Second copies of slow remote GET requests")
+                .register(registry);
+        FunctionCounter.builder("remote.client.hedges.won", hedgesWon, LongAdder::sum)
+                .description("Hedged remote requests answered first by the second copy")
+                .register(registry);
+        FunctionCounter.builder("remote.client.budget.exhausted", retriesRefused, LongAdder::sum)
+                .description("Retries or hedges not sent because their budget was used up")
+                .tag("kind", "retry")
+                .register(registry);
+        FunctionCounter.builder("remote.client.budget.exhausted", hedgesRefused, LongAdder::sum)
+                .description("Retries or hedges not sent because their budget was used up")
+                .tag("kind", "hedge")
+                .register(registry);
+        Gauge.builder("remote.client.hedge.delay", latencies, window -> window.threshold() / 1_000_000.0)
+                .description("Time without response headers after which a GET is hedged, 0 before enough responses")
+                .baseUnit("milliseconds")
+                .register(registry);
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    /**
+     * A request whose body is buffered, so that it can be sent more than once.
+     */
+    private class ResilientRequest extends AbstractClientHttpRequest {
+
+        private final URI uri;
+        private final HttpMethod method;
+        private FastByteArrayOutputStream bufferedBody;
+
+        ResilientRequest(URI uri, HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            if (bufferedBody == null) {
+                bufferedBody = new FastByteArrayOutputStream(1024);
+            }
+            return bufferedBody;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+            byte[] body = bufferedBody != null ? bufferedBody.toByteArrayUnsafe() : new byte[0];
+            retryBudget.deposit();
+            hedgeBudget.deposit();
+            long since = reloads();
+            try {
+                return hedgingEnabled && method == HttpMethod.GET ? hedged(headers, body) : attempt(headers, body);
+            } catch (IOException e) {
+                if (!retryEnabled || !isHandshakeFailure(e)) {
+                    throw e;
+                }
+                // Take the budget before waiting, so that a request without budget fails at once
+                // instead of holding its thread for the maximum wait
+                if (!retryBudget.tryAcquire()) {
+                    retriesRefused.increment();
+                    throw e;
+                }
+                if (!awaitReload(since)) {
+                    throw e;
+                }
+                retries.increment();
+                logger.debug("Retrying {} {} after a reload of the remote bundle, handshake failed: {}", method, uri, e.toString());
+                try {
+                    ClientHttpResponse response = attempt(headers, body);
+                    retriesWon.increment();
+                    return response;
+                } catch (IOException retryFailure) {
+                    retryFailure.addSuppressed(e);
+                    throw retryFailure;
+                }
+            }
+        }
+
+        private ClientHttpResponse attempt(HttpHeaders headers, byte[] body) throws IOException {
+            ClientHttpRequest request = delegate.createRequest(uri, method);
+            request.getHeaders().putAll(headers);
+            request.getAttributes().putAll(getAttributes());
+            if (body.length > 0) {
+                StreamUtils.copy(body, request.getBody());
+            }
+            long start = System.nanoTime();
+            ClientHttpResponse response = request.execute();
+            latencies.record(System.nanoTime() - start);
+            return response;
+        }
+
+        private ClientHttpResponse hedged(HttpHeaders headers, byte[] body) throws IOException {
+            long delay = latencies.threshold();
+            if (delay == 0) {
+                return attempt(headers, body);
+            }
+            CompletableFuture<ClientHttpResponse> winner = new CompletableFuture<>();
+            AtomicInteger pending = new AtomicInteger();
+            submit(headers, body, winner, pending, false);
+            try {
+                try {
+                    return winner.get(delay, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    if (hedgeBudget.tryAcquire()) {
+                        hedges.increment();
+                        submit(headers, body, winner, pending, true);
+                    } else {
+                        hedgesRefused.increment();
+                    }
+                    return winner.get();
+                }
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                winner.thenAccept(ClientHttpResponse::close);
+                throw new InterruptedIOException("Interrupted while waiting for the response of " + uri);
+            }
+        }
+
+        // The first response completes the winner and a later one is closed; the winner fails with the
+        // failure of the last attempt still pending
+        private void submit(HttpHeaders headers, byte[] body, CompletableFuture<ClientHttpResponse> winner,
+                            AtomicInteger pending, boolean hedge) {
+            pending.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    ClientHttpResponse response = attempt(headers, body);
+                    if (!winner.complete(response)) {
+                        response.close();
+                    } else if (hedge) {
+                        hedgesWon.increment();
+                    }
+                } catch (Throwable e) {
+                    if (pending.decrementAndGet() == 0) {
+                        winner.completeExceptionally(e);
+                    }
+                }
+            });
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException io) {
+            return io;
+        }
+        if (cause instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Extra requests allowed as a share of the requests of the last ten seconds, counted per second.
+     */
+    private static final class Budget {
+
+        private static final int WINDOW_SECONDS = 10;
+
+        private final double ratio;
+        private final long minimum;
+        private final long[] requests = new long[WINDOW_SECONDS];
+        private final long[] extras = new long[WINDOW_SECONDS];
+        private long second = currentSecond();
+
+        Budget(int percent, int minPerSecond) {
+            this.ratio = percent / 100.0;
+            this.minimum = (long) minPerSecond * WINDOW_SECONDS;
+        }
+
+        synchronized void deposit() {
+            requests[roll()]++;
+        }
+
+        synchronized boolean tryAcquire() {
+            int slot = roll();
+            if (sum(extras) + 1 > sum(requests) * ratio + minimum) {
+                return false;
+            }
+            extras[slot]++;
+            return true;
+        }
+
+        private int roll() {
+            long now = currentSecond();
+            if (now - second >= WINDOW_SECONDS) {
+                Arrays.fill(requests, 0);
+                Arrays.fill(extras, 0);
+            } else {
+                for (long s = second + 1; s <= now; s++) {
+                    requests[(int) (s % WINDOW_SECONDS)] = 0;
+                    extras[(int) (s % WINDOW_SECONDS)] = 0;
+                }
+            }
+            second = now;
+            return (int) (now % WINDOW_SECONDS);
+        }
+
+        private static long sum(long[] counts) {
+            long sum = 0;
+            for (long count : counts) {
+                sum += count;
+            }
+            return sum;
+        }
+
+        private static long currentSecond() {
+            return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        }
+    }
+
+    /**
+     * The most recent response times and their percentile, recomputed every few responses.
+     */
+    private static final class LatencyWindow {
+
+        private static final int SIZE = 1024;
+        private static final int RECOMPUTE_EVERY = 64;
+
+        private final double percentile;
+        private final int minSamples;
+        private final long minDelayNanos;
+        private final long[] samples = new long[SIZE];
+        private long count;
+        private volatile long threshold;
+
+        LatencyWindow(double percentile, int minSamples, long minDelayNanos) {
+            this.percentile = percentile;
+            this.minSamples = Math.max(1, Math.min(minSamples, SIZE));
+            this.minDelayNanos = minDelayNanos;
+        }
+
+        synchronized void record(long nanos) {
+            samples[(int) (count++ % SIZE)] = nanos;
+            if (count >= minSamples && (count % RECOMPUTE_EVERY == 0 || threshold == 0)) {
+                long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, SIZE));
+                Arrays.sort(sorted);
+                int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+                threshold = Math.max(minDelayNanos, sorted[Math.clamp(rank - 1, 0, sorted.length - 1)]);
+            }
+        }
+
+        /**
+         * @return The delay after which a request is hedged, 0 until enough responses have been measured.
+         */
+        long threshold() {
+            return threshold;
+        }
+    }
+}
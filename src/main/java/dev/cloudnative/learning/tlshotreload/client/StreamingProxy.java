@@ -0,0 +1,134 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies a response of the remote service to the servlet response without holding its body.
+ * <p>
+ * The status and the end-to-end headers are set first, then the body is copied through a fixed-size buffer,
+ * so a proxied request holds one buffer whatever the size of the payload. The buffer is flushed whenever
+ * the remote service has nothing more available yet, so the caller receives each part as soon as it arrives.
+ * A body of known length is forwarded with its {@code Content-Length}; otherwise the container sends it
+ * chunked. Hop-by-hop headers, and those named by {@code Connection}, are not forwarded.
+ * <p>
+ * Buffers are reused: up to a fixed number of released buffers are kept for the next requests, any
+ * further concurrent request allocates its own. Bytes copied are published as {@code remote.proxy.bytes},
+ * idle pooled buffers as {@code remote.proxy.buffers}.
+ */
+public class StreamingProxy implements MeterBinder {
+
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "keep-alive", "proxy-authenticate",
+            "proxy-authorization", "proxy-connection", "te", "trailer", "transfer-encoding", "upgrade");
+
+    private final int bufferSize;
+    private final BlockingQueue<byte[]> buffers;
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * Constructs a new StreamingProxy.
+     *
+     * @param bufferSize    The size of the copy buffer in bytes.
+     * @param pooledBuffers The number of released buffers kept for reuse.
+     */
+    public StreamingProxy(int bufferSize, int pooledBuffers) {
+        if (bufferSize < 1 || pooledBuffers < 1) {
+            throw new IllegalArgumentException("Buffer size and pooled buffers must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(pooledBuffers);
+    }
+
+    /**
+     * Writes the status, headers and body of the remote response to the servlet response. The remote
+     * response is not closed.
+     *
+     * @param remote   The response of the remote service.
+     * @param response The response to the caller, not committed yet.
+     * @throws IOException if the remote body cannot be read or the caller cannot be written to.
+     */
+    public void forward(ClientHttpResponse remote, HttpServletResponse response) throws IOException {
+        response.setStatus(remote.getStatusCode().value());
+        HttpHeaders headers = remote.getHeaders();
+        Set<String> excluded = excludedHeaders(headers);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (excluded.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            // Replaces the headers the filter chain may have set already, such as Cache-Control
+            boolean first = true;
+            for (String value : header.getValue()) {
+                if (first) {
+                    response.setHeader(header.getKey(), value);
+                    first = false;
+                } else {
+                    response.addHeader(header.getKey(), value);
+                }
+            }
+        }
+
+        byte[] buffer = acquire();
+        try {
+            InputStream in = remote.getBody();
+            OutputStream out = response.getOutputStream();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                bytes.add(read);
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } finally {
+            buffers.offer(buffer);
+        }
+    }
+
+    private static Set<String> excludedHeaders(HttpHeaders headers) {
+        Set<String> excluded = new HashSet<>(HOP_BY_HOP);
+        for (String value : headers.getOrEmpty(HttpHeaders.CONNECTION)) {
+            for (String name : value.split(",")) {
+                excluded.add(name.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return excluded;
+    }
+
+    private byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * Publishes the bytes copied and the idle pooled buffers.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("remote.proxy.bytes", bytes, LongAdder::sum)
+                .description("Bytes of remote responses streamed to callers")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("remote.proxy.buffers", buffers, BlockingQueue::size)
+                .description("Idle copy buffers kept for streamed responses")
+                .register(registry);
+    }
+}
@@ -0,0 +1,54 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import dev.cloudnative.learning.tlshotreload.jfr.HandshakeEvent;
+import dev.cloudnative.learning.tlshotreload.x509.TlsMetrics;
+import org.apache.hc.client5.http.ssl.TlsSocketStrategy;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * A {@link TlsSocketStrategy} that records the end-to-end duration of every client handshake.
+ * <p>
+ * The wrapped strategy upgrades the plain socket and completes the handshake, including
+ * hostname verification, before it returns; the whole upgrade is recorded as {@code tls.handshake}
+ * with the {@code client} side tag and as a {@link HandshakeEvent}.
+ */
+public class TimedTlsSocketStrategy implements TlsSocketStrategy {
+
+    private final TlsSocketStrategy delegate;
+    private final TlsMetrics metrics;
+    private final String bundleName;
+
+    /**
+     * Constructs a new TimedTlsSocketStrategy.
+     *
+     * @param delegate   The strategy performing the upgrade and handshake.
+     * @param metrics    The {@link TlsMetrics} to record handshakes into.
+     * @param bundleName The name of the bundle providing the client material, used to tag metrics.
+     */
+    public TimedTlsSocketStrategy(TlsSocketStrategy delegate, TlsMetrics metrics, String bundleName) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.bundleName = bundleName;
+    }
+
+    @Override
+    public SSLSocket upgrade(Socket socket, String target, int port, Object attachment, HttpContext context) throws IOException {
+        long start = System.nanoTime();
+        HandshakeEvent event = HandshakeEvent.start();
+        SSLSocket sslSocket;
+        try {
+            sslSocket = delegate.upgrade(socket, target, port, attachment, context);
+        } catch (IOException | RuntimeException e) {
+            metrics.recordHandshake(bundleName, "client", null, System.nanoTime() - start, false);
+            event.complete(bundleName, "client", null, false);
+            throw e;
+        }
+        metrics.recordHandshake(bundleName, "client", sslSocket.getSession(), System.nanoTime() - start, true);
+        event.complete(bundleName, "client", sslSocket.getSession(), true);
+        return sslSocket;
+    }
+}
@@ -0,0 +1,88 @@
+package dev.cloudnative.learning.tlshotreload.client;
+
+import dev.cloudnative.learning.tlshotreload.jfr.HandshakeEvent;
+import dev.cloudnative.learning.tlshotreload.x509.TlsMetrics;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.net.NamedEndpoint;
+import org.apache.hc.core5.reactor.ssl.TlsDetails;
+import org.apache.hc.core5.reactor.ssl.TransportSecurityLayer;
+import org.apache.hc.core5.util.Timeout;
+
+import javax.net.ssl.SSLSession;
+import java.net.SocketAddress;
+
+/**
+ * The asynchronous counterpart of {@link TimedTlsSocketStrategy}: a {@link TlsStrategy} that records
+ * the duration of every client handshake performed on the I/O reactor.
+ * <p>
+ * The handshake completes asynchronously, so the duration is taken when the wrapped strategy reports
+ * the secured session to its callback, and recorded as {@code tls.handshake} with the {@code client} side tag
+ * and as a {@link HandshakeEvent}.
+ */
+public class TimedTlsStrategy implements TlsStrategy {
+
+    private final TlsStrategy delegate;
+    private final TlsMetrics metrics;
+    private final String bundleName;
+
+    /**
+     * Constructs a new TimedTlsStrategy.
+     *
+     * @param delegate   The strategy performing the upgrade and handshake.
+     * @param metrics    The {@link TlsMetrics} to record handshakes into.
+     * @param bundleName The name of the bundle providing the client material, used to tag metrics.
+     */
+    public TimedTlsStrategy(TlsStrategy delegate, TlsMetrics metrics, String bundleName) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.bundleName = bundleName;
+    }
+
+    @Override
+    public void upgrade(TransportSecurityLayer sessionLayer, NamedEndpoint endpoint, Object attachment,
+                        Timeout handshakeTimeout, FutureCallback<TransportSecurityLayer> callback) {
+        long start = System.nanoTime();
+        HandshakeEvent event = HandshakeEvent.start();
+        delegate.upgrade(sessionLayer, endpoint, attachment, handshakeTimeout, new FutureCallback<>() {
+            @Override
+            public void completed(TransportSecurityLayer result) {
+                TlsDetails details = result.getTlsDetails();
+                SSLSession session = details != null ? details.getSSLSession() : null;
+                metrics.recordHandshake(bundleName, "client", session, System.nanoTime() - start, true);
+                event.complete(bundleName, "client", session, true);
+                if (callback != null) {
+                    callback.completed(result);
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                metrics.recordHandshake(bundleName, "client", null, System.nanoTime() - start, false);
+                event.complete(bundleName, "client", null, false);
+                if (callback != null) {
+                    callback.failed(ex);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                if (callback != null) {
+                    callback.cancelled();
+                }
+            }
+        });
+    }
+
+    /**
+     * Delegates without timing, the handshake has not completed when this method returns.
+     * {@inheritDoc}
+     */
+    @Override
+    @Deprecated
+    public boolean upgrade(TransportSecurityLayer sessionLayer, HttpHost host, SocketAddress localAddress,
+                           SocketAddress remoteAddress, Object attachment, Timeout handshakeTimeout) {
+        return delegate.upgrade(sessionLayer, host, localAddress, remoteAddress, attachment, handshakeTimeout);
+    }
+}
@@ -0,0 +1,52 @@
+package dev.cloudnative.learning.tlshotreload.jfr;
+
+import dev.cloudnative.learning.tlshotreload.x509.CertificateFingerprint;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+
+/**
+ * Describes certificates for the fields of the TLS events, only once an event is going to be committed.
+ */
+final class EventSupport {
+
+    static final String CATEGORY = "TLS Hot Reload";
+
+    private EventSupport() {
+    }
+
+    static X509Certificate leafOf(SSLSession session) {
+        if (session == null) {
+            return null;
+        }
+        try {
+            Certificate[] peerCertificates = session.getPeerCertificates();
+            return peerCertificates.length > 0 && peerCertificates[0] instanceof X509Certificate leaf ? leaf : null;
+        } catch (SSLPeerUnverifiedException e) {
+            // The peer did not authenticate, e.g. a client when client authentication is not required
+            return null;
+        }
+    }
+
+    static X509Certificate leafOf(X509Certificate[] chain) {
+        return chain != null && chain.length > 0 ? chain[0] : null;
+    }
+
+    static String subjectOf(X509Certificate certificate) {
+        return certificate != null ? certificate.getSubjectX500Principal().getName() : null;
+    }
+
+    static String fingerprintOf(X509Certificate certificate) {
+        if (certificate == null) {
+            return null;
+        }
+        try {
+            return CertificateFingerprint.of(new X509Certificate[]{certificate}).toString();
+        } catch (CertificateEncodingException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package dev.cloudnative.learning.tlshotreload.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import javax.net.ssl.SSLSession;
+import java.security.cert.X509Certificate;
+
+/**
+ * A TLS handshake, from its start until it finished or failed, with the peer and the negotiated parameters.
+ */
+@Name("dev.cloudnative.tls.Handshake")
+@Label("TLS Handshake")
+@Category(EventSupport.CATEGORY)
+@Description("A TLS handshake with its peer and negotiated protocol and cipher suite")
+@StackTrace(false)
+public final class HandshakeEvent extends Event {
+
+    @Label("Bundle")
+    @Description("The bundle providing the local material")
+    String bundle;
+
+    @Label("Side")
+    @Description("The local role in the handshake, client or server")
+    String side;
+
+    @Label("Peer")
+    @Description("The subject of the peer's leaf certificate")
+    String peer;
+
+    @Label("Peer Fingerprint")
+    @Description("The SHA-256 fingerprint of the peer's leaf certificate")
+    String peerFingerprint;
+
+    @Label("Protocol")
+    String protocol;
+
+    @Label("Cipher Suite")
+    String cipherSuite;
+
+    @Label("Success")
+    boolean success;
+
+    /**
+     * @return A new event whose duration starts now.
+     */
+    public static HandshakeEvent start() {
+        HandshakeEvent event = new HandshakeEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event and commits it if it is enabled and above its threshold.
+     *
+     * @param bundle  The name of the bundle providing the local material.
+     * @param side    {@code client} or {@code server}, the local role in the handshake.
+     * @param session The negotiated session, or null if the handshake failed.
+     * @param success Whether the handshake completed.
+     */
+    public void complete(String bundle, String side, SSLSession session, boolean success) {
+        end();
+        if (!shouldCommit()) {
+            return;
+        }
+        this.bundle = bundle;
+        this.side = side;
+        this.success = success;
+        if (session != null) {
+            X509Certificate leaf = EventSupport.leafOf(session);
+            this.peer = EventSupport.subjectOf(leaf);
+            this.peerFingerprint = EventSupport.fingerprintOf(leaf);
+            this.protocol = session.getProtocol();
+            this.cipherSuite = session.getCipherSuite();
+        }
+        commit();
+    }
+}
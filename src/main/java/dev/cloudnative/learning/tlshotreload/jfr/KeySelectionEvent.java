@@ -0,0 +1,63 @@
+package dev.cloudnative.learning.tlshotreload.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A key manager call selecting an alias or retrieving the certificate chain of one.
+ */
+@Name("dev.cloudnative.tls.KeySelection")
+@Label("TLS Key Selection")
+@Category(EventSupport.CATEGORY)
+@Description("A key manager alias selection or certificate chain retrieval")
+@StackTrace(false)
+public final class KeySelectionEvent extends Event {
+
+    @Label("Bundle")
+    @Description("The bundle providing the key material")
+    String bundle;
+
+    @Label("Operation")
+    @Description("The key manager operation, e.g. choose-client-alias")
+    String operation;
+
+    @Label("Alias")
+    String alias;
+
+    @Label("Found")
+    @Description("Whether an alias or chain was returned")
+    boolean found;
+
+    /**
+     * @return A new event whose duration starts now.
+     */
+    public static KeySelectionEvent start() {
+        KeySelectionEvent event = new KeySelectionEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event and commits it if it is enabled and above its threshold.
+     *
+     * @param bundle    The name of the bundle providing the key material.
+     * @param operation The key manager operation.
+     * @param alias     The alias chosen or asked for, or null.
+     * @param found     Whether an alias or chain was returned.
+     */
+    public void complete(String bundle, String operation, String alias, boolean found) {
+        end();
+        if (!shouldCommit()) {
+            return;
+        }
+        this.bundle = bundle;
+        this.operation = operation;
+        this.alias = alias;
+        this.found = found;
+        commit();
+    }
+}
@@ -0,0 +1,67 @@
+package dev.cloudnative.learning.tlshotreload.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One phase of applying an SSL bundle update.
+ * <p>
+ * The phases of an update follow each other: {@code detect} from the first reported update until the
+ * coalesced reload starts, {@code validate} from the reported update until its material passed or was
+ * rejected, {@code rebuild} while new SSL contexts and connection pools are built and warmed up, and
+ * {@code swap} while they are published.
+ */
+@Name("dev.cloudnative.tls.ReloadPhase")
+@Label("SSL Bundle Reload Phase")
+@Category(EventSupport.CATEGORY)
+@Description("A phase of applying an SSL bundle update: detect, validate, rebuild or swap")
+@StackTrace(false)
+public final class ReloadPhaseEvent extends Event {
+
+    @Label("Bundle")
+    String bundle;
+
+    @Label("Phase")
+    @Description("detect, validate, rebuild or swap")
+    String phase;
+
+    @Label("Detail")
+    @Description("What the phase did, e.g. the reload mode or the validation outcome")
+    String detail;
+
+    @Label("Success")
+    boolean success;
+
+    /**
+     * @return A new event whose duration starts now.
+     */
+    public static ReloadPhaseEvent start() {
+        ReloadPhaseEvent event = new ReloadPhaseEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event and commits it if it is enabled and above its threshold.
+     *
+     * @param bundle  The name of the updated bundle.
+     * @param phase   The phase that ended.
+     * @param detail  What the phase did, or null.
+     * @param success Whether the phase succeeded.
+     */
+    public void complete(String bundle, String phase, String detail, boolean success) {
+        end();
+        if (!shouldCommit()) {
+            return;
+        }
+        this.bundle = bundle;
+        this.phase = phase;
+        this.detail = detail;
+        this.success = success;
+        commit();
+    }
+}
@@ -0,0 +1,80 @@
+package dev.cloudnative.learning.tlshotreload.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * A trust manager check of a peer's certificate chain.
+ */
+@Name("dev.cloudnative.tls.TrustCheck")
+@Label("TLS Trust Check")
+@Category(EventSupport.CATEGORY)
+@Description("A trust manager check of a peer certificate chain")
+@StackTrace(false)
+public final class TrustCheckEvent extends Event {
+
+    @Label("Bundle")
+    @Description("The bundle providing the trust material")
+    String bundle;
+
+    @Label("Side")
+    @Description("The role of the peer whose chain was checked, client or server")
+    String side;
+
+    @Label("Peer")
+    @Description("The subject of the leaf certificate of the chain")
+    String peer;
+
+    @Label("Peer Fingerprint")
+    @Description("The SHA-256 fingerprint of the leaf certificate of the chain")
+    String peerFingerprint;
+
+    @Label("Chain Length")
+    int chainLength;
+
+    @Label("Auth Type")
+    String authType;
+
+    @Label("Trusted")
+    boolean trusted;
+
+    /**
+     * @return A new event whose duration starts now.
+     */
+    public static TrustCheckEvent start() {
+        TrustCheckEvent event = new TrustCheckEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event and commits it if it is enabled and above its threshold.
+     *
+     * @param bundle   The name of the bundle providing the trust material.
+     * @param side     {@code client} or {@code server}, the role of the peer whose chain was checked.
+     * @param chain    The checked chain.
+     * @param authType The authentication type of the check.
+     * @param trusted  Whether the chain was trusted.
+     */
+    public void complete(String bundle, String side, X509Certificate[] chain, String authType, boolean trusted) {
+        end();
+        if (!shouldCommit()) {
+            return;
+        }
+        X509Certificate leaf = EventSupport.leafOf(chain);
+        this.bundle = bundle;
+        this.side = side;
+        this.peer = EventSupport.subjectOf(leaf);
+        this.peerFingerprint = EventSupport.fingerprintOf(leaf);
+        this.chainLength = chain != null ? chain.length : 0;
+        this.authType = authType;
+        this.trusted = trusted;
+        commit();
+    }
+}
@@ -0,0 +1,26 @@
+package dev.cloudnative.learning.tlshotreload.reload;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares that a singleton bean is built from the named SSL bundles and has to be recreated, rather than
+ * updated in place, to use new material.
+ * <p>
+ * Placed on a {@code @Bean} method or a component class. The bean is destroyed and recreated from its definition
+ * when a listener of one of the bundles calls {@link SslBundleReloadRegistry#recreateDependents(String)}.
+ * Components that already hold a reference to the previous instance keep using it.
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface SslBundleDependent {
+
+    /**
+     * @return The names of the bundles the bean is built from.
+     */
+    String[] value();
+}
@@ -0,0 +1,32 @@
+package dev.cloudnative.learning.tlshotreload.reload;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of a singleton bean to be called with the updated bundle whenever one of the named
+ * SSL bundles reloads.
+ * <p>
+ * The method takes a single {@link org.springframework.boot.ssl.SslBundle} parameter. It is invoked by the
+ * {@link SslBundleReloadRegistry} on a reload thread, never on the file watcher thread, after updates arriving
+ * within the coalescing window have been merged into one. Listeners of the same bundle run one after the other,
+ * ordered by {@link #order()}; listeners of different bundles may run in parallel.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface SslBundleListener {
+
+    /**
+     * @return The names of the bundles whose updates the method receives.
+     */
+    String[] value();
+
+    /**
+     * @return The position among the listeners of the same bundle, lower values run first.
+     */
+    int order() default 0;
+}
@@ -0,0 +1,30 @@
+package dev.cloudnative.learning.tlshotreload.reload;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.ssl.SslBundles;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Configures the {@link SslBundleReloadRegistry} that applies bundle updates to {@link SslBundleListener} methods.
+ */
+@Configuration
+public class SslBundleReloadConfig {
+
+    /**
+     * Creates the registry routing bundle updates to the annotated listeners.
+     *
+     * @param sslBundles     The configured {@link SslBundles}, injected by Spring.
+     * @param beanFactory    The bean factory the listeners and dependents are collected from.
+     * @param coalesceWindow How long an update waits for further updates of the same bundle, {@code tls.reload.coalesce-window}.
+     * @return The {@link SslBundleReloadRegistry}, also published as metrics.
+     */
+    @Bean
+    public SslBundleReloadRegistry sslBundleReloadRegistry(SslBundles sslBundles, ConfigurableListableBeanFactory beanFactory,
+                                                           @Value("${tls.reload.coalesce-window:500ms}") Duration coalesceWindow) {
+        return new SslBundleReloadRegistry(sslBundles, beanFactory, coalesceWindow);
+    }
+}
@@ -0,0 +1,276 @@
+package dev.cloudnative.learning.tlshotreload.reload;
+
+import dev.cloudnative.learning.tlshotreload.jfr.ReloadPhaseEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.DefaultSingletonBeanRegistry;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.SslBundles;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Routes SSL bundle updates to the beans that declared an interest in them.
+ * <p>
+ * Once all singletons are created, every bean method annotated with {@link SslBundleListener} is collected and
+ * a single update handler is registered per named bundle. An update is not applied on the thread that reports
+ * it; it is held for the coalescing window, and updates arriving in the meantime replace it and restart the
+ * window, so key and certificate files written moments apart cause one reload with the final bundle.
+ * <p>
+ * Each bundle has its own lane: its reloads run one at a time, in the order they were coalesced, on a virtual
+ * thread of the reload executor, while lanes of independent bundles run in parallel. A listener that throws
+ * is logged and does not keep the remaining listeners of the bundle from running. Reload durations are
+ * published as {@code tls.reload} tagged by bundle and outcome, and merged updates as {@code tls.reload.coalesced}.
+ * The time from the first update of a reload until the reload starts is emitted as the {@code detect}
+ * {@link ReloadPhaseEvent}.
+ * <p>
+ * Beans declared with {@link SslBundleDependent} are not touched by a reload unless a listener asks for them to
+ * be recreated with {@link #recreateDependents(String)}.
+ */
+public class SslBundleReloadRegistry implements SmartInitializingSingleton, MeterBinder, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SslBundleReloadRegistry.class);
+
+    private final SslBundles sslBundles;
+    private final ConfigurableListableBeanFactory beanFactory;
+    private final Duration coalesceWindow;
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+    private final Map<String, List<String>> dependents = new LinkedHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("ssl-reload-scheduler").daemon().factory());
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("ssl-reload-", 0).factory());
+    private volatile MeterRegistry registry;
+
+    /**
+     * Constructs a new SslBundleReloadRegistry.
+     *
+     * @param sslBundles     The bundles to receive updates from.
+     * @param beanFactory    The bean factory to collect listeners and dependents from.
+     * @param coalesceWindow How long an update is held back for further updates of the same bundle.
+     */
+    public SslBundleReloadRegistry(SslBundles sslBundles, ConfigurableListableBeanFactory beanFactory,
+                                   Duration coalesceWindow) {
+        this.sslBundles = sslBundles;
+        this.beanFactory = beanFactory;
+        this.coalesceWindow = coalesceWindow;
+    }
+
+    /**
+     * Collects the listeners and dependents of every bundle and registers one update handler per bundle.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        Map<String, List<Listener>> listeners = new LinkedHashMap<>();
+        for (String beanName : beanFactory.getBeanNamesForType(Object.class, false, false)) {
+            Class<?> type = beanFactory.getType(beanName, false);
+            if (type == null) {
+                continue;
+            }
+            Map<Method, SslBundleListener> methods = MethodIntrospector.selectMethods(ClassUtils.getUserClass(type),
+                    (MethodIntrospector.MetadataLookup<SslBundleListener>) method ->
+                            AnnotatedElementUtils.findMergedAnnotation(method, SslBundleListener.class));
+            methods.forEach((method, annotation) -> {
+                Listener listener = new Listener(beanName, method, annotation.order());
+                for (String bundleName : annotation.value()) {
+                    listeners.computeIfAbsent(bundleName, name -> new ArrayList<>()).add(listener);
+                }
+            });
+            SslBundleDependent dependent = beanFactory.findAnnotationOnBean(beanName, SslBundleDependent.class, false);
+            if (dependent != null) {
+                for (String bundleName : dependent.value()) {
+                    dependents.computeIfAbsent(bundleName, name -> new ArrayList<>()).add(beanName);
+                }
+            }
+        }
+
+        listeners.forEach((bundleName, bundleListeners) -> {
+            bundleListeners.sort(Comparator.comparingInt(Listener::order));
+            Lane lane = new Lane(bundleName, bundleListeners.stream().map(this::resolve).toList());
+            lanes.put(bundleName, lane);
+            sslBundles.addBundleUpdateHandler(bundleName, lane::updated);
+            logger.info("Reloading {} on updates of bundle \"{}\"", bundleListeners, bundleName);
+        });
+    }
+
+    private Listener resolve(Listener listener) {
+        Method method = listener.method();
+        if (method.getParameterCount() != 1 || !method.getParameterTypes()[0].isAssignableFrom(SslBundle.class)) {
+            throw new IllegalStateException("@SslBundleListener method " + method + " must take a single SslBundle parameter");
+        }
+        Object bean = beanFactory.getBean(listener.beanName());
+        Method invocable = AopUtils.selectInvocableMethod(method, bean.getClass());
+        ReflectionUtils.makeAccessible(invocable);
+        return new Listener(listener.beanName(), invocable, listener.order(), bean);
+    }
+
+    /**
+     * Destroys the beans declared as {@link SslBundleDependent} on the given bundle and creates them again
+     * from their definitions.
+     *
+     * @param bundleName The name of the bundle whose dependents are recreated.
+     * @return The names of the recreated beans.
+     */
+    public List<String> recreateDependents(String bundleName) {
+        DefaultSingletonBeanRegistry singletons = (DefaultSingletonBeanRegistry) beanFactory;
+        List<String> beanNames = dependents.getOrDefault(bundleName, List.of());
+        for (String beanName : beanNames) {
+            singletons.destroySingleton(beanName);
+            // Getting the bean creates and registers a new singleton from the definition
+            beanFactory.getBean(beanName);
+        }
+        logger.info("Recreated {} for bundle \"{}\"", beanNames, bundleName);
+        return beanNames;
+    }
+
+    /**
+     * @return The names of the bundles with at least one listener.
+     */
+    public Set<String> bundleNames() {
+        return lanes.keySet();
+    }
+
+    /**
+     * Publishes reload durations and coalesced updates per bundle.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Stops the coalescing timers and waits for running reloads to finish.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        executor.close();
+    }
+
+    private void record(Consumer<MeterRegistry> recording) {
+        MeterRegistry meterRegistry = registry;
+        if (meterRegistry != null) {
+            recording.accept(meterRegistry);
+        }
+    }
+
+    private record Listener(String beanName, Method method, int order, Object bean) {
+
+        Listener(String beanName, Method method, int order) {
+            this(beanName, method, order, null);
+        }
+
+        @Override
+        public String toString() {
+            return beanName + "." + method.getName();
+        }
+    }
+
+    /**
+     * The reloads of one bundle: a pending update waiting for the coalescing window to pass, and the chain of
+     * reloads that keeps them in order.
+     */
+    private final class Lane {
+
+        private final String bundleName;
+        private final List<Listener> listeners;
+        private final AtomicReference<SslBundle> pending = new AtomicReference<>();
+        private final AtomicReference<ReloadPhaseEvent> detect = new AtomicReference<>();
+        private ScheduledFuture<?> flush;
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+        Lane(String bundleName, List<Listener> listeners) {
+            this.bundleName = bundleName;
+            this.listeners = listeners;
+        }
+
+        void updated(SslBundle bundle) {
+            if (pending.getAndSet(bundle) == null) {
+                detect.set(ReloadPhaseEvent.start());
+            } else {
+                record(registry -> Counter.builder("tls.reload.coalesced")
+                        .description("SSL bundle updates merged into a later update of the same bundle")
+                        .tag("bundle", bundleName)
+                        .register(registry)
+                        .increment());
+            }
+            synchronized (this) {
+                if (flush != null) {
+                    flush.cancel(false);
+                }
+                flush = scheduler.schedule(this::enqueue, coalesceWindow.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private synchronized void enqueue() {
+            // Recover from a reload failing outside its listeners, or the chain would skip every later reload
+            tail = tail.thenRunAsync(this::reload, executor)
+                    .exceptionally(e -> {
+                        logger.error("Reload of bundle \"{}\" failed", bundleName, e);
+                        return null;
+                    });
+        }
+
+        private void reload() {
+            SslBundle bundle = pending.getAndSet(null);
+            if (bundle == null) {
+                return;
+            }
+            ReloadPhaseEvent detected = detect.getAndSet(null);
+            if (detected != null) {
+                detected.complete(bundleName, "detect", null, true);
+            }
+            long start = System.nanoTime();
+            boolean success = true;
+            for (Listener listener : listeners) {
+                try {
+                    listener.method().invoke(listener.bean(), bundle);
+                } catch (InvocationTargetException e) {
+                    success = false;
+                    logger.error("Reload of bundle \"{}\" failed in {}", bundleName, listener, e.getTargetException());
+                } catch (IllegalAccessException | RuntimeException e) {
+                    success = false;
+                    logger.error("Reload of bundle \"{}\" failed in {}", bundleName, listener, e);
+                }
+            }
+            long duration = System.nanoTime() - start;
+            String outcome = success ? "success" : "failure";
+            record(registry -> Timer.builder("tls.reload")
+                    .description("Reloads of the beans listening to an SSL bundle")
+                    .tag("bundle", bundleName)
+                    .tag("outcome", outcome)
+                    .register(registry)
+                    .record(Duration.ofNanos(duration)));
+            logger.info("Reloaded bundle \"{}\" in {} ms, outcome {}", bundleName,
+                    TimeUnit.NANOSECONDS.toMillis(duration), outcome);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package dev.cloudnative.learning.tlshotreload.reload;
+
+import dev.cloudnative.learning.tlshotreload.x509.TrustAnchorStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.ssl.SslBundleRegistrar;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Replaces Spring Boot's SSL bundle registry with a {@link ValidatingSslBundleRegistry}, so that updated
+ * material is only published once validated. Disabled with {@code tls.validation.enabled=false}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "tls.validation.enabled", havingValue = "true", matchIfMissing = true)
+public class SslBundleValidationConfig {
+
+    /**
+     * Creates the bundle registry and registers the configured bundles with it, as Spring Boot's
+     * {@code SslAutoConfiguration} would; its own registry backs off in favour of this one.
+     *
+     * @param registrars     The registrars of the {@code spring.ssl.bundle} bundles, injected by Spring.
+     * @param maxAttempts    The attempts to read the material of an update, {@code tls.validation.max-attempts}.
+     * @param initialBackoff The delay before the second attempt, doubling after, {@code tls.validation.initial-backoff}.
+     * @param handshake      Whether bundles with a key are checked with a loopback handshake, {@code tls.validation.handshake}.
+     * @param trustAnchors   The store reading the trusted certificates of the bundles.
+     * @return The {@link ValidatingSslBundleRegistry}, also published as metrics.
+     */
+    @Bean
+    public ValidatingSslBundleRegistry sslBundleRegistry(ObjectProvider<SslBundleRegistrar> registrars,
+                                                         @Value("${tls.validation.max-attempts:5}") int maxAttempts,
+                                                         @Value("${tls.validation.initial-backoff:200ms}") Duration initialBackoff,
+                                                         @Value("${tls.validation.handshake:true}") boolean handshake,
+                                                         TrustAnchorStore trustAnchors) {
+        ValidatingSslBundleRegistry registry = new ValidatingSslBundleRegistry(
+                new SslMaterialValidator(handshake, trustAnchors), maxAttempts, initialBackoff);
+        registrars.orderedStream().forEach(registrar -> registrar.registerBundles(registry));
+        return registry;
+    }
+
+    /**
+     * @param registry The registry validating the bundles.
+     * @return The actuator endpoint exposing the validation results.
+     */
+    @Bean
+    public SslValidationEndpoint sslValidationEndpoint(ValidatingSslBundleRegistry registry) {
+        return new SslValidationEndpoint(registry);
+    }
+}
@@ -0,0 +1,40 @@
+package dev.cloudnative.learning.tlshotreload.reload;
+
+/**
+ * Thrown when the material of an SSL bundle fails one of the checks of the {@link SslMaterialValidator}.
+ */
+public class SslMaterialValidationException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String check;
+    private final boolean retryable;
+
+    /**
+     * Constructs a new SslMaterialValidationException.
+     *
+     * @param check     The name of the failed check.
+     * @param retryable {@code true} if the material may pass when read again, as with a file still being written.
+     * @param message   The reason the check failed.
+     * @param cause     The underlying failure, or null.
+     */
+    public SslMaterialValidationException(String check, boolean retryable, String message, Throwable cause) {
+        super(message, cause);
+        this.check = check;
+        this.retryable = retryable;
+    }
+
+    /**
+     * @return The name of the failed check.
+     */
+    public String getCheck() {
+        return check;
+    }
+
+    /**
+     * @return {@code true} if the material may pass when read again.
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,243 @@
+package dev.cloudnative.learning.tlshotreload.reload;
+
+import dev.cloudnative.learning.tlshotreload.x509.LoopbackHandshake;
+import dev.cloudnative.learning.tlshotreload.x509.TrustAnchorStore;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.SslBundleKey;
+import org.springframework.boot.ssl.SslOptions;
+import org.springframework.boot.ssl.SslStoreBundle;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Checks the material of an SSL bundle before it is put to use.
+ * <p>
+ * The checks run in order and stop at the first failure:
+ * <ol>
+ *   <li>{@code parse} - the key and trust stores can be read. PEM files are read lazily, so this is where a file
+ *       that is missing or still being written fails; such a failure is retryable. With a {@link TrustAnchorStore},
+ *       the trusted certificates are read through it, so the build is shared with the managers of the update.</li>
+ *   <li>{@code key} - every private key signs a random challenge that verifies with the public key of its
+ *       certificate, so a key that does not belong to its certificate is caught before a handshake is.</li>
+ *   <li>{@code validity} - every certificate of a key's chain is valid now, and the trust store holds at least
+ *       one certificate that is valid now.</li>
+ *   <li>{@code handshake} - a server engine created from the bundle completes a {@link LoopbackHandshake} with an
+ *       in-memory client engine. Only bundles with a key are checked, and only when enabled.</li>
+ * </ol>
+ */
+public class SslMaterialValidator {
+
+    // The loopback client only has to reach the end of the handshake, it never sends application data
+    private static final TrustManager[] TRUST_ANY_SERVER = {new X509TrustManager() {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }};
+
+    private final boolean handshake;
+    private final TrustAnchorStore trustAnchors;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Constructs a new SslMaterialValidator.
+     *
+     * @param handshake    {@code true} to perform the loopback handshake check.
+     * @param trustAnchors The store reading the trusted certificates, or null to read the bundle's trust store.
+     */
+    public SslMaterialValidator(boolean handshake, TrustAnchorStore trustAnchors) {
+        this.handshake = handshake;
+        this.trustAnchors = trustAnchors;
+    }
+
+    /**
+     * Runs the checks against the given bundle.
+     *
+     * @param bundleName The name of the bundle.
+     * @param bundle     The bundle to check.
+     * @return The names of the checks that were run and passed.
+     * @throws SslMaterialValidationException if a check fails.
+     */
+    public List<String> validate(String bundleName, SslBundle bundle) throws SslMaterialValidationException {
+        List<String> passed = new ArrayList<>();
+        KeyStore keyStore;
+        List<X509Certificate> trusted;
+        try {
+            SslStoreBundle stores = bundle.getStores();
+            keyStore = stores.getKeyStore();
+            trusted = trustAnchors != null
+                    ? trustAnchors.index(bundleName, bundle).certificates() : trustedCertificates(stores.getTrustStore());
+        } catch (GeneralSecurityException | RuntimeException e) {
+            throw new SslMaterialValidationException("parse", true, "Unable to read the stores: " + e.getMessage(), e);
+        }
+        if (keyStore == null && trusted.isEmpty()) {
+            throw new SslMaterialValidationException("parse", true, "The bundle has neither a key nor a trust store", null);
+        }
+        passed.add("parse");
+
+        List<X509Certificate[]> chains = checkKeys(bundle, keyStore);
+        passed.add("key");
+
+        checkValidity(chains, trusted);
+        passed.add("validity");
+
+        if (handshake && !chains.isEmpty()) {
+            checkHandshake(bundle);
+            passed.add("handshake");
+        }
+        return passed;
+    }
+
+    private List<X509Certificate[]> checkKeys(SslBundle bundle, KeyStore keyStore) throws SslMaterialValidationException {
+        List<X509Certificate[]> chains = new ArrayList<>();
+        if (keyStore == null) {
+            return chains;
+        }
+        SslBundleKey bundleKey = bundle.getKey();
+        String password = bundleKey.getPassword() != null ? bundleKey.getPassword() : bundle.getStores().getKeyStorePassword();
+        try {
+            for (String alias : Collections.list(keyStore.aliases())) {
+                if (!keyStore.isKeyEntry(alias) || (bundleKey.getAlias() != null && !bundleKey.getAlias().equals(alias))) {
+                    continue;
+                }
+                PrivateKey key = (PrivateKey) keyStore.getKey(alias, password != null ? password.toCharArray() : null);
+                Certificate[] chain = keyStore.getCertificateChain(alias);
+                if (chain == null || chain.length == 0 || !(chain[0] instanceof X509Certificate)) {
+                    throw new SslMaterialValidationException("key", false, "Key \"" + alias + "\" has no certificate", null);
+                }
+                checkKeyPair(alias, key, chain[0].getPublicKey());
+                X509Certificate[] x509Chain = new X509Certificate[chain.length];
+                for (int i = 0; i < chain.length; i++) {
+                    x509Chain[i] = (X509Certificate) chain[i];
+                }
+                chains.add(x509Chain);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new SslMaterialValidationException("key", false, "Unable to read the private key: " + e.getMessage(), e);
+        }
+        if (chains.isEmpty() && bundleKey.getAlias() != null) {
+            throw new SslMaterialValidationException("key", false, "No key with alias \"" + bundleKey.getAlias() + "\"", null);
+        }
+        return chains;
+    }
+
+    private void checkKeyPair(String alias, PrivateKey key, PublicKey publicKey) throws SslMaterialValidationException {
+        String algorithm = switch (key.getAlgorithm()) {
+            case "RSA" -> "SHA256withRSA";
+            case "EC" -> "SHA256withECDSA";
+            case "DSA" -> "SHA256withDSA";
+            case "Ed25519", "Ed448", "EdDSA" -> key.getAlgorithm();
+            default -> null;
+        };
+        if (algorithm == null) {
+            // Keys needing signature parameters, such as RSASSA-PSS, are left to the handshake check
+            return;
+        }
+        byte[] challenge = new byte[32];
+        random.nextBytes(challenge);
+        boolean matches;
+        try {
+            Signature signer = Signature.getInstance(algorithm);
+            signer.initSign(key);
+            signer.update(challenge);
+            byte[] signature = signer.sign();
+            Signature verifier = Signature.getInstance(algorithm);
+            verifier.initVerify(publicKey);
+            verifier.update(challenge);
+            matches = verifier.verify(signature);
+        } catch (GeneralSecurityException e) {
+            // A key of one algorithm against a certificate of another cannot even initialize the verifier
+            matches = false;
+        }
+        if (!matches) {
+            throw new SslMaterialValidationException("key", false,
+                    "The private key of \"" + alias + "\" does not match its certificate", null);
+        }
+    }
+
+    private static List<X509Certificate> trustedCertificates(KeyStore trustStore) throws GeneralSecurityException {
+        List<X509Certificate> trusted = new ArrayList<>();
+        if (trustStore != null) {
+            for (String alias : Collections.list(trustStore.aliases())) {
+                if (trustStore.getCertificate(alias) instanceof X509Certificate certificate) {
+                    trusted.add(certificate);
+                }
+            }
+        }
+        return trusted;
+    }
+
+    private static void checkValidity(List<X509Certificate[]> chains, List<X509Certificate> trusted) throws SslMaterialValidationException {
+        Date now = new Date();
+        for (X509Certificate[] chain : chains) {
+            for (X509Certificate certificate : chain) {
+                try {
+                    certificate.checkValidity(now);
+                } catch (CertificateExpiredException | CertificateNotYetValidException e) {
+                    throw new SslMaterialValidationException("validity", false, "Certificate "
+                            + certificate.getSubjectX500Principal().getName() + " is not valid now: " + e.getMessage(), e);
+                }
+            }
+        }
+        // Trust stores may keep retired anchors next to current ones, only a store with none valid is refused
+        for (X509Certificate certificate : trusted) {
+            try {
+                certificate.checkValidity(now);
+                return;
+            } catch (CertificateExpiredException | CertificateNotYetValidException e) {
+                // look for another
+            }
+        }
+        if (!trusted.isEmpty()) {
+            throw new SslMaterialValidationException("validity", false,
+                    "None of the " + trusted.size() + " trusted certificates is valid now", null);
+        }
+    }
+
+    private static void checkHandshake(SslBundle bundle) throws SslMaterialValidationException {
+        try {
+            SSLEngine server = bundle.createSslContext().createSSLEngine();
+            server.setUseClientMode(false);
+            SslOptions options = bundle.getOptions();
+            if (options.getEnabledProtocols() != null) {
+                server.setEnabledProtocols(options.getEnabledProtocols());
+            }
+            if (options.getCiphers() != null) {
+                server.setEnabledCipherSuites(options.getCiphers());
+            }
+            SSLContext clientContext = SSLContext.getInstance(bundle.getProtocol());
+            clientContext.init(null, TRUST_ANY_SERVER, null);
+            SSLEngine client = clientContext.createSSLEngine();
+            client.setUseClientMode(true);
+            LoopbackHandshake.complete(client, server);
+        } catch (GeneralSecurityException | SSLException | RuntimeException e) {
+            throw new SslMaterialValidationException("handshake", false, "Loopback handshake failed: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package dev.cloudnative.learning.tlshotreload.reload;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+
+import java.util.Map;
+
+/**
+ * Exposes the latest validation of every SSL bundle at {@code /actuator/sslvalidation}.
+ */
+@Endpoint(id = "sslvalidation")
+public class SslValidationEndpoint {
+
+    private final ValidatingSslBundleRegistry registry;
+
+    /**
+     * Constructs a new SslValidationEndpoint.
+     *
+     * @param registry The registry validating the bundles.
+     */
+    public SslValidationEndpoint(ValidatingSslBundleRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return The latest validation result per bundle name.
+     */
+    @ReadOperation
+    public Map<String, ValidatingSslBundleRegistry.Result> validations() {
+        return registry.results();
+    }
+
+    /**
+     * @param bundle The name of the bundle.
+     * @return The latest validation result of the bundle, or null if it has not been validated.
+     */
+    @ReadOperation
+    public ValidatingSslBundleRegistry.Result validation(@Selector String bundle) {
+        return registry.results().get(bundle);
+    }
+}
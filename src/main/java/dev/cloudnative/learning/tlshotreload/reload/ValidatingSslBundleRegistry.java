@@ -0,0 +1,185 @@
+package dev.cloudnative.learning.tlshotreload.reload;
+
+import dev.cloudnative.learning.tlshotreload.jfr.ReloadPhaseEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ssl.DefaultSslBundleRegistry;
+import org.springframework.boot.ssl.SslBundle;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link DefaultSslBundleRegistry} that publishes an updated bundle only once its material has passed the
+ * {@link SslMaterialValidator}.
+ * <p>
+ * Bundle updates reported by the file watcher are validated on a single background thread, and the update
+ * handlers, including the connector's and those of the {@link SslBundleReloadRegistry}, only see material that
+ * passed. Material that fails keeps the current bundle in use. A failure to read the files is retried with
+ * exponentially growing backoff up to the maximum number of attempts, as it is usually a file caught halfway
+ * through being written; every other failure rejects the update at once. When a bundle is updated again while
+ * an earlier update is still being validated or waiting to be retried, the earlier update is dropped.
+ * <p>
+ * Bundles are also validated once when registered, which reports on the material the application started with
+ * but does not keep it from being used. The latest result per bundle is available from {@link #results()}, and
+ * validation durations are published as {@code tls.validation} tagged by bundle and outcome. The validation
+ * of an update is also emitted as the {@code validate} {@link ReloadPhaseEvent}.
+ */
+public class ValidatingSslBundleRegistry extends DefaultSslBundleRegistry implements MeterBinder, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ValidatingSslBundleRegistry.class);
+
+    private final SslMaterialValidator validator;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final Map<String, Result> results = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("ssl-validation").daemon().factory());
+    private volatile MeterRegistry registry;
+
+    /**
+     * The latest validation of a bundle.
+     *
+     * @param trigger        {@code startup} for the registered bundle, {@code update} for an update.
+     * @param outcome        {@code passed}, {@code rejected}, {@code retrying} or {@code superseded}.
+     * @param checks         The checks that passed.
+     * @param failedCheck    The check that failed, or null.
+     * @param error          The reason the check failed, or null.
+     * @param attempts       The number of attempts made.
+     * @param durationMillis The time from the update to the outcome, including backoff.
+     * @param completedAt    When the outcome was reached.
+     */
+    public record Result(String trigger, String outcome, List<String> checks, String failedCheck, String error,
+                         int attempts, long durationMillis, Instant completedAt) {
+    }
+
+    /**
+     * Constructs a new ValidatingSslBundleRegistry.
+     *
+     * @param validator      The validator to check bundles with.
+     * @param maxAttempts    The maximum number of attempts to read the material of an update.
+     * @param initialBackoff The delay before the second attempt, doubled for every further attempt.
+     */
+    public ValidatingSslBundleRegistry(SslMaterialValidator validator, int maxAttempts, Duration initialBackoff) {
+        this.validator = validator;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoff = initialBackoff;
+    }
+
+    /**
+     * Registers the bundle and validates it in the background for reporting.
+     * {@inheritDoc}
+     */
+    @Override
+    public void registerBundle(String name, SslBundle bundle) {
+        super.registerBundle(name, bundle);
+        long generation = generations.computeIfAbsent(name, key -> new AtomicLong()).incrementAndGet();
+        executor.execute(() -> validate(name, bundle, generation, "startup", 1, System.nanoTime(), null));
+    }
+
+    /**
+     * Validates the updated bundle in the background and publishes it to the update handlers once it passed.
+     * {@inheritDoc}
+     */
+    @Override
+    public void updateBundle(String name, SslBundle updatedBundle) {
+        // Fails on the caller's thread for an unknown bundle, as the registry would without validation
+        getBundle(name);
+        long generation = generations.computeIfAbsent(name, key -> new AtomicLong()).incrementAndGet();
+        ReloadPhaseEvent event = ReloadPhaseEvent.start();
+        executor.execute(() -> validate(name, updatedBundle, generation, "update", 1, System.nanoTime(), event));
+    }
+
+    /**
+     * @return The latest validation result per bundle name.
+     */
+    public Map<String, Result> results() {
+        return new TreeMap<>(results);
+    }
+
+    private void validate(String name, SslBundle bundle, long generation, String trigger, int attempt, long start,
+                          ReloadPhaseEvent event) {
+        if (generations.get(name).get() != generation) {
+            complete(name, trigger, "superseded", List.of(), null, attempt - 1, start, event);
+            return;
+        }
+        try {
+            List<String> checks = validator.validate(name, bundle);
+            complete(name, trigger, "passed", checks, null, attempt, start, event);
+            if (trigger.equals("update")) {
+                logger.info("Validated bundle \"{}\" ({}), publishing it", name, String.join(", ", checks));
+                super.updateBundle(name, bundle);
+            }
+        } catch (SslMaterialValidationException e) {
+            if (e.isRetryable() && attempt < maxAttempts && trigger.equals("update")) {
+                long backoff = initialBackoff.toMillis() << (attempt - 1);
+                results.put(name, new Result(trigger, "retrying", List.of(), e.getCheck(), e.getMessage(), attempt,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), Instant.now()));
+                logger.warn("Bundle \"{}\" failed the {} check, retrying in {} ms: {}", name, e.getCheck(), backoff, e.getMessage());
+                executor.schedule(() -> validate(name, bundle, generation, trigger, attempt + 1, start, event),
+                        backoff, TimeUnit.MILLISECONDS);
+                return;
+            }
+            complete(name, trigger, "rejected", List.of(), e, attempt, start, event);
+            if (trigger.equals("update")) {
+                logger.error("Bundle \"{}\" failed the {} check after {} attempt(s), keeping the current material: {}",
+                        name, e.getCheck(), attempt, e.getMessage());
+            } else {
+                logger.error("Bundle \"{}\" failed the {} check: {}", name, e.getCheck(), e.getMessage());
+            }
+        } catch (RuntimeException e) {
+            // Thrown by an update handler, the bundle itself passed and has been published
+            logger.error("Update handlers of bundle \"{}\" failed", name, e);
+        }
+    }
+
+    private void complete(String name, String trigger, String outcome, List<String> checks,
+                          SslMaterialValidationException failure, int attempts, long start, ReloadPhaseEvent event) {
+        long duration = System.nanoTime() - start;
+        if (event != null) {
+            event.complete(name, "validate", failure != null ? outcome + " by " + failure.getCheck() + " check" : outcome,
+                    outcome.equals("passed"));
+        }
+        results.put(name, new Result(trigger, outcome, checks, failure != null ? failure.getCheck() : null,
+                failure != null ? failure.getMessage() : null, attempts,
+                TimeUnit.NANOSECONDS.toMillis(duration), Instant.now()));
+        MeterRegistry meterRegistry = registry;
+        if (meterRegistry != null) {
+            Timer.builder("tls.validation")
+                    .description("Validation of SSL bundle material, from the update to its outcome")
+                    .tag("bundle", name)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(duration, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Publishes validation durations per bundle and outcome.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Stops validating, updates still waiting for validation are dropped.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,29 @@
+package dev.cloudnative.learning.tlshotreload.revocation;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509CRL;
+import java.util.List;
+
+/**
+ * A place certificate revocation lists are read from, such as a local file or a distribution point.
+ * <p>
+ * Sources are only read by the background refresh of the {@link RevocationCache}, never during a handshake,
+ * so reading one may block on disk or network I/O.
+ */
+public interface CrlSource {
+
+    /**
+     * @return A short description of the source, used in logs and to tag metrics.
+     */
+    String name();
+
+    /**
+     * Reads the current revocation lists of the source.
+     *
+     * @return The lists read, possibly of several issuers.
+     * @throws IOException              if the source cannot be read.
+     * @throws GeneralSecurityException if the content is not a revocation list.
+     */
+    List<X509CRL> fetch() throws IOException, GeneralSecurityException;
+}
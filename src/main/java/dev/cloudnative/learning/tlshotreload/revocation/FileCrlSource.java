@@ -0,0 +1,72 @@
+package dev.cloudnative.learning.tlshotreload.revocation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.cert.CRL;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reads revocation lists from a local file, or from every {@code .crl} and {@code .pem} file of a directory.
+ * Files may hold DER or PEM encoded lists, several of them in the case of PEM.
+ */
+public class FileCrlSource implements CrlSource {
+
+    private final Path path;
+
+    /**
+     * Constructs a new FileCrlSource.
+     *
+     * @param path The revocation list file, or a directory of them.
+     */
+    public FileCrlSource(Path path) {
+        this.path = path.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public String name() {
+        return path.toString();
+    }
+
+    @Override
+    public List<X509CRL> fetch() throws IOException, GeneralSecurityException {
+        if (!Files.isDirectory(path)) {
+            return read(path);
+        }
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(path)) {
+            files = listing.filter(Files::isRegularFile)
+                    .filter(file -> file.getFileName().toString().endsWith(".crl")
+                            || file.getFileName().toString().endsWith(".pem"))
+                    .sorted()
+                    .toList();
+        }
+        List<X509CRL> crls = new ArrayList<>();
+        for (Path file : files) {
+            crls.addAll(read(file));
+        }
+        return crls;
+    }
+
+    static List<X509CRL> parse(InputStream in) throws GeneralSecurityException {
+        List<X509CRL> crls = new ArrayList<>();
+        for (CRL crl : CertificateFactory.getInstance("X.509").generateCRLs(in)) {
+            if (crl instanceof X509CRL x509Crl) {
+                crls.add(x509Crl);
+            }
+        }
+        return crls;
+    }
+
+    private static List<X509CRL> read(Path file) throws IOException, GeneralSecurityException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return parse(in);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package dev.cloudnative.learning.tlshotreload.revocation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509CRL;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Downloads revocation lists from a distribution point over HTTP, as published by a certificate authority.
+ */
+public class HttpCrlSource implements CrlSource {
+
+    private final URI uri;
+    private final Duration timeout;
+    private final HttpClient client;
+
+    /**
+     * Constructs a new HttpCrlSource.
+     *
+     * @param uri     The URL of the revocation list.
+     * @param timeout How long to wait for connecting and for the response.
+     */
+    public HttpCrlSource(URI uri, Duration timeout) {
+        this.uri = uri;
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    @Override
+    public String name() {
+        return uri.toString();
+    }
+
+    @Override
+    public List<X509CRL> fetch() throws IOException, GeneralSecurityException {
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(timeout).GET().build();
+        HttpResponse<byte[]> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading " + uri);
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("Downloading " + uri + " failed with status " + response.statusCode());
+        }
+        return FileCrlSource.parse(new ByteArrayInputStream(response.body()));
+    }
+}
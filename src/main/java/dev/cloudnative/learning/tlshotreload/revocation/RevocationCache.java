@@ -0,0 +1,317 @@
+package dev.cloudnative.learning.tlshotreload.revocation;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CRLReason;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateRevokedException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers the revocation status of certificates from revocation lists held in memory.
+ * <p>
+ * The lists of every {@link CrlSource} are read on a background thread at startup and read again ahead of
+ * their {@code nextUpdate}, at the latest after the refresh interval. A source that cannot be read is retried
+ * with backoff doubling from the retry interval, and its previous lists stay in use meanwhile. The lists are
+ * indexed by issuer and the revoked serial numbers of each by serial number, so a check during a handshake
+ * is a few map lookups and never touches the disk or the network. The signature of a list is verified once,
+ * with the public key of the issuer certificate the first chain it applies to presents.
+ * <p>
+ * A certificate whose issuer has no list, whose list has passed its {@code nextUpdate} or whose list does not
+ * verify has an unknown status, which is accepted or rejected as configured. Checks are published as
+ * {@code tls.revocation.checks} tagged by result, reads of the sources as {@code tls.revocation.refreshes}
+ * tagged by source and outcome, and the number of issuers with a list as {@code tls.revocation.issuers}.
+ * A cache without sources is disabled.
+ */
+public class RevocationCache implements MeterBinder, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevocationCache.class);
+    private static final String CRL_NUMBER = "2.5.29.20";
+
+    private final List<CrlSource> sources;
+    private final Duration refreshAhead;
+    private final Duration refreshInterval;
+    private final Duration retryInterval;
+    private final UnknownStatus unknownStatus;
+    private final Map<CrlSource, List<X509CRL>> loaded = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> checks = new LinkedHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("revocation-refresh").daemon().factory());
+    private volatile Map<X500Principal, IssuerCrl> index = Map.of();
+    private volatile MeterRegistry registry;
+
+    /**
+     * What to do with a certificate whose revocation status is unknown.
+     */
+    public enum UnknownStatus {
+        /**
+         * Accept the certificate, revocation checking only rejects listed certificates.
+         */
+        ALLOW,
+        /**
+         * Reject the certificate, every certificate of a chain needs a current list of its issuer.
+         */
+        REJECT
+    }
+
+    // The list of one issuer, with its revoked serial numbers indexed and the key its signature verified with
+    private static final class IssuerCrl {
+
+        private final X509CRL crl;
+        private final Map<BigInteger, X509CRLEntry> revoked = new HashMap<>();
+        private final long nextUpdate;
+        private volatile PublicKey verifiedKey;
+        private volatile PublicKey rejectedKey;
+
+        IssuerCrl(X509CRL crl) {
+            this.crl = crl;
+            this.nextUpdate = crl.getNextUpdate() != null ? crl.getNextUpdate().getTime() : Long.MAX_VALUE;
+            Set<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+            if (entries != null) {
+                for (X509CRLEntry entry : entries) {
+                    // Entries of indirect lists naming another issuer are not indexed
+                    X500Principal issuer = entry.getCertificateIssuer();
+                    if (issuer == null || issuer.equals(crl.getIssuerX500Principal())) {
+                        revoked.put(entry.getSerialNumber(), entry);
+                    }
+                }
+            }
+        }
+
+        boolean verifiedBy(PublicKey key) {
+            if (key.equals(verifiedKey)) {
+                return true;
+            }
+            if (key.equals(rejectedKey)) {
+                return false;
+            }
+            try {
+                crl.verify(key);
+                verifiedKey = key;
+                return true;
+            } catch (GeneralSecurityException e) {
+                logger.warn("Revocation list of {} does not verify with the issuer's key: {}",
+                        crl.getIssuerX500Principal().getName(), e.getMessage());
+                rejectedKey = key;
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Constructs a new RevocationCache.
+     *
+     * @param sources         The sources of revocation lists, empty to disable revocation checking.
+     * @param refreshAhead    How long before the {@code nextUpdate} of a list its source is read again.
+     * @param refreshInterval The longest time between two reads of a source.
+     * @param retryInterval   The delay before reading a source again after it failed, doubled for every failure.
+     * @param unknownStatus   What to do with certificates whose status is unknown.
+     */
+    public RevocationCache(List<CrlSource> sources, Duration refreshAhead, Duration refreshInterval,
+                           Duration retryInterval, UnknownStatus unknownStatus) {
+        this.sources = List.copyOf(sources);
+        this.refreshAhead = refreshAhead;
+        this.refreshInterval = refreshInterval;
+        this.retryInterval = retryInterval;
+        this.unknownStatus = unknownStatus;
+        for (String result : new String[]{"good", "revoked", "unknown"}) {
+            checks.put(result, new LongAdder());
+        }
+    }
+
+    /**
+     * @return {@code true} if the cache has sources to check certificates against.
+     */
+    public boolean isEnabled() {
+        return !sources.isEmpty();
+    }
+
+    /**
+     * Starts reading the sources in the background, unless the cache is disabled. Certificates checked before
+     * a source has been read have an unknown status.
+     */
+    public void start() {
+        for (CrlSource source : sources) {
+            scheduler.execute(() -> refresh(source, 0));
+        }
+        if (isEnabled()) {
+            logger.info("Checking revocation against {} source(s), unknown status: {}", sources.size(), unknownStatus);
+        }
+    }
+
+    /**
+     * Checks every certificate of a chain that has already been found trusted, except a self-signed root.
+     *
+     * @param chain   The certificate chain, leaf first.
+     * @param anchors The trusted certificates by subject, providing the issuer of the last certificate of the chain.
+     * @throws CertificateRevokedException if a certificate of the chain is revoked.
+     * @throws CertificateException        if the status of a certificate is unknown and unknown statuses are rejected.
+     */
+    public void check(X509Certificate[] chain, Map<X500Principal, X509Certificate> anchors) throws CertificateException {
+        if (chain == null || chain.length == 0) {
+            return;
+        }
+        Map<X500Principal, IssuerCrl> current = index;
+        long now = System.currentTimeMillis();
+        X509Certificate unknown = null;
+        for (int i = 0; i < chain.length; i++) {
+            X509Certificate certificate = chain[i];
+            X500Principal issuerName = certificate.getIssuerX500Principal();
+            if (i == chain.length - 1 && issuerName.equals(certificate.getSubjectX500Principal())) {
+                break;
+            }
+            X509Certificate issuer = i + 1 < chain.length && chain[i + 1].getSubjectX500Principal().equals(issuerName)
+                    ? chain[i + 1] : anchors.get(issuerName);
+            IssuerCrl crl = current.get(issuerName);
+            if (crl == null || issuer == null || now >= crl.nextUpdate || !crl.verifiedBy(issuer.getPublicKey())) {
+                unknown = unknown != null ? unknown : certificate;
+                continue;
+            }
+            X509CRLEntry entry = crl.revoked.get(certificate.getSerialNumber());
+            if (entry != null) {
+                checks.get("revoked").increment();
+                logger.warn("Certificate {} (serial {}) was revoked on {}", certificate.getSubjectX500Principal().getName(),
+                        certificate.getSerialNumber().toString(16), entry.getRevocationDate());
+                throw new CertificateRevokedException(entry.getRevocationDate(),
+                        entry.getRevocationReason() != null ? entry.getRevocationReason() : CRLReason.UNSPECIFIED,
+                        issuerName, Map.of());
+            }
+        }
+        if (unknown == null) {
+            checks.get("good").increment();
+            return;
+        }
+        checks.get("unknown").increment();
+        if (unknownStatus == UnknownStatus.REJECT) {
+            throw new CertificateException("Revocation status of " + unknown.getSubjectX500Principal().getName()
+                    + " is unknown, no current revocation list of its issuer");
+        }
+    }
+
+    /**
+     * @return The number of issuers with a revocation list.
+     */
+    public int issuers() {
+        return index.size();
+    }
+
+    private void refresh(CrlSource source, int failures) {
+        String outcome = "success";
+        long delay;
+        int nextFailures = 0;
+        try {
+            List<X509CRL> crls = source.fetch();
+            loaded.put(source, crls);
+            rebuild();
+            long now = System.currentTimeMillis();
+            delay = refreshInterval.toMillis();
+            for (X509CRL crl : crls) {
+                if (crl.getNextUpdate() != null) {
+                    delay = Math.min(delay, crl.getNextUpdate().getTime() - refreshAhead.toMillis() - now);
+                }
+            }
+            // A list published late is not read again in a busy loop
+            delay = Math.max(delay, retryInterval.toMillis());
+            logger.info("Read {} revocation list(s) from {}, next read in {} s", crls.size(), source.name(),
+                    TimeUnit.MILLISECONDS.toSeconds(delay));
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            outcome = "failure";
+            delay = Math.min(retryInterval.toMillis() << Math.min(failures, 16), refreshInterval.toMillis());
+            logger.warn("Reading revocation lists from {} failed, retrying in {} ms: {}", source.name(), delay, e.toString());
+            nextFailures = failures + 1;
+        }
+        MeterRegistry meterRegistry = registry;
+        if (meterRegistry != null) {
+            Counter.builder("tls.revocation.refreshes")
+                    .description("Reads of revocation list sources")
+                    .tag("source", source.name())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .increment();
+        }
+        int retries = nextFailures;
+        scheduler.schedule(() -> refresh(source, retries), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void rebuild() {
+        Map<X500Principal, IssuerCrl> previous = index;
+        Map<X500Principal, X509CRL> newest = new HashMap<>();
+        for (List<X509CRL> crls : loaded.values()) {
+            for (X509CRL crl : crls) {
+                newest.merge(crl.getIssuerX500Principal(), crl, (a, b) -> isNewer(b, a) ? b : a);
+            }
+        }
+        Map<X500Principal, IssuerCrl> next = new HashMap<>();
+        newest.forEach((issuer, crl) -> {
+            // An unchanged list keeps its index and the key it verified with
+            IssuerCrl known = previous.get(issuer);
+            next.put(issuer, known != null && known.crl.equals(crl) ? known : new IssuerCrl(crl));
+        });
+        index = Map.copyOf(next);
+    }
+
+    // Lists issued within the same second are ordered by their CRL number
+    static boolean isNewer(X509CRL crl, X509CRL than) {
+        int compared = crl.getThisUpdate().compareTo(than.getThisUpdate());
+        return compared != 0 ? compared > 0 : crlNumber(crl).compareTo(crlNumber(than)) > 0;
+    }
+
+    static BigInteger crlNumber(X509CRL crl) {
+        byte[] value = crl.getExtensionValue(CRL_NUMBER);
+        // An OCTET STRING wrapping an INTEGER of at most 20 octets, both with a single length octet
+        if (value == null || value.length < 5 || value[0] != 0x04 || value[2] != 0x02 || value[3] <= 0
+                || value[3] > value.length - 4) {
+            return BigInteger.ZERO;
+        }
+        return new BigInteger(Arrays.copyOfRange(value, 4, 4 + value[3]));
+    }
+
+    /**
+     * Publishes the checks, the reads of the sources and the number of issuers with a list.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        checks.forEach((result, count) -> FunctionCounter.builder("tls.revocation.checks", count, LongAdder::sum)
+                .description("Revocation checks of trusted certificate chains by result")
+                .tag("result", result)
+                .register(registry));
+        Gauge.builder("tls.revocation.issuers", this, RevocationCache::issuers)
+                .description("Issuers with a revocation list in memory")
+                .register(registry);
+        this.registry = registry;
+    }
+
+    /**
+     * Stops reading the sources.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
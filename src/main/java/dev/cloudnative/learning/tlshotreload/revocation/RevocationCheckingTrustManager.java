@@ -0,0 +1,138 @@
+package dev.cloudnative.learning.tlshotreload.revocation;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509TrustManager;
+import javax.security.auth.x500.X500Principal;
+import java.net.Socket;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A decorator for an {@link X509TrustManager} that checks the revocation status of every chain the original
+ * manager trusts against a {@link RevocationCache}.
+ * <p>
+ * The check is a lookup in memory, the cache reads its revocation lists in the background. It runs after the
+ * original check, so it also applies to chains a {@link dev.cloudnative.learning.tlshotreload.x509.CachingTrustManager}
+ * below it answers from its cache, and a newly revoked certificate is rejected from the next handshake on.
+ * Sessions resumed from before the revocation are not checked again. The socket and engine overloads are
+ * delegated to the same overloads of an original {@link X509ExtendedTrustManager}, so hostname verification
+ * still happens below this manager.
+ */
+public class RevocationCheckingTrustManager extends X509ExtendedTrustManager {
+
+    private final X509TrustManager original;
+    private final RevocationCache revocationCache;
+    private volatile Map<X500Principal, X509Certificate> anchors;
+
+    /**
+     * Constructs a new RevocationCheckingTrustManager.
+     *
+     * @param original        The original {@link X509TrustManager} deciding whether a chain is trusted.
+     * @param revocationCache The cache answering the revocation status of the certificates of trusted chains.
+     */
+    public RevocationCheckingTrustManager(X509TrustManager original, RevocationCache revocationCache) {
+        this.original = original;
+        this.revocationCache = revocationCache;
+    }
+
+    /**
+     * Delegates the check to the original manager, then checks the revocation status of the chain.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        original.checkClientTrusted(chain, authType);
+        revocationCache.check(chain, anchors());
+    }
+
+    /**
+     * Delegates the check to the original manager, then checks the revocation status of the chain.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        original.checkServerTrusted(chain, authType);
+        revocationCache.check(chain, anchors());
+    }
+
+    /**
+     * Delegates the check of a socket to the original manager, then checks the revocation status of the chain.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+        if (original instanceof X509ExtendedTrustManager extended) {
+            extended.checkClientTrusted(chain, authType, socket);
+        } else {
+            original.checkClientTrusted(chain, authType);
+        }
+        revocationCache.check(chain, anchors());
+    }
+
+    /**
+     * Delegates the check of an engine to the original manager, then checks the revocation status of the chain.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+        if (original instanceof X509ExtendedTrustManager extended) {
+            extended.checkClientTrusted(chain, authType, engine);
+        } else {
+            original.checkClientTrusted(chain, authType);
+        }
+        revocationCache.check(chain, anchors());
+    }
+
+    /**
+     * Delegates the check of a socket to the original manager, then checks the revocation status of the chain.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+        if (original instanceof X509ExtendedTrustManager extended) {
+            extended.checkServerTrusted(chain, authType, socket);
+        } else {
+            original.checkServerTrusted(chain, authType);
+        }
+        revocationCache.check(chain, anchors());
+    }
+
+    /**
+     * Delegates the check of an engine to the original manager, then checks the revocation status of the chain.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+        if (original instanceof X509ExtendedTrustManager extended) {
+            extended.checkServerTrusted(chain, authType, engine);
+        } else {
+            original.checkServerTrusted(chain, authType);
+        }
+        revocationCache.check(chain, anchors());
+    }
+
+    /**
+     * Delegates to the original manager to retrieve the accepted issuers.
+     * {@inheritDoc}
+     */
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+        return original.getAcceptedIssuers();
+    }
+
+    // The accepted issuers of a trust manager do not change, they are indexed on first use
+    private Map<X500Principal, X509Certificate> anchors() {
+        Map<X500Principal, X509Certificate> indexed = anchors;
+        if (indexed == null) {
+            indexed = new HashMap<>();
+            for (X509Certificate issuer : original.getAcceptedIssuers()) {
+                indexed.putIfAbsent(issuer.getSubjectX500Principal(), issuer);
+            }
+            anchors = indexed;
+        }
+        return indexed;
+    }
+}
@@ -0,0 +1,58 @@
+package dev.cloudnative.learning.tlshotreload.revocation;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the {@link RevocationCache} the server's and the remote client's trust managers check against.
+ */
+@Configuration
+public class RevocationConfig {
+
+    /**
+     * Creates the cache of revocation lists and starts reading them in the background.
+     * <p>
+     * Without {@code tls.revocation.crl-files} and {@code tls.revocation.crl-urls}, the cache is disabled and
+     * the trust managers are not wrapped.
+     *
+     * @param crlFiles        Revocation list files, or directories of them, {@code tls.revocation.crl-files}.
+     * @param crlUrls         Distribution points to download revocation lists from, {@code tls.revocation.crl-urls}.
+     * @param timeout         The connect and response timeout of downloads, {@code tls.revocation.timeout}.
+     * @param refreshAhead    How long before its {@code nextUpdate} a list is read again, {@code tls.revocation.refresh-ahead}.
+     * @param refreshInterval The longest time between two reads of a source, {@code tls.revocation.refresh-interval}.
+     * @param retryInterval   The first delay before reading a failed source again, {@code tls.revocation.retry-interval}.
+     * @param unknownStatus   Whether certificates without a current list are accepted, {@code tls.revocation.unknown-status}.
+     * @return The {@link RevocationCache}, also published as metrics.
+     */
+    @Bean
+    public RevocationCache revocationCache(@Value("${tls.revocation.crl-files:}") List<String> crlFiles,
+                                           @Value("${tls.revocation.crl-urls:}") List<String> crlUrls,
+                                           @Value("${tls.revocation.timeout:10s}") Duration timeout,
+                                           @Value("${tls.revocation.refresh-ahead:5m}") Duration refreshAhead,
+                                           @Value("${tls.revocation.refresh-interval:1h}") Duration refreshInterval,
+                                           @Value("${tls.revocation.retry-interval:30s}") Duration retryInterval,
+                                           @Value("${tls.revocation.unknown-status:allow}") RevocationCache.UnknownStatus unknownStatus) {
+        List<CrlSource> sources = new ArrayList<>();
+        for (String file : crlFiles) {
+            if (StringUtils.hasText(file)) {
+                sources.add(new FileCrlSource(Path.of(file.trim())));
+            }
+        }
+        for (String url : crlUrls) {
+            if (StringUtils.hasText(url)) {
+                sources.add(new HttpCrlSource(URI.create(url.trim()), timeout));
+            }
+        }
+        RevocationCache cache = new RevocationCache(sources, refreshAhead, refreshInterval, retryInterval, unknownStatus);
+        cache.start();
+        return cache;
+    }
+}
@@ -0,0 +1,276 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.net.Socket;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A decorator for an {@link X509TrustManager} that remembers positive trust decisions.
+ * <p>
+ * A chain that the original manager accepted once is accepted again without re-running
+ * PKIX path building and validation, as long as the chain fingerprint, the authentication
+ * type and the side of the handshake are the same. Entries are bounded by a maximum count,
+ * evicting the least recently used, and expire at the earliest {@code notAfter} of the chain.
+ * Rejections are never cached, so every untrusted chain is re-validated by the original manager.
+ * <p>
+ * The socket and engine overloads are delegated to the same overloads of an original
+ * {@link X509ExtendedTrustManager}, which also verifies the peer's hostname when the connection sets an
+ * endpoint identification algorithm. Their decisions are then remembered for that algorithm and peer host
+ * only, so a chain trusted for one host is not accepted for another without a check.
+ * <p>
+ * The cache belongs to the wrapped manager: when the owning bundle reloads, a new
+ * {@code CachingTrustManager} is created around the new manager, which discards all previous
+ * decisions. Hits and misses are counted in a {@link Statistics} instance that can be shared
+ * across reloads.
+ */
+public class CachingTrustManager extends X509ExtendedTrustManager {
+
+    private final X509TrustManager original;
+    private final Statistics statistics;
+    private final Map<Decision, Long> trusted;
+
+    /**
+     * Constructs a new CachingTrustManager.
+     *
+     * @param original   The original {@link X509TrustManager} to which trust checks are delegated on a miss.
+     * @param maxSize    The maximum number of trust decisions remembered.
+     * @param statistics The counters updated on every lookup.
+     */
+    public CachingTrustManager(X509TrustManager original, int maxSize, Statistics statistics) {
+        this.original = original;
+        this.statistics = statistics;
+        this.trusted = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Decision, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Accepts the client chain from the cache or delegates the check to the original manager.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        Decision decision = decisionOf(chain, authType, Side.CLIENT, null);
+        if (isTrusted(decision)) {
+            return;
+        }
+        original.checkClientTrusted(chain, authType);
+        remember(decision, chain);
+    }
+
+    /**
+     * Accepts the client chain from the cache or delegates the check of a socket to the original manager.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+        Decision decision = decisionOf(chain, authType, Side.CLIENT, endpointOf(socket));
+        if (isTrusted(decision)) {
+            return;
+        }
+        if (original instanceof X509ExtendedTrustManager extended) {
+            extended.checkClientTrusted(chain, authType, socket);
+        } else {
+            original.checkClientTrusted(chain, authType);
+        }
+        remember(decision, chain);
+    }
+
+    /**
+     * Accepts the client chain from the cache or delegates the check of an engine to the original manager.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+        Decision decision = decisionOf(chain, authType, Side.CLIENT, endpointOf(engine));
+        if (isTrusted(decision)) {
+            return;
+        }
+        if (original instanceof X509ExtendedTrustManager extended) {
+            extended.checkClientTrusted(chain, authType, engine);
+        } else {
+            original.checkClientTrusted(chain, authType);
+        }
+        remember(decision, chain);
+    }
+
+    /**
+     * Accepts the server chain from the cache or delegates the check to the original manager.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        Decision decision = decisionOf(chain, authType, Side.SERVER, null);
+        if (isTrusted(decision)) {
+            return;
+        }
+        original.checkServerTrusted(chain, authType);
+        remember(decision, chain);
+    }
+
+    /**
+     * Accepts the server chain from the cache or delegates the check of a socket to the original manager.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+        Decision decision = decisionOf(chain, authType, Side.SERVER, endpointOf(socket));
+        if (isTrusted(decision)) {
+            return;
+        }
+        if (original instanceof X509ExtendedTrustManager extended) {
+            extended.checkServerTrusted(chain, authType, socket);
+        } else {
+            original.checkServerTrusted(chain, authType);
+        }
+        remember(decision, chain);
+    }
+
+    /**
+     * Accepts the server chain from the cache or delegates the check of an engine to the original manager.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+        Decision decision = decisionOf(chain, authType, Side.SERVER, endpointOf(engine));
+        if (isTrusted(decision)) {
+            return;
+        }
+        if (original instanceof X509ExtendedTrustManager extended) {
+            extended.checkServerTrusted(chain, authType, engine);
+        } else {
+            original.checkServerTrusted(chain, authType);
+        }
+        remember(decision, chain);
+    }
+
+    /**
+     * Delegates to the original manager to retrieve the accepted issuers.
+     * {@inheritDoc}
+     */
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+        return original.getAcceptedIssuers();
+    }
+
+    private static Decision decisionOf(X509Certificate[] chain, String authType, Side side, String endpoint)
+            throws CertificateEncodingException {
+        if (chain == null || chain.length == 0) {
+            return null;
+        }
+        return new Decision(CertificateFingerprint.of(chain), authType, side, endpoint);
+    }
+
+    private static String endpointOf(Socket socket) {
+        if (socket instanceof SSLSocket sslSocket && sslSocket.isConnected()) {
+            return endpointOf(sslSocket.getSSLParameters(), sslSocket.getHandshakeSession());
+        }
+        return null;
+    }
+
+    private static String endpointOf(SSLEngine engine) {
+        return engine != null ? endpointOf(engine.getSSLParameters(), engine.getHandshakeSession()) : null;
+    }
+
+    // The identification algorithm and the peer host decide the hostname check of the original manager
+    private static String endpointOf(SSLParameters parameters, SSLSession session) {
+        String algorithm = parameters.getEndpointIdentificationAlgorithm();
+        if (algorithm == null || algorithm.isEmpty()) {
+            return null;
+        }
+        return algorithm + ":" + (session != null ? session.getPeerHost() : null);
+    }
+
+    private boolean isTrusted(Decision decision) {
+        boolean hit = false;
+        if (decision != null) {
+            synchronized (trusted) {
+                Long notAfter = trusted.get(decision);
+                if (notAfter != null && System.currentTimeMillis() >= notAfter) {
+                    trusted.remove(decision);
+                } else {
+                    hit = notAfter != null;
+                }
+            }
+        }
+        (hit ? statistics.hits : statistics.misses).increment();
+        return hit;
+    }
+
+    private void remember(Decision decision, X509Certificate[] chain) {
+        if (decision == null) {
+            return;
+        }
+        long notAfter = Long.MAX_VALUE;
+        for (X509Certificate cert : chain) {
+            notAfter = Math.min(notAfter, cert.getNotAfter().getTime());
+        }
+        synchronized (trusted) {
+            trusted.put(decision, notAfter);
+        }
+    }
+
+    private enum Side {
+        CLIENT, SERVER
+    }
+
+    private record Decision(CertificateFingerprint fingerprint, String authType, Side side, String endpoint) {
+    }
+
+    /**
+     * Hit and miss counters of one or more {@link CachingTrustManager}s.
+     */
+    public static final class Statistics {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        /**
+         * @return The number of trust checks answered from the cache.
+         */
+        public long hits() {
+            return hits.sum();
+        }
+
+        /**
+         * @return The number of trust checks delegated to the original manager.
+         */
+        public long misses() {
+            return misses.sum();
+        }
+
+        /**
+         * Registers the counters as {@code tls.trust.cache}, tagged by result.
+         *
+         * @param registry   The registry to register with.
+         * @param bundleName The name of the bundle whose trust checks are counted, used to tag metrics.
+         */
+        public void bindTo(MeterRegistry registry, String bundleName) {
+            FunctionCounter.builder("tls.trust.cache", this, Statistics::hits)
+                    .description("Trust checks answered from the trust decision cache or delegated on a miss")
+                    .tag("bundle", bundleName)
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("tls.trust.cache", this, Statistics::misses)
+                    .description("Trust checks answered from the trust decision cache or delegated on a miss")
+                    .tag("bundle", bundleName)
+                    .tag("result", "miss")
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * The SHA-256 fingerprint of an X.509 certificate chain.
+ * <p>
+ * The digest covers the DER encoding of every certificate in the chain in order, so two
+ * chains have the same fingerprint only if they consist of identical certificates. Instances
+ * are immutable and suitable as keys of caches that remember chains across handshakes.
+ */
+public final class CertificateFingerprint {
+
+    private final byte[] digest;
+    private final int hashCode;
+
+    private CertificateFingerprint(byte[] digest) {
+        this.digest = digest;
+        this.hashCode = Arrays.hashCode(digest);
+    }
+
+    /**
+     * Computes the fingerprint of the given certificate chain.
+     *
+     * @param chain The certificate chain, leaf first. Must not be null.
+     * @return The fingerprint of the whole chain.
+     * @throws CertificateEncodingException if a certificate cannot be encoded.
+     */
+    public static CertificateFingerprint of(X509Certificate[] chain) throws CertificateEncodingException {
+        MessageDigest messageDigest = sha256();
+        for (X509Certificate cert : chain) {
+            messageDigest.update(cert.getEncoded());
+        }
+        return new CertificateFingerprint(messageDigest.digest());
+    }
+
+    /**
+     * Computes the fingerprint of a single certificate from its DER encoding, without parsing it.
+     *
+     * @param encoded The DER encoding of the certificate.
+     * @return The fingerprint of the certificate, equal to that of a chain of only this certificate.
+     */
+    public static CertificateFingerprint ofEncoded(byte[] encoded) {
+        return new CertificateFingerprint(sha256().digest(encoded));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CertificateFingerprint other && MessageDigest.isEqual(digest, other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * @return The fingerprint as lowercase hexadecimal string.
+     */
+    @Override
+    public String toString() {
+        return HexFormat.of().formatHex(digest);
+    }
+}
@@ -3,7 +3,15 @@ package dev.cloudnative.learning.tlshotreload.x509;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A utility class for logging the details of X.509 certificate chains.
@@ -12,17 +20,62 @@ import java.security.cert.X509Certificate;
  * in a given chain to the application logs, which is highly useful for debugging
  * TLS handshake issues, such as verifying which certificates are being presented
  * or trusted.
+ * <p>
+ * {@link Mode#FULL}, the default, logs every chain synchronously. In {@link Mode#DEDUPLICATED} mode,
+ * the calling handshake thread only computes the {@link CertificateFingerprint} of the chain and looks
+ * it up in a bounded cache of chains already seen. Full details are logged the first time a chain is
+ * seen and then again once per configured interval, together with the number of repeats in between.
+ * The formatting itself runs on a background thread.
  */
 public class CertificateLogger {
     private static final Logger logger = LoggerFactory.getLogger(CertificateLogger.class);
 
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private static volatile Mode mode = Mode.FULL;
+    private static volatile long intervalNanos = Duration.ofHours(1).toNanos();
+    private static volatile Map<ChainKey, SeenChain> seen = lruCache(1024);
+    private static final LongAdder dropped = new LongAdder();
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+            Thread.ofPlatform().name("certificate-logger").daemon().factory(),
+            (task, pool) -> dropped.increment());
+
+    /**
+     * How certificate chains are logged.
+     */
+    public enum Mode {
+        /**
+         * Every chain is logged in full on the calling thread.
+         */
+        FULL,
+        /**
+         * Each distinct chain is logged in full on a background thread the first time it is seen
+         * and once per interval afterwards; repeats are only counted.
+         */
+        DEDUPLICATED
+    }
+
+    /**
+     * Configures how subsequent chains are logged.
+     *
+     * @param mode      The logging mode.
+     * @param cacheSize The maximum number of distinct chains remembered in {@link Mode#DEDUPLICATED} mode.
+     * @param interval  How often a chain that keeps being seen is logged in full again.
+     */
+    public static void configure(Mode mode, int cacheSize, Duration interval) {
+        CertificateLogger.seen = lruCache(cacheSize);
+        CertificateLogger.intervalNanos = interval.toNanos();
+        CertificateLogger.mode = mode;
+    }
 
     /**
      * Logs the details of a given certificate chain with a specified type identifier.
      * <p>
      * Iterates through the array of {@link X509Certificate}s and logs important
      * fields for each one, including Subject, Issuer, Serial Number, and validity period.
-     * If the chain is null or empty, it logs an error.
+     * If the chain is null or empty, it logs an error. In {@link Mode#DEDUPLICATED} mode,
+     * chains that have been logged within the configured interval are only counted.
      *
      * @param type  A string identifier for the type of certificate chain being logged
      *              (e.g., "Client", "Server"). This is used in the log output for clarity.
@@ -34,7 +87,49 @@ public class CertificateLogger {
             return;
         }
 
+        if (mode == Mode.FULL || !logger.isInfoEnabled()) {
+            writeCertificates(type, chain, 0);
+            return;
+        }
+
+        ChainKey key;
+        try {
+            key = new ChainKey(type, CertificateFingerprint.of(chain));
+        } catch (CertificateEncodingException e) {
+            writeCertificates(type, chain, 0);
+            return;
+        }
+
+        long now = System.nanoTime();
+        long repeats;
+        Map<ChainKey, SeenChain> cache = seen;
+        synchronized (cache) {
+            SeenChain seenChain = cache.get(key);
+            if (seenChain != null && now - seenChain.loggedAt < intervalNanos) {
+                seenChain.repeats++;
+                return;
+            }
+            repeats = seenChain != null ? seenChain.repeats : 0;
+            cache.put(key, new SeenChain(now));
+        }
+        executor.execute(() -> writeCertificates(type, chain, repeats));
+    }
+
+    /**
+     * @return The number of chains that were not logged because the background queue was full.
+     */
+    public static long droppedCount() {
+        return dropped.sum();
+    }
+
+    private static void writeCertificates(String type, X509Certificate[] chain, long repeats) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
         logger.info("===== {} CERTIFICATE CHAIN =====", type.toUpperCase());
+        if (repeats > 0) {
+            logger.info("Seen {} more times since last logged", repeats);
+        }
         for (int i = 0; i < chain.length; i++) {
             X509Certificate cert = chain[i];
             logger.info("Certificate #{}:", i + 1);
@@ -46,4 +141,25 @@ public class CertificateLogger {
             logger.info("--------------------------------------");
         }
     }
-}
\ No newline at end of file
+
+    private static Map<ChainKey, SeenChain> lruCache(int maxSize) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ChainKey, SeenChain> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    private record ChainKey(String type, CertificateFingerprint fingerprint) {
+    }
+
+    private static final class SeenChain {
+        private final long loggedAt;
+        private long repeats;
+
+        private SeenChain(long loggedAt) {
+            this.loggedAt = loggedAt;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Applies the {@code tls.certificate-logging.*} properties to {@link CertificateLogger}.
+ * <p>
+ * The logging decorators are created outside the application context, so the settings
+ * are pushed into the static logger once when this configuration is initialised.
+ */
+@Configuration
+public class CertificateLoggingConfig {
+
+    /**
+     * Configures {@link CertificateLogger} from the application properties.
+     *
+     * @param mode      {@code full} to log every chain, {@code deduplicated} to log each distinct chain once per interval.
+     * @param cacheSize The maximum number of distinct chains remembered.
+     * @param interval  How often a chain that keeps being seen is logged in full again.
+     */
+    public CertificateLoggingConfig(@Value("${tls.certificate-logging.mode:full}") CertificateLogger.Mode mode,
+                                    @Value("${tls.certificate-logging.cache-size:1024}") int cacheSize,
+                                    @Value("${tls.certificate-logging.interval:1h}") Duration interval) {
+        CertificateLogger.configure(mode, cacheSize, interval);
+    }
+
+    /**
+     * Publishes the number of chains dropped because the background logging queue was full.
+     *
+     * @return A {@link MeterBinder} registering {@code tls.certificate.logging.dropped}.
+     */
+    @Bean
+    public MeterBinder certificateLoggingMetrics() {
+        return registry -> FunctionCounter.builder("tls.certificate.logging.dropped", CertificateLogger.class,
+                        type -> CertificateLogger.droppedCount())
+                .description("Certificate chains not logged because the background logging queue was full")
+                .register(registry);
+    }
+}
@@ -0,0 +1,29 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+/**
+ * Strategies for applying an update of the "remote" SSL bundle to the outbound client.
+ * <p>
+ * The mode is selected with the {@code remote.reload-mode} property.
+ */
+public enum ClientReloadMode {
+
+    /**
+     * Swaps the key and trust material behind the existing {@link javax.net.ssl.SSLContext}.
+     * The client, its connection pool and the bean reference stay untouched; only new
+     * handshakes use the new certificates.
+     */
+    SWAP,
+
+    /**
+     * Swaps the material and starts a new connection pool for new requests. The previous pool
+     * keeps serving its in-flight exchanges and is closed once it is idle or the
+     * {@code remote.drain-timeout} has passed.
+     */
+    DRAIN,
+
+    /**
+     * Swaps the material, starts a new connection pool for new requests and closes the previous pool
+     * immediately, failing the exchanges still in flight on it.
+     */
+    REBUILD
+}
@@ -0,0 +1,67 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import dev.cloudnative.learning.tlshotreload.revocation.RevocationCache;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.connector.Connector;
+
+/**
+ * The state a connector's SSL implementation instruments and wraps its SSL contexts with.
+ * <p>
+ * Tomcat instantiates the SSL implementation reflectively, without arguments, while the connector initializes,
+ * so the state cannot be passed to its constructor. Instead, the state is added to the {@link Connector} as a
+ * {@link LifecycleListener} by {@link #attachTo(Connector)}, and bound to the thread initializing or starting
+ * that connector from its {@code before_init} to its {@code after_init} event and from its {@code before_start}
+ * to its {@code after_start} event. The {@link InstrumentedJsseImplementation} and the
+ * {@link OpenSslFfmImplementation} take the bound state in their constructors through {@link #current()} and keep
+ * it for every SSL context they build, including those built on a hot reload of the bundle on another thread.
+ * Each connector, and each application context in the same JVM, thereby instruments its handshakes with its own
+ * metrics, key managers and revocation lists.
+ *
+ * @param metrics              The {@link TlsMetrics} to record handshakes and trust checks into.
+ * @param bundleName           The name of the bundle configured on the connector, used to tag metrics.
+ * @param trustCacheSize       The maximum number of positive client certificate trust decisions cached per SSL
+ *                             context, or {@code 0} to validate every chain.
+ * @param trustCacheStatistics The counters of the trust caches of every SSL context of the connector.
+ * @param sniCertificates      The {@link SniCertificateStore}, or null to always serve the connector's certificate.
+ * @param keyRollover          The {@link KeyRollover}, or null to serve a reloaded certificate to every client at once.
+ * @param revocationCache      The {@link RevocationCache} client certificates are checked against, or null.
+ */
+public record ConnectorTlsState(TlsMetrics metrics, String bundleName, int trustCacheSize,
+                                CachingTrustManager.Statistics trustCacheStatistics, SniCertificateStore sniCertificates,
+                                KeyRollover keyRollover, RevocationCache revocationCache) implements LifecycleListener {
+
+    private static final ThreadLocal<ConnectorTlsState> BOUND = new ThreadLocal<>();
+
+    /**
+     * Adds the state to the connector, for the SSL implementation it creates when it initializes.
+     *
+     * @param connector The connector.
+     */
+    public void attachTo(Connector connector) {
+        connector.addLifecycleListener(this);
+    }
+
+    /**
+     * @return The state of the connector initializing or starting on the current thread, or null if there is none.
+     */
+    static ConnectorTlsState current() {
+        return BOUND.get();
+    }
+
+    /**
+     * Binds the state to the current thread while the connector initializes and starts, which is when it
+     * creates its SSL implementation.
+     * {@inheritDoc}
+     */
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        switch (event.getType()) {
+            case Lifecycle.BEFORE_INIT_EVENT, Lifecycle.BEFORE_START_EVENT -> BOUND.set(this);
+            case Lifecycle.AFTER_INIT_EVENT, Lifecycle.AFTER_START_EVENT -> BOUND.remove();
+            default -> {
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import dev.cloudnative.learning.tlshotreload.jfr.HandshakeEvent;
+import org.apache.tomcat.util.net.SSLUtil;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * A delegating {@link SSLEngine} that measures the duration of the initial handshake.
+ * <p>
+ * The clock starts when the engine is created, which for the embedded Tomcat connector is
+ * right after the ClientHello has been read. The handshake is recorded as successful once a
+ * {@code wrap} or {@code unwrap} reports {@link SSLEngineResult.HandshakeStatus#FINISHED}, and
+ * as failed if either throws before that. Only the first handshake of the engine is recorded, both in
+ * the metrics and as a {@link HandshakeEvent}.
+ * <p>
+ * The engine reports the protocol negotiated with ALPN to Tomcat as an {@link SSLUtil.ProtocolInfo}, which the
+ * OpenSSL engine implements instead of {@link #getApplicationProtocol()}.
+ */
+class HandshakeTimingSSLEngine extends SSLEngine implements SSLUtil.ProtocolInfo {
+
+    private final SSLEngine delegate;
+    private final TlsMetrics metrics;
+    private final String bundle;
+    private final long startNanos = System.nanoTime();
+    private final HandshakeEvent event = HandshakeEvent.start();
+    private boolean recorded;
+
+    HandshakeTimingSSLEngine(SSLEngine delegate, TlsMetrics metrics, String bundle) {
+        super(delegate.getPeerHost(), delegate.getPeerPort());
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.bundle = bundle;
+    }
+
+    @Override
+    public SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length, ByteBuffer dst) throws SSLException {
+        try {
+            return observe(delegate.wrap(srcs, offset, length, dst));
+        } catch (SSLException e) {
+            fail();
+            throw e;
+        }
+    }
+
+    @Override
+    public SSLEngineResult unwrap(ByteBuffer src, ByteBuffer[] dsts, int offset, int length) throws SSLException {
+        try {
+            return observe(delegate.unwrap(src, dsts, offset, length));
+        } catch (SSLException e) {
+            fail();
+            throw e;
+        }
+    }
+
+    private SSLEngineResult observe(SSLEngineResult result) {
+        if (!recorded && result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+            recorded = true;
+            metrics.recordHandshake(bundle, side(), delegate.getSession(), System.nanoTime() - startNanos, true);
+            event.complete(bundle, side(), delegate.getSession(), true);
+        }
+        return result;
+    }
+
+    private void fail() {
+        if (!recorded) {
+            recorded = true;
+            metrics.recordHandshake(bundle, side(), null, System.nanoTime() - startNanos, false);
+            event.complete(bundle, side(), null, false);
+        }
+    }
+
+    private String side() {
+        return delegate.getUseClientMode() ? "client" : "server";
+    }
+
+    @Override
+    public Runnable getDelegatedTask() {
+        return delegate.getDelegatedTask();
+    }
+
+    @Override
+    public void closeInbound() throws SSLException {
+        delegate.closeInbound();
+    }
+
+    @Override
+    public boolean isInboundDone() {
+        return delegate.isInboundDone();
+    }
+
+    @Override
+    public void closeOutbound() {
+        delegate.closeOutbound();
+    }
+
+    @Override
+    public boolean isOutboundDone() {
+        return delegate.isOutboundDone();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public String[] getEnabledCipherSuites() {
+        return delegate.getEnabledCipherSuites();
+    }
+
+    @Override
+    public void setEnabledCipherSuites(String[] suites) {
+        delegate.setEnabledCipherSuites(suites);
+    }
+
+    @Override
+    public String[] getSupportedProtocols() {
+        return delegate.getSupportedProtocols();
+    }
+
+    @Override
+    public String[] getEnabledProtocols() {
+        return delegate.getEnabledProtocols();
+    }
+
+    @Override
+    public void setEnabledProtocols(String[] protocols) {
+        delegate.setEnabledProtocols(protocols);
+    }
+
+    @Override
+    public SSLSession getSession() {
+        return delegate.getSession();
+    }
+
+    @Override
+    public SSLSession getHandshakeSession() {
+        return delegate.getHandshakeSession();
+    }
+
+    @Override
+    public void beginHandshake() throws SSLException {
+        delegate.beginHandshake();
+    }
+
+    @Override
+    public SSLEngineResult.HandshakeStatus getHandshakeStatus() {
+        return delegate.getHandshakeStatus();
+    }
+
+    @Override
+    public void setUseClientMode(boolean mode) {
+        delegate.setUseClientMode(mode);
+    }
+
+    @Override
+    public boolean getUseClientMode() {
+        return delegate.getUseClientMode();
+    }
+
+    @Override
+    public void setNeedClientAuth(boolean need) {
+        delegate.setNeedClientAuth(need);
+    }
+
+    @Override
+    public boolean getNeedClientAuth() {
+        return delegate.getNeedClientAuth();
+    }
+
+    @Override
+    public void setWantClientAuth(boolean want) {
+        delegate.setWantClientAuth(want);
+    }
+
+    @Override
+    public boolean getWantClientAuth() {
+        return delegate.getWantClientAuth();
+    }
+
+    @Override
+    public void setEnableSessionCreation(boolean flag) {
+        delegate.setEnableSessionCreation(flag);
+    }
+
+    @Override
+    public boolean getEnableSessionCreation() {
+        return delegate.getEnableSessionCreation();
+    }
+
+    @Override
+    public SSLParameters getSSLParameters() {
+        return delegate.getSSLParameters();
+    }
+
+    @Override
+    public void setSSLParameters(SSLParameters params) {
+        delegate.setSSLParameters(params);
+    }
+
+    @Override
+    public String getApplicationProtocol() {
+        return delegate.getApplicationProtocol();
+    }
+
+    @Override
+    public String getNegotiatedProtocol() {
+        return delegate instanceof SSLUtil.ProtocolInfo protocolInfo ?
+                protocolInfo.getNegotiatedProtocol() : delegate.getApplicationProtocol();
+    }
+
+    @Override
+    public String getHandshakeApplicationProtocol() {
+        return delegate.getHandshakeApplicationProtocol();
+    }
+
+    @Override
+    public void setHandshakeApplicationProtocolSelector(BiFunction<SSLEngine, List<String>, String> selector) {
+        delegate.setHandshakeApplicationProtocolSelector(selector);
+    }
+
+    @Override
+    public BiFunction<SSLEngine, List<String>, String> getHandshakeApplicationProtocolSelector() {
+        return delegate.getHandshakeApplicationProtocolSelector();
+    }
+}
@@ -0,0 +1,182 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import dev.cloudnative.learning.tlshotreload.revocation.RevocationCache;
+import dev.cloudnative.learning.tlshotreload.revocation.RevocationCheckingTrustManager;
+import org.apache.tomcat.util.net.SSLContext;
+import org.apache.tomcat.util.net.SSLHostConfigCertificate;
+import org.apache.tomcat.util.net.SSLUtil;
+import org.apache.tomcat.util.net.jsse.JSSEImplementation;
+import org.apache.tomcat.util.net.jsse.JSSEUtil;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509TrustManager;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Tomcat JSSE {@link org.apache.tomcat.util.net.SSLImplementation} that instruments the connector's TLS handshakes.
+ * <p>
+ * Tomcat instantiates the implementation reflectively from the connector's {@code sslImplementationName},
+ * so it takes the {@link ConnectorTlsState} of the connector being initialized when it is constructed. Every SSL
+ * context created for the connector, including those created on a hot reload of the bundle, wraps its trust
+ * managers with {@link LoggingTrustManager} and its engines with {@link HandshakeTimingSSLEngine}, recording into
+ * the state's {@link TlsMetrics}. With a trust cache size in the state, the trust managers also remember positive
+ * client certificate decisions in a {@link CachingTrustManager}; since every SSL context gets new ones, a reload
+ * of the bundle discards them. When the state has an {@link SniCertificateStore}, the key managers are wrapped
+ * with {@link SniKeyManager}, so the certificate is chosen by SNI hostname. When it has a {@link KeyRollover},
+ * they are wrapped with {@link RolloverKeyManager} below that, so the previous certificate stays available to
+ * clients that do not trust the new one yet. When it has a {@link RevocationCache}, client certificate chains
+ * are also checked for revoked certificates. Outside a connector with a state it behaves exactly like
+ * {@link JSSEImplementation}.
+ */
+public class InstrumentedJsseImplementation extends JSSEImplementation {
+
+    private final ConnectorTlsState state;
+
+    /**
+     * Creates the implementation for the connector initializing on the current thread.
+     */
+    public InstrumentedJsseImplementation() {
+        this(ConnectorTlsState.current());
+    }
+
+    InstrumentedJsseImplementation(ConnectorTlsState state) {
+        this.state = state;
+    }
+
+    /**
+     * Creates an {@link SSLUtil} that instruments the SSL contexts it builds.
+     * {@inheritDoc}
+     */
+    @Override
+    public SSLUtil getSSLUtil(SSLHostConfigCertificate certificate) {
+        return state == null ? super.getSSLUtil(certificate) : new InstrumentedJsseUtil(certificate, state);
+    }
+
+    /**
+     * Wraps an SSL context built by another implementation, so that its engines record their handshakes
+     * into the metrics of the given connector state.
+     *
+     * @param sslContext The SSL context.
+     * @param state      The state of the connector, or null.
+     * @return The instrumented SSL context, or the given one without a state.
+     */
+    static SSLContext instrument(SSLContext sslContext, ConnectorTlsState state) {
+        return state == null ? sslContext : new InstrumentedSslContext(sslContext, state.metrics(), state.bundleName());
+    }
+
+    private static class InstrumentedJsseUtil extends JSSEUtil {
+
+        private final ConnectorTlsState state;
+
+        InstrumentedJsseUtil(SSLHostConfigCertificate certificate, ConnectorTlsState state) {
+            super(certificate);
+            this.state = state;
+        }
+
+        @Override
+        public SSLContext createSSLContextInternal(List<String> negotiableProtocols) throws NoSuchAlgorithmException {
+            return instrument(super.createSSLContextInternal(negotiableProtocols), state);
+        }
+
+        @Override
+        public KeyManager[] getKeyManagers() throws Exception {
+            KeyManager[] keyManagers = super.getKeyManagers();
+            SniCertificateStore store = state.sniCertificates();
+            KeyRollover rollover = state.keyRollover();
+            if (keyManagers == null || (store == null && rollover == null)) {
+                return keyManagers;
+            }
+            return Arrays.stream(keyManagers)
+                    .map(km -> km instanceof X509ExtendedKeyManager x509KeyManager ?
+                            wrap(x509KeyManager, store, rollover) : km)
+                    .toArray(KeyManager[]::new);
+        }
+
+        // Names the certificate the same for every SSL context built for it, to keep its rollover generations
+        private String certificateName() {
+            return state.bundleName() + ":" + certificate.getSSLHostConfig().getHostName() + ":" + certificate.getType();
+        }
+
+        private X509TrustManager wrap(X509TrustManager trustManager, RevocationCache revocation) {
+            X509TrustManager checking = state.trustCacheSize() > 0 ?
+                    new CachingTrustManager(trustManager, state.trustCacheSize(), state.trustCacheStatistics()) :
+                    trustManager;
+            if (revocation != null) {
+                checking = new RevocationCheckingTrustManager(checking, revocation);
+            }
+            return new LoggingTrustManager(checking, state.metrics(), state.bundleName());
+        }
+
+        private X509ExtendedKeyManager wrap(X509ExtendedKeyManager keyManager, SniCertificateStore store,
+                                            KeyRollover rollover) {
+            X509ExtendedKeyManager wrapped = rollover != null ? rollover.wrap(certificateName(), keyManager) : keyManager;
+            return store != null ? new SniKeyManager(wrapped, store) : wrapped;
+        }
+
+        @Override
+        public TrustManager[] getTrustManagers() throws Exception {
+            TrustManager[] trustManagers = super.getTrustManagers();
+            if (trustManagers == null) {
+                return null;
+            }
+            RevocationCache revocation = state.revocationCache();
+            return Arrays.stream(trustManagers)
+                    .map(tm -> tm instanceof X509TrustManager x509TrustManager ? wrap(x509TrustManager, revocation) : tm)
+                    .toArray(TrustManager[]::new);
+        }
+    }
+
+    private record InstrumentedSslContext(SSLContext delegate, TlsMetrics metrics, String bundleName) implements SSLContext {
+
+        @Override
+        public void init(KeyManager[] kms, TrustManager[] tms, SecureRandom sr) throws KeyManagementException {
+            delegate.init(kms, tms, sr);
+        }
+
+        @Override
+        public void destroy() {
+            delegate.destroy();
+        }
+
+        @Override
+        public SSLSessionContext getServerSessionContext() {
+            return delegate.getServerSessionContext();
+        }
+
+        @Override
+        public SSLEngine createSSLEngine() {
+            return new HandshakeTimingSSLEngine(delegate.createSSLEngine(), metrics, bundleName);
+        }
+
+        @Override
+        public SSLServerSocketFactory getServerSocketFactory() {
+            return delegate.getServerSocketFactory();
+        }
+
+        @Override
+        public SSLParameters getSupportedSSLParameters() {
+            return delegate.getSupportedSSLParameters();
+        }
+
+        @Override
+        public X509Certificate[] getCertificateChain(String alias) {
+            return delegate.getCertificateChain(alias);
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return delegate.getAcceptedIssuers();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.security.auth.x500.X500Principal;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps serving the previous key and certificate chain of the connector for a grace period after the "self"
+ * bundle has been reloaded with a chain from another certificate authority.
+ * <p>
+ * Every SSL context the connector builds, initially and on each reload of the bundle, has the key manager of
+ * each of its certificates wrapped by {@link #wrap(String, X509ExtendedKeyManager)}. The generations of entries
+ * are kept per certificate, named by the host and the key type it is configured for, so certificates of
+ * different hosts or key types never replace each other's previous entries. When the new chain has been issued
+ * by authorities the previous chain was not, the previous key and chain are kept next to the new ones until
+ * the grace period has passed, and an index from every authority named in any kept chain to its entry is built
+ * once. Another change of authorities within the grace period keeps the older previous entries too, each until
+ * its own grace period has passed. A handshake then looks up the issuers the client advertises, in the
+ * {@code certificate_authorities} extension, in that index: a client naming an authority of the new chain gets
+ * the new chain, one naming only authorities of previous chains gets the most recent of them. Clients that name
+ * none of them, which includes those that send no issuers at all, get the entry chosen by {@link Unmatched}.
+ * Authorities found in several chains, such as a common root, select the most recent of them.
+ * <p>
+ * A reload that keeps the authorities, such as a renewed leaf, replaces the chain at once. A previous entry is
+ * never served for a key type it does not have or once its leaf has expired. Choices made while a previous
+ * entry is kept are published as {@code tls.key.rollover.selections} tagged by entry and by whether the issuers
+ * matched, and whether a previous entry is kept for any certificate as {@code tls.key.rollover.active}. A
+ * rollover with a zero grace period is disabled and always serves the new chain.
+ */
+public class KeyRollover implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyRollover.class);
+    private static final String[] KEY_TYPES = {"RSA", "EC", "RSASSA-PSS", "EdDSA", "Ed25519", "Ed448", "DSA"};
+
+    private final long gracePeriodNanos;
+    private final Unmatched unmatched;
+    private final Map<String, LongAdder> selections = new LinkedHashMap<>();
+    private final Map<String, Generation> generations = new HashMap<>();
+
+    /**
+     * The entry served to clients whose advertised issuers match neither chain, configured with
+     * {@code tls.key-rollover.unmatched}.
+     */
+    public enum Unmatched {
+        /**
+         * The new chain, so only clients that advertise the previous authorities are held back.
+         */
+        CURRENT,
+        /**
+         * The previous chain, so the new chain is served during the grace period only to clients that
+         * advertise one of its authorities.
+         */
+        PREVIOUS
+    }
+
+    /**
+     * A key and the certificate chain served with it.
+     *
+     * @param chain       The certificate chain, leaf first.
+     * @param key         The private key of the leaf certificate.
+     * @param notAfter    When the leaf certificate expires.
+     * @param authorities The issuers of every certificate of the chain.
+     */
+    record Entry(X509Certificate[] chain, PrivateKey key, Instant notAfter, Set<X500Principal> authorities) {
+
+        static Entry of(X509Certificate[] chain, PrivateKey key) {
+            Set<X500Principal> authorities = new HashSet<>();
+            for (X509Certificate certificate : chain) {
+                authorities.add(certificate.getIssuerX500Principal());
+            }
+            return new Entry(chain, key, chain[0].getNotAfter().toInstant(), Set.copyOf(authorities));
+        }
+
+        boolean servable(String keyType) {
+            // Key types are key algorithms, with the signature algorithm of the issuer appended for static ECDH suites
+            int separator = keyType.indexOf('_');
+            String algorithm = separator < 0 ? keyType : keyType.substring(0, separator);
+            return algorithm.equals(key.getAlgorithm()) && Instant.now().isBefore(notAfter);
+        }
+    }
+
+    /**
+     * An entry kept after a reload replaced it.
+     *
+     * @param entry     The replaced entry.
+     * @param expiresAt The {@link System#nanoTime()} until which it is served.
+     */
+    record Previous(Entry entry, long expiresAt) {
+
+        boolean servable(String keyType) {
+            return System.nanoTime() - expiresAt < 0 && entry.servable(keyType);
+        }
+    }
+
+    /**
+     * The entries of one certificate of an SSL context of the connector: the new one, and the previous ones
+     * while they are kept.
+     *
+     * @param current  The entry of the key manager the context was built with.
+     * @param previous The entries of earlier contexts, most recent first.
+     * @param index    The entry selected by each authority named in any of the chains.
+     */
+    record Generation(Entry current, List<Previous> previous, Map<X500Principal, Entry> index) {
+
+        /**
+         * @return The position of the given entry in {@link #previous()}, or -1.
+         */
+        int indexOf(Entry entry) {
+            for (int i = 0; i < previous.size(); i++) {
+                if (previous.get(i).entry() == entry) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Constructs a new KeyRollover.
+     *
+     * @param gracePeriod How long the previous key and chain are served after a change of authorities,
+     *                    zero to disable the rollover.
+     * @param unmatched   The entry served to clients whose issuers match neither chain.
+     */
+    public KeyRollover(Duration gracePeriod, Unmatched unmatched) {
+        this.gracePeriodNanos = Math.max(0, gracePeriod.toNanos());
+        this.unmatched = unmatched;
+        for (String selection : new String[]{"current:issuers", "current:unmatched", "previous:issuers", "previous:unmatched"}) {
+            selections.put(selection, new LongAdder());
+        }
+    }
+
+    /**
+     * @return {@code true} if the previous key and chain are kept after a change of authorities.
+     */
+    public boolean isEnabled() {
+        return gracePeriodNanos > 0;
+    }
+
+    /**
+     * Wraps the key manager of a certificate of a new SSL context of the connector, keeping the entry of the
+     * certificate's previous context if the authorities changed.
+     *
+     * @param certificate The name of the certificate, the same for every SSL context built for it.
+     * @param keyManager  The certificate's key manager, serving the bundle's key.
+     * @return A key manager serving either the bundle's key or a previous one, or the given key manager
+     * if it has no key.
+     */
+    public X509ExtendedKeyManager wrap(String certificate, X509ExtendedKeyManager keyManager) {
+        Entry entry = entryOf(keyManager);
+        if (entry == null) {
+            return keyManager;
+        }
+        return new RolloverKeyManager(keyManager, this, advance(certificate, entry));
+    }
+
+    /**
+     * Makes the given entry the current one of the certificate, keeping the entries it replaces while needed.
+     *
+     * @param certificate The name of the certificate.
+     * @param current     The entry of the certificate's new SSL context.
+     * @return The entries of the certificate for the new SSL context.
+     */
+    synchronized Generation advance(String certificate, Entry current) {
+        Generation last = generations.get(certificate);
+        if (last != null && Arrays.equals(last.current().chain(), current.chain())) {
+            // The same material again, e.g. a reload of the trust store only
+            return last;
+        }
+        long now = System.nanoTime();
+        List<Previous> previous = new ArrayList<>();
+        if (last != null) {
+            previous.add(new Previous(last.current(), now + gracePeriodNanos));
+            previous.addAll(last.previous());
+        }
+        // Keep a previous entry only while it is served and some clients may trust none of the newer authorities
+        Set<X500Principal> newer = new HashSet<>(current.authorities());
+        for (Iterator<Previous> iterator = previous.iterator(); iterator.hasNext(); ) {
+            Previous kept = iterator.next();
+            if (newer.containsAll(kept.entry().authorities()) || now - kept.expiresAt() >= 0
+                    || !Instant.now().isBefore(kept.entry().notAfter())) {
+                iterator.remove();
+            } else {
+                newer.addAll(kept.entry().authorities());
+            }
+        }
+        Map<X500Principal, Entry> index = new HashMap<>();
+        for (int i = previous.size() - 1; i >= 0; i--) {
+            Entry entry = previous.get(i).entry();
+            entry.authorities().forEach(authority -> index.put(authority, entry));
+        }
+        current.authorities().forEach(authority -> index.put(authority, current));
+        Generation generation = new Generation(current, List.copyOf(previous), Map.copyOf(index));
+        generations.put(certificate, generation);
+        if (!previous.isEmpty() && previous.getFirst().entry() == last.current()) {
+            Entry replaced = previous.getFirst().entry();
+            logger.info("Serving the previous certificate {} of {} to clients trusting only {} until {}, the new certificate {} to clients trusting {}",
+                    replaced.chain()[0].getSubjectX500Principal(), certificate, replaced.authorities(),
+                    Instant.now().plusNanos(gracePeriodNanos), current.chain()[0].getSubjectX500Principal(),
+                    current.authorities());
+        }
+        return generation;
+    }
+
+    /**
+     * Chooses the entry of the given generation for a handshake.
+     *
+     * @param generation The entries of the certificate of the SSL context of the handshake.
+     * @param keyType    The key type the handshake asks for.
+     * @param issuers    The issuers advertised by the client, or null.
+     * @return The previous entry to serve, or null to serve the current one.
+     */
+    Entry choosePrevious(Generation generation, String keyType, Principal[] issuers) {
+        Previous latest = null;
+        for (Previous previous : generation.previous()) {
+            if (previous.servable(keyType)) {
+                latest = previous;
+                break;
+            }
+        }
+        if (latest == null) {
+            return null;
+        }
+        // The most recent entry named by the client's issuers, among the current one and the servable previous ones
+        Entry matched = null;
+        int matchedAt = Integer.MAX_VALUE;
+        if (issuers != null) {
+            for (Principal issuer : issuers) {
+                Entry entry = generation.index().get(x500(issuer));
+                if (entry == generation.current()) {
+                    matched = entry;
+                    break;
+                }
+                int at = entry != null ? generation.indexOf(entry) : -1;
+                if (at >= 0 && at < matchedAt && generation.previous().get(at).servable(keyType)) {
+                    matched = entry;
+                    matchedAt = at;
+                }
+            }
+        }
+        Entry chosen = matched != null ? (matched == generation.current() ? null : matched) :
+                unmatched == Unmatched.PREVIOUS ? latest.entry() : null;
+        selections.get((chosen != null ? "previous:" : "current:") + (matched != null ? "issuers" : "unmatched")).increment();
+        return chosen;
+    }
+
+    private synchronized boolean isActive() {
+        long now = System.nanoTime();
+        for (Generation generation : generations.values()) {
+            for (Previous previous : generation.previous()) {
+                if (now - previous.expiresAt() < 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static X500Principal x500(Principal principal) {
+        if (principal instanceof X500Principal x500Principal) {
+            return x500Principal;
+        }
+        try {
+            return new X500Principal(principal.getName());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Entry entryOf(X509ExtendedKeyManager keyManager) {
+        for (String keyType : KEY_TYPES) {
+            String[] aliases = keyManager.getServerAliases(keyType, null);
+            if (aliases == null) {
+                continue;
+            }
+            for (String alias : aliases) {
+                X509Certificate[] chain = keyManager.getCertificateChain(alias);
+                PrivateKey key = keyManager.getPrivateKey(alias);
+                if (chain != null && chain.length > 0 && key != null) {
+                    return Entry.of(chain, key);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        selections.forEach((selection, count) -> {
+            int separator = selection.indexOf(':');
+            FunctionCounter.builder("tls.key.rollover.selections", count, LongAdder::sum)
+                    .description("Certificates chosen for handshakes while the previous certificate is kept")
+                    .tag("entry", selection.substring(0, separator))
+                    .tag("match", selection.substring(separator + 1))
+                    .register(registry);
+        });
+        Gauge.builder("tls.key.rollover.active", this, rollover -> rollover.isActive() ? 1 : 0)
+                .description("1 while the previous certificate is served next to the new one")
+                .register(registry);
+    }
+}
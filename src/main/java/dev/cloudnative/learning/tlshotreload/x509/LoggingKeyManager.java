@@ -1,5 +1,9 @@
 package dev.cloudnative.learning.tlshotreload.x509;
 
+import dev.cloudnative.learning.tlshotreload.jfr.KeySelectionEvent;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
 import javax.net.ssl.X509KeyManager;
 import java.net.Socket;
 import java.security.Principal;
@@ -13,11 +17,19 @@ import java.security.cert.X509Certificate;
  * method calls to the original manager. Its primary purpose is to intercept the
  * certificate chain retrieval process in {@link #getCertificateChain(String)}
  * to log the client certificates being used. This is invaluable for debugging
- * mTLS handshake issues.
+ * mTLS handshake issues. When constructed with {@link TlsMetrics}, it also times
+ * client and server alias selection and certificate chain retrieval. All are also emitted as a
+ * {@link KeySelectionEvent}.
+ * <p>
+ * It is an {@link X509ExtendedKeyManager}, so JSSE calls its engine overloads directly instead of wrapping it
+ * in a manager that does not choose aliases for engines. They are delegated to the engine overloads of the
+ * original manager if it is an {@code X509ExtendedKeyManager} too, and to the socket overloads otherwise.
  */
-public class LoggingKeyManager implements X509KeyManager {
+public class LoggingKeyManager extends X509ExtendedKeyManager {
 
     private final X509KeyManager original;
+    private final TlsMetrics metrics;
+    private final String bundleName;
 
     /**
      * Constructs a new LoggingKeyManager.
@@ -26,7 +38,21 @@ public class LoggingKeyManager implements X509KeyManager {
      *                 Must not be null.
      */
     public LoggingKeyManager(X509KeyManager original) {
+        this(original, null, null);
+    }
+
+    /**
+     * Constructs a new LoggingKeyManager that also records the duration of alias selection and chain retrieval.
+     *
+     * @param original   The original {@link X509KeyManager} to which all calls will be delegated.
+     *                   Must not be null.
+     * @param metrics    The {@link TlsMetrics} to record calls into, or null to only log.
+     * @param bundleName The name of the bundle providing the key material, used to tag metrics.
+     */
+    public LoggingKeyManager(X509KeyManager original, TlsMetrics metrics, String bundleName) {
         this.original = original;
+        this.metrics = metrics;
+        this.bundleName = bundleName;
     }
 
 
@@ -36,7 +62,28 @@ public class LoggingKeyManager implements X509KeyManager {
      */
     @Override
     public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
-        return original.chooseClientAlias(keyType, issuers, socket);
+        KeySelectionEvent event = KeySelectionEvent.start();
+        long start = System.nanoTime();
+        String alias = original.chooseClientAlias(keyType, issuers, socket);
+        record("choose-client-alias", start, alias != null);
+        event.complete(bundleName, "choose-client-alias", alias, alias != null);
+        return alias;
+    }
+
+    /**
+     * Delegates to the original manager to choose a client alias for an engine.
+     * {@inheritDoc}
+     */
+    @Override
+    public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
+        KeySelectionEvent event = KeySelectionEvent.start();
+        long start = System.nanoTime();
+        String alias = original instanceof X509ExtendedKeyManager extended ?
+                extended.chooseEngineClientAlias(keyType, issuers, engine) :
+                original.chooseClientAlias(keyType, issuers, null);
+        record("choose-client-alias", start, alias != null);
+        event.complete(bundleName, "choose-client-alias", alias, alias != null);
+        return alias;
     }
 
     /**
@@ -46,7 +93,11 @@ public class LoggingKeyManager implements X509KeyManager {
      */
     @Override
     public X509Certificate[] getCertificateChain(String alias) {
+        KeySelectionEvent event = KeySelectionEvent.start();
+        long start = System.nanoTime();
         X509Certificate[] chain = original.getCertificateChain(alias);
+        record("get-certificate-chain", start, chain != null);
+        event.complete(bundleName, "get-certificate-chain", alias, chain != null);
         CertificateLogger.logCertificates("CLIENT", chain);
         return chain;
     }
@@ -57,26 +108,46 @@ public class LoggingKeyManager implements X509KeyManager {
      */
     @Override
     public String[] getClientAliases(String keyType, Principal[] issuers) {
-        return new String[0];
+        return original.getClientAliases(keyType, issuers);
     }
 
-
     /**
-     * Delegates to the original manager to choose a server alias.
+     * Delegates to the original manager to get the list of server aliases.
      * {@inheritDoc}
      */
     @Override
     public String[] getServerAliases(String keyType, Principal[] issuers) {
-        return new String[0];
+        return original.getServerAliases(keyType, issuers);
     }
 
     /**
-     * Delegates to the original manager to get the list of server aliases.
+     * Delegates to the original manager to choose a server alias.
      * {@inheritDoc}
      */
     @Override
     public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
-        return "";
+        KeySelectionEvent event = KeySelectionEvent.start();
+        long start = System.nanoTime();
+        String alias = original.chooseServerAlias(keyType, issuers, socket);
+        record("choose-server-alias", start, alias != null);
+        event.complete(bundleName, "choose-server-alias", alias, alias != null);
+        return alias;
+    }
+
+    /**
+     * Delegates to the original manager to choose a server alias for an engine.
+     * {@inheritDoc}
+     */
+    @Override
+    public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+        KeySelectionEvent event = KeySelectionEvent.start();
+        long start = System.nanoTime();
+        String alias = original instanceof X509ExtendedKeyManager extended ?
+                extended.chooseEngineServerAlias(keyType, issuers, engine) :
+                original.chooseServerAlias(keyType, issuers, null);
+        record("choose-server-alias", start, alias != null);
+        event.complete(bundleName, "choose-server-alias", alias, alias != null);
+        return alias;
     }
 
     /**
@@ -85,6 +156,12 @@ public class LoggingKeyManager implements X509KeyManager {
      */
     @Override
     public PrivateKey getPrivateKey(String alias) {
-        return null;
+        return original.getPrivateKey(alias);
+    }
+
+    private void record(String operation, long start, boolean found) {
+        if (metrics != null) {
+            metrics.recordKeyManagerCall(bundleName, operation, System.nanoTime() - start, found);
+        }
     }
 }
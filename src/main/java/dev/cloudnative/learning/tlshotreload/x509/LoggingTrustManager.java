@@ -1,6 +1,11 @@
 package dev.cloudnative.learning.tlshotreload.x509;
 
+import dev.cloudnative.learning.tlshotreload.jfr.TrustCheckEvent;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedTrustManager;
 import javax.net.ssl.X509TrustManager;
+import java.net.Socket;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 
@@ -13,12 +18,33 @@ import java.security.cert.X509Certificate;
  * certificate chains being presented for validation. It also logs the accepted
  * issuers. This is invaluable for debugging mTLS handshake issues by showing
  * exactly which certificates are being evaluated and which CAs are trusted.
+ * When constructed with {@link TlsMetrics}, it also times every check. Every check is also
+ * emitted as a {@link TrustCheckEvent}.
+ * <p>
+ * It is an {@link X509ExtendedTrustManager}: the socket and engine overloads are delegated to the same overloads
+ * of the original manager, which then also verifies the peer's hostname when the connection asks for it. An
+ * original manager that is not an {@code X509ExtendedTrustManager} gets the plain checks instead.
  */
-public class LoggingTrustManager implements X509TrustManager {
+public class LoggingTrustManager extends X509ExtendedTrustManager {
     private final X509TrustManager original;
+    private final TlsMetrics metrics;
+    private final String bundleName;
 
     public LoggingTrustManager(X509TrustManager original) {
+        this(original, null, null);
+    }
+
+    /**
+     * Constructs a new LoggingTrustManager that also records the duration and outcome of every check.
+     *
+     * @param original   The original {@link X509TrustManager} to which all calls will be delegated.
+     * @param metrics    The {@link TlsMetrics} to record checks into, or null to only log.
+     * @param bundleName The name of the bundle providing the trust material, used to tag metrics.
+     */
+    public LoggingTrustManager(X509TrustManager original, TlsMetrics metrics, String bundleName) {
         this.original = original;
+        this.metrics = metrics;
+        this.bundleName = bundleName;
     }
 
     /**
@@ -32,8 +58,39 @@ public class LoggingTrustManager implements X509TrustManager {
      */
     @Override
     public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-        CertificateLogger.logCertificates("CLIENT", chain);
-        original.checkClientTrusted(chain, authType);
+        check("client", chain, authType, () -> original.checkClientTrusted(chain, authType));
+    }
+
+    /**
+     * Logs the provided client certificate chain before delegating the trust check of a socket
+     * to the original trust manager.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+        check("client", chain, authType, () -> {
+            if (original instanceof X509ExtendedTrustManager extended) {
+                extended.checkClientTrusted(chain, authType, socket);
+            } else {
+                original.checkClientTrusted(chain, authType);
+            }
+        });
+    }
+
+    /**
+     * Logs the provided client certificate chain before delegating the trust check of an engine
+     * to the original trust manager.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+        check("client", chain, authType, () -> {
+            if (original instanceof X509ExtendedTrustManager extended) {
+                extended.checkClientTrusted(chain, authType, engine);
+            } else {
+                original.checkClientTrusted(chain, authType);
+            }
+        });
     }
 
     /**
@@ -47,8 +104,39 @@ public class LoggingTrustManager implements X509TrustManager {
      */
     @Override
     public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-        CertificateLogger.logCertificates("SERVER", chain);
-        original.checkServerTrusted(chain, authType);
+        check("server", chain, authType, () -> original.checkServerTrusted(chain, authType));
+    }
+
+    /**
+     * Logs the provided server certificate chain before delegating the trust check of a socket
+     * to the original trust manager.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+        check("server", chain, authType, () -> {
+            if (original instanceof X509ExtendedTrustManager extended) {
+                extended.checkServerTrusted(chain, authType, socket);
+            } else {
+                original.checkServerTrusted(chain, authType);
+            }
+        });
+    }
+
+    /**
+     * Logs the provided server certificate chain before delegating the trust check of an engine
+     * to the original trust manager.
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+        check("server", chain, authType, () -> {
+            if (original instanceof X509ExtendedTrustManager extended) {
+                extended.checkServerTrusted(chain, authType, engine);
+            } else {
+                original.checkServerTrusted(chain, authType);
+            }
+        });
     }
 
     /**
@@ -61,4 +149,29 @@ public class LoggingTrustManager implements X509TrustManager {
     public X509Certificate[] getAcceptedIssuers() {
         return original.getAcceptedIssuers();
     }
+
+    private void check(String side, X509Certificate[] chain, String authType, Check check) throws CertificateException {
+        CertificateLogger.logCertificates(side.equals("client") ? "CLIENT" : "SERVER", chain);
+        TrustCheckEvent event = TrustCheckEvent.start();
+        long start = System.nanoTime();
+        boolean trusted = false;
+        try {
+            check.run();
+            trusted = true;
+        } finally {
+            record(side, chain, start, trusted);
+            event.complete(bundleName, side, chain, authType, trusted);
+        }
+    }
+
+    private void record(String side, X509Certificate[] chain, long start, boolean trusted) {
+        if (metrics != null) {
+            metrics.recordTrustCheck(bundleName, side, chain, System.nanoTime() - start, trusted);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Check {
+        void run() throws CertificateException;
+    }
 }
@@ -0,0 +1,101 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.nio.ByteBuffer;
+
+/**
+ * Completes a TLS handshake between a client and a server {@link SSLEngine} in memory, without a socket.
+ * <p>
+ * Records are exchanged through one buffer per direction until both engines report a finished handshake.
+ * Each buffer holds a whole flight, so an engine can always wrap all records it needs to, and delegated tasks
+ * run on the calling thread. No application data is exchanged.
+ */
+public final class LoopbackHandshake {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int RECORDS_PER_FLIGHT = 16;
+    private static final int MAX_STEPS = 32;
+
+    private LoopbackHandshake() {
+    }
+
+    /**
+     * Runs the handshake of the given engines to completion.
+     *
+     * @param client The engine in client mode.
+     * @param server The engine in server mode.
+     * @throws SSLException if either engine fails the handshake, or it does not complete.
+     */
+    public static void complete(SSLEngine client, SSLEngine server) throws SSLException {
+        int packetSize = Math.max(client.getSession().getPacketBufferSize(), server.getSession().getPacketBufferSize());
+        int applicationSize = Math.max(client.getSession().getApplicationBufferSize(), server.getSession().getApplicationBufferSize());
+        ByteBuffer clientToServer = ByteBuffer.allocate(packetSize * RECORDS_PER_FLIGHT);
+        ByteBuffer serverToClient = ByteBuffer.allocate(packetSize * RECORDS_PER_FLIGHT);
+        ByteBuffer clientApplication = ByteBuffer.allocate(applicationSize);
+        ByteBuffer serverApplication = ByteBuffer.allocate(applicationSize);
+
+        client.beginHandshake();
+        server.beginHandshake();
+        boolean clientDone = false;
+        boolean serverDone = false;
+        for (int step = 0; !(clientDone && serverDone); step++) {
+            if (step == MAX_STEPS) {
+                throw new SSLException("Handshake did not complete in " + MAX_STEPS + " steps");
+            }
+            clientDone |= wrap(client, clientToServer);
+            serverDone |= wrap(server, serverToClient);
+            serverDone |= unwrap(server, clientToServer, serverApplication);
+            clientDone |= unwrap(client, serverToClient, clientApplication);
+        }
+    }
+
+    private static boolean wrap(SSLEngine engine, ByteBuffer network) throws SSLException {
+        boolean finished = false;
+        while (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+            SSLEngineResult result = engine.wrap(EMPTY, network);
+            finished |= completes(engine, result);
+            if (result.getStatus() != SSLEngineResult.Status.OK) {
+                throw new SSLException("Handshake wrap ended with " + result.getStatus());
+            }
+        }
+        return finished;
+    }
+
+    private static boolean unwrap(SSLEngine engine, ByteBuffer network, ByteBuffer application) throws SSLException {
+        boolean finished = false;
+        network.flip();
+        try {
+            while (network.hasRemaining() && isUnwrapping(engine.getHandshakeStatus())) {
+                SSLEngineResult result = engine.unwrap(network, application);
+                finished |= completes(engine, result);
+                application.clear();
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    break;
+                }
+                if (result.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new SSLException("Handshake unwrap ended with " + result.getStatus());
+                }
+            }
+        } finally {
+            network.compact();
+        }
+        return finished;
+    }
+
+    private static boolean isUnwrapping(SSLEngineResult.HandshakeStatus status) {
+        return status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP
+                || status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP_AGAIN;
+    }
+
+    private static boolean completes(SSLEngine engine, SSLEngineResult result) {
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+        return result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+}
@@ -0,0 +1,114 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import org.apache.tomcat.util.net.SSLContext;
+import org.apache.tomcat.util.net.SSLHostConfigCertificate;
+import org.apache.tomcat.util.net.SSLImplementation;
+import org.apache.tomcat.util.net.SSLSupport;
+import org.apache.tomcat.util.net.SSLUtil;
+import org.apache.tomcat.util.net.openssl.OpenSSLStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Tomcat {@link SSLImplementation} that runs the connector's TLS on OpenSSL through the Foreign Function &amp;
+ * Memory API, falling back to the {@link InstrumentedJsseImplementation} when OpenSSL is not available.
+ * <p>
+ * Tomcat instantiates the implementation reflectively from the connector's {@code sslImplementationName} when
+ * the connector starts, after the server's {@code OpenSSLLifecycleListener} has tried to load the native library.
+ * If the library has been loaded, Tomcat's FFM {@code OpenSSLImplementation} builds the SSL contexts, including
+ * those created on a hot reload of the bundle, from the same key and trust stores as the JSSE implementation, and
+ * their engines are wrapped with {@link HandshakeTimingSSLEngine}, recording into the metrics of the connector's
+ * {@link ConnectorTlsState}. Otherwise, e.g. because {@code libssl} is
+ * missing, a warning is logged and every call goes to the {@link InstrumentedJsseImplementation}.
+ */
+public class OpenSslFfmImplementation extends SSLImplementation {
+
+    /**
+     * Tomcat's implementation on OpenSSL through the Foreign Function &amp; Memory API, from {@code tomcat-coyote-ffm}.
+     */
+    public static final String FFM_IMPLEMENTATION = "org.apache.tomcat.util.net.openssl.panama.OpenSSLImplementation";
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenSslFfmImplementation.class);
+
+    private final SSLImplementation delegate;
+    private final boolean openSsl;
+    private final ConnectorTlsState state = ConnectorTlsState.current();
+
+    /**
+     * Creates the implementation on OpenSSL if its library has been loaded, on JSSE otherwise, for the connector
+     * initializing on the current thread.
+     */
+    public OpenSslFfmImplementation() {
+        SSLImplementation implementation = null;
+        if (OpenSSLStatus.isAvailable()) {
+            try {
+                implementation = SSLImplementation.getInstance(FFM_IMPLEMENTATION);
+            } catch (ClassNotFoundException | RuntimeException e) {
+                logger.warn("Could not create the OpenSSL FFM implementation, using JSSE: {}", e.toString());
+            }
+        } else {
+            logger.warn("OpenSSL could not be loaded through the FFM API, using JSSE");
+        }
+        this.openSsl = implementation != null;
+        this.delegate = openSsl ? implementation : new InstrumentedJsseImplementation(state);
+        if (openSsl) {
+            logger.info("Connector TLS runs on {} {} through the FFM API",
+                    OpenSSLStatus.getName(), Long.toHexString(OpenSSLStatus.getVersion()));
+        }
+    }
+
+    @Override
+    public SSLSupport getSSLSupport(SSLSession session, Map<String, List<String>> additionalAttributes) {
+        return delegate.getSSLSupport(session, additionalAttributes);
+    }
+
+    /**
+     * Creates an {@link SSLUtil} whose SSL contexts time their handshakes, if the connector runs on OpenSSL.
+     * {@inheritDoc}
+     */
+    @Override
+    public SSLUtil getSSLUtil(SSLHostConfigCertificate certificate) {
+        SSLUtil sslUtil = delegate.getSSLUtil(certificate);
+        return openSsl ? new InstrumentedSslUtil(sslUtil, state) : sslUtil;
+    }
+
+    private record InstrumentedSslUtil(SSLUtil delegate, ConnectorTlsState state) implements SSLUtil {
+
+        @Override
+        public SSLContext createSSLContext(List<String> negotiableProtocols) throws Exception {
+            return InstrumentedJsseImplementation.instrument(delegate.createSSLContext(negotiableProtocols), state);
+        }
+
+        @Override
+        public KeyManager[] getKeyManagers() throws Exception {
+            return delegate.getKeyManagers();
+        }
+
+        @Override
+        public TrustManager[] getTrustManagers() throws Exception {
+            return delegate.getTrustManagers();
+        }
+
+        @Override
+        public void configureSessionContext(SSLSessionContext sslSessionContext) {
+            delegate.configureSessionContext(sslSessionContext);
+        }
+
+        @Override
+        public String[] getEnabledProtocols() {
+            return delegate.getEnabledProtocols();
+        }
+
+        @Override
+        public String[] getEnabledCiphers() {
+            return delegate.getEnabledCiphers();
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import dev.cloudnative.learning.tlshotreload.revocation.RevocationCache;
+import dev.cloudnative.learning.tlshotreload.revocation.RevocationCheckingTrustManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.SslManagerBundle;
+
+import javax.net.ssl.*;
+import java.net.Socket;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the key and trust material of an {@link SslBundle} behind stable, delegating managers.
+ * <p>
+ * An {@link SSLContext} created by {@link #createSslContext()} is initialised once with the
+ * {@link #keyManager()} and {@link #trustManager()} views of this holder. Both views read the
+ * current material from a single {@link AtomicReference}, so calling {@link #update(SslBundle)}
+ * swaps the key and trust managers together, and every new handshake picks up the new certificates without
+ * the context, the connection pool or any bean built on top of it being recreated. Aliases chosen by the key
+ * manager view carry the generation of the material they were chosen from, and the previous material stays
+ * resolvable, so the chain and the key of a handshake that chose its alias just before a swap still come from
+ * the same material. Both views are extended managers that pass the socket or engine of a handshake down to the
+ * current managers, so engine based clients, such as the HTTP/2 transport, choose their client alias and verify
+ * the server's hostname like socket based ones.
+ * <p>
+ * The bundle managers are wrapped with {@link LoggingKeyManager} and {@link LoggingTrustManager}
+ * in the same way the original client configuration did. When a trust cache size is configured,
+ * the trust manager is additionally wrapped with a {@link CachingTrustManager}; since every update
+ * creates a new one, all cached trust decisions are discarded when the bundle reloads. Cache hits
+ * and misses are published as {@code tls.trust.cache} tagged by bundle and result. With a
+ * {@link TrustAnchorStore}, the trust manager is the one of the bundle's {@link TrustAnchorIndex}, so reloads
+ * share the certificates that did not change instead of loading the bundle's trust store. With an enabled
+ * {@link RevocationCache}, trusted chains are also checked for revoked certificates, above the trust cache.
+ */
+public class ReloadableSslManagers implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReloadableSslManagers.class);
+    private static final String ALIAS_PREFIX = "gen:";
+
+    private final String bundleName;
+    private final int trustCacheSize;
+    private final TlsMetrics metrics;
+    private final RevocationCache revocationCache;
+    private final TrustAnchorStore trustAnchors;
+    private final CachingTrustManager.Statistics trustCacheStatistics = new CachingTrustManager.Statistics();
+    private final AtomicLong nextGeneration = new AtomicLong();
+    private final AtomicReference<Generations> materials = new AtomicReference<>();
+    private final Set<SSLContext> contexts = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private final X509ExtendedKeyManager keyManager = new DelegatingKeyManager();
+    private final X509ExtendedTrustManager trustManager = new DelegatingTrustManager();
+
+    /**
+     * Constructs a new holder initialised with the managers of the given bundle.
+     *
+     * @param bundleName      The name of the bundle, used to tag metrics.
+     * @param sslBundle       The {@link SslBundle} providing the initial key and trust material.
+     * @param trustCacheSize  The maximum number of positive trust decisions cached per material,
+     *                        or {@code 0} to validate every chain.
+     * @param metrics         The {@link TlsMetrics} the logging managers record into.
+     * @param revocationCache The {@link RevocationCache} trusted chains are checked against, or null.
+     * @param trustAnchors    The {@link TrustAnchorStore} indexing the trusted certificates, or null to use the
+     *                        bundle's trust managers.
+     */
+    public ReloadableSslManagers(String bundleName, SslBundle sslBundle, int trustCacheSize, TlsMetrics metrics,
+                                 RevocationCache revocationCache, TrustAnchorStore trustAnchors) {
+        this.bundleName = bundleName;
+        this.trustCacheSize = trustCacheSize;
+        this.metrics = metrics;
+        this.revocationCache = revocationCache;
+        this.trustAnchors = trustAnchors;
+        this.materials.set(new Generations(materialOf(sslBundle), null));
+    }
+
+    /**
+     * Atomically replaces the key and trust material with the managers of the given bundle.
+     * <p>
+     * Cached client and server sessions of every context created by this holder are invalidated,
+     * so that new connections perform a full handshake with the new material instead of resuming
+     * a session that was negotiated with the previous certificates.
+     *
+     * @param sslBundle The updated {@link SslBundle}.
+     */
+    public void update(SslBundle sslBundle) {
+        stage(sslBundle).publish();
+    }
+
+    /**
+     * Prepares the managers of the given bundle without publishing them.
+     * <p>
+     * The returned {@link Staged} material can be used to try handshakes with the new
+     * certificates before {@link Staged#publish()} makes them visible to the delegating managers.
+     *
+     * @param sslBundle The updated {@link SslBundle}.
+     * @return The staged key and trust material.
+     */
+    public Staged stage(SslBundle sslBundle) {
+        return new Staged(materialOf(sslBundle));
+    }
+
+    private void publish(Material staged) {
+        materials.updateAndGet(current -> new Generations(staged, current.current()));
+        synchronized (contexts) {
+            contexts.forEach(ReloadableSslManagers::invalidateSessions);
+        }
+        logger.info("Swapped SSL key and trust material");
+    }
+
+    /**
+     * Creates a new {@link SSLContext} backed by the delegating managers of this holder.
+     *
+     * @return An initialised {@link SSLContext} that follows every subsequent {@link #update(SslBundle)}.
+     * @throws NoSuchAlgorithmException if the TLS protocol is not available in the environment.
+     * @throws KeyManagementException   if an error occurs during the initialization of the SSLContext.
+     */
+    public SSLContext createSslContext() throws NoSuchAlgorithmException, KeyManagementException {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(
+                new KeyManager[]{keyManager},
+                new TrustManager[]{trustManager},
+                new SecureRandom()
+        );
+        contexts.add(sslContext);
+        return sslContext;
+    }
+
+    /**
+     * @return The key manager view that always delegates to the current material.
+     */
+    public X509ExtendedKeyManager keyManager() {
+        return keyManager;
+    }
+
+    /**
+     * @return The trust manager view that always delegates to the current material.
+     */
+    public X509ExtendedTrustManager trustManager() {
+        return trustManager;
+    }
+
+    /**
+     * Registers the trust cache counters with the given registry.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        trustCacheStatistics.bindTo(registry, bundleName);
+    }
+
+    private Material materialOf(SslBundle sslBundle) {
+        SslManagerBundle managers = sslBundle.getManagers();
+        X509KeyManager keyManager = null;
+        for (KeyManager km : managers.getKeyManagers()) {
+            if (km instanceof X509KeyManager x509KeyManager) {
+                keyManager = new LoggingKeyManager(x509KeyManager, metrics, bundleName);
+                break;
+            }
+        }
+        X509TrustManager trustManager = null;
+        X509TrustManager indexed = trustAnchors != null ? trustAnchors.index(bundleName, sslBundle).trustManager() : null;
+        TrustManager[] trustManagers = indexed != null ? new TrustManager[]{indexed} : managers.getTrustManagers();
+        for (TrustManager tm : trustManagers) {
+            if (tm instanceof X509TrustManager x509TrustManager) {
+                X509TrustManager checking = trustCacheSize > 0
+                        ? new CachingTrustManager(x509TrustManager, trustCacheSize, trustCacheStatistics)
+                        : x509TrustManager;
+                if (revocationCache != null && revocationCache.isEnabled()) {
+                    checking = new RevocationCheckingTrustManager(checking, revocationCache);
+                }
+                trustManager = new LoggingTrustManager(checking, metrics, bundleName);
+                break;
+            }
+        }
+        if (keyManager == null || trustManager == null) {
+            throw new IllegalStateException("SSL bundle does not provide X.509 key and trust managers");
+        }
+        return new Material(nextGeneration.incrementAndGet(), keyManager, trustManager);
+    }
+
+    private static void invalidateSessions(SSLContext sslContext) {
+        invalidateSessions(sslContext.getClientSessionContext());
+        invalidateSessions(sslContext.getServerSessionContext());
+    }
+
+    private static void invalidateSessions(SSLSessionContext sessionContext) {
+        Enumeration<byte[]> ids = sessionContext.getIds();
+        while (ids.hasMoreElements()) {
+            SSLSession session = sessionContext.getSession(ids.nextElement());
+            if (session != null) {
+                session.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Key and trust material that has been loaded from an updated bundle but not published yet.
+     */
+    public final class Staged {
+
+        private final Material material;
+
+        private Staged(Material material) {
+            this.material = material;
+        }
+
+        /**
+         * Creates an {@link SSLContext} fixed to the staged material. Unlike the contexts created by
+         * {@link ReloadableSslManagers#createSslContext()}, it does not follow later updates.
+         *
+         * @return An initialised {@link SSLContext} using only the staged material.
+         * @throws NoSuchAlgorithmException if the TLS protocol is not available in the environment.
+         * @throws KeyManagementException   if an error occurs during the initialization of the SSLContext.
+         */
+        public SSLContext createSslContext() throws NoSuchAlgorithmException, KeyManagementException {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(
+                    new KeyManager[]{material.keyManager()},
+                    new TrustManager[]{material.trustManager()},
+                    new SecureRandom()
+            );
+            return sslContext;
+        }
+
+        /**
+         * Atomically swaps the staged material in, as {@link ReloadableSslManagers#update(SslBundle)} does.
+         */
+        public void publish() {
+            ReloadableSslManagers.this.publish(material);
+        }
+    }
+
+    /**
+     * An immutable pair of key and trust managers taken from the same bundle.
+     *
+     * @param generation The number of the material, increasing with every bundle loaded by this holder.
+     */
+    private record Material(long generation, X509KeyManager keyManager, X509TrustManager trustManager) {
+    }
+
+    // The previous material stays resolvable, so a handshake that chose its alias just before a swap can finish
+    private record Generations(Material current, Material previous) {
+
+        Material get(long generation) {
+            if (current.generation() == generation) {
+                return current;
+            }
+            return previous != null && previous.generation() == generation ? previous : null;
+        }
+    }
+
+    private class DelegatingKeyManager extends X509ExtendedKeyManager {
+
+        @Override
+        public String[] getClientAliases(String keyType, Principal[] issuers) {
+            Material current = materials.get().current();
+            return aliasesOf(current, current.keyManager().getClientAliases(keyType, issuers));
+        }
+
+        @Override
+        public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+            Material current = materials.get().current();
+            return aliasOf(current, current.keyManager().chooseClientAlias(keyType, issuers, socket));
+        }
+
+        @Override
+        public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
+            Material current = materials.get().current();
+            return aliasOf(current, current.keyManager() instanceof X509ExtendedKeyManager extended ?
+                    extended.chooseEngineClientAlias(keyType, issuers, engine) :
+                    current.keyManager().chooseClientAlias(keyType, issuers, null));
+        }
+
+        @Override
+        public String[] getServerAliases(String keyType, Principal[] issuers) {
+            Material current = materials.get().current();
+            return aliasesOf(current, current.keyManager().getServerAliases(keyType, issuers));
+        }
+
+        @Override
+        public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+            Material current = materials.get().current();
+            return aliasOf(current, current.keyManager().chooseServerAlias(keyType, issuers, socket));
+        }
+
+        @Override
+        public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+            Material current = materials.get().current();
+            return aliasOf(current, current.keyManager() instanceof X509ExtendedKeyManager extended ?
+                    extended.chooseEngineServerAlias(keyType, issuers, engine) :
+                    current.keyManager().chooseServerAlias(keyType, issuers, null));
+        }
+
+        @Override
+        public X509Certificate[] getCertificateChain(String alias) {
+            Material chosen = materialOf(alias);
+            return chosen != null ? chosen.keyManager().getCertificateChain(bundleAlias(alias)) : null;
+        }
+
+        @Override
+        public PrivateKey getPrivateKey(String alias) {
+            Material chosen = materialOf(alias);
+            return chosen != null ? chosen.keyManager().getPrivateKey(bundleAlias(alias)) : null;
+        }
+
+        private static String aliasOf(Material material, String alias) {
+            return alias != null ? ALIAS_PREFIX + material.generation() + ":" + alias : null;
+        }
+
+        private static String[] aliasesOf(Material material, String[] aliases) {
+            if (aliases == null) {
+                return null;
+            }
+            String[] prefixed = new String[aliases.length];
+            for (int i = 0; i < aliases.length; i++) {
+                prefixed[i] = aliasOf(material, aliases[i]);
+            }
+            return prefixed;
+        }
+
+        // Aliases without a generation were not chosen through this view and are looked up in the current material
+        private Material materialOf(String alias) {
+            if (alias == null || !alias.startsWith(ALIAS_PREFIX)) {
+                return materials.get().current();
+            }
+            int separator = alias.indexOf(':', ALIAS_PREFIX.length());
+            if (separator < 0) {
+                return null;
+            }
+            try {
+                return materials.get().get(Long.parseLong(alias.substring(ALIAS_PREFIX.length(), separator)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static String bundleAlias(String alias) {
+            return alias != null && alias.startsWith(ALIAS_PREFIX) ?
+                    alias.substring(alias.indexOf(':', ALIAS_PREFIX.length()) + 1) : alias;
+        }
+    }
+
+    private class DelegatingTrustManager extends X509ExtendedTrustManager {
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            materials.get().current().trustManager().checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+            X509TrustManager current = materials.get().current().trustManager();
+            if (current instanceof X509ExtendedTrustManager extended) {
+                extended.checkClientTrusted(chain, authType, socket);
+            } else {
+                current.checkClientTrusted(chain, authType);
+            }
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            X509TrustManager current = materials.get().current().trustManager();
+            if (current instanceof X509ExtendedTrustManager extended) {
+                extended.checkClientTrusted(chain, authType, engine);
+            } else {
+                current.checkClientTrusted(chain, authType);
+            }
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            materials.get().current().trustManager().checkServerTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+            X509TrustManager current = materials.get().current().trustManager();
+            if (current instanceof X509ExtendedTrustManager extended) {
+                extended.checkServerTrusted(chain, authType, socket);
+            } else {
+                current.checkServerTrusted(chain, authType);
+            }
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            X509TrustManager current = materials.get().current().trustManager();
+            if (current instanceof X509ExtendedTrustManager extended) {
+                extended.checkServerTrusted(chain, authType, engine);
+            } else {
+                current.checkServerTrusted(chain, authType);
+            }
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return materials.get().current().trustManager().getAcceptedIssuers();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+/**
+ * A server {@link X509ExtendedKeyManager} that serves either the connector's key and chain or, during a
+ * {@link KeyRollover}, one of the previous ones, depending on the issuers the client advertises.
+ * <p>
+ * The entries are fixed when the SSL context is built, so the chain and the key of one handshake always
+ * come from the same entry, even if the bundle reloads in between. Each previous entry is served under an
+ * alias of its own, made of a prefix and its position in the generation.
+ */
+public class RolloverKeyManager extends X509ExtendedKeyManager {
+
+    private static final String PREVIOUS_ALIAS = "rollover:previous:";
+
+    private final X509ExtendedKeyManager original;
+    private final KeyRollover rollover;
+    private final KeyRollover.Generation generation;
+
+    RolloverKeyManager(X509ExtendedKeyManager original, KeyRollover rollover, KeyRollover.Generation generation) {
+        this.original = original;
+        this.rollover = rollover;
+        this.generation = generation;
+    }
+
+    @Override
+    public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+        KeyRollover.Entry previous = rollover.choosePrevious(generation, keyType, issuers);
+        return previous != null ? aliasOf(previous) : original.chooseEngineServerAlias(keyType, issuers, engine);
+    }
+
+    @Override
+    public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+        KeyRollover.Entry previous = rollover.choosePrevious(generation, keyType, issuers);
+        return previous != null ? aliasOf(previous) : original.chooseServerAlias(keyType, issuers, socket);
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(String alias) {
+        if (alias != null && alias.startsWith(PREVIOUS_ALIAS)) {
+            KeyRollover.Entry previous = previousOf(alias);
+            return previous != null ? previous.chain().clone() : null;
+        }
+        return original.getCertificateChain(alias);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String alias) {
+        if (alias != null && alias.startsWith(PREVIOUS_ALIAS)) {
+            KeyRollover.Entry previous = previousOf(alias);
+            return previous != null ? previous.key() : null;
+        }
+        return original.getPrivateKey(alias);
+    }
+
+    private String aliasOf(KeyRollover.Entry previous) {
+        return PREVIOUS_ALIAS + generation.indexOf(previous);
+    }
+
+    private KeyRollover.Entry previousOf(String alias) {
+        try {
+            int index = Integer.parseInt(alias.substring(PREVIOUS_ALIAS.length()));
+            return index >= 0 && index < generation.previous().size() ? generation.previous().get(index).entry() : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the aliases of the connector's key manager; the previous entry is only chosen per handshake.
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getServerAliases(String keyType, Principal[] issuers) {
+        return original.getServerAliases(keyType, issuers);
+    }
+
+    /**
+     * Delegates to the connector's key manager, the rollover only applies to the server side.
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getClientAliases(String keyType, Principal[] issuers) {
+        return original.getClientAliases(keyType, issuers);
+    }
+
+    /**
+     * Delegates to the connector's key manager, the rollover only applies to the server side.
+     * {@inheritDoc}
+     */
+    @Override
+    public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+        return original.chooseClientAlias(keyType, issuers, socket);
+    }
+
+    /**
+     * Delegates to the connector's key manager, the rollover only applies to the server side.
+     * {@inheritDoc}
+     */
+    @Override
+    public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
+        return original.chooseEngineClientAlias(keyType, issuers, engine);
+    }
+}
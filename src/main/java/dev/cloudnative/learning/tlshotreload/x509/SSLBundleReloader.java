@@ -1,83 +1,158 @@
 package dev.cloudnative.learning.tlshotreload.x509;
 
+import dev.cloudnative.learning.tlshotreload.client.ConnectionWarmer;
+import dev.cloudnative.learning.tlshotreload.client.LoadBalancingClientHttpRequestFactory;
+import dev.cloudnative.learning.tlshotreload.client.PooledClient;
+import dev.cloudnative.learning.tlshotreload.client.PooledClientFactory;
+import dev.cloudnative.learning.tlshotreload.client.RemoteEndpoint;
+import dev.cloudnative.learning.tlshotreload.jfr.ReloadPhaseEvent;
+import dev.cloudnative.learning.tlshotreload.reload.SslBundleListener;
+import dev.cloudnative.learning.tlshotreload.reload.SslBundleReloadRegistry;
+import org.apache.hc.core5.io.CloseMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.support.DefaultSingletonBeanRegistry;
-import org.springframework.boot.ssl.SslBundles;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ssl.SslBundle;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
- * Manages the hot-reloading of Spring beans that depend on an SSL bundle.
+ * Manages the hot-reloading of the outbound client that depends on the "remote" SSL bundle.
  * <p>
- * This component listens for update events on a specific {@link SslBundles}
- * instance (in this case, the one named "remote"). When an update is detected,
- * it programmatically destroys and recreates the dependent bean (e.g., "restClient").
- * This powerful mechanism allows the application to pick up new SSL certificates
- * and keys without requiring a full restart.
+ * This component listens for updates of the "remote" bundle through the {@link SslBundleReloadRegistry},
+ * which coalesces them and calls {@link #reloadRestClient(SslBundle)} on its reload executor. On an update
+ * it swaps the key and trust material held by the "remoteSslManagers" bean and, depending on the configured
+ * {@link ClientReloadMode}, rotates the connection pools of the remote endpoints. This allows the application
+ * to pick up new SSL certificates and keys without requiring a full restart.
  */
 @Component
 public class SSLBundleReloader {
 
     private final Logger logger = LoggerFactory.getLogger(SSLBundleReloader.class);
-    private SslBundles sslBundles;
     private ApplicationContext context;
+    @Value("${remote.reload-mode:swap}")
+    private ClientReloadMode reloadMode;
+    @Value("${remote.drain-timeout:30s}")
+    private Duration drainTimeout;
 
     /**
-     * Initializes the reloader and registers the update handler.
+     * Initializes the reloader.
      * <p>
      * This method is invoked by Spring for dependency injection. It stores the
-     * necessary context and immediately registers a handler to listen for updates
-     * on the "remote" SSL bundle.
+     * necessary context; the update handler for the "remote" bundle is registered by
+     * the {@link SslBundleReloadRegistry} for the {@link SslBundleListener} method.
      *
-     * @param sslBundles The Spring Boot service for managing SSL bundles.
-     * @param context    The application context, used to access the underlying bean factory.
+     * @param context    The application context, used to access the reload registry and client beans.
      */
     @Autowired
-    public void SslBundleReloader(SslBundles sslBundles,
-                                  ApplicationContext context) {
-        this.sslBundles = sslBundles;
+    public void SslBundleReloader(ApplicationContext context) {
         this.context = context;
-        registerUpdateHandler();
     }
 
     /**
-     * Registers a callback with the {@link SslBundles} service.
+     * Applies an updated "remote" bundle to the outbound client.
      * <p>
-     * The handler is registered specifically for the "remote" bundle. When this
-     * bundle is updated (e.g., its underlying file changes), the provided
-     * lambda expression, which calls {@link #reloadRestClient()}, is executed.
-     */
-    private void registerUpdateHandler() {
-        sslBundles.addBundleUpdateHandler("remote", bundle -> reloadRestClient());
-    }
-
-    /**
-     * Reloads the "restClient" bean to apply the updated SSL configuration.
+     * The new key and trust material is first staged without being visible to traffic. Unless the
+     * {@link ClientReloadMode} is {@link ClientReloadMode#SWAP}, a new connection pool is built around it for
+     * every remote endpoint. If warm-up is enabled, the configured number of connections is then opened and
+     * handshaked with each endpoint using the staged material by the "remoteConnectionWarmer" bean; this warms
+     * the new pools, or in swap mode only verifies the material since the live pools keep their connections.
+     * When the warm-up handshakes fail with every endpoint, the update is held back and the client keeps
+     * using the previous material; an endpoint that fails while others succeed is ejected instead and keeps
+     * its current pool.
+     * <p>
+     * Otherwise the material of the "remoteSslManagers" bean is swapped, so the existing client performs
+     * every new handshake with the new certificates, previous ejections are lifted, and the connection pool
+     * of each endpoint of the "remoteRequestFactory" bean is rotated: in {@link ClientReloadMode#DRAIN} mode
+     * the previous pool keeps serving its in-flight exchanges until it is idle or the drain timeout passes,
+     * while in {@link ClientReloadMode#REBUILD} mode it is closed at once.
      * <p>
-     * This method performs a manual manipulation of the Spring bean lifecycle:
-     * <ol>
-     *   <li>It accesses the underlying singleton bean registry from the application context.</li>
-     *   <li>It explicitly destroys the existing singleton instance of the "restClient" bean.</li>
-     *   <li>It then requests a new instance of "restClient" from the context, which triggers
-     *       the original {@code @Bean} definition method, creating a new client with the
-     *       updated SSL bundle.</li>
-     *   <li>The new instance is registered back into the singleton registry.</li>
-     * </ol>
-     * <b>Note:</b> This direct manipulation of the bean registry is a powerful technique
-     * but should be used with caution as it can have side effects in complex applications.
+     * Building and warming up the new material and publishing it are emitted as the {@code rebuild} and
+     * {@code swap} {@link ReloadPhaseEvent}s.
+     *
+     * @param bundle The updated "remote" {@link SslBundle}.
      */
-    public void reloadRestClient() {
-        DefaultSingletonBeanRegistry registry =
-                (DefaultSingletonBeanRegistry) context.getAutowireCapableBeanFactory();
+    @SslBundleListener("remote")
+    public void reloadRestClient(SslBundle bundle) {
+        ReloadableSslManagers managers = context.getBean("remoteSslManagers", ReloadableSslManagers.class);
+        LoadBalancingClientHttpRequestFactory requestFactory =
+                context.getBean("remoteRequestFactory", LoadBalancingClientHttpRequestFactory.class);
+        PooledClientFactory clientFactory = context.getBean("remotePooledClientFactory", PooledClientFactory.class);
+        ConnectionWarmer warmer = context.getBean("remoteConnectionWarmer", ConnectionWarmer.class);
+
+        String mode = reloadMode.name().toLowerCase();
+        ReloadPhaseEvent rebuild = ReloadPhaseEvent.start();
+        ReloadableSslManagers.Staged staged = managers.stage(bundle);
+        Map<RemoteEndpoint, PooledClient> next = new LinkedHashMap<>();
+        List<RemoteEndpoint> failed = new ArrayList<>();
+        try {
+            for (RemoteEndpoint endpoint : requestFactory.endpoints()) {
+                PooledClient pool = reloadMode == ClientReloadMode.SWAP ? null : clientFactory.create(staged.createSslContext());
+                if (warmer.isEnabled()) {
+                    PooledClient candidate = pool != null ? pool : clientFactory.create(staged.createSslContext());
+                    if (!warmUp(warmer, candidate, endpoint, candidate == pool)) {
+                        failed.add(endpoint);
+                        continue;
+                    }
+                }
+                if (pool != null) {
+                    next.put(endpoint, pool);
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            next.values().forEach(pool -> pool.close(CloseMode.IMMEDIATE));
+            rebuild.complete("remote", "rebuild", mode + ", " + e.getMessage(), false);
+            logger.error("Holding back Remote SSL Bundles update, unable to create SSL context", e);
+            return;
+        }
+        if (failed.size() == requestFactory.endpoints().size()) {
+            rebuild.complete("remote", "rebuild", mode + ", warm-up failed", false);
+            logger.error("Holding back Remote SSL Bundles update, warm-up handshakes with every remote endpoint failed");
+            return;
+        }
+        rebuild.complete("remote", "rebuild", warmer.isEnabled() ? mode + ", warmed up" : mode, true);
 
-        // Destroy existing bean
-        registry.destroySingleton("restClient");
+        ReloadPhaseEvent swap = ReloadPhaseEvent.start();
+        staged.publish();
+        requestFactory.reinstateAll();
+        failed.forEach(endpoint -> requestFactory.eject(endpoint, "warm-up handshakes with the new material failed"));
 
-        // Recreate using original bean definition
-        registry.registerSingleton("restClient", context.getBean("restClient"));
+        switch (reloadMode) {
+            case SWAP -> logger.info("Swapped Remote SSL Bundles in place");
+            case DRAIN -> {
+                next.forEach((endpoint, pool) -> endpoint.requestFactory().rotate(pool, drainTimeout));
+                logger.info("Swapped Remote SSL Bundles and started draining the previous connection pools");
+            }
+            case REBUILD -> {
+                next.forEach((endpoint, pool) -> endpoint.requestFactory().rotate(pool, Duration.ZERO));
+                logger.info("Swapped Remote SSL Bundles and closed the previous connection pools");
+            }
+        }
+        swap.complete("remote", "swap", mode, true);
+    }
 
-        logger.info("Reloaded Remote SSL Bundles");
+    /**
+     * Warms up the given pool against an endpoint and closes it if it will not be published.
+     *
+     * @param warmer   The warm-up stage.
+     * @param client   The pool to open connections on.
+     * @param endpoint The endpoint to open them to.
+     * @param publish  {@code true} if the pool becomes the endpoint's live pool when the warm-up succeeds.
+     * @return {@code true} if every warm-up handshake succeeded.
+     */
+    private boolean warmUp(ConnectionWarmer warmer, PooledClient client, RemoteEndpoint endpoint, boolean publish) {
+        boolean warmed = warmer.warmUp(client, endpoint.uri());
+        if (!warmed || !publish) {
+            client.close(warmed ? CloseMode.GRACEFUL : CloseMode.IMMEDIATE);
+        }
+        return warmed;
     }
 }
\ No newline at end of file
@@ -0,0 +1,299 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ssl.pem.PemContent;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Serves server certificates per SNI hostname from a directory of PEM files, loading them on demand.
+ * <p>
+ * The certificate chain and private key for {@code www.example.com} are read from
+ * {@code www.example.com.crt} and {@code www.example.com.key} in the configured directory the first
+ * time a client asks for that hostname. Nothing is read at startup, so startup time does not depend on
+ * the number of hostnames, and at most {@code maxSize} hostnames are held in memory, evicting the least
+ * recently used. Hostnames without files are remembered as missing, so unknown names do not cost a file
+ * lookup on every handshake.
+ * <p>
+ * A single watch on the directory keeps the cached entries current: once the files of a cached hostname
+ * have not changed for the quiet period, that hostname alone is reloaded. A change of any other entry of the
+ * directory, such as the {@code ..data} symlink swapped when a mounted Kubernetes secret is updated, or a lost
+ * event, reloads every cached hostname instead, since the files behind their names may have been replaced
+ * without an event of their own. If the new files cannot be parsed, the previous certificate keeps being
+ * served. A hostname remembered as missing is forgotten when its files appear. Loads are published as
+ * {@code tls.sni.loads} tagged by outcome, and the number of cached certificates as
+ * {@code tls.sni.certificates}. A store without a directory is disabled and never finds a certificate.
+ */
+public class SniCertificateStore implements MeterBinder, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SniCertificateStore.class);
+    private static final Pattern HOSTNAME = Pattern.compile("[a-z0-9]([a-z0-9-]{0,61}[a-z0-9])?(\\.[a-z0-9]([a-z0-9-]{0,61}[a-z0-9])?)*");
+    private static final int MAX_HOSTNAME_LENGTH = 253;
+
+    private final Path directory;
+    private final Duration quietPeriod;
+    private final Map<String, Entry> entries;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<String, LongAdder> loads = new LinkedHashMap<>();
+    private final LongAdder evictions = new LongAdder();
+    private volatile WatchService watchService;
+
+    /**
+     * A certificate chain and its private key, loaded for one hostname.
+     *
+     * @param id       Identifies this load of the files, so that a handshake resolves its chain and key from the same one.
+     * @param hostname The hostname the material was loaded for.
+     * @param chain    The certificate chain, leaf first.
+     * @param key      The private key of the leaf certificate.
+     */
+    public record Material(long id, String hostname, X509Certificate[] chain, PrivateKey key) {
+    }
+
+    // The previous material stays resolvable, so a handshake that chose it just before a reload can finish
+    private record Entry(Material current, Material previous) {
+
+        static final Entry MISSING = new Entry(null, null);
+    }
+
+    /**
+     * Constructs a new store for the given directory.
+     *
+     * @param directory   The directory holding {@code <hostname>.crt} and {@code <hostname>.key} files,
+     *                    or null for a disabled store.
+     * @param maxSize     The maximum number of hostnames held in memory, including those remembered as missing.
+     * @param quietPeriod How long the files of a hostname must remain unchanged before they are reloaded.
+     */
+    public SniCertificateStore(Path directory, int maxSize, Duration quietPeriod) {
+        this.directory = directory != null ? directory.toAbsolutePath().normalize() : null;
+        this.quietPeriod = quietPeriod;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        for (String outcome : new String[]{"loaded", "missing", "failed", "reloaded"}) {
+            loads.put(outcome, new LongAdder());
+        }
+    }
+
+    /**
+     * @return {@code true} if the store has a directory to serve certificates from.
+     */
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Starts watching the directory for changed certificate files, unless the store is disabled.
+     *
+     * @throws IOException if the directory cannot be watched.
+     */
+    public void start() throws IOException {
+        if (directory == null) {
+            return;
+        }
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        Thread.ofPlatform().name("sni-certificate-watcher").daemon().start(this::watch);
+        logger.info("Serving SNI certificates from {}", directory);
+    }
+
+    /**
+     * Returns the certificate for the given SNI hostname, loading it on first use.
+     *
+     * @param hostname The hostname requested by the client.
+     * @return The current {@link Material} for the hostname, or {@code null} if the hostname is invalid
+     * or has no certificate files.
+     */
+    public Material lookup(String hostname) {
+        String name = normalize(hostname);
+        if (name == null || directory == null) {
+            return null;
+        }
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(name);
+        }
+        if (entry != null) {
+            return entry.current();
+        }
+        // Loaded outside the lock, a concurrent first handshake for the same hostname may load it twice
+        Entry loaded = load(name, null, "loaded");
+        synchronized (entries) {
+            Entry existing = entries.putIfAbsent(name, loaded);
+            return existing != null ? existing.current() : loaded.current();
+        }
+    }
+
+    /**
+     * Returns the material with the given id for a hostname, if it is still the current or the previous one.
+     *
+     * @param hostname The hostname the material was loaded for.
+     * @param id       The id of the material chosen for the handshake.
+     * @return The {@link Material}, or {@code null} if it has been replaced twice or evicted in the meantime.
+     */
+    public Material lookup(String hostname, long id) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(hostname);
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (entry.current() != null && entry.current().id() == id) {
+            return entry.current();
+        }
+        return entry.previous() != null && entry.previous().id() == id ? entry.previous() : null;
+    }
+
+    /**
+     * @return The number of hostnames with a certificate currently held in memory.
+     */
+    public int size() {
+        synchronized (entries) {
+            return (int) entries.values().stream().filter(entry -> entry.current() != null).count();
+        }
+    }
+
+    private Entry load(String hostname, Material previous, String outcome) {
+        try {
+            PemContent certificates = PemContent.load(directory.resolve(hostname + ".crt"));
+            PemContent key = PemContent.load(directory.resolve(hostname + ".key"));
+            Material material = new Material(ids.incrementAndGet(), hostname,
+                    certificates.getCertificates().toArray(X509Certificate[]::new), key.getPrivateKey());
+            loads.get(outcome).increment();
+            logger.info("{} SNI certificate for {}: {}", outcome.equals("reloaded") ? "Reloaded" : "Loaded",
+                    hostname, material.chain()[0].getSubjectX500Principal());
+            return new Entry(material, previous);
+        } catch (NoSuchFileException e) {
+            loads.get("missing").increment();
+            logger.debug("No SNI certificate for {}", hostname);
+            return Entry.MISSING;
+        } catch (IOException | RuntimeException e) {
+            loads.get("failed").increment();
+            logger.warn("Unable to load SNI certificate for {}: {}", hostname, e.toString());
+            // Keep serving the previous certificate rather than breaking the hostname on a bad update
+            return previous != null ? new Entry(previous, null) : Entry.MISSING;
+        }
+    }
+
+    private void watch() {
+        Set<String> changed = new HashSet<>();
+        boolean all = false;
+        try {
+            while (true) {
+                WatchKey key = changed.isEmpty() && !all ? watchService.take()
+                        : watchService.poll(quietPeriod.toMillis(), TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    if (all) {
+                        synchronized (entries) {
+                            changed.addAll(entries.keySet());
+                        }
+                    }
+                    changed.forEach(this::reload);
+                    changed.clear();
+                    all = false;
+                    continue;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    String name = event.context() instanceof Path file ? file.getFileName().toString() : null;
+                    if (name != null && (name.endsWith(".crt") || name.endsWith(".key"))) {
+                        changed.add(name.substring(0, name.length() - 4));
+                    } else {
+                        // An overflow, or an atomic writer's symlink or temporary file: any hostname may have changed
+                        all = true;
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            logger.debug("Stopped watching {}", directory);
+        }
+    }
+
+    private void reload(String hostname) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(hostname);
+        }
+        if (entry == null) {
+            return;
+        }
+        if (entry.current() == null) {
+            // Files for a hostname remembered as missing, load them on the next handshake
+            synchronized (entries) {
+                entries.remove(hostname, entry);
+            }
+            return;
+        }
+        Entry reloaded = load(hostname, entry.current(), "reloaded");
+        synchronized (entries) {
+            entries.replace(hostname, entry, reloaded);
+        }
+    }
+
+    private static String normalize(String hostname) {
+        if (hostname == null || hostname.length() > MAX_HOSTNAME_LENGTH) {
+            return null;
+        }
+        String name = hostname.toLowerCase(Locale.ROOT);
+        // The hostname comes from the client and becomes a file name, so anything but a plain DNS name is refused
+        return HOSTNAME.matcher(name).matches() ? name : null;
+    }
+
+    /**
+     * Publishes the loads by outcome, evictions and the number of cached certificates.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        loads.forEach((outcome, count) -> FunctionCounter.builder("tls.sni.loads", count, LongAdder::sum)
+                .description("SNI certificate loads from the certificate directory")
+                .tag("outcome", outcome)
+                .register(registry));
+        FunctionCounter.builder("tls.sni.evictions", evictions, LongAdder::sum)
+                .description("SNI hostnames evicted from memory because the cache was full")
+                .register(registry);
+        Gauge.builder("tls.sni.certificates", this, SniCertificateStore::size)
+                .description("SNI certificates held in memory")
+                .register(registry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        WatchService service = watchService;
+        if (service != null) {
+            service.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.StandardConstants;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+/**
+ * A server {@link X509ExtendedKeyManager} that chooses the certificate from the SNI hostname of the handshake.
+ * <p>
+ * When the client names a host for which the {@link SniCertificateStore} has a certificate with a key of the
+ * requested type, that certificate is served; otherwise the choice is left to the connector's own key manager,
+ * which serves the certificate of the "self" bundle. Aliases of SNI certificates carry the id of the loaded
+ * material, so the chain and the key of one handshake always come from the same files, even if the hostname
+ * reloads in between.
+ */
+public class SniKeyManager extends X509ExtendedKeyManager {
+
+    private static final String ALIAS_PREFIX = "sni:";
+
+    private final X509ExtendedKeyManager original;
+    private final SniCertificateStore store;
+
+    /**
+     * Constructs a new SniKeyManager.
+     *
+     * @param original The connector's key manager, used for clients without a matching SNI hostname.
+     * @param store    The store providing the certificates per hostname.
+     */
+    public SniKeyManager(X509ExtendedKeyManager original, SniCertificateStore store) {
+        this.original = original;
+        this.store = store;
+    }
+
+    @Override
+    public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+        String alias = chooseSniAlias(keyType, engine != null ? engine.getHandshakeSession() : null);
+        return alias != null ? alias : original.chooseEngineServerAlias(keyType, issuers, engine);
+    }
+
+    @Override
+    public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+        String alias = chooseSniAlias(keyType, socket instanceof SSLSocket sslSocket ? sslSocket.getHandshakeSession() : null);
+        return alias != null ? alias : original.chooseServerAlias(keyType, issuers, socket);
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(String alias) {
+        if (alias != null && alias.startsWith(ALIAS_PREFIX)) {
+            SniCertificateStore.Material material = materialOf(alias);
+            return material != null ? material.chain().clone() : null;
+        }
+        return original.getCertificateChain(alias);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String alias) {
+        if (alias != null && alias.startsWith(ALIAS_PREFIX)) {
+            SniCertificateStore.Material material = materialOf(alias);
+            return material != null ? material.key() : null;
+        }
+        return original.getPrivateKey(alias);
+    }
+
+    /**
+     * Delegates to the connector's key manager, SNI certificates are only used on the server side.
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getClientAliases(String keyType, Principal[] issuers) {
+        return original.getClientAliases(keyType, issuers);
+    }
+
+    /**
+     * Delegates to the connector's key manager, SNI certificates are only used on the server side.
+     * {@inheritDoc}
+     */
+    @Override
+    public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+        return original.chooseClientAlias(keyType, issuers, socket);
+    }
+
+    /**
+     * Delegates to the connector's key manager, SNI certificates are only used on the server side.
+     * {@inheritDoc}
+     */
+    @Override
+    public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
+        return original.chooseEngineClientAlias(keyType, issuers, engine);
+    }
+
+    /**
+     * Returns the aliases of the connector's key manager; SNI certificates are loaded on demand and not listed.
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getServerAliases(String keyType, Principal[] issuers) {
+        return original.getServerAliases(keyType, issuers);
+    }
+
+    private String chooseSniAlias(String keyType, SSLSession handshakeSession) {
+        if (!(handshakeSession instanceof ExtendedSSLSession session)) {
+            return null;
+        }
+        for (SNIServerName serverName : session.getRequestedServerNames()) {
+            if (serverName.getType() == StandardConstants.SNI_HOST_NAME) {
+                SniCertificateStore.Material material = store.lookup(((SNIHostName) serverName).getAsciiName());
+                if (material != null && matches(keyType, material.key())) {
+                    return ALIAS_PREFIX + material.id() + ":" + material.hostname();
+                }
+            }
+        }
+        return null;
+    }
+
+    private SniCertificateStore.Material materialOf(String alias) {
+        int separator = alias.indexOf(':', ALIAS_PREFIX.length());
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            long id = Long.parseLong(alias.substring(ALIAS_PREFIX.length(), separator));
+            return store.lookup(alias.substring(separator + 1), id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Key types are key algorithms, with the signature algorithm of the issuer appended for static ECDH suites
+    private static boolean matches(String keyType, PrivateKey key) {
+        int separator = keyType.indexOf('_');
+        String algorithm = separator < 0 ? keyType : keyType.substring(0, separator);
+        return algorithm.equals(key.getAlgorithm());
+    }
+}
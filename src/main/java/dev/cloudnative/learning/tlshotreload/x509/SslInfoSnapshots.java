@@ -0,0 +1,229 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import dev.cloudnative.learning.tlshotreload.reload.SslBundleListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.SslBundles;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds a precomputed, immutable description of the certificates of the "self" and "remote" bundles, served
+ * by {@code /ssl-info}.
+ * <p>
+ * The snapshot lists the full chain of the key in the key store and every certificate of the trust store of
+ * each bundle. It is built once at startup and rebuilt only when a bundle is updated, so serving it never
+ * touches a key store. Each snapshot carries an entity tag derived from the certificates it describes: a
+ * rebuild that finds the same certificates keeps the current snapshot, its version and its tag, so clients
+ * polling with {@code If-None-Match} keep getting {@code 304 Not Modified} until a certificate actually changes.
+ * The trusted certificates are taken from the {@link TrustAnchorStore}, in the order of the trust store file.
+ */
+@Component
+public class SslInfoSnapshots {
+
+    private static final Logger logger = LoggerFactory.getLogger(SslInfoSnapshots.class);
+    private static final List<String> BUNDLES = List.of("self", "remote");
+
+    private final TrustAnchorStore trustAnchors;
+    private final Map<String, BundleInfo> bundles = new LinkedHashMap<>();
+    private volatile Snapshot current;
+
+    /**
+     * An immutable certificate snapshot.
+     *
+     * @param version The number of times the described certificates have changed since startup, starting at 1.
+     * @param eTag    The quoted entity tag of the snapshot, identical for identical certificates.
+     * @param body    The response body, an unmodifiable map.
+     */
+    public record Snapshot(long version, String eTag, Map<String, Object> body) {
+    }
+
+    // The description of one bundle and the digest of the certificates it was built from
+    private record BundleInfo(Map<String, Object> body, byte[] digest) {
+    }
+
+    /**
+     * Constructs a new SslInfoSnapshots and builds the first snapshot.
+     *
+     * @param sslBundles   The configured {@link SslBundles}, only read here at startup.
+     * @param trustAnchors The store indexing the trusted certificates of the bundles.
+     */
+    public SslInfoSnapshots(SslBundles sslBundles, TrustAnchorStore trustAnchors) {
+        this.trustAnchors = trustAnchors;
+        for (String bundleName : BUNDLES) {
+            try {
+                bundles.put(bundleName, describe(bundleName, sslBundles.getBundle(bundleName)));
+            } catch (RuntimeException e) {
+                bundles.put(bundleName, failed(e));
+            }
+        }
+        rebuild();
+    }
+
+    /**
+     * @return The current snapshot.
+     */
+    public Snapshot current() {
+        return current;
+    }
+
+    /**
+     * Rebuilds the snapshot with the updated "self" bundle.
+     *
+     * @param bundle The updated bundle.
+     */
+    @SslBundleListener("self")
+    public void selfUpdated(SslBundle bundle) {
+        updated("self", bundle);
+    }
+
+    /**
+     * Rebuilds the snapshot with the updated "remote" bundle.
+     *
+     * @param bundle The updated bundle.
+     */
+    @SslBundleListener("remote")
+    public void remoteUpdated(SslBundle bundle) {
+        updated("remote", bundle);
+    }
+
+    private synchronized void updated(String bundleName, SslBundle bundle) {
+        bundles.put(bundleName, describe(bundleName, bundle));
+        Snapshot previous = current;
+        rebuild();
+        if (current != previous) {
+            logger.info("Rebuilt SSL info snapshot version {} for bundle \"{}\"", current.version(), bundleName);
+        }
+    }
+
+    private synchronized void rebuild() {
+        MessageDigest digest = sha256();
+        bundles.forEach((name, info) -> {
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update(info.digest());
+        });
+        String eTag = "\"" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
+        Snapshot previous = current;
+        if (previous != null && previous.eTag().equals(eTag)) {
+            return;
+        }
+        long version = previous != null ? previous.version() + 1 : 1;
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        Map<String, Object> self = bundles.get("self").body();
+        // The fields of the leaf of the "self" bundle stay at the top level for existing pollers
+        if (self.get("chain") instanceof List<?> chain && !chain.isEmpty() && chain.getFirst() instanceof Map<?, ?> leaf) {
+            leaf.forEach((key, value) -> body.put((String) key, value));
+        }
+        body.put("bundleActive", self.get("bundleActive"));
+        if (self.containsKey("error")) {
+            body.put("error", self.get("error"));
+        }
+        body.put("version", version);
+        body.put("builtAt", Instant.now().toString());
+        Map<String, Object> bundleBodies = new LinkedHashMap<>();
+        bundles.forEach((name, info) -> bundleBodies.put(name, info.body()));
+        body.put("bundles", Collections.unmodifiableMap(bundleBodies));
+        current = new Snapshot(version, eTag, Collections.unmodifiableMap(body));
+    }
+
+    private BundleInfo describe(String bundleName, SslBundle bundle) {
+        try {
+            MessageDigest digest = sha256();
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("bundleActive", true);
+            KeyStore keyStore = bundle.getStores().getKeyStore();
+            if (keyStore != null) {
+                String alias = findKeyAlias(bundle, keyStore);
+                body.put("keyAlias", alias);
+                Certificate[] chain = alias != null ? keyStore.getCertificateChain(alias) : null;
+                body.put("chain", describe(chain != null ? List.of(chain) : List.of(), digest));
+            }
+            TrustAnchorIndex trusted = trustAnchors.index(bundleName, bundle);
+            if (trusted.size() > 0) {
+                digest.update((byte) 0);
+                body.put("trusted", describe(trusted.certificates(), digest));
+            }
+            return new BundleInfo(Collections.unmodifiableMap(body), digest.digest());
+        } catch (KeyStoreException | CertificateEncodingException | RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    private static List<Map<String, Object>> describe(List<? extends Certificate> certificates, MessageDigest digest)
+            throws CertificateEncodingException {
+        List<Map<String, Object>> descriptions = new ArrayList<>();
+        for (Certificate certificate : certificates) {
+            if (!(certificate instanceof X509Certificate cert)) {
+                continue;
+            }
+            byte[] encoded = cert.getEncoded();
+            digest.update(encoded);
+            Map<String, Object> description = new LinkedHashMap<>();
+            description.put("subject", cert.getSubjectX500Principal().getName());
+            description.put("issuer", cert.getIssuerX500Principal().getName());
+            description.put("serialNumber", cert.getSerialNumber().toString());
+            description.put("notBefore", new Date(cert.getNotBefore().getTime()));
+            description.put("notAfter", new Date(cert.getNotAfter().getTime()));
+            description.put("sha256", HexFormat.of().formatHex(sha256().digest(encoded)));
+            descriptions.add(Collections.unmodifiableMap(description));
+        }
+        return Collections.unmodifiableList(descriptions);
+    }
+
+    private static BundleInfo failed(Exception e) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", e.getMessage());
+        body.put("bundleActive", false);
+        String message = String.valueOf(e.getMessage());
+        return new BundleInfo(Collections.unmodifiableMap(body), sha256().digest(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Finds the private key alias of the bundle: the configured alias if there is one, otherwise the
+     * first private key alias of the key store.
+     *
+     * @param bundle   The bundle to inspect.
+     * @param keyStore The key store of the bundle.
+     * @return The alias of the private key, or null if not found.
+     * @throws KeyStoreException if the keystore has not been loaded.
+     */
+    private static String findKeyAlias(SslBundle bundle, KeyStore keyStore) throws KeyStoreException {
+        String configuredAlias = bundle.getKey().getAlias();
+        if (configuredAlias != null) {
+            return configuredAlias;
+        }
+        for (String alias : Collections.list(keyStore.aliases())) {
+            if (keyStore.isKeyEntry(alias)) {
+                return alias;
+            }
+        }
+        return null;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
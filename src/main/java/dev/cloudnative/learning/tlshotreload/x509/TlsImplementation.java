@@ -0,0 +1,26 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+/**
+ * The TLS engines the connector can run its handshakes and record encryption on.
+ * <p>
+ * The engine is selected with the {@code tls.implementation} property.
+ */
+public enum TlsImplementation {
+
+    /**
+     * The JDK's JSSE provider, through the {@link InstrumentedJsseImplementation}. Supports every feature of
+     * the connector: handshake metrics, certificates by SNI hostname and revocation checking.
+     */
+    JSSE,
+
+    /**
+     * OpenSSL called through the Foreign Function &amp; Memory API, through the {@link OpenSslFfmImplementation}.
+     * Requires Java 22 or later, Tomcat's {@code tomcat-coyote-ffm} classes and the {@code libssl} native
+     * library, and falls back to {@link #JSSE} when any of them is missing. Handshakes are still recorded in
+     * {@link TlsMetrics}, but certificates by SNI hostname and revocation checking need JSSE key and trust
+     * managers, so enabling either of them also selects {@link #JSSE}. Client certificate trust decisions are not
+     * cached by a {@link CachingTrustManager} on OpenSSL. OpenSSL loads the certificate once per
+     * SSL context, so a {@link KeyRollover} does not apply: a reloaded certificate is served to every client.
+     */
+    OPENSSL_FFM
+}
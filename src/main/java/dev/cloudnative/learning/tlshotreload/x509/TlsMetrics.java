@@ -0,0 +1,155 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.security.auth.x500.X500Principal;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the cost and outcome of TLS handshakes and of the key and trust manager calls they make.
+ * <p>
+ * The following timers are published at {@code /actuator/metrics}:
+ * <ul>
+ *   <li>{@code tls.handshake} - end-to-end handshake duration, tagged by bundle, side, peer and outcome.</li>
+ *   <li>{@code tls.trust.check} - duration of a trust manager check, tagged by bundle, side, peer and outcome.</li>
+ *   <li>{@code tls.key.manager} - duration of alias selection and chain retrieval, tagged by bundle,
+ *       operation and outcome.</li>
+ * </ul>
+ * The peer tag is the Common Name of the peer's leaf certificate. Until the registry is bound,
+ * all recordings are discarded.
+ */
+@Component
+public class TlsMetrics implements MeterBinder {
+
+    private static final String NONE = "none";
+    private static final int MAX_CACHED_PEERS = 1024;
+
+    private final Map<X500Principal, String> commonNames = new ConcurrentHashMap<>();
+    private volatile Meter.MeterProvider<Timer> handshakes;
+    private volatile Meter.MeterProvider<Timer> trustChecks;
+    private volatile Meter.MeterProvider<Timer> keyManagerCalls;
+
+    /**
+     * Creates the timer providers in the given registry.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        handshakes = Timer.builder("tls.handshake")
+                .description("End-to-end TLS handshake duration")
+                .withRegistry(registry);
+        trustChecks = Timer.builder("tls.trust.check")
+                .description("Duration of trust manager certificate chain checks")
+                .withRegistry(registry);
+        keyManagerCalls = Timer.builder("tls.key.manager")
+                .description("Duration of key manager alias selection and certificate chain retrieval")
+                .withRegistry(registry);
+    }
+
+    /**
+     * Records a completed or failed handshake.
+     *
+     * @param bundle        The name of the bundle providing the local material.
+     * @param side          {@code client} or {@code server}, the local role in the handshake.
+     * @param session       The negotiated session, used to determine the peer. May be null.
+     * @param durationNanos The handshake duration.
+     * @param success       Whether the handshake completed.
+     */
+    public void recordHandshake(String bundle, String side, SSLSession session, long durationNanos, boolean success) {
+        Meter.MeterProvider<Timer> provider = handshakes;
+        if (provider != null) {
+            provider.withTags("bundle", bundle, "side", side, "peer", peerOf(session), "outcome", success ? "success" : "failure")
+                    .record(durationNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Records a trust manager check of a peer chain.
+     *
+     * @param bundle        The name of the bundle providing the trust material.
+     * @param side          {@code client} or {@code server}, the role of the peer whose chain was checked.
+     * @param chain         The checked chain.
+     * @param durationNanos The check duration.
+     * @param trusted       Whether the chain was trusted.
+     */
+    public void recordTrustCheck(String bundle, String side, X509Certificate[] chain, long durationNanos, boolean trusted) {
+        Meter.MeterProvider<Timer> provider = trustChecks;
+        if (provider != null) {
+            provider.withTags("bundle", bundle, "side", side, "peer", peerOf(chain), "outcome", trusted ? "trusted" : "rejected")
+                    .record(durationNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Records a key manager call.
+     *
+     * @param bundle        The name of the bundle providing the key material.
+     * @param operation     The key manager operation, e.g. {@code choose-client-alias}.
+     * @param durationNanos The call duration.
+     * @param found         Whether an alias or chain was returned.
+     */
+    public void recordKeyManagerCall(String bundle, String operation, long durationNanos, boolean found) {
+        Meter.MeterProvider<Timer> provider = keyManagerCalls;
+        if (provider != null) {
+            provider.withTags("bundle", bundle, "operation", operation, "outcome", found ? "found" : "none")
+                    .record(durationNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private String peerOf(SSLSession session) {
+        if (session == null) {
+            return NONE;
+        }
+        try {
+            Certificate[] peerCertificates = session.getPeerCertificates();
+            if (peerCertificates.length > 0 && peerCertificates[0] instanceof X509Certificate leaf) {
+                return commonNameOf(leaf.getSubjectX500Principal());
+            }
+        } catch (SSLPeerUnverifiedException e) {
+            // The peer did not authenticate, e.g. a client when client authentication is not required
+        }
+        return NONE;
+    }
+
+    private String peerOf(X509Certificate[] chain) {
+        return chain == null || chain.length == 0 ? NONE : commonNameOf(chain[0].getSubjectX500Principal());
+    }
+
+    private String commonNameOf(X500Principal principal) {
+        String cached = commonNames.get(principal);
+        if (cached != null) {
+            return cached;
+        }
+        String commonName = parseCommonName(principal);
+        if (commonNames.size() < MAX_CACHED_PEERS) {
+            commonNames.put(principal, commonName);
+        }
+        return commonName;
+    }
+
+    private static String parseCommonName(X500Principal principal) {
+        try {
+            for (Rdn rdn : new LdapName(principal.getName()).getRdns()) {
+                if ("CN".equalsIgnoreCase(rdn.getType())) {
+                    return rdn.getValue().toString();
+                }
+            }
+        } catch (InvalidNameException e) {
+            // Fall through to the unnamed peer
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,36 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import org.springframework.boot.autoconfigure.ssl.SslProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ResourceLoader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates the {@link TrustAnchorStore} shared by every consumer of the bundles' trusted certificates.
+ */
+@Configuration
+public class TrustAnchorConfig {
+
+    /**
+     * Creates the store, reading the trust certificates of the {@code spring.ssl.bundle.pem} bundles from
+     * their {@code truststore.certificate} locations.
+     *
+     * @param sslProperties  The {@code spring.ssl} properties.
+     * @param resourceLoader The loader resolving the certificate locations.
+     * @return The {@link TrustAnchorStore}, also published as metrics.
+     */
+    @Bean
+    public TrustAnchorStore trustAnchorStore(SslProperties sslProperties, ResourceLoader resourceLoader) {
+        Map<String, String> pemLocations = new HashMap<>();
+        sslProperties.getBundle().getPem().forEach((name, properties) -> {
+            String certificate = properties.getTruststore().getCertificate();
+            if (certificate != null) {
+                pemLocations.put(name, certificate);
+            }
+        });
+        return new TrustAnchorStore(pemLocations, resourceLoader);
+    }
+}
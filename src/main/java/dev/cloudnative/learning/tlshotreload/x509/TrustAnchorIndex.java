@@ -0,0 +1,140 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import javax.net.ssl.CertPathTrustManagerParameters;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+import javax.security.auth.x500.X500Principal;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The trusted certificates of a bundle, indexed by subject DN and by subject key identifier.
+ * <p>
+ * The issuers of a certificate are found with a single map lookup, by the key identifier of its authority
+ * key identifier extension if it has one and by its issuer DN otherwise. The PKIX trust manager checking
+ * chains against the certificates is built once with the index, without a key store in between.
+ * Instances are immutable.
+ */
+public final class TrustAnchorIndex {
+
+    private static final String SUBJECT_KEY_IDENTIFIER = "2.5.29.14";
+    private static final String AUTHORITY_KEY_IDENTIFIER = "2.5.29.35";
+
+    private final List<X509Certificate> certificates;
+    private final Map<X500Principal, List<X509Certificate>> bySubject = new HashMap<>();
+    private final Map<ByteBuffer, List<X509Certificate>> byKeyIdentifier = new HashMap<>();
+    private final X509TrustManager trustManager;
+
+    /**
+     * Indexes the given certificates and builds their trust manager.
+     *
+     * @param certificates The trusted certificates, duplicates are dropped.
+     * @throws GeneralSecurityException if the trust manager cannot be built.
+     */
+    public TrustAnchorIndex(List<X509Certificate> certificates) throws GeneralSecurityException {
+        this.certificates = List.copyOf(new LinkedHashSet<>(certificates));
+        Set<TrustAnchor> anchors = new LinkedHashSet<>();
+        for (X509Certificate certificate : this.certificates) {
+            bySubject.computeIfAbsent(certificate.getSubjectX500Principal(), key -> new ArrayList<>(1)).add(certificate);
+            byte[] keyIdentifier = subjectKeyIdentifier(certificate);
+            if (keyIdentifier != null) {
+                byKeyIdentifier.computeIfAbsent(ByteBuffer.wrap(keyIdentifier), key -> new ArrayList<>(1)).add(certificate);
+            }
+            anchors.add(new TrustAnchor(certificate, null));
+        }
+        this.trustManager = anchors.isEmpty() ? null : trustManagerOf(anchors);
+    }
+
+    /**
+     * @return The trusted certificates, in the order they were read.
+     */
+    public List<X509Certificate> certificates() {
+        return certificates;
+    }
+
+    /**
+     * @return The number of trusted certificates.
+     */
+    public int size() {
+        return certificates.size();
+    }
+
+    /**
+     * @return A PKIX trust manager trusting exactly the indexed certificates, or null if there are none.
+     */
+    public X509TrustManager trustManager() {
+        return trustManager;
+    }
+
+    /**
+     * @param subject A subject DN.
+     * @return The trusted certificates with that subject.
+     */
+    public List<X509Certificate> withSubject(X500Principal subject) {
+        return Collections.unmodifiableList(bySubject.getOrDefault(subject, List.of()));
+    }
+
+    /**
+     * Finds the trusted certificates that may have issued the given certificate: those whose subject key
+     * identifier is its authority key identifier, or, if it has none, those whose subject is its issuer.
+     *
+     * @param certificate The issued certificate.
+     * @return The candidate issuers, whose signature has not been verified.
+     */
+    public List<X509Certificate> issuersOf(X509Certificate certificate) {
+        byte[] keyIdentifier = authorityKeyIdentifier(certificate);
+        if (keyIdentifier != null) {
+            List<X509Certificate> issuers = byKeyIdentifier.get(ByteBuffer.wrap(keyIdentifier));
+            if (issuers != null) {
+                return Collections.unmodifiableList(issuers);
+            }
+        }
+        return withSubject(certificate.getIssuerX500Principal());
+    }
+
+    private static X509TrustManager trustManagerOf(Set<TrustAnchor> anchors) throws GeneralSecurityException {
+        // The same checks as a trust manager initialised from a key store, which disables revocation checking
+        PKIXBuilderParameters parameters = new PKIXBuilderParameters(anchors, new X509CertSelector());
+        parameters.setRevocationEnabled(false);
+        TrustManagerFactory factory = TrustManagerFactory.getInstance("PKIX");
+        factory.init(new CertPathTrustManagerParameters(parameters));
+        for (TrustManager trustManager : factory.getTrustManagers()) {
+            if (trustManager instanceof X509TrustManager x509TrustManager) {
+                return x509TrustManager;
+            }
+        }
+        throw new GeneralSecurityException("PKIX trust manager factory did not provide an X.509 trust manager");
+    }
+
+    // An OCTET STRING wrapping the OCTET STRING of the key identifier
+    private static byte[] subjectKeyIdentifier(X509Certificate certificate) {
+        byte[] value = certificate.getExtensionValue(SUBJECT_KEY_IDENTIFIER);
+        if (value == null || value.length < 4 || value[0] != 0x04 || value[2] != 0x04 || value[3] != value.length - 4) {
+            return null;
+        }
+        return Arrays.copyOfRange(value, 4, value.length);
+    }
+
+    // An OCTET STRING wrapping a SEQUENCE whose optional first element [0] is the key identifier
+    private static byte[] authorityKeyIdentifier(X509Certificate certificate) {
+        byte[] value = certificate.getExtensionValue(AUTHORITY_KEY_IDENTIFIER);
+        if (value == null || value.length < 6 || value[0] != 0x04 || value[2] != 0x30 || value[4] != (byte) 0x80
+                || value[5] < 0 || value[5] > value.length - 6) {
+            return null;
+        }
+        return Arrays.copyOfRange(value, 6, 6 + value[5]);
+    }
+}
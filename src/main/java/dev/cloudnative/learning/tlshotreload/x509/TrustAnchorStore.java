@@ -0,0 +1,228 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.pem.PemContent;
+import org.springframework.core.io.ResourceLoader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the {@link TrustAnchorIndex} of the trust store of each bundle, sharing certificates between bundles
+ * and between reloads.
+ * <p>
+ * The trust certificates of a PEM bundle are read from its configured location by this store rather than
+ * through the bundle's key store, which is then never loaded. Every PEM block is identified by the SHA-256
+ * digest of its DER encoding, and only blocks whose digest is not held already are parsed: a reload parses
+ * the certificates that were added to the file, and a certificate trusted by several bundles is held once.
+ * The certificates of other bundles are taken from their trust store and shared in the same way.
+ * <p>
+ * An index is built once per bundle instance and kept for the current and the previous instance of each
+ * bundle name, so the validation of an update, the managers built from it and the {@code /ssl-info} snapshot
+ * share one build, and an update that fails validation does not cost the current index its certificates.
+ * Certificates no longer trusted by any kept index are released. The trusted certificates of each bundle are
+ * published as {@code tls.trust.anchors} tagged by bundle, the distinct certificates held as
+ * {@code tls.trust.anchors.shared}, and the certificates parsed and reused as {@code tls.trust.anchors.loads}
+ * tagged by result.
+ */
+public class TrustAnchorStore implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrustAnchorStore.class);
+    private static final Pattern CERTIFICATE = Pattern.compile(
+            "-----BEGIN CERTIFICATE-----([A-Za-z0-9+/=\\s]+)-----END CERTIFICATE-----");
+    private static final int KEPT_PER_BUNDLE = 2;
+
+    private final Map<String, String> pemLocations;
+    private final ResourceLoader resourceLoader;
+    private final Map<CertificateFingerprint, X509Certificate> certificates = new HashMap<>();
+    private final Map<String, LinkedList<Built>> built = new LinkedHashMap<>();
+    private final LongAdder parsed = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private volatile MeterRegistry registry;
+
+    // An index and the bundle instance it was built for, with the digests of its certificates
+    private record Built(SslBundle bundle, TrustAnchorIndex index, Set<CertificateFingerprint> fingerprints) {
+    }
+
+    /**
+     * Constructs a new TrustAnchorStore.
+     *
+     * @param pemLocations   The trust certificate location, or PEM content, of each PEM bundle by bundle name.
+     * @param resourceLoader The loader resolving the locations.
+     */
+    public TrustAnchorStore(Map<String, String> pemLocations, ResourceLoader resourceLoader) {
+        this.pemLocations = Map.copyOf(pemLocations);
+        this.resourceLoader = resourceLoader;
+    }
+
+    /**
+     * Returns the index of the trust store of the given bundle, building it if it has not been built for this
+     * instance of the bundle.
+     *
+     * @param bundleName The name of the bundle.
+     * @param bundle     The bundle, the current one or an update.
+     * @return The index of the bundle's trusted certificates, empty if it has no trust store.
+     * @throws IllegalStateException if the trust certificates cannot be read.
+     */
+    public synchronized TrustAnchorIndex index(String bundleName, SslBundle bundle) {
+        LinkedList<Built> kept = built.computeIfAbsent(bundleName, name -> new LinkedList<>());
+        for (Built candidate : kept) {
+            if (candidate.bundle() == bundle) {
+                return candidate.index();
+            }
+        }
+        long start = System.nanoTime();
+        long parsedBefore = parsed.sum();
+        Map<CertificateFingerprint, X509Certificate> trusted;
+        try {
+            trusted = pemLocations.containsKey(bundleName)
+                    ? readPem(pemLocations.get(bundleName)) : readTrustStore(bundle.getStores().getTrustStore());
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to read the trusted certificates of bundle \"" + bundleName + "\"", e);
+        }
+        TrustAnchorIndex index;
+        try {
+            index = new TrustAnchorIndex(new ArrayList<>(trusted.values()));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to build the trust manager of bundle \"" + bundleName + "\"", e);
+        }
+        boolean first = kept.isEmpty();
+        kept.addFirst(new Built(bundle, index, Set.copyOf(trusted.keySet())));
+        if (kept.size() > KEPT_PER_BUNDLE) {
+            kept.removeLast();
+        }
+        release();
+        logger.info("Indexed {} trusted certificate(s) of bundle \"{}\" in {} ms, {} parsed, {} shared in total",
+                index.size(), bundleName, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                parsed.sum() - parsedBefore, certificates.size());
+        MeterRegistry meterRegistry = registry;
+        if (first && meterRegistry != null) {
+            registerGauge(meterRegistry, bundleName);
+        }
+        return index;
+    }
+
+    /**
+     * @param bundleName The name of the bundle.
+     * @return The number of trusted certificates in the latest index of the bundle.
+     */
+    public synchronized int size(String bundleName) {
+        LinkedList<Built> kept = built.get(bundleName);
+        return kept == null || kept.isEmpty() ? 0 : kept.getFirst().index().size();
+    }
+
+    /**
+     * @return The number of distinct certificates held for all bundles.
+     */
+    public synchronized int sharedSize() {
+        return certificates.size();
+    }
+
+    private Map<CertificateFingerprint, X509Certificate> readPem(String location) throws IOException, GeneralSecurityException {
+        String text;
+        if (PemContent.isPresentInText(location)) {
+            text = location;
+        } else {
+            try (InputStream in = resourceLoader.getResource(location).getInputStream()) {
+                text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+        Map<CertificateFingerprint, X509Certificate> trusted = new LinkedHashMap<>();
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        Matcher matcher = CERTIFICATE.matcher(text);
+        while (matcher.find()) {
+            byte[] encoded = Base64.getMimeDecoder().decode(matcher.group(1));
+            CertificateFingerprint fingerprint = CertificateFingerprint.ofEncoded(encoded);
+            X509Certificate certificate = certificates.get(fingerprint);
+            if (certificate != null) {
+                reused.increment();
+            } else {
+                certificate = (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(encoded));
+                certificates.put(fingerprint, certificate);
+                parsed.increment();
+            }
+            trusted.put(fingerprint, certificate);
+        }
+        return trusted;
+    }
+
+    private Map<CertificateFingerprint, X509Certificate> readTrustStore(KeyStore trustStore) throws GeneralSecurityException {
+        Map<CertificateFingerprint, X509Certificate> trusted = new LinkedHashMap<>();
+        if (trustStore == null) {
+            return trusted;
+        }
+        for (String alias : Collections.list(trustStore.aliases())) {
+            if (trustStore.isCertificateEntry(alias) && trustStore.getCertificate(alias) instanceof X509Certificate certificate) {
+                // Parsed with the key store already, only the instance can be shared
+                CertificateFingerprint fingerprint = CertificateFingerprint.ofEncoded(certificate.getEncoded());
+                X509Certificate shared = certificates.putIfAbsent(fingerprint, certificate);
+                (shared != null ? reused : parsed).increment();
+                trusted.put(fingerprint, shared != null ? shared : certificate);
+            }
+        }
+        return trusted;
+    }
+
+    // Drops the certificates no kept index trusts anymore
+    private void release() {
+        Set<CertificateFingerprint> referenced = new HashSet<>();
+        built.values().forEach(kept -> kept.forEach(entry -> referenced.addAll(entry.fingerprints())));
+        certificates.keySet().retainAll(referenced);
+    }
+
+    private void registerGauge(MeterRegistry registry, String bundleName) {
+        Gauge.builder("tls.trust.anchors", this, store -> store.size(bundleName))
+                .description("Trusted certificates of the bundle's trust store")
+                .tag("bundle", bundleName)
+                .register(registry);
+    }
+
+    /**
+     * Publishes the trusted certificates per bundle, the distinct certificates held, and the certificates
+     * parsed and reused.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("tls.trust.anchors.shared", this, TrustAnchorStore::sharedSize)
+                .description("Distinct trusted certificates held for all bundles")
+                .register(registry);
+        FunctionCounter.builder("tls.trust.anchors.loads", parsed, LongAdder::sum)
+                .description("Trusted certificates parsed or reused from an earlier build when indexing a trust store")
+                .tag("result", "parsed")
+                .register(registry);
+        FunctionCounter.builder("tls.trust.anchors.loads", reused, LongAdder::sum)
+                .description("Trusted certificates parsed or reused from an earlier build when indexing a trust store")
+                .tag("result", "reused")
+                .register(registry);
+        synchronized (this) {
+            built.keySet().forEach(bundleName -> registerGauge(registry, bundleName));
+        }
+        this.registry = registry;
+    }
+}
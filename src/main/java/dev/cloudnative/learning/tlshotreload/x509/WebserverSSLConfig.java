@@ -1,11 +1,25 @@
 package dev.cloudnative.learning.tlshotreload.x509;
 
+import dev.cloudnative.learning.tlshotreload.revocation.RevocationCache;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.catalina.core.OpenSSLLifecycleListener;
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ssl.SslBundle;
 import org.springframework.boot.ssl.SslBundles;
 import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
 import org.springframework.boot.web.server.WebServerFactoryCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 
 /**
  * Configures the embedded Tomcat web server to support SSL hot reloading.
@@ -14,16 +28,95 @@ import org.springframework.context.annotation.Configuration;
  * necessary SSL configuration to Tomcat, enabling it to automatically reload
  * its SSL context when the underlying certificate files change.
  * <p>
+ * With {@code server.http2.enabled}, the connector also negotiates HTTP/2 with ALPN. The protocol is
+ * negotiated per connection by the SSL engine, so a reload of the bundle affects only new connections:
+ * established HTTP/2 connections keep their streams and session, new ones handshake with the new certificate.
+ * <p>
+ * With {@code tls.sni.directory} set, the certificate is chosen by the SNI hostname of the client from the
+ * {@link SniCertificateStore} for that directory, falling back to the "self" bundle for other hostnames.
+ * <p>
+ * With an enabled {@link RevocationCache}, client certificates are also checked for revocation.
+ * <p>
+ * With an enabled {@link KeyRollover}, a reload of the "self" bundle with a certificate from another authority
+ * keeps the previous certificate available, for clients that do not advertise the new authority, until
+ * {@code tls.key-rollover.grace-period} has passed.
+ * <p>
+ * With {@code tls.implementation} set to {@code openssl-ffm}, the connector runs its TLS on OpenSSL through the
+ * Foreign Function &amp; Memory API if it can, see {@link TlsImplementation#OPENSSL_FFM}, and on JSSE otherwise.
  */
 @Configuration
 public class WebserverSSLConfig {
 
+    private static final Logger logger = LoggerFactory.getLogger(WebserverSSLConfig.class);
+
     private final SslBundles sslBundles;
+    private final TlsMetrics tlsMetrics;
+    private final int maxConcurrentStreams;
+    private final int maxConcurrentStreamExecution;
+    private final TlsImplementation tlsImplementation;
+    private final int trustCacheSize;
+    private final CachingTrustManager.Statistics trustCacheStatistics = new CachingTrustManager.Statistics();
 
-    public WebserverSSLConfig(SslBundles sslBundles) {
+    public WebserverSSLConfig(SslBundles sslBundles, TlsMetrics tlsMetrics,
+                              @Value("${server.http2.max-concurrent-streams:100}") int maxConcurrentStreams,
+                              @Value("${server.http2.max-concurrent-stream-execution:20}") int maxConcurrentStreamExecution,
+                              @Value("${tls.implementation:jsse}") TlsImplementation tlsImplementation,
+                              @Value("${tls.trust-cache.max-size:1024}") int trustCacheSize) {
         this.sslBundles = sslBundles;
+        this.tlsMetrics = tlsMetrics;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.maxConcurrentStreamExecution = maxConcurrentStreamExecution;
+        this.tlsImplementation = tlsImplementation;
+        this.trustCacheSize = trustCacheSize;
     }
 
+    /**
+     * Publishes the hits and misses of the connector's client certificate trust caches.
+     *
+     * @return A {@link MeterBinder} registering {@code tls.trust.cache} for the "self" bundle.
+     */
+    @Bean
+    public MeterBinder connectorTrustCacheMetrics() {
+        return registry -> trustCacheStatistics.bindTo(registry, "self");
+    }
+
+    /**
+     * Creates the store of certificates served by SNI hostname.
+     * <p>
+     * Certificates are loaded from {@code tls.sni.directory} on first use and at most {@code tls.sni.cache-size}
+     * hostnames are held in memory. Each one reloads on its own once its files have been unchanged for
+     * {@code tls.sni.quiet-period}. Without a directory, the store is disabled and serves nothing.
+     *
+     * @param directory   The directory holding {@code <hostname>.crt} and {@code <hostname>.key} files.
+     * @param cacheSize   The maximum number of hostnames held in memory.
+     * @param quietPeriod How long changed files must remain unchanged before they are reloaded.
+     * @return The {@link SniCertificateStore}, also published as metrics.
+     * @throws IOException if the directory cannot be watched.
+     */
+    @Bean
+    public SniCertificateStore sniCertificateStore(@Value("${tls.sni.directory:}") String directory,
+                                                   @Value("${tls.sni.cache-size:256}") int cacheSize,
+                                                   @Value("${tls.sni.quiet-period:1s}") Duration quietPeriod) throws IOException {
+        SniCertificateStore store = new SniCertificateStore(
+                StringUtils.hasText(directory) ? Path.of(directory) : null, cacheSize, quietPeriod);
+        store.start();
+        return store;
+    }
+
+    /**
+     * Creates the rollover keeping the previous certificate of the connector after a change of authority.
+     *
+     * @param gracePeriod How long the previous certificate is served, {@code tls.key-rollover.grace-period};
+     *                    0 serves a reloaded certificate to every client at once.
+     * @param unmatched   The certificate served to clients that advertise neither authority,
+     *                    {@code tls.key-rollover.unmatched}.
+     * @return The {@link KeyRollover}, also published as metrics.
+     */
+    @Bean
+    public KeyRollover keyRollover(@Value("${tls.key-rollover.grace-period:10m}") Duration gracePeriod,
+                                   @Value("${tls.key-rollover.unmatched:current}") KeyRollover.Unmatched unmatched) {
+        return new KeyRollover(gracePeriod, unmatched);
+    }
 
     /**
      * Creates a {@link WebServerFactoryCustomizer} bean to configure the embedded Tomcat server for SSL.
@@ -36,12 +129,31 @@ public class WebserverSSLConfig {
      *       {@code sslBundleReloadEnabled} to {@code "true"}, which activates the
      *       hot-reloading feature for the SSL bundle specified by the
      *       {@code server.ssl.bundle} property.</li>
+     *   <li>It selects the {@link InstrumentedJsseImplementation} as the connector's SSL implementation,
+     *       so handshakes and client certificate checks are recorded in {@link TlsMetrics}. With
+     *       {@code tls.implementation} {@code openssl-ffm}, it selects the {@link OpenSslFfmImplementation} instead
+     *       and adds an {@link OpenSSLLifecycleListener} to the server, which loads OpenSSL before the connector
+     *       starts, unless OpenSSL cannot be used with this runtime or configuration.</li>
+     *   <li>It attaches a {@link ConnectorTlsState} to the connector, which its SSL implementation takes when it is
+     *       created. Besides the metrics and the {@code tls.trust-cache.max-size} of the trust decisions cached per
+     *       SSL context, the state holds the {@link SniCertificateStore}, if enabled, so the connector chooses its
+     *       certificate by SNI hostname, the {@link KeyRollover}, if enabled, so it keeps serving the previous
+     *       certificate to clients that do not trust the new one, and the {@link RevocationCache}, if enabled, so
+     *       it rejects revoked client certificates.</li>
+     *   <li>It applies the configured stream limits to the connector's {@link Http2Protocol}, if HTTP/2 is
+     *       enabled: {@code server.http2.max-concurrent-streams} streams a client may open on one connection,
+     *       of which {@code server.http2.max-concurrent-stream-execution} are processed at the same time.</li>
      * </ol>
      *
+     * @param sniCertificateStore The store of certificates served by SNI hostname.
+     * @param revocationCache     The revocation lists client certificates are checked against.
+     * @param keyRollover         The rollover keeping the previous certificate.
      * @return A {@link WebServerFactoryCustomizer} that applies the SSL hot-reload configuration.
      */
     @Bean
-    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> sslBundleCustomizer() {
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> sslBundleCustomizer(SniCertificateStore sniCertificateStore,
+                                                                                         RevocationCache revocationCache,
+                                                                                         KeyRollover keyRollover) {
         return factory -> {
             // Get the SSL bundle
             SslBundle sslBundle = sslBundles.getBundle("self");
@@ -53,7 +165,57 @@ public class WebserverSSLConfig {
             factory.addConnectorCustomizers(connector -> {
                 // Enable SSL bundle hot reload
                 connector.setProperty("sslBundleReloadEnabled", "true");
+
+                // Load OpenSSL when the server initializes, before the connector creates its SSL implementation
+                if (useOpenSslFfm(sniCertificateStore, revocationCache)) {
+                    connector.getService().getServer().addLifecycleListener(new OpenSSLLifecycleListener());
+                    connector.setProperty("sslImplementationName", OpenSslFfmImplementation.class.getName());
+                } else {
+                    connector.setProperty("sslImplementationName", InstrumentedJsseImplementation.class.getName());
+                }
+
+                // Record handshake and trust check metrics, cache client certificate trust decisions, choose the
+                // certificate by SNI hostname, keep the previous certificate for clients that do not trust the new
+                // authority yet and reject revoked client certificates, for this connector only
+                new ConnectorTlsState(tlsMetrics, "self", trustCacheSize, trustCacheStatistics,
+                        sniCertificateStore.isEnabled() ? sniCertificateStore : null,
+                        keyRollover.isEnabled() ? keyRollover : null,
+                        revocationCache.isEnabled() ? revocationCache : null).attachTo(connector);
+
+                // Limit the streams multiplexed on each HTTP/2 connection
+                for (UpgradeProtocol upgradeProtocol : connector.findUpgradeProtocols()) {
+                    if (upgradeProtocol instanceof Http2Protocol http2Protocol) {
+                        http2Protocol.setMaxConcurrentStreams(maxConcurrentStreams);
+                        http2Protocol.setMaxConcurrentStreamExecution(maxConcurrentStreamExecution);
+                    }
+                }
             });
         };
     }
-}
\ No newline at end of file
+
+    /**
+     * Decides whether the connector runs on OpenSSL through the FFM API, logging why not if it was requested.
+     * Whether the native library can be loaded is only known once the server initializes, in which case the
+     * {@link OpenSslFfmImplementation} falls back to JSSE itself.
+     */
+    private boolean useOpenSslFfm(SniCertificateStore sniCertificateStore, RevocationCache revocationCache) {
+        if (tlsImplementation != TlsImplementation.OPENSSL_FFM) {
+            return false;
+        }
+        String reason = null;
+        if (Runtime.version().feature() < 22) {
+            reason = "the Foreign Function & Memory API requires Java 22, running on " + Runtime.version();
+        } else if (!ClassUtils.isPresent(OpenSslFfmImplementation.FFM_IMPLEMENTATION, getClass().getClassLoader())) {
+            reason = "tomcat-coyote-ffm is not on the class path";
+        } else if (sniCertificateStore.isEnabled()) {
+            reason = "certificates by SNI hostname require JSSE key managers";
+        } else if (revocationCache.isEnabled()) {
+            reason = "revocation checking requires JSSE trust managers";
+        }
+        if (reason != null) {
+            logger.warn("Connector TLS runs on JSSE instead of OpenSSL: {}", reason);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,195 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import dev.cloudnative.learning.tlshotreload.reload.SslBundleListener;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.security.core.userdetails.AuthenticationUserDetailsService;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.security.web.authentication.preauth.x509.SubjectDnX509PrincipalExtractor;
+import org.springframework.security.web.authentication.preauth.x509.X509PrincipalExtractor;
+
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the principal and the user details of X.509 client certificates across requests.
+ * <p>
+ * Without it, every request over a keep-alive connection matches the subject DN regex and looks the user
+ * up again, although the client certificate of the TLS session has not changed. The cache is keyed by the
+ * client certificate, whose equality is that of its DER encoding and whose hash code is computed once per
+ * certificate instance, so a lookup for the certificate of an established session costs no digest. Entries
+ * hold the extracted principal and the outcome of the user lookup, including an unknown user, are bounded
+ * by a maximum count evicting the least recently used, and expire at the certificate's {@code notAfter}.
+ * <p>
+ * The cache is cleared whenever the "self" or "remote" bundle reloads, so trust changes are never
+ * answered from entries made under the previous material. Hits and misses are published as
+ * {@code tls.x509.auth.cache} tagged by result, and the number of entries as {@code tls.x509.auth.cache.size}.
+ * A cache with a maximum size of 0 delegates every call.
+ */
+public class X509AuthenticationCache implements MeterBinder {
+
+    private final SubjectDnX509PrincipalExtractor principalExtractor = new SubjectDnX509PrincipalExtractor();
+    private final UserDetailsService userDetailsService;
+    private final int maxSize;
+    private final Map<X509Certificate, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // The user lookup is filled in by the first authentication of the certificate
+    private record Entry(Object principal, long notAfter, UserDetails user, UsernameNotFoundException notFound) {
+
+        Entry withUser(UserDetails user, UsernameNotFoundException notFound) {
+            return new Entry(principal, notAfter, user, notFound);
+        }
+
+        boolean hasUser() {
+            return user != null || notFound != null;
+        }
+    }
+
+    /**
+     * Constructs a new X509AuthenticationCache.
+     *
+     * @param subjectPrincipalRegex The regex extracting the principal from the subject DN, as for
+     *                              {@code x509().subjectPrincipalRegex(...)}.
+     * @param userDetailsService    The service the users of the principals are looked up with.
+     * @param maxSize               The maximum number of certificates remembered, 0 to disable the cache.
+     */
+    public X509AuthenticationCache(String subjectPrincipalRegex, UserDetailsService userDetailsService, int maxSize) {
+        this.principalExtractor.setSubjectDnRegex(subjectPrincipalRegex);
+        this.userDetailsService = userDetailsService;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<X509Certificate, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return An {@link X509PrincipalExtractor} answering from the cache.
+     */
+    public X509PrincipalExtractor principalExtractor() {
+        return this::extractPrincipal;
+    }
+
+    /**
+     * @return An {@link AuthenticationUserDetailsService} answering from the cache, for the token whose
+     * credentials are the client certificate.
+     */
+    public AuthenticationUserDetailsService<PreAuthenticatedAuthenticationToken> userDetailsService() {
+        return this::loadUserDetails;
+    }
+
+    /**
+     * Forgets every certificate after a reload of the bundles holding the trusted certificates.
+     *
+     * @param bundle The reloaded bundle.
+     */
+    @SslBundleListener({"self", "remote"})
+    public void clear(SslBundle bundle) {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return The number of certificates remembered.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private Object extractPrincipal(X509Certificate certificate) {
+        Entry entry = lookup(certificate);
+        if (entry != null) {
+            hits.increment();
+            return entry.principal();
+        }
+        misses.increment();
+        Object principal = principalExtractor.extractPrincipal(certificate);
+        if (maxSize > 0) {
+            synchronized (entries) {
+                entries.putIfAbsent(certificate, new Entry(principal, certificate.getNotAfter().getTime(), null, null));
+            }
+        }
+        return principal;
+    }
+
+    private UserDetails loadUserDetails(PreAuthenticatedAuthenticationToken token) {
+        if (!(token.getCredentials() instanceof X509Certificate certificate)) {
+            return userDetailsService.loadUserByUsername(token.getName());
+        }
+        Entry found = lookup(certificate);
+        // Only an entry made by the principal extraction of the same certificate and principal is used
+        Entry entry = found != null && found.principal().equals(token.getPrincipal()) ? found : null;
+        if (entry != null && entry.hasUser()) {
+            hits.increment();
+            if (entry.notFound() != null) {
+                throw entry.notFound();
+            }
+            return entry.user();
+        }
+        misses.increment();
+        try {
+            UserDetails user = userDetailsService.loadUserByUsername(token.getName());
+            remember(certificate, entry, user, null);
+            return user;
+        } catch (UsernameNotFoundException e) {
+            remember(certificate, entry, null, e);
+            throw e;
+        }
+    }
+
+    private void remember(X509Certificate certificate, Entry entry, UserDetails user, UsernameNotFoundException notFound) {
+        if (entry != null) {
+            synchronized (entries) {
+                entries.replace(certificate, entry, entry.withUser(user, notFound));
+            }
+        }
+    }
+
+    private Entry lookup(X509Certificate certificate) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(certificate);
+            if (entry != null && System.currentTimeMillis() >= entry.notAfter()) {
+                entries.remove(certificate);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Publishes the hits, misses and size of the cache.
+     * {@inheritDoc}
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("tls.x509.auth.cache", hits, LongAdder::sum)
+                .description("X.509 principal extractions and user lookups answered from the cache")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("tls.x509.auth.cache", misses, LongAdder::sum)
+                .description("X.509 principal extractions and user lookups delegated on a cache miss")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("tls.x509.auth.cache.size", this, X509AuthenticationCache::size)
+                .description("Client certificates remembered by the X.509 authentication cache")
+                .register(registry);
+    }
+}
@@ -0,0 +1,309 @@
+package dev.cloudnative.learning.tlshotreload;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates EC certificates and certificate revocation lists in memory for tests.
+ * <p>
+ * The DER structures are encoded by hand and signed with the JDK's {@link Signature}, so tests need neither
+ * {@code keytool} nor an additional provider.
+ */
+public final class TestCertificates {
+
+    private static final DateTimeFormatter UTC_TIME = DateTimeFormatter.ofPattern("yyMMddHHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final byte[] ECDSA_WITH_SHA256 = sequence(oid("1.2.840.10045.4.3.2"));
+    private static final AtomicLong SERIALS = new AtomicLong(System.currentTimeMillis());
+
+    private TestCertificates() {
+    }
+
+    /**
+     * A certificate and the key pair it was issued for.
+     *
+     * @param certificate The certificate.
+     * @param keyPair     The key pair of its subject.
+     */
+    public record Issued(X509Certificate certificate, KeyPair keyPair) {
+
+        public X500Principal subject() {
+            return certificate.getSubjectX500Principal();
+        }
+
+        public PrivateKey privateKey() {
+            return keyPair.getPrivate();
+        }
+    }
+
+    /**
+     * @param name The common name of the authority.
+     * @return A self-signed certificate authority, valid from an hour ago for a year.
+     */
+    public static Issued authority(String name) throws GeneralSecurityException {
+        KeyPair keyPair = keyPair();
+        X500Principal subject = new X500Principal("CN=" + name);
+        Instant now = Instant.now();
+        return new Issued(certificate(subject, keyPair, subject, keyPair.getPrivate(), nextSerial(),
+                now.minus(Duration.ofHours(1)), now.plus(Duration.ofDays(365)), true), keyPair);
+    }
+
+    /**
+     * @param name   The common name of the authority.
+     * @param issuer The authority issuing the certificate of the new one.
+     * @return An intermediate certificate authority, valid from an hour ago for a year.
+     */
+    public static Issued authority(String name, Issued issuer) throws GeneralSecurityException {
+        KeyPair keyPair = keyPair();
+        Instant now = Instant.now();
+        return new Issued(certificate(new X500Principal("CN=" + name), keyPair, issuer.subject(), issuer.privateKey(),
+                nextSerial(), now.minus(Duration.ofHours(1)), now.plus(Duration.ofDays(365)), true), keyPair);
+    }
+
+    /**
+     * @param name   The common name of the certificate.
+     * @param issuer The authority issuing the certificate.
+     * @return A leaf certificate, valid from an hour ago for a year.
+     */
+    public static Issued issue(String name, Issued issuer) throws GeneralSecurityException {
+        Instant now = Instant.now();
+        return issue(name, issuer, now.minus(Duration.ofHours(1)), now.plus(Duration.ofDays(365)));
+    }
+
+    /**
+     * @param name      The common name of the certificate.
+     * @param issuer    The authority issuing the certificate.
+     * @param notBefore The start of the validity of the certificate.
+     * @param notAfter  The end of the validity of the certificate.
+     * @return A leaf certificate.
+     */
+    public static Issued issue(String name, Issued issuer, Instant notBefore, Instant notAfter) throws GeneralSecurityException {
+        KeyPair keyPair = keyPair();
+        return new Issued(certificate(new X500Principal("CN=" + name), keyPair, issuer.subject(), issuer.privateKey(),
+                nextSerial(), notBefore, notAfter, false), keyPair);
+    }
+
+    /**
+     * @return A new EC key pair on the P-256 curve.
+     */
+    public static KeyPair keyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * @param alias    The alias of the key entry.
+     * @param password The password of the key entry.
+     * @param key      The private key.
+     * @param chain    The certificate chain of the key, leaf first.
+     * @return A PKCS12 key store holding the key.
+     */
+    public static KeyStore keyStore(String alias, String password, PrivateKey key, X509Certificate... chain) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(alias, key, password.toCharArray(), chain);
+        return keyStore;
+    }
+
+    /**
+     * @param certificates The trusted certificates.
+     * @return A PKCS12 trust store holding the certificates.
+     */
+    public static KeyStore trustStore(X509Certificate... certificates) throws Exception {
+        KeyStore trustStore = KeyStore.getInstance("PKCS12");
+        trustStore.load(null, null);
+        for (int i = 0; i < certificates.length; i++) {
+            trustStore.setCertificateEntry("trusted-" + i, certificates[i]);
+        }
+        return trustStore;
+    }
+
+    /**
+     * @param issuer The authority issuing the list.
+     * @return A builder of a revocation list, valid from a minute ago for an hour.
+     */
+    public static Crl crl(Issued issuer) {
+        return new Crl(issuer);
+    }
+
+    /**
+     * A builder of a version 2 certificate revocation list.
+     */
+    public static final class Crl {
+
+        private final Issued issuer;
+        private final List<byte[]> entries = new ArrayList<>();
+        private Instant thisUpdate = Instant.now().minus(Duration.ofMinutes(1));
+        private Instant nextUpdate = Instant.now().plus(Duration.ofHours(1));
+        private BigInteger number;
+
+        private Crl(Issued issuer) {
+            this.issuer = issuer;
+        }
+
+        public Crl thisUpdate(Instant thisUpdate) {
+            this.thisUpdate = thisUpdate;
+            return this;
+        }
+
+        public Crl nextUpdate(Instant nextUpdate) {
+            this.nextUpdate = nextUpdate;
+            return this;
+        }
+
+        public Crl number(BigInteger number) {
+            this.number = number;
+            return this;
+        }
+
+        /**
+         * Lists a certificate of the issuer as revoked for key compromise.
+         */
+        public Crl revoke(X509Certificate certificate) {
+            entries.add(sequence(integer(certificate.getSerialNumber()), utcTime(thisUpdate),
+                    sequence(extension("2.5.29.21", false, enumerated(1)))));
+            return this;
+        }
+
+        /**
+         * Lists a certificate of another issuer as revoked, as an indirect list does with its certificate
+         * issuer entry extension.
+         */
+        public Crl revoke(X509Certificate certificate, X500Principal certificateIssuer) {
+            byte[] generalNames = sequence(tlv(0xA4, certificateIssuer.getEncoded()));
+            entries.add(sequence(integer(certificate.getSerialNumber()), utcTime(thisUpdate),
+                    sequence(extension("2.5.29.29", true, generalNames))));
+            return this;
+        }
+
+        /**
+         * @return The list, signed with the issuer's key.
+         */
+        public X509CRL sign() throws GeneralSecurityException {
+            return sign(issuer.privateKey());
+        }
+
+        /**
+         * @param key The key signing the list, possibly not the issuer's.
+         * @return The list.
+         */
+        public X509CRL sign(PrivateKey key) throws GeneralSecurityException {
+            List<byte[]> fields = new ArrayList<>(List.of(integer(BigInteger.ONE), ECDSA_WITH_SHA256,
+                    issuer.subject().getEncoded(), utcTime(thisUpdate), utcTime(nextUpdate)));
+            if (!entries.isEmpty()) {
+                fields.add(sequence(entries.toArray(byte[][]::new)));
+            }
+            if (number != null) {
+                fields.add(tlv(0xA0, sequence(extension("2.5.29.20", false, integer(number)))));
+            }
+            byte[] signed = signed(sequence(fields.toArray(byte[][]::new)), key);
+            return (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(signed));
+        }
+    }
+
+    private static X509Certificate certificate(X500Principal subject, KeyPair keyPair, X500Principal issuer,
+                                               PrivateKey issuerKey, BigInteger serial, Instant notBefore,
+                                               Instant notAfter, boolean authority) throws GeneralSecurityException {
+        byte[] extensions = authority
+                ? sequence(extension("2.5.29.19", true, sequence(tlv(0x01, new byte[]{(byte) 0xFF}))),
+                extension("2.5.29.15", true, tlv(0x03, new byte[]{1, 0x06})))
+                : sequence(extension("2.5.29.15", true, tlv(0x03, new byte[]{7, (byte) 0x80})));
+        byte[] tbs = sequence(tlv(0xA0, integer(BigInteger.TWO)), integer(serial), ECDSA_WITH_SHA256,
+                issuer.getEncoded(), sequence(utcTime(notBefore), utcTime(notAfter)), subject.getEncoded(),
+                keyPair.getPublic().getEncoded(), tlv(0xA3, extensions));
+        byte[] signed = signed(tbs, issuerKey);
+        return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(signed));
+    }
+
+    private static byte[] signed(byte[] tbs, PrivateKey key) throws GeneralSecurityException {
+        Signature signature = Signature.getInstance("SHA256withECDSA");
+        signature.initSign(key);
+        signature.update(tbs);
+        byte[] value = signature.sign();
+        byte[] bits = new byte[value.length + 1];
+        System.arraycopy(value, 0, bits, 1, value.length);
+        return sequence(tbs, ECDSA_WITH_SHA256, tlv(0x03, bits));
+    }
+
+    private static BigInteger nextSerial() {
+        return BigInteger.valueOf(SERIALS.incrementAndGet());
+    }
+
+    private static byte[] extension(String oid, boolean critical, byte[] value) {
+        return critical
+                ? sequence(oid(oid), tlv(0x01, new byte[]{(byte) 0xFF}), tlv(0x04, value))
+                : sequence(oid(oid), tlv(0x04, value));
+    }
+
+    private static byte[] integer(BigInteger value) {
+        return tlv(0x02, value.toByteArray());
+    }
+
+    private static byte[] enumerated(int value) {
+        return tlv(0x0A, new byte[]{(byte) value});
+    }
+
+    private static byte[] utcTime(Instant instant) {
+        return tlv(0x17, UTC_TIME.format(instant).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] oid(String oid) {
+        String[] arcs = oid.split("\\.");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(Integer.parseInt(arcs[0]) * 40 + Integer.parseInt(arcs[1]));
+        for (int i = 2; i < arcs.length; i++) {
+            long arc = Long.parseLong(arcs[i]);
+            int groups = Math.max(1, (64 - Long.numberOfLeadingZeros(arc) + 6) / 7);
+            for (int group = groups - 1; group >= 0; group--) {
+                out.write((int) ((arc >>> (7 * group)) & 0x7F) | (group > 0 ? 0x80 : 0));
+            }
+        }
+        return tlv(0x06, out.toByteArray());
+    }
+
+    private static byte[] sequence(byte[]... contents) {
+        return tlv(0x30, contents);
+    }
+
+    private static byte[] tlv(int tag, byte[]... contents) {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        for (byte[] content : contents) {
+            value.writeBytes(content);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        int length = value.size();
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length <= 0xFF) {
+            out.write(0x81);
+            out.write(length);
+        } else {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        }
+        out.writeBytes(value.toByteArray());
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,130 @@
+package dev.cloudnative.learning.tlshotreload.reload;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.boot.ssl.DefaultSslBundleRegistry;
+import org.springframework.boot.ssl.SslBundle;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class SslBundleReloadRegistryTests {
+
+    private final DefaultSslBundleRegistry bundles = new DefaultSslBundleRegistry();
+    private final DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Recorder recorder = new Recorder();
+    private SslBundleReloadRegistry registry;
+
+    @AfterEach
+    void tearDown() {
+        if (registry != null) {
+            registry.close();
+        }
+    }
+
+    @Test
+    void coalescesUpdatesWithinTheWindowIntoOneReloadOfTheLastBundle() {
+        start(Duration.ofMillis(300));
+        SslBundle first = SslBundle.of(null);
+        SslBundle second = SslBundle.of(null);
+        SslBundle third = SslBundle.of(null);
+
+        bundles.updateBundle("test", first);
+        bundles.updateBundle("test", second);
+        bundles.updateBundle("test", third);
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> recorder.reloads.size() == 2);
+        assertThat(recorder.reloads).containsExactly("first:" + third.hashCode(), "second:" + third.hashCode());
+        assertThat(meterRegistry.get("tls.reload.coalesced").counter().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("tls.reload").tag("outcome", "success").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void reloadsUpdatesAfterTheWindowSeparately() {
+        start(Duration.ofMillis(50));
+        SslBundle first = SslBundle.of(null);
+        SslBundle second = SslBundle.of(null);
+
+        bundles.updateBundle("test", first);
+        await().atMost(Duration.ofSeconds(5)).until(() -> recorder.reloads.size() == 2);
+        bundles.updateBundle("test", second);
+        await().atMost(Duration.ofSeconds(5)).until(() -> recorder.reloads.size() == 4);
+
+        assertThat(recorder.reloads).containsExactly("first:" + first.hashCode(), "second:" + first.hashCode(),
+                "first:" + second.hashCode(), "second:" + second.hashCode());
+    }
+
+    @Test
+    void runsTheNextListenersWhenOneFails() {
+        recorder.failures.set(1);
+        start(Duration.ofMillis(50));
+        SslBundle bundle = SslBundle.of(null);
+
+        bundles.updateBundle("test", bundle);
+
+        await().atMost(Duration.ofSeconds(5))
+                .until(() -> meterRegistry.find("tls.reload").tag("outcome", "failure").timer() != null);
+        assertThat(recorder.reloads).containsExactly("second:" + bundle.hashCode());
+    }
+
+    @Test
+    void keepsReloadingAfterAReloadFailedOutsideItsListeners() {
+        AtomicInteger failures = new AtomicInteger(1);
+        meterRegistry.config().meterFilter(new MeterFilter() {
+            @Override
+            public Meter.Id map(Meter.Id id) {
+                if (id.getName().equals("tls.reload") && failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("Recording failed");
+                }
+                return id;
+            }
+        });
+        start(Duration.ofMillis(50));
+        SslBundle first = SslBundle.of(null);
+        SslBundle second = SslBundle.of(null);
+
+        bundles.updateBundle("test", first);
+        await().atMost(Duration.ofSeconds(5)).until(() -> recorder.reloads.size() == 2);
+        bundles.updateBundle("test", second);
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> recorder.reloads.size() == 4);
+        assertThat(recorder.reloads).endsWith("first:" + second.hashCode(), "second:" + second.hashCode());
+    }
+
+    private void start(Duration coalesceWindow) {
+        bundles.registerBundle("test", SslBundle.of(null));
+        beanFactory.registerSingleton("recorder", recorder);
+        registry = new SslBundleReloadRegistry(bundles, beanFactory, coalesceWindow);
+        registry.bindTo(meterRegistry);
+        registry.afterSingletonsInstantiated();
+    }
+
+    static class Recorder {
+
+        private final List<String> reloads = new CopyOnWriteArrayList<>();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        @SslBundleListener(value = "test", order = 2)
+        public void second(SslBundle bundle) {
+            reloads.add("second:" + bundle.hashCode());
+        }
+
+        @SslBundleListener(value = "test", order = 1)
+        public void first(SslBundle bundle) {
+            if (failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("Listener failed");
+            }
+            reloads.add("first:" + bundle.hashCode());
+        }
+    }
+}
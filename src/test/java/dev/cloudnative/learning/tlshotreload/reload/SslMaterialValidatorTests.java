@@ -0,0 +1,139 @@
+package dev.cloudnative.learning.tlshotreload.reload;
+
+import dev.cloudnative.learning.tlshotreload.TestCertificates;
+import dev.cloudnative.learning.tlshotreload.TestCertificates.Issued;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.SslBundleKey;
+import org.springframework.boot.ssl.SslOptions;
+import org.springframework.boot.ssl.SslStoreBundle;
+
+import java.security.KeyStore;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SslMaterialValidatorTests {
+
+    private static final String PASSWORD = "secret";
+
+    private final SslMaterialValidator validator = new SslMaterialValidator(true, null);
+    private Issued authority;
+    private Issued server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        authority = TestCertificates.authority("authority");
+        server = TestCertificates.issue("localhost", authority);
+    }
+
+    @Test
+    void passesEveryCheckOfValidMaterial() throws Exception {
+        SslBundle bundle = bundle(keyStore(server), TestCertificates.trustStore(authority.certificate()));
+
+        assertThat(validator.validate("self", bundle)).containsExactly("parse", "key", "validity", "handshake");
+    }
+
+    @Test
+    void skipsTheHandshakeOfATrustStoreOnly() throws Exception {
+        SslBundle bundle = bundle(null, TestCertificates.trustStore(authority.certificate()));
+
+        assertThat(validator.validate("remote", bundle)).containsExactly("parse", "key", "validity");
+    }
+
+    @Test
+    void rejectsUnreadableStoresAsRetryable() {
+        SslStoreBundle stores = new SslStoreBundle() {
+            @Override
+            public KeyStore getKeyStore() {
+                throw new IllegalStateException("File is still being written");
+            }
+
+            @Override
+            public String getKeyStorePassword() {
+                return PASSWORD;
+            }
+
+            @Override
+            public KeyStore getTrustStore() {
+                return null;
+            }
+        };
+
+        assertRejected(SslBundle.of(stores), "parse", true);
+    }
+
+    @Test
+    void rejectsABundleWithoutStores() {
+        assertRejected(bundle(null, null), "parse", true);
+    }
+
+    @Test
+    void rejectsAKeyNotMatchingItsCertificate() throws Exception {
+        KeyStore keyStore = TestCertificates.keyStore("server", PASSWORD, TestCertificates.keyPair().getPrivate(),
+                server.certificate());
+
+        assertRejected(bundle(keyStore, null), "key", false);
+    }
+
+    @Test
+    void rejectsAMissingKeyAlias() throws Exception {
+        SslBundle bundle = SslBundle.of(SslStoreBundle.of(keyStore(server), PASSWORD, null), SslBundleKey.of(PASSWORD, "missing"));
+
+        assertRejected(bundle, "key", false);
+    }
+
+    @Test
+    void rejectsAnExpiredCertificate() throws Exception {
+        Instant now = Instant.now();
+        Issued expired = TestCertificates.issue("localhost", authority, now.minusSeconds(7200), now.minusSeconds(3600));
+
+        assertRejected(bundle(keyStore(expired), null), "validity", false);
+    }
+
+    @Test
+    void rejectsATrustStoreWithoutAValidCertificate() throws Exception {
+        Instant now = Instant.now();
+        Issued expired = TestCertificates.issue("retired", authority, now.minusSeconds(7200), now.minusSeconds(3600));
+
+        assertRejected(bundle(null, TestCertificates.trustStore(expired.certificate())), "validity", false);
+    }
+
+    @Test
+    void acceptsATrustStoreKeepingRetiredCertificates() throws Exception {
+        Instant now = Instant.now();
+        Issued expired = TestCertificates.issue("retired", authority, now.minusSeconds(7200), now.minusSeconds(3600));
+
+        SslBundle bundle = bundle(null, TestCertificates.trustStore(expired.certificate(), authority.certificate()));
+
+        assertThat(validator.validate("remote", bundle)).contains("validity");
+    }
+
+    @Test
+    void rejectsMaterialNoHandshakeCanUse() throws Exception {
+        // Only RSA key exchange suites are enabled, the key is an EC key
+        SslBundle bundle = SslBundle.of(SslStoreBundle.of(keyStore(server), PASSWORD, null), SslBundleKey.of(PASSWORD),
+                SslOptions.of(new String[]{"TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"}, new String[]{"TLSv1.2"}));
+
+        assertRejected(bundle, "handshake", false);
+        assertThat(new SslMaterialValidator(false, null).validate("self", bundle)).containsExactly("parse", "key", "validity");
+    }
+
+    private void assertRejected(SslBundle bundle, String check, boolean retryable) {
+        assertThatThrownBy(() -> validator.validate("self", bundle))
+                .isInstanceOfSatisfying(SslMaterialValidationException.class, e -> {
+                    assertThat(e.getCheck()).isEqualTo(check);
+                    assertThat(e.isRetryable()).isEqualTo(retryable);
+                });
+    }
+
+    private static KeyStore keyStore(Issued issued) throws Exception {
+        return TestCertificates.keyStore("server", PASSWORD, issued.privateKey(), issued.certificate());
+    }
+
+    private static SslBundle bundle(KeyStore keyStore, KeyStore trustStore) {
+        return SslBundle.of(SslStoreBundle.of(keyStore, PASSWORD, trustStore), SslBundleKey.of(PASSWORD));
+    }
+}
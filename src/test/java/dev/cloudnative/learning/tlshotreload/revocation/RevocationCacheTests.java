@@ -0,0 +1,214 @@
+package dev.cloudnative.learning.tlshotreload.revocation;
+
+import dev.cloudnative.learning.tlshotreload.TestCertificates;
+import dev.cloudnative.learning.tlshotreload.TestCertificates.Issued;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.security.cert.CRLReason;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateRevokedException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+class RevocationCacheTests {
+
+    private final List<RevocationCache> caches = new ArrayList<>();
+    private Issued authority;
+    private Issued good;
+    private Issued revoked;
+    private Map<X500Principal, X509Certificate> anchors;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        authority = TestCertificates.authority("authority");
+        good = TestCertificates.issue("good", authority);
+        revoked = TestCertificates.issue("revoked", authority);
+        anchors = Map.of(authority.subject(), authority.certificate());
+    }
+
+    @AfterEach
+    void tearDown() {
+        caches.forEach(RevocationCache::close);
+    }
+
+    @Test
+    void crlNumberReadsTheExtension() throws Exception {
+        assertThat(RevocationCache.crlNumber(TestCertificates.crl(authority).number(BigInteger.valueOf(7)).sign()))
+                .isEqualTo(7);
+        assertThat(RevocationCache.crlNumber(TestCertificates.crl(authority).number(BigInteger.valueOf(300)).sign()))
+                .isEqualTo(300);
+        BigInteger twentyOctets = BigInteger.ONE.shiftLeft(158);
+        assertThat(RevocationCache.crlNumber(TestCertificates.crl(authority).number(twentyOctets).sign()))
+                .isEqualTo(twentyOctets);
+    }
+
+    @Test
+    void crlNumberOfAListWithoutTheExtensionIsZero() throws Exception {
+        assertThat(RevocationCache.crlNumber(TestCertificates.crl(authority).sign())).isZero();
+    }
+
+    @Test
+    void isNewerComparesThisUpdateFirst() throws Exception {
+        Instant now = Instant.now();
+        X509CRL older = TestCertificates.crl(authority).thisUpdate(now.minusSeconds(60)).number(BigInteger.TEN).sign();
+        X509CRL newer = TestCertificates.crl(authority).thisUpdate(now).number(BigInteger.ONE).sign();
+
+        assertThat(RevocationCache.isNewer(newer, older)).isTrue();
+        assertThat(RevocationCache.isNewer(older, newer)).isFalse();
+    }
+
+    @Test
+    void isNewerComparesTheCrlNumberWithinTheSameSecond() throws Exception {
+        Instant now = Instant.now();
+        X509CRL first = TestCertificates.crl(authority).thisUpdate(now).number(BigInteger.ONE).sign();
+        X509CRL second = TestCertificates.crl(authority).thisUpdate(now).number(BigInteger.TWO).sign();
+
+        assertThat(RevocationCache.isNewer(second, first)).isTrue();
+        assertThat(RevocationCache.isNewer(first, second)).isFalse();
+        assertThat(RevocationCache.isNewer(first, first)).isFalse();
+    }
+
+    @Test
+    void acceptsCertificatesNotListed() throws Exception {
+        RevocationCache cache = started(RevocationCache.UnknownStatus.REJECT,
+                TestCertificates.crl(authority).revoke(revoked.certificate()).sign());
+
+        assertThatCode(() -> cache.check(new X509Certificate[]{good.certificate()}, anchors)).doesNotThrowAnyException();
+    }
+
+    @Test
+    void rejectsRevokedCertificates() throws Exception {
+        RevocationCache cache = started(RevocationCache.UnknownStatus.ALLOW,
+                TestCertificates.crl(authority).revoke(revoked.certificate()).sign());
+
+        assertThatThrownBy(() -> cache.check(new X509Certificate[]{revoked.certificate()}, anchors))
+                .isInstanceOfSatisfying(CertificateRevokedException.class, e -> {
+                    assertThat(e.getRevocationReason()).isEqualTo(CRLReason.KEY_COMPROMISE);
+                    assertThat(e.getAuthorityName()).isEqualTo(authority.subject());
+                });
+    }
+
+    @Test
+    void usesTheNewestListOfAnIssuer() throws Exception {
+        Instant now = Instant.now();
+        X509CRL older = TestCertificates.crl(authority).thisUpdate(now.minusSeconds(60)).revoke(revoked.certificate()).sign();
+        X509CRL newer = TestCertificates.crl(authority).thisUpdate(now).sign();
+        RevocationCache cache = started(RevocationCache.UnknownStatus.REJECT, newer, older);
+
+        assertThatCode(() -> cache.check(new X509Certificate[]{revoked.certificate()}, anchors)).doesNotThrowAnyException();
+    }
+
+    @Test
+    void unknownStatusIsAcceptedOrRejectedAsConfigured() throws Exception {
+        Issued other = TestCertificates.authority("other");
+        X509Certificate[] chain = {TestCertificates.issue("unlisted", other).certificate()};
+        Map<X500Principal, X509Certificate> otherAnchors = Map.of(other.subject(), other.certificate());
+        X509CRL crl = TestCertificates.crl(authority).sign();
+
+        RevocationCache allowing = started(RevocationCache.UnknownStatus.ALLOW, crl);
+        assertThatCode(() -> allowing.check(chain, otherAnchors)).doesNotThrowAnyException();
+
+        RevocationCache rejecting = started(RevocationCache.UnknownStatus.REJECT, crl);
+        assertThatThrownBy(() -> rejecting.check(chain, otherAnchors))
+                .isExactlyInstanceOf(CertificateException.class)
+                .hasMessageContaining("unknown");
+    }
+
+    @Test
+    void listPastItsNextUpdateGivesAnUnknownStatus() throws Exception {
+        Instant now = Instant.now();
+        RevocationCache cache = started(RevocationCache.UnknownStatus.REJECT, TestCertificates.crl(authority)
+                .thisUpdate(now.minus(Duration.ofHours(2))).nextUpdate(now.minus(Duration.ofHours(1)))
+                .revoke(revoked.certificate()).sign());
+
+        assertThatThrownBy(() -> cache.check(new X509Certificate[]{revoked.certificate()}, anchors))
+                .isExactlyInstanceOf(CertificateException.class)
+                .hasMessageContaining("unknown");
+    }
+
+    @Test
+    void listNotSignedByTheIssuerGivesAnUnknownStatus() throws Exception {
+        RevocationCache cache = started(RevocationCache.UnknownStatus.REJECT, TestCertificates.crl(authority)
+                .revoke(revoked.certificate()).sign(TestCertificates.keyPair().getPrivate()));
+
+        assertThatThrownBy(() -> cache.check(new X509Certificate[]{revoked.certificate()}, anchors))
+                .isExactlyInstanceOf(CertificateException.class)
+                .hasMessageContaining("unknown");
+    }
+
+    @Test
+    void indirectEntriesOfAnotherIssuerAreNotApplied() throws Exception {
+        Issued other = TestCertificates.authority("other");
+        Issued otherLeaf = TestCertificates.issue("other-leaf", other);
+        // Entries naming the other issuer, one of them for the serial number of a certificate of this issuer
+        X509CRL crl = TestCertificates.crl(authority)
+                .revoke(revoked.certificate(), other.subject())
+                .revoke(otherLeaf.certificate(), other.subject())
+                .sign();
+        RevocationCache cache = started(RevocationCache.UnknownStatus.ALLOW, crl);
+
+        assertThat(crl.getRevokedCertificate(revoked.certificate())).isNull();
+        assertThatCode(() -> cache.check(new X509Certificate[]{revoked.certificate()}, anchors)).doesNotThrowAnyException();
+        assertThatCode(() -> cache.check(new X509Certificate[]{otherLeaf.certificate()},
+                Map.of(other.subject(), other.certificate()))).doesNotThrowAnyException();
+    }
+
+    @Test
+    void checksIntermediatesAgainstTheListOfTheirIssuer() throws Exception {
+        Issued intermediate = TestCertificates.authority("intermediate", authority);
+        Issued leaf = TestCertificates.issue("leaf", intermediate);
+        X509Certificate[] chain = {leaf.certificate(), intermediate.certificate()};
+
+        RevocationCache unknownLeaf = started(RevocationCache.UnknownStatus.REJECT, TestCertificates.crl(authority).sign());
+        assertThatThrownBy(() -> unknownLeaf.check(chain, anchors))
+                .isExactlyInstanceOf(CertificateException.class)
+                .hasMessageContaining("CN=leaf");
+
+        RevocationCache revokedIntermediate = started(RevocationCache.UnknownStatus.ALLOW,
+                TestCertificates.crl(authority).revoke(intermediate.certificate()).sign());
+        assertThatThrownBy(() -> revokedIntermediate.check(chain, anchors))
+                .isInstanceOf(CertificateRevokedException.class);
+    }
+
+    @Test
+    void skipsASelfSignedRoot() throws Exception {
+        RevocationCache cache = started(RevocationCache.UnknownStatus.REJECT, TestCertificates.crl(authority).sign());
+
+        assertThatCode(() -> cache.check(new X509Certificate[]{good.certificate(), authority.certificate()}, anchors))
+                .doesNotThrowAnyException();
+    }
+
+    private RevocationCache started(RevocationCache.UnknownStatus unknownStatus, X509CRL... crls) {
+        CrlSource source = new CrlSource() {
+            @Override
+            public String name() {
+                return "test";
+            }
+
+            @Override
+            public List<X509CRL> fetch() {
+                return List.of(crls);
+            }
+        };
+        RevocationCache cache = new RevocationCache(List.of(source), Duration.ofMinutes(1), Duration.ofMinutes(10),
+                Duration.ofSeconds(1), unknownStatus);
+        caches.add(cache);
+        cache.start();
+        await().atMost(Duration.ofSeconds(10)).until(() -> cache.issuers() > 0);
+        return cache;
+    }
+}
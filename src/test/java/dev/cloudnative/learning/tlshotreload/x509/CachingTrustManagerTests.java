@@ -0,0 +1,171 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import dev.cloudnative.learning.tlshotreload.TestCertificates;
+import dev.cloudnative.learning.tlshotreload.TestCertificates.Issued;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.net.Socket;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CachingTrustManagerTests {
+
+    private final RecordingTrustManager original = new RecordingTrustManager();
+    private final CachingTrustManager.Statistics statistics = new CachingTrustManager.Statistics();
+    private X509Certificate[] chain;
+    private X509Certificate[] otherChain;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Issued authority = TestCertificates.authority("authority");
+        chain = new X509Certificate[]{TestCertificates.issue("client", authority).certificate(), authority.certificate()};
+        otherChain = new X509Certificate[]{TestCertificates.issue("other", authority).certificate(), authority.certificate()};
+    }
+
+    @Test
+    void remembersAcceptedChains() throws Exception {
+        CachingTrustManager manager = new CachingTrustManager(original, 16, statistics);
+
+        manager.checkClientTrusted(chain, "EC");
+        manager.checkClientTrusted(chain, "EC");
+        manager.checkClientTrusted(chain.clone(), "EC");
+
+        assertThat(original.checks).containsExactly("client");
+        assertThat(statistics.misses()).isEqualTo(1);
+        assertThat(statistics.hits()).isEqualTo(2);
+    }
+
+    @Test
+    void neverRemembersRejectedChains() {
+        original.reject = true;
+        CachingTrustManager manager = new CachingTrustManager(original, 16, statistics);
+
+        assertThatThrownBy(() -> manager.checkClientTrusted(chain, "EC")).isInstanceOf(CertificateException.class);
+        assertThatThrownBy(() -> manager.checkClientTrusted(chain, "EC")).isInstanceOf(CertificateException.class);
+
+        assertThat(original.checks).hasSize(2);
+        assertThat(statistics.hits()).isZero();
+    }
+
+    @Test
+    void keepsDecisionsPerChainAuthTypeAndSide() throws Exception {
+        CachingTrustManager manager = new CachingTrustManager(original, 16, statistics);
+
+        manager.checkClientTrusted(chain, "EC");
+        manager.checkClientTrusted(otherChain, "EC");
+        manager.checkClientTrusted(chain, "RSA");
+        manager.checkServerTrusted(chain, "EC");
+
+        assertThat(original.checks).containsExactly("client", "client", "client", "server");
+        assertThat(statistics.hits()).isZero();
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedDecision() throws Exception {
+        CachingTrustManager manager = new CachingTrustManager(original, 1, statistics);
+
+        manager.checkClientTrusted(chain, "EC");
+        manager.checkClientTrusted(otherChain, "EC");
+        manager.checkClientTrusted(chain, "EC");
+
+        assertThat(original.checks).hasSize(3);
+    }
+
+    @Test
+    void forgetsChainsOnceACertificateHasExpired() throws Exception {
+        Issued authority = TestCertificates.authority("authority");
+        Instant now = Instant.now();
+        X509Certificate[] expired = {TestCertificates.issue("expired", authority, now.minusSeconds(7200),
+                now.minusSeconds(3600)).certificate()};
+        CachingTrustManager manager = new CachingTrustManager(original, 16, statistics);
+
+        manager.checkClientTrusted(expired, "EC");
+        manager.checkClientTrusted(expired, "EC");
+
+        assertThat(original.checks).hasSize(2);
+    }
+
+    @Test
+    void delegatesEngineChecksToTheEngineOverload() throws Exception {
+        CachingTrustManager manager = new CachingTrustManager(original, 16, statistics);
+        SSLEngine engine = SSLContext.getDefault().createSSLEngine("localhost", 443);
+
+        manager.checkServerTrusted(chain, "EC", engine);
+        manager.checkServerTrusted(chain, "EC", engine);
+
+        assertThat(original.checks).containsExactly("server-engine");
+    }
+
+    @Test
+    void keepsDecisionsWithAnEndpointIdentificationApart() throws Exception {
+        CachingTrustManager manager = new CachingTrustManager(original, 16, statistics);
+        SSLEngine identifying = SSLContext.getDefault().createSSLEngine("localhost", 443);
+        SSLParameters parameters = identifying.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        identifying.setSSLParameters(parameters);
+
+        manager.checkServerTrusted(chain, "EC", SSLContext.getDefault().createSSLEngine("localhost", 443));
+        manager.checkServerTrusted(chain, "EC", identifying);
+
+        assertThat(original.checks).containsExactly("server-engine", "server-engine");
+    }
+
+    private static final class RecordingTrustManager extends X509ExtendedTrustManager {
+
+        private final List<String> checks = new ArrayList<>();
+        private boolean reject;
+
+        private void check(String check) throws CertificateException {
+            checks.add(check);
+            if (reject) {
+                throw new CertificateException("rejected");
+            }
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            check("client");
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            check("server");
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+            check("client-socket");
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+            check("server-socket");
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            check("client-engine");
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            check("server-engine");
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
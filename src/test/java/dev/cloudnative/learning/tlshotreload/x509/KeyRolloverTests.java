@@ -0,0 +1,143 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import dev.cloudnative.learning.tlshotreload.TestCertificates;
+import dev.cloudnative.learning.tlshotreload.TestCertificates.Issued;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.Principal;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeyRolloverTests {
+
+    private static final String CERTIFICATE = "self:_default_:EC";
+
+    private Issued oldAuthority;
+    private Issued newAuthority;
+    private KeyRollover.Entry oldEntry;
+    private KeyRollover.Entry newEntry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        oldAuthority = TestCertificates.authority("old");
+        newAuthority = TestCertificates.authority("new");
+        oldEntry = entry(TestCertificates.issue("localhost", oldAuthority));
+        newEntry = entry(TestCertificates.issue("localhost", newAuthority));
+    }
+
+    @Test
+    void servesThePreviousEntryToClientsNamingOnlyItsAuthority() {
+        KeyRollover rollover = new KeyRollover(Duration.ofMinutes(10), KeyRollover.Unmatched.CURRENT);
+        rollover.advance(CERTIFICATE, oldEntry);
+        KeyRollover.Generation generation = rollover.advance(CERTIFICATE, newEntry);
+
+        assertThat(rollover.choosePrevious(generation, "EC", issuers(oldAuthority))).isSameAs(oldEntry);
+        assertThat(rollover.choosePrevious(generation, "EC", issuers(newAuthority))).isNull();
+        assertThat(rollover.choosePrevious(generation, "EC", issuers(oldAuthority, newAuthority))).isNull();
+    }
+
+    @Test
+    void servesUnmatchedClientsTheConfiguredEntry() throws Exception {
+        Principal[] unknown = {new X500Principal("CN=unknown")};
+        KeyRollover current = new KeyRollover(Duration.ofMinutes(10), KeyRollover.Unmatched.CURRENT);
+        current.advance(CERTIFICATE, oldEntry);
+        KeyRollover.Generation currentGeneration = current.advance(CERTIFICATE, newEntry);
+        KeyRollover previous = new KeyRollover(Duration.ofMinutes(10), KeyRollover.Unmatched.PREVIOUS);
+        previous.advance(CERTIFICATE, oldEntry);
+        KeyRollover.Generation previousGeneration = previous.advance(CERTIFICATE, newEntry);
+
+        assertThat(current.choosePrevious(currentGeneration, "EC", null)).isNull();
+        assertThat(current.choosePrevious(currentGeneration, "EC", unknown)).isNull();
+        assertThat(previous.choosePrevious(previousGeneration, "EC", null)).isSameAs(oldEntry);
+        assertThat(previous.choosePrevious(previousGeneration, "EC", unknown)).isSameAs(oldEntry);
+    }
+
+    @Test
+    void neverServesThePreviousEntryForAnotherKeyType() {
+        KeyRollover rollover = new KeyRollover(Duration.ofMinutes(10), KeyRollover.Unmatched.PREVIOUS);
+        rollover.advance(CERTIFICATE, oldEntry);
+        KeyRollover.Generation generation = rollover.advance(CERTIFICATE, newEntry);
+
+        assertThat(rollover.choosePrevious(generation, "RSA", issuers(oldAuthority))).isNull();
+        assertThat(rollover.choosePrevious(generation, "EC_EC", issuers(oldAuthority))).isSameAs(oldEntry);
+    }
+
+    @Test
+    void replacesTheEntryAtOnceWhenTheAuthoritiesAreKept() throws Exception {
+        KeyRollover rollover = new KeyRollover(Duration.ofMinutes(10), KeyRollover.Unmatched.PREVIOUS);
+        rollover.advance(CERTIFICATE, oldEntry);
+        KeyRollover.Generation generation = rollover.advance(CERTIFICATE, entry(TestCertificates.issue("localhost", oldAuthority)));
+
+        assertThat(generation.previous()).isEmpty();
+        assertThat(rollover.choosePrevious(generation, "EC", issuers(oldAuthority))).isNull();
+    }
+
+    @Test
+    void keepsTheGenerationForTheSameMaterial() {
+        KeyRollover rollover = new KeyRollover(Duration.ofMinutes(10), KeyRollover.Unmatched.CURRENT);
+        rollover.advance(CERTIFICATE, oldEntry);
+        KeyRollover.Generation generation = rollover.advance(CERTIFICATE, newEntry);
+
+        assertThat(rollover.advance(CERTIFICATE, newEntry)).isSameAs(generation);
+    }
+
+    @Test
+    void keepsGenerationsPerCertificate() throws Exception {
+        KeyRollover rollover = new KeyRollover(Duration.ofMinutes(10), KeyRollover.Unmatched.CURRENT);
+        rollover.advance(CERTIFICATE, oldEntry);
+        rollover.advance(CERTIFICATE, newEntry);
+        KeyRollover.Entry otherHost = entry(TestCertificates.issue("other", TestCertificates.authority("other")));
+
+        KeyRollover.Generation other = rollover.advance("self:other:EC", otherHost);
+        KeyRollover.Generation generation = rollover.advance(CERTIFICATE, newEntry);
+
+        assertThat(other.previous()).isEmpty();
+        assertThat(rollover.choosePrevious(generation, "EC", issuers(oldAuthority))).isSameAs(oldEntry);
+    }
+
+    @Test
+    void keepsOlderPreviousEntriesUntilTheirOwnExpiry() throws Exception {
+        Issued thirdAuthority = TestCertificates.authority("third");
+        KeyRollover.Entry thirdEntry = entry(TestCertificates.issue("localhost", thirdAuthority));
+        KeyRollover rollover = new KeyRollover(Duration.ofMillis(1500), KeyRollover.Unmatched.PREVIOUS);
+        rollover.advance(CERTIFICATE, oldEntry);
+        rollover.advance(CERTIFICATE, newEntry);
+        Thread.sleep(1000);
+        KeyRollover.Generation generation = rollover.advance(CERTIFICATE, thirdEntry);
+
+        assertThat(generation.previous()).extracting(KeyRollover.Previous::entry).containsExactly(newEntry, oldEntry);
+        assertThat(rollover.choosePrevious(generation, "EC", issuers(oldAuthority))).isSameAs(oldEntry);
+        assertThat(rollover.choosePrevious(generation, "EC", issuers(newAuthority))).isSameAs(newEntry);
+        assertThat(rollover.choosePrevious(generation, "EC", null)).isSameAs(newEntry);
+
+        Thread.sleep(1000);
+        assertThat(rollover.choosePrevious(generation, "EC", issuers(oldAuthority))).isSameAs(newEntry);
+        assertThat(rollover.choosePrevious(generation, "EC", issuers(newAuthority))).isSameAs(newEntry);
+    }
+
+    @Test
+    void disabledRolloverServesTheNewEntry() {
+        KeyRollover rollover = new KeyRollover(Duration.ZERO, KeyRollover.Unmatched.PREVIOUS);
+        rollover.advance(CERTIFICATE, oldEntry);
+        KeyRollover.Generation generation = rollover.advance(CERTIFICATE, newEntry);
+
+        assertThat(rollover.isEnabled()).isFalse();
+        assertThat(rollover.choosePrevious(generation, "EC", issuers(oldAuthority))).isNull();
+    }
+
+    private static KeyRollover.Entry entry(Issued issued) {
+        return KeyRollover.Entry.of(new X509Certificate[]{issued.certificate()}, issued.privateKey());
+    }
+
+    private static Principal[] issuers(Issued... authorities) {
+        Principal[] issuers = new Principal[authorities.length];
+        for (int i = 0; i < authorities.length; i++) {
+            issuers[i] = authorities[i].subject();
+        }
+        return issuers;
+    }
+}
@@ -0,0 +1,83 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import dev.cloudnative.learning.tlshotreload.TestCertificates;
+import dev.cloudnative.learning.tlshotreload.TestCertificates.Issued;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.SslStoreBundle;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReloadableSslManagersTests {
+
+    private static final String PASSWORD = "secret";
+    private static final String[] KEY_TYPES = {"EC"};
+
+    private Issued authority;
+    private Issued first;
+    private Issued second;
+    private Issued third;
+    private SSLEngine engine;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        authority = TestCertificates.authority("authority");
+        first = TestCertificates.issue("client", authority);
+        second = TestCertificates.issue("client", authority);
+        third = TestCertificates.issue("client", authority);
+        engine = SSLContext.getDefault().createSSLEngine("localhost", 443);
+    }
+
+    @Test
+    void resolvesTheKeyAndChainOfTheMaterialTheAliasWasChosenFrom() throws Exception {
+        ReloadableSslManagers managers = managers(first);
+        X509ExtendedKeyManager keyManager = managers.keyManager();
+
+        String alias = keyManager.chooseEngineClientAlias(KEY_TYPES, null, engine);
+        managers.update(bundle(second));
+
+        assertThat(keyManager.getPrivateKey(alias)).isEqualTo(first.privateKey());
+        assertThat(keyManager.getCertificateChain(alias)).containsExactly(first.certificate());
+    }
+
+    @Test
+    void servesTheNewMaterialToAliasesChosenAfterASwap() throws Exception {
+        ReloadableSslManagers managers = managers(first);
+        X509ExtendedKeyManager keyManager = managers.keyManager();
+
+        String before = keyManager.chooseEngineClientAlias(KEY_TYPES, null, engine);
+        managers.update(bundle(second));
+        String after = keyManager.chooseEngineClientAlias(KEY_TYPES, null, engine);
+
+        assertThat(after).isNotEqualTo(before);
+        assertThat(keyManager.getPrivateKey(after)).isEqualTo(second.privateKey());
+        assertThat(keyManager.getCertificateChain(after)).containsExactly(second.certificate());
+    }
+
+    @Test
+    void forgetsMaterialOlderThanThePreviousOne() throws Exception {
+        ReloadableSslManagers managers = managers(first);
+        X509ExtendedKeyManager keyManager = managers.keyManager();
+
+        String alias = keyManager.chooseClientAlias(KEY_TYPES, null, null);
+        managers.update(bundle(second));
+        managers.update(bundle(third));
+
+        assertThat(keyManager.getPrivateKey(alias)).isNull();
+        assertThat(keyManager.getCertificateChain(alias)).isNull();
+    }
+
+    private ReloadableSslManagers managers(Issued issued) throws Exception {
+        return new ReloadableSslManagers("remote", bundle(issued), 0, null, null, null);
+    }
+
+    private SslBundle bundle(Issued issued) throws Exception {
+        return SslBundle.of(SslStoreBundle.of(TestCertificates.keyStore("client", PASSWORD, issued.privateKey(),
+                issued.certificate()), PASSWORD, TestCertificates.trustStore(authority.certificate())));
+    }
+}
@@ -0,0 +1,81 @@
+package dev.cloudnative.learning.tlshotreload.x509;
+
+import dev.cloudnative.learning.tlshotreload.TestCertificates;
+import dev.cloudnative.learning.tlshotreload.TestCertificates.Issued;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class SniCertificateStoreTests {
+
+    @TempDir
+    Path directory;
+
+    private Issued authority;
+    private SniCertificateStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        authority = TestCertificates.authority("authority");
+        store = new SniCertificateStore(directory, 16, Duration.ofMillis(100));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    void reloadsAHostnameWhenItsFilesChange() throws Exception {
+        Issued first = TestCertificates.issue("localhost", authority);
+        Issued second = TestCertificates.issue("localhost", authority);
+        write(directory, "localhost", first);
+        store.start();
+        assertThat(store.lookup("localhost").chain()[0]).isEqualTo(first.certificate());
+
+        write(directory, "localhost", second);
+
+        await().atMost(Duration.ofSeconds(10))
+                .until(() -> store.lookup("localhost").chain()[0].equals(second.certificate()));
+    }
+
+    @Test
+    void reloadsEveryHostnameWhenAMountedSecretSwapsItsDataLink() throws Exception {
+        Issued first = TestCertificates.issue("localhost", authority);
+        Issued second = TestCertificates.issue("localhost", authority);
+        write(Files.createDirectory(directory.resolve("..2026_01")), "localhost", first);
+        Files.createSymbolicLink(directory.resolve("..data"), Path.of("..2026_01"));
+        Files.createSymbolicLink(directory.resolve("localhost.crt"), Path.of("..data", "localhost.crt"));
+        Files.createSymbolicLink(directory.resolve("localhost.key"), Path.of("..data", "localhost.key"));
+        store.start();
+        assertThat(store.lookup("localhost").chain()[0]).isEqualTo(first.certificate());
+
+        // The kubelet writes a new directory and renames a new link over ..data, the hostname links stay untouched
+        write(Files.createDirectory(directory.resolve("..2026_02")), "localhost", second);
+        Files.createSymbolicLink(directory.resolve("..data_tmp"), Path.of("..2026_02"));
+        Files.move(directory.resolve("..data_tmp"), directory.resolve("..data"), StandardCopyOption.ATOMIC_MOVE);
+
+        await().atMost(Duration.ofSeconds(10))
+                .until(() -> store.lookup("localhost").chain()[0].equals(second.certificate()));
+    }
+
+    private static void write(Path directory, String hostname, Issued issued) throws Exception {
+        Files.writeString(directory.resolve(hostname + ".crt"), pem("CERTIFICATE", issued.certificate().getEncoded()));
+        Files.writeString(directory.resolve(hostname + ".key"), pem("PRIVATE KEY", issued.privateKey().getEncoded()));
+    }
+
+    private static String pem(String type, byte[] der) {
+        return "-----BEGIN " + type + "-----\n" + Base64.getMimeEncoder(64, new byte[]{'\n'}).encodeToString(der)
+                + "\n-----END " + type + "-----\n";
+    }
+}